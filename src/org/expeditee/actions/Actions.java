@@ -403,7 +403,7 @@ public class Actions {
 		mname = mname.trim();
 		String lowercaseName = mname.toLowerCase();
 		// check for protection on frame
-		if (ItemUtils.ContainsTag(source.getItems(), "@No" + mname)) {
+		if (ItemUtils.ContainsTag(source.getItemsView(), "@No" + mname)) {
 			throw new RuntimeException("Frame is protected by @No" + mname + " tag.");
 		}
 
@@ -29,14 +29,25 @@ import org.expeditee.gui.Frame;
 import org.expeditee.gui.FrameGraphics;
 import org.expeditee.gui.FrameIO;
 import org.expeditee.gui.FrameKeyboardActions;
+import org.expeditee.gui.FrameSaveQueue;
 import org.expeditee.gui.FrameMouseActions;
+import org.expeditee.gui.FramePrefetcher;
 import org.expeditee.gui.FrameUtils;
 import org.expeditee.gui.FreeItems;
 import org.expeditee.gui.MessageBay;
 import org.expeditee.gui.MessageBay.Progress;
 import org.expeditee.gui.Reminders;
 import org.expeditee.gui.TimeKeeper;
+import org.expeditee.gui.UndoHistory;
 import org.expeditee.importer.FrameDNDTransferHandler;
+import org.expeditee.io.Conversion;
+import org.expeditee.io.ExbReader;
+import org.expeditee.io.ExpReader;
+import org.expeditee.io.FramesetConverter;
+import org.expeditee.io.FramesetLog;
+import org.expeditee.io.FramesetPack;
+import org.expeditee.io.FramesetSearchIndex;
+import org.expeditee.items.ImageCache;
 import org.expeditee.items.Item;
 import org.expeditee.items.ItemUtils;
 import org.expeditee.items.Line;
@@ -46,6 +57,8 @@ import org.expeditee.items.widgets.InteractiveWidget;
 import org.expeditee.items.widgets.WidgetCorner;
 import org.expeditee.items.widgets.WidgetEdge;
 import org.expeditee.math.ExpediteeJEP;
+import org.expeditee.network.FrameShare;
+import org.expeditee.network.RemoteFrameCache;
 import org.expeditee.settings.UserSettings;
 import org.expeditee.simple.SString;
 import org.expeditee.stats.CometStats;
@@ -399,6 +412,69 @@ public class Misc {
 		return SessionStats.getEventStats();
 	}
 
+	/**
+	 * Creates a new Text Object containing the size of the frame cache and its
+	 * hit, miss and eviction counts, and the counts of the frame save queue.
+	 */
+	public static String getFrameCacheStats() {
+		return FrameIO.getCacheStats() + "\n" + FramePrefetcher.getStats()
+				+ "\n" + FrameSaveQueue.getStats();
+	}
+
+	/**
+	 * Creates a new Text Object containing the size of the image cache and its
+	 * hit, miss, read and eviction counts.
+	 */
+	public static String getImageCacheStats() {
+		return ImageCache.getStats();
+	}
+
+	/**
+	 * Creates a new Text Object containing the requests answered by each of
+	 * the FrameShare servers, their rate, bytes and latency, and the counts of
+	 * the frames kept for and from peers.
+	 */
+	public static String getFrameShareStats() {
+		return FrameShare.getServerStats() + "\n" + RemoteFrameCache.getStats();
+	}
+
+	/**
+	 * Creates a new Text Object containing the number of fonts shared by text
+	 * items and how often font codes were found already decoded.
+	 */
+	public static String getFontStats() {
+		return Conversion.getFontStats();
+	}
+
+	/**
+	 * Creates a new Text Object containing the number of changes which can be
+	 * undone on all frames, their estimated size and how many were forgotten.
+	 */
+	public static String getUndoStats() {
+		return UndoHistory.getStats();
+	}
+
+	/**
+	 * Lists the versions of the current frame kept in its frameset log.
+	 */
+	public static String getFrameVersions(Frame frame) {
+		List<Integer> versions = FrameIO.GetKeptVersions(frame);
+		if (versions.isEmpty())
+			return frame.getName() + " has no kept versions";
+		return "Kept versions of " + frame.getName() + ": " + versions;
+	}
+
+	/**
+	 * Restores a version of the current frame kept in its frameset log.
+	 */
+	public static void restoreVersion(Frame frame, String version) {
+		try {
+			FrameIO.RestoreVersion(frame, Integer.parseInt(version.trim()));
+		} catch (NumberFormatException e) {
+			MessageBay.errorMessage("Not a frame version: " + version);
+		}
+	}
+
 	/**
 	 * Creates a new Text Object containing the contents of the current frames
 	 * file.
@@ -1011,6 +1087,65 @@ public class Misc {
 		FrameIO.moveFrameset(frame.getFramesetName(), FrameIO.FRAME_PATH);
 	}
 
+	/**
+	 * Converts the frames of the current frameset to the binary Exb format.
+	 */
+	public static void convertToExb(Frame frame) {
+		convertFrameset(frame, ExbReader.EXTENTION);
+	}
+
+	/**
+	 * Converts the frames of the current frameset back to the Exp format.
+	 */
+	public static void convertToExp(Frame frame) {
+		convertFrameset(frame, ExpReader.EXTENTION);
+	}
+
+	/**
+	 * Moves the frames of the current frameset into a frameset log, which
+	 * keeps old versions of each frame.
+	 */
+	public static void convertToLog(Frame frame) {
+		convertFrameset(frame, FramesetLog.EXTENTION);
+	}
+
+	/**
+	 * Packs the frames of the current frameset into a read-only pack, for
+	 * framesets which are rarely changed.
+	 */
+	public static void convertToPack(Frame frame) {
+		convertFrameset(frame, FramesetPack.EXTENTION);
+	}
+
+	private static void convertFrameset(Frame frame, String to) {
+		// save any changes in the current format before converting
+		FrameIO.SaveFrame(frame);
+		File framesetDir = new File(frame.getPath()
+				+ frame.getFramesetName().toLowerCase());
+		try {
+			int count = FramesetConverter.convert(framesetDir, to);
+			MessageBay.displayMessage("Converted " + count + " frames in "
+					+ frame.getFramesetName());
+		} catch (IOException e) {
+			MessageBay.errorMessage("Error converting frameset: "
+					+ e.getMessage());
+		}
+	}
+
+	/**
+	 * Rebuilds the search index of the current frameset, for when its frames
+	 * have been edited outside Expeditee.
+	 */
+	public static void indexFrameset(Frame frame) {
+		FrameIO.SaveFrame(frame);
+		FramesetSearchIndex index = FrameIO.ReindexFrameset(frame.getPath(),
+				frame.getFramesetName());
+		if (index != null)
+			MessageBay.displayMessage("Indexed "
+					+ index.getFrameNumbers().size()
+					+ " frames in " + frame.getFramesetName());
+	}
+
 	/**
 	 * Returns the value of a specified item attribute.
 	 * 
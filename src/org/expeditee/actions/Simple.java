@@ -36,6 +36,7 @@ import org.expeditee.gui.Frame;
 import org.expeditee.gui.FrameGraphics;
 import org.expeditee.gui.FrameIO;
 import org.expeditee.gui.FrameMouseActions;
+import org.expeditee.gui.FrameSaveQueue;
 import org.expeditee.gui.FrameUtils;
 import org.expeditee.gui.FreeItems;
 import org.expeditee.gui.MessageBay;
@@ -1424,6 +1425,8 @@ public class Simple implements Runnable {
 					String path = FrameIO.LoadFrame(frameName).getPath();
 					String filePath = FrameIO.getFrameFullPathName(path,
 							frameName);
+					// the program may read the file
+					FrameSaveQueue.flush(filePath);
 					context.getPrimitives().setValue(tokens[2], filePath);
 				} else if (tokens[0].equals("getframelog")) {
 					assertExactParametreCount(tokens, 1);
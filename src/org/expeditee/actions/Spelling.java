@@ -2,7 +2,6 @@ package org.expeditee.actions;
 
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.LinkedList;
@@ -42,7 +41,7 @@ public class Spelling {
 		Collection<String> results = new LinkedList<String>();
 		// Open the file and search the text items
 		try {
-			BufferedReader reader = new BufferedReader(new FileReader(fullPath));
+			BufferedReader reader = FrameIO.openFrameText(fullPath);
 			String next;
 			while (reader.ready() && ((next = reader.readLine()) != null)) {
 				if (next.startsWith("T")) {
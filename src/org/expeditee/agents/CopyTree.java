@@ -1,10 +1,12 @@
 package org.expeditee.agents;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.LinkedList;
 
 import org.expeditee.gui.Frame;
 import org.expeditee.gui.FrameIO;
+import org.expeditee.gui.FrameNumbers;
 import org.expeditee.gui.FrameUtils;
 import org.expeditee.gui.MessageBay;
 import org.expeditee.items.Item;
@@ -21,6 +23,8 @@ public class CopyTree extends TreeProcessor {
 
 	private int _firstNumber = 1;
 
+	private FrameNumbers _numbers;
+
 	private HashMap<String, String> _nameMap = new HashMap<String, String>();
 
 	private LinkedList<String> _toReparse = new LinkedList<String>();
@@ -40,6 +44,7 @@ public class CopyTree extends TreeProcessor {
 			Frame one = FrameIO.CreateFrameset(_nameTo, init.getPath());
 
 			_framePath = one.getPath();
+			_numbers = new FrameNumbers(_framePath, _nameTo);
 			_lastNumber = -1;
 			_firstNumber = 1;
 
@@ -70,7 +75,7 @@ public class CopyTree extends TreeProcessor {
 							.toLowerCase()));
 		} else {
 			fresh.setFrameset(_nameTo);
-			fresh.setFrameNumber(++_lastNumber);
+			fresh.setFrameNumber(nextNumber());
 
 			_nameMap.put(toProcess.getName().toLowerCase(), fresh
 					.getName().toLowerCase());
@@ -89,8 +94,9 @@ public class CopyTree extends TreeProcessor {
 					link = _nameMap.get(link);
 				//otherwise add it to our map
 				else if (link.startsWith(_nameFrom)) {
-					_nameMap.put(link, _nameTo + (++_lastNumber));
-					link = "" + _lastNumber;
+					int number = nextNumber();
+					_nameMap.put(link, _nameTo + number);
+					link = "" + number;
 				}
 				i.setLink(link);
 			} else if (!added && i.getLink() != null && i.isAnnotation()
@@ -108,8 +114,24 @@ public class CopyTree extends TreeProcessor {
 		FrameIO.ResumeCache();
 	}
 
+	private int nextNumber() {
+		// the copies of frames 0 and 1 replace those made with the frameset
+		if (_lastNumber < 1)
+			return ++_lastNumber;
+		try {
+			_lastNumber = _numbers.next();
+		} catch (IOException e) {
+			throw new RuntimeException("Could not number a frame in "
+					+ _nameTo, e);
+		}
+		return _lastNumber;
+	}
+
 	@Override
 	protected void finalise(Frame frame) {
+		if (_numbers != null)
+			_numbers.release();
+
 		// reparse all frames that have annotation links that may need updating
 		for (String name : _toReparse) {
 			Frame toParse = FrameIO.LoadFrame(name);
@@ -34,7 +34,7 @@ public abstract class DefaultAgent implements Agent {
 
 	protected boolean _running = true;
 
-	protected boolean _stop = false;
+	protected volatile boolean _stop = false;
 
 	protected int _frameCount = 0;
 
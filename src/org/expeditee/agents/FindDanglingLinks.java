@@ -0,0 +1,39 @@
+package org.expeditee.agents;
+
+import java.util.Map;
+import java.util.SortedSet;
+
+import org.expeditee.gui.Frame;
+import org.expeditee.gui.FrameCreator;
+import org.expeditee.gui.FrameIO;
+import org.expeditee.gui.FrameLinkGraph;
+
+/**
+ * Lists the links in the current frameset to frames which do not exist. The
+ * links are checked using the link graph rather than by loading every frame.
+ */
+public class FindDanglingLinks extends DefaultAgent {
+
+	private static final String RESULTS_FRAMESET = "DanglingLinksResults";
+
+	@Override
+	protected Frame process(Frame frame) {
+		String framesetName = frame.getFramesetName();
+		FrameCreator results = new FrameCreator(RESULTS_FRAMESET,
+				FrameIO.FRAME_PATH, "Dangling links in " + framesetName,
+				false, true);
+		for (Map.Entry<String, SortedSet<String>> source : FrameLinkGraph
+				.getDanglingLinks(framesetName).entrySet()) {
+			if (_stop)
+				break;
+			for (String missing : source.getValue()) {
+				results.addText(source.getKey() + " -> " + missing, null,
+						source.getKey(), null, false);
+				_itemCount++;
+			}
+			_frameCount++;
+		}
+		results.save();
+		return results.getFirstFrame();
+	}
+}
@@ -0,0 +1,189 @@
+package org.expeditee.agents;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.expeditee.gui.FrameIO;
+import org.expeditee.settings.performance.PerformanceSettings;
+
+/**
+ * Scans the frame files of a frameset for a search pattern on several
+ * threads, for the search agents to use on framesets without a search index.
+ *
+ * The scanning threads take batches of frame numbers in order and may get at
+ * most WINDOW frames ahead of the agent, which is handed the results one
+ * frame at a time in frame order as they arrive. Stopping the agent stops the
+ * scan.
+ */
+class FramesetScanner {
+
+	/**
+	 * Receives the results of a scan.
+	 */
+	interface Results {
+		/**
+		 * @param lines
+		 *            the text lines of the frame containing the pattern, or
+		 *            null if the frame does not exist
+		 */
+		void found(long number, String frameName, Collection<String> lines);
+	}
+
+	// frame numbers handed to a scanning thread at a time
+	private static final int BATCH = 16;
+
+	// how many frames the scanning threads may get ahead of the agent
+	private static final int WINDOW = 4096;
+
+	// the shortest time between progress messages, in ms
+	private static final long MESSAGE_INTERVAL = 100;
+
+	private final SearchAgent _agent;
+
+	private final String _path;
+
+	private final String _framesetName;
+
+	private final String _pattern;
+
+	private long _last;
+
+	// the next frame number to hand to a scanning thread
+	private long _next;
+
+	// the frame the agent is waiting for
+	private long _waiting;
+
+	private volatile boolean _done = false;
+
+	private final Map<Long, Collection<String>> _found = new HashMap<Long, Collection<String>>();
+
+	private long _lastMessage = 0;
+
+	FramesetScanner(SearchAgent agent, String path, String framesetName,
+			String pattern) {
+		_agent = agent;
+		_path = path;
+		_framesetName = framesetName;
+		_pattern = pattern;
+	}
+
+	/**
+	 * @return the number of threads to scan with.
+	 */
+	static int getThreads() {
+		int threads = PerformanceSettings.SearchThreads.get();
+		if (threads <= 0)
+			threads = Runtime.getRuntime().availableProcessors();
+		return Math.max(1, threads);
+	}
+
+	/**
+	 * Scans a range of frames, on the calling thread if only one thread is to
+	 * be used.
+	 */
+	void scan(long first, long last, Results results) {
+		int threads = (int) Math.min(getThreads(), (last - first) / BATCH + 1);
+		if (threads <= 1) {
+			for (long i = first; i <= last && !_agent._stop; i++) {
+				String frameName = _framesetName + i;
+				showProgress(frameName);
+				results.found(i, frameName, FrameIO.searchFrame(frameName,
+						_pattern, _path));
+			}
+			return;
+		}
+
+		_next = _waiting = first;
+		_last = last;
+		for (int i = 0; i < threads; i++) {
+			Thread scanner = new Thread(new Runnable() {
+				public void run() {
+					scanBatches();
+				}
+			}, "FramesetScanner");
+			scanner.setDaemon(true);
+			scanner.start();
+		}
+
+		try {
+			for (long i = first; i <= last; i++) {
+				Collection<String> lines;
+				synchronized (this) {
+					// waits are timed so that stopping the agent is noticed
+					while (!_found.containsKey(i) && !_agent._stop)
+						wait(MESSAGE_INTERVAL);
+					if (_agent._stop)
+						break;
+					lines = _found.remove(i);
+					_waiting = i + 1;
+					notifyAll();
+				}
+				String frameName = _framesetName + i;
+				showProgress(frameName);
+				results.found(i, frameName, lines);
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		} finally {
+			synchronized (this) {
+				_done = true;
+				_found.clear();
+				notifyAll();
+			}
+		}
+	}
+
+	private void scanBatches() {
+		try {
+			while (true) {
+				long start, end;
+				synchronized (this) {
+					while (!_done && !_agent._stop && _next <= _last
+							&& _next - _waiting >= WINDOW)
+						wait(MESSAGE_INTERVAL);
+					if (_done || _agent._stop || _next > _last)
+						return;
+					start = _next;
+					end = Math.min(_last + 1, start + BATCH);
+					_next = end;
+				}
+				// results are handed over a batch at a time to keep the
+				// threads from contending for the lock
+				Map<Long, Collection<String>> batch = new HashMap<Long, Collection<String>>();
+				for (long i = start; i < end; i++) {
+					if (_done || _agent._stop)
+						return;
+					Collection<String> lines = null;
+					try {
+						lines = FrameIO.searchFrame(_framesetName + i,
+								_pattern, _path);
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					}
+					batch.put(i, lines);
+				}
+				synchronized (this) {
+					if (!_done)
+						_found.putAll(batch);
+					notifyAll();
+				}
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Shows the frame being searched, but not so often that updating the
+	 * message bay slows the search.
+	 */
+	private void showProgress(String frameName) {
+		long now = System.currentTimeMillis();
+		if (now - _lastMessage >= MESSAGE_INTERVAL) {
+			_lastMessage = now;
+			_agent.overwriteMessage("Searching " + frameName);
+		}
+	}
+}
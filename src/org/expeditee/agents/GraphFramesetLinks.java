@@ -2,12 +2,15 @@ package org.expeditee.agents;
 
 import java.awt.Color;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
 
 import org.expeditee.actions.Misc;
 import org.expeditee.gui.Frame;
 import org.expeditee.gui.FrameIO;
+import org.expeditee.gui.FrameLinkGraph;
 import org.expeditee.gui.FrameMouseActions;
-import org.expeditee.gui.FrameUtils;
+import org.expeditee.gui.MessageBay;
 import org.expeditee.items.Item;
 import org.expeditee.items.Line;
 import org.expeditee.items.Text;
@@ -49,7 +52,15 @@ public class GraphFramesetLinks extends DefaultAgent {
 	protected Frame process(Frame frame) {
 		String toProcessFramesetName = frame.getFramesetName();
 
-		Frame toProccess = FrameUtils.getFrame(toProcessFramesetName + 0);
+		// the links are read from the link graph rather than loading every
+		// frame in the frameset
+		SortedMap<Integer, List<String>> framesetLinks = FrameLinkGraph
+				.getFramesetLinks(toProcessFramesetName);
+		if (framesetLinks == null) {
+			MessageBay.errorMessage("Could not read the links in "
+					+ toProcessFramesetName);
+			return null;
+		}
 
 		Frame resultsFrame;
 		
@@ -91,32 +102,31 @@ public class GraphFramesetLinks extends DefaultAgent {
 		model.beginUpdate();
 
 		try {
-			while ((toProccess = FrameIO.LoadNext(toProccess)) != null) {
+			for (Map.Entry<Integer, List<String>> toProcess : framesetLinks.entrySet()) {
+				// the zero frame is not part of the graph
+				if (toProcess.getKey() == 0)
+					continue;
 
-				Object sourceVert = model.getCell(toProccess.getName());
+				String sourceName = toProcessFramesetName.toLowerCase() + toProcess.getKey();
+				Object sourceVert = model.getCell(sourceName);
 
 				if (sourceVert == null) {
-					sourceVert = graph.insertVertex(graph.getDefaultParent(), toProccess.getName(), toProccess.getName(), 0, 0, 10, 10);
+					sourceVert = graph.insertVertex(graph.getDefaultParent(), sourceName, sourceName, 0, 0, 10, 10);
 				}
 
-				List<Item> items = toProccess.getItems();
-
-				for (Item item : items) {
-					if (item.getLink() != null) {
-						
-						Object destinationVert = model.getCell(item.getAbsoluteLink());
+				for (String link : toProcess.getValue()) {
+					Object destinationVert = model.getCell(link);
 
-						if (destinationVert == null) {
-							destinationVert = graph.insertVertex(graph.getDefaultParent(), item.getAbsoluteLink(), item.getAbsoluteLink(), 0, 0, 10, 10);
-						}
-						
-						// Scaling the vertex based on the number of incoming links
-						mxGeometry destGeo = ((mxCell)(destinationVert)).getGeometry();
-						destGeo.setHeight(destGeo.getHeight() + 1);
-						destGeo.setWidth(destGeo.getHeight());
-
-						graph.insertEdge(graph.getDefaultParent(), null, null, sourceVert, destinationVert);
+					if (destinationVert == null) {
+						destinationVert = graph.insertVertex(graph.getDefaultParent(), link, link, 0, 0, 10, 10);
 					}
+					
+					// Scaling the vertex based on the number of incoming links
+					mxGeometry destGeo = ((mxCell)(destinationVert)).getGeometry();
+					destGeo.setHeight(destGeo.getHeight() + 1);
+					destGeo.setWidth(destGeo.getHeight());
+
+					graph.insertEdge(graph.getDefaultParent(), null, null, sourceVert, destinationVert);
 				}
 			}
 
@@ -146,7 +156,7 @@ public class GraphFramesetLinks extends DefaultAgent {
 			circleCenter.setFillColor(vertColor);
 
 			// If the vert is not in the current frameset, style it differently to denote this
-			if (!((String) model.getValue(v)).replaceAll("\\d+$", "").equals(toProcessFramesetName)) {
+			if (!((String) model.getValue(v)).replaceAll("\\d+$", "").equalsIgnoreCase(toProcessFramesetName)) {
 				circleCenter.setFillColor(outgoingVertColor);
 			}
 			
@@ -1,14 +1,21 @@
 package org.expeditee.agents;
 
+import java.io.IOException;
 import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import org.expeditee.gui.Frame;
 import org.expeditee.gui.FrameCreator;
 import org.expeditee.gui.FrameGraphics;
 import org.expeditee.gui.FrameIO;
 import org.expeditee.io.Conversion;
+import org.expeditee.io.FramesetSearchIndex;
 import org.expeditee.items.Item;
 import org.expeditee.items.Text;
+import org.expeditee.settings.performance.PerformanceSettings;
 
 public abstract class SearchAgent extends DefaultAgent {
 
@@ -128,6 +135,42 @@ public abstract class SearchAgent extends DefaultAgent {
 		return true;
 	}
 	
+	/**
+	 * Searches a range of frames in a frameset using the frameset's search
+	 * index, which is built first if the frameset has none and
+	 * IndexFramesetsForSearch is set.
+	 *
+	 * @return the text lines matching the pattern on each frame in the range,
+	 *         including an empty list for the frames without matches, or null
+	 *         if the frameset is not indexed and must be scanned
+	 */
+	protected SortedMap<Integer, List<String>> searchIndex(String path,
+			String frameset, long firstFrame, long lastFrame) {
+		if (path == null || _pattern.indexOf('\n') >= 0)
+			return null;
+		FramesetSearchIndex index = FrameIO.GetSearchIndex(path, frameset,
+				PerformanceSettings.IndexFramesetsForSearch.get());
+		if (index == null)
+			return null;
+
+		overwriteMessage("Searching the index of " + frameset);
+		try {
+			SortedMap<Integer, List<String>> found = index.search(_pattern);
+			SortedMap<Integer, List<String>> results = new TreeMap<Integer, List<String>>();
+			for (int number : index.getFrameNumbers()) {
+				if (number < firstFrame || number > lastFrame)
+					continue;
+				List<String> lines = found.get(number);
+				results.put(number, lines == null ? new LinkedList<String>()
+						: lines);
+			}
+			return results;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
 	protected int addResults(String frameName, Collection<String> found) {
 		return addResults(frameName, frameName, found);
 	}
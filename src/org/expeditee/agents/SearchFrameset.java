@@ -1,6 +1,8 @@
 package org.expeditee.agents;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 import org.expeditee.gui.Frame;
 import org.expeditee.gui.FrameIO;
@@ -28,15 +30,26 @@ public class SearchFrameset extends SearchAgent {
 		String path = frame.getPath();
 
 		int count = FrameIO.getLastNumber(_startName);
-		for (long i = _firstFrame; i <= _maxFrame && i <= count; i++) {
-			if (_stop) {
-				break;
+		Map<Integer, List<String>> indexed = searchIndex(path, _startName,
+				_firstFrame, Math.min(_maxFrame, count));
+		if (indexed != null) {
+			for (Map.Entry<Integer, List<String>> found : indexed.entrySet()) {
+				if (_stop) {
+					break;
+				}
+				addResults(found.getKey() + "", _startName + found.getKey(),
+						found.getValue());
 			}
-			String frameName = _startName + i;
-			overwriteMessage("Searching " + frameName);
-			Collection<String> found = FrameIO.searchFrame(frameName, _pattern,
-					path);
-			addResults(i + "", frameName, found);
+		} else {
+			// the frameset is not indexed so each frame file is scanned
+			new FramesetScanner(this, path, _startName, _pattern).scan(
+					_firstFrame, Math.min(_maxFrame, count),
+					new FramesetScanner.Results() {
+						public void found(long number, String frameName,
+								Collection<String> lines) {
+							addResults(number + "", frameName, lines);
+						}
+					});
 		}
 		_results.save();
 
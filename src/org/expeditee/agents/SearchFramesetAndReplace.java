@@ -1,5 +1,9 @@
 package org.expeditee.agents;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
 import org.expeditee.gui.Frame;
 import org.expeditee.gui.FrameIO;
 
@@ -20,15 +24,54 @@ public class SearchFramesetAndReplace extends SearchAgent {
 	@Override
 	protected Frame process(Frame frame) {
 		int count = FrameIO.getLastNumber(_startName);
-		for (long i = _firstFrame;i <= _maxFrame && i <= count; i++) {
-			if (_stop) {
-				break;
+		if (frame == null)
+			frame = FrameIO.LoadFrame(_startName + '0');
+		Map<Integer, List<String>> indexed = searchIndex(frame == null ? null
+				: frame.getPath(), _startName, _firstFrame, Math.min(_maxFrame,
+				count));
+		if (indexed != null) {
+			// only the frames containing the pattern are loaded
+			for (Map.Entry<Integer, List<String>> found : indexed.entrySet()) {
+				if (_stop) {
+					break;
+				}
+				if (found.getValue().isEmpty()) {
+					_frameCount++;
+					continue;
+				}
+				String frameName = _startName + found.getKey();
+				overwriteMessage("Searching " + frameName);
+				if (searchFrame(_results, frameName, _pattern,
+						_replacementString))
+					_frameCount++;
+			}
+		} else if (_pattern.indexOf('\n') < 0) {
+			// the frame files are scanned for the pattern first so that only
+			// the frames containing it are loaded
+			new FramesetScanner(this, frame == null ? null : frame.getPath(),
+					_startName, _pattern).scan(_firstFrame, Math.min(_maxFrame,
+					count), new FramesetScanner.Results() {
+				public void found(long number, String frameName,
+						Collection<String> lines) {
+					if (lines == null)
+						return;
+					if (lines.isEmpty()
+							|| searchFrame(_results, frameName, _pattern,
+									_replacementString))
+						_frameCount++;
+				}
+			});
+		} else {
+			for (long i = _firstFrame;i <= _maxFrame && i <= count; i++) {
+				if (_stop) {
+					break;
+				}
+				String frameName = _startName + i;
+				overwriteMessage("Searching " + frameName);
+				if(searchFrame(_results, frameName, _pattern,
+						_replacementString))
+					_frameCount++;
 			}
-			String frameName = _startName + i;
-			overwriteMessage("Searching " + frameName);
-			if(searchFrame(_results, frameName, _pattern,
-					_replacementString))
-				_frameCount++;
 		}
 		_results.save();
 
@@ -2,6 +2,7 @@ package org.expeditee.agents;
 
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.expeditee.gui.Frame;
@@ -26,19 +27,31 @@ public class SearchFramesetNoResults extends SearchAgent {
 	protected Frame process(Frame frame) {
 		String path = frame.getPath();
 		int count = FrameIO.getLastNumber(frame.getFramesetName());
-		for (long i = _firstFrame;i <= _maxFrame && i <= count; i++) {
-			if (_stop) {
-				break;
-			}
-			String frameName = _startName + i;
-			Collection<String> found = FrameIO.searchFrame(frameName, _pattern, path);
-			int size = found == null? 0 :found.size();
-			if(found!= null)
+		Map<Integer, List<String>> indexed = searchIndex(path, _startName,
+				_firstFrame, Math.min(_maxFrame, count));
+		if (indexed != null) {
+			for (Map.Entry<Integer, List<String>> found : indexed.entrySet()) {
+				if (_stop) {
+					break;
+				}
 				_frameCount++;
-			if(size > 0){
-				_results.put(frameName, found);
+				if (found.getValue().size() > 0)
+					_results.put(_startName + found.getKey(), found.getValue());
 			}
+			return null;
 		}
+		new FramesetScanner(this, path, _startName, _pattern).scan(_firstFrame,
+				Math.min(_maxFrame, count), new FramesetScanner.Results() {
+					public void found(long number, String frameName,
+							Collection<String> found) {
+						int size = found == null ? 0 : found.size();
+						if (found != null)
+							_frameCount++;
+						if (size > 0) {
+							_results.put(frameName, found);
+						}
+					}
+				});
 		return null;
 	}
 	
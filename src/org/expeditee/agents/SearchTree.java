@@ -2,7 +2,6 @@ package org.expeditee.agents;
 
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.HashMap;
@@ -87,7 +86,7 @@ public class SearchTree extends SearchAgent {
 		Collection<String> frameResults = new LinkedList<String>();
 		// Open the file and search the text items
 		try {
-			BufferedReader reader = new BufferedReader(new FileReader(fullPath));
+			BufferedReader reader = FrameIO.openSearchText(fullPath);
 			String next;
 			StringBuffer sb = new StringBuffer();
 			String link = null;
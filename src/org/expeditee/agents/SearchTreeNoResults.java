@@ -2,7 +2,6 @@ package org.expeditee.agents;
 
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.HashMap;
@@ -69,7 +68,7 @@ public class SearchTreeNoResults extends SearchAgent {
 		Collection<String> frameResults = new LinkedList<String>();
 		// Open the file and search the text items
 		try {
-			BufferedReader reader = new BufferedReader(new FileReader(fullPath));
+			BufferedReader reader = FrameIO.openSearchText(fullPath);
 			String next;
 			while (reader.ready() && ((next = reader.readLine()) != null)) {
 				if (next.startsWith("T")) {
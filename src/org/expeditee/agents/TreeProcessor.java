@@ -60,7 +60,7 @@ public abstract class TreeProcessor extends DefaultAgent {
 			}
 
 			// the items on the frame currently being processed.
-			List<Item> items = next.getItems();
+			List<Item> items = next.getItemsView();
 
 			// resume from the next item in the list
 			for (int i = cur.index + 1; i < items.size(); i++) {
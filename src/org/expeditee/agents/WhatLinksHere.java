@@ -0,0 +1,36 @@
+package org.expeditee.agents;
+
+import org.expeditee.gui.Frame;
+import org.expeditee.gui.FrameCreator;
+import org.expeditee.gui.FrameIO;
+import org.expeditee.gui.FrameLinkGraph;
+import org.expeditee.io.Conversion;
+
+/**
+ * Lists the frames which link to the frame the agent is run from. The links
+ * are found in the link graph rather than by loading every frame.
+ */
+public class WhatLinksHere extends DefaultAgent {
+
+	private static final String RESULTS_FRAMESET = "LinksHereResults";
+
+	@Override
+	protected Frame process(Frame frame) {
+		String frameName = frame.getName();
+		FrameCreator results = new FrameCreator(RESULTS_FRAMESET,
+				FrameIO.FRAME_PATH, "Links to " + frameName, false, true);
+		for (String source : FrameLinkGraph.getLinksTo(frameName)) {
+			if (_stop)
+				break;
+			// earlier results link here too
+			if (FrameIO.isValidFrameName(source)
+					&& Conversion.getFramesetName(source).equalsIgnoreCase(
+							RESULTS_FRAMESET))
+				continue;
+			results.addText(source, null, source, null, false);
+			_frameCount++;
+		}
+		results.save();
+		return results.getFirstFrame();
+	}
+}
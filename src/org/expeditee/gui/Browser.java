@@ -46,6 +46,7 @@ import org.expeditee.items.widgets.WidgetCacheManager;
 import org.expeditee.network.FrameShare;
 import org.expeditee.settings.Settings;
 import org.expeditee.settings.UserSettings;
+import org.expeditee.settings.folders.FolderSettings;
 import org.expeditee.stats.Logger;
 import org.expeditee.stats.StatsLogger;
 import org.expeditee.taskmanagement.EntitySaveManager;
@@ -288,6 +289,9 @@ public class Browser extends JFrame implements ComponentListener,
 			
 			Settings.Init();
 
+			// Index the frame directories now that the profile has set them
+			FrameFileIndex.build(FolderSettings.FrameDirs.get());
+
 			DisplayIO.Init(this);
 			// Set visible must be just after DisplayIO.Init for the message box
 			// to
@@ -557,6 +561,14 @@ public class Browser extends JFrame implements ComponentListener,
 
 					MessageBay.displayMessage("Saving current frame...");
 					FrameIO.SaveFrame(DisplayIO.getCurrentFrame());
+					if (!FrameSaveQueue.flush()) {
+						// exiting would lose the changes to these frames
+						MessageBay.errorMessage("Could not save "
+								+ FrameSaveQueue.getUnwritten()
+								+ ", not exiting");
+						_isExiting = false;
+						return;
+					}
 
 					MessageBay.displayMessage("Saving stats...");
 					StatsLogger.WriteStatsFile();
@@ -404,6 +404,24 @@ public class DisplayIO {
 		return null;
 	}
 
+	/**
+	 * Gets the names of the frames on the back and forward stacks of both
+	 * sides.
+	 * 
+	 * @return the names of all frames the user can navigate back or forward
+	 *         to.
+	 */
+	public static Collection<String> getHistory() {
+		Collection<String> history = new LinkedList<String>();
+		for (int side = 0; side < 2; side++) {
+			if (_VisitedFrames[side] != null)
+				history.addAll(_VisitedFrames[side]);
+			if (_BackedUpFrames[side] != null)
+				history.addAll(_BackedUpFrames[side]);
+		}
+		return history;
+	}
+
 	public static void setCurrentFrame(Frame frame, boolean incrementStats) {
 		if (frame == null)
 			return;
@@ -465,7 +483,7 @@ public class DisplayIO {
 			// frames differ.
 			if (_CurrentFrames[getCurrentSide()] != null
 					&& _CurrentFrames[0] != _CurrentFrames[1]) {
-				for (Item i : _CurrentFrames[getCurrentSide()].getItems()) {
+				for (Item i : _CurrentFrames[getCurrentSide()].getItemsView()) {
 					i.onParentStateChanged(new ItemParentStateChangedEvent(
 							_CurrentFrames[getCurrentSide()],
 							ItemParentStateChangedEvent.EVENT_TYPE_HIDDEN));
@@ -474,7 +492,7 @@ public class DisplayIO {
 			_CurrentFrames[getCurrentSide()] = frame;
 
 			// BROOK : TODO... overlays and loadable widgets
-			for (Item i : _CurrentFrames[getCurrentSide()].getItems()) {
+			for (Item i : _CurrentFrames[getCurrentSide()].getItemsView()) {
 				i.onParentStateChanged(new ItemParentStateChangedEvent(
 						_CurrentFrames[getCurrentSide()],
 						ItemParentStateChangedEvent.EVENT_TYPE_SHOWN));
@@ -555,12 +573,13 @@ public class DisplayIO {
 								owner.permission));
 			}
 
-			for (Item i : frame.getItems()) {
+			for (Item i : frame.getItemsView()) {
 				i.onParentStateChanged(new ItemParentStateChangedEvent(frame,
 						ItemParentStateChangedEvent.EVENT_TYPE_SHOWN));
 			}
 		}
 		frame.reset();
+		FramePrefetcher.prefetchFrom(frame);
 		FrameMouseActions.getInstance().refreshHighlights();
 		FrameGraphics.refresh(false);
 		fireFrameChanged();
@@ -725,7 +744,7 @@ public class DisplayIO {
 		FrameUtils.DisplayFrame(frame, false, true);
 		FrameMouseActions.setHighlightHold(true);
 
-		for (Item i : frame.getItems()) {
+		for (Item i : frame.getItemsView()) {
 			if (i.getLink() != null
 					&& i.getAbsoluteLink().toLowerCase().equals(oldFrame)) {
 				if (i.getHighlightMode() != Item.HighlightMode.Normal) {
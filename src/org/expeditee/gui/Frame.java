@@ -3,6 +3,7 @@ package org.expeditee.gui;
 import java.awt.Color;
 import java.awt.Image;
 import java.awt.Polygon;
+import java.awt.Rectangle;
 import java.awt.image.ImageObserver;
 import java.awt.image.VolatileImage;
 import java.sql.Time;
@@ -11,11 +12,13 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
+import java.util.Set;
 
 import org.expeditee.actions.Simple;
 import org.expeditee.io.Conversion;
@@ -94,27 +97,8 @@ public class Frame implements ImageObserver {
 
 	private boolean _saved = false;
 
-	private static final class History {
-		public enum Type {
-			deletion,
-			movement
-		}
-		public final List<Item> items;
-		public final Type type;
-		
-		public History(Collection<Item> items, Type type) {
-			this.items = new LinkedList<Item>(items);
-			this.type = type;
-		}
-		
-		public String toString() {
-			return this.type.toString() + ":\n" + this.items.toString();
-		}
-	}
-	
-	// list of deleted items that can be restored
-	private Stack<History> _undo = new Stack<History>();
-	private Stack<History> _redo = new Stack<History>();
+	// the changes which can be undone, created when the first is made
+	private UndoHistory _history = null;
 
 	// basically just a list of smaller objects?
 	// maybe a hashtable (id -> item?)
@@ -145,6 +129,27 @@ public class Frame implements ImageObserver {
 
 	private Collection<Item> _interactableItems = new LinkedHashSet<Item>();
 
+	// finds the items in the body near a point, once there are enough of them
+	private FrameSpatialIndex _spatialIndex = null;
+
+	// the items in the body by their ID, built when first needed
+	private Map<Integer, List<Item>> _itemsByID = null;
+
+	// counts the changes to which items are in the body, their order and
+	// which are shown
+	private int _modCount = 0;
+
+	// the views of the body, rebuilt when first needed after the body changes
+	private int _viewsModCount = -1;
+
+	private List<Item> _itemsView = null;
+
+	private List<Item> _visibleItemsView = null;
+
+	private List<Text> _textItemsView = null;
+
+	private List<Item> _nonAnnotationItemsView = null;
+
 	private Collection<Item> _overlayItems = new LinkedHashSet<Item>();
 
 	private Collection<Item> _vectorItems = new LinkedHashSet<Item>();
@@ -292,6 +297,62 @@ public class Frame implements ImageObserver {
 		}
 	}
 
+	private void sortBody() {
+		if (_sorted)
+			return;
+		Collections.sort(_body);
+		_sorted = true;
+		bodyChanged();
+		// the interactable items and the index list items in body order
+		_interactableItems.clear();
+		if (_spatialIndex != null)
+			_spatialIndex.reordered();
+	}
+
+	/**
+	 * @return the index of the items in the body, or null if there are too
+	 *         few items to need one.
+	 */
+	private FrameSpatialIndex getSpatialIndex() {
+		if (_spatialIndex == null && _body != null
+				&& _body.size() >= FrameSpatialIndex.MIN_ITEMS)
+			_spatialIndex = new FrameSpatialIndex(_body);
+		return _spatialIndex;
+	}
+
+	/**
+	 * Called by items in the body of this frame when they may have moved or
+	 * changed shape.
+	 */
+	public void itemBoundsChanged(Item item) {
+		if (_spatialIndex != null)
+			_spatialIndex.changed(item);
+	}
+
+	/**
+	 * Called by items in the body of this frame when they are shown, hidden or
+	 * deleted.
+	 */
+	public void itemVisibilityChanged(Item item) {
+		bodyChanged();
+	}
+
+	// indicates the items on the frame, their order or which are shown have
+	// changed, so the views of the body must be rebuilt
+	private void bodyChanged() {
+		_modCount++;
+	}
+
+	/**
+	 * @return a count which changes whenever items are added to or removed
+	 *         from the body of this frame, reordered, shown or hidden, when
+	 *         the annotations on it change, or when overlays or vectors are
+	 *         added to or removed from it.
+	 */
+	public int getModCount() {
+		return _modCount;
+	}
+
 	// indicates the frame has changed
 	public void change() {
 		setChanged(true);
@@ -300,18 +361,58 @@ public class Frame implements ImageObserver {
 
 	/**
 	 * Returns an ArrayList of all Items currently on the Frame (excludes Items
-	 * attached to the cursor).
+	 * attached to the cursor). The list is a copy which the caller may change;
+	 * callers which only read the items should use
+	 * {@link #getItemsView(boolean)}.
 	 * 
 	 * @return The list of Item objects that are on this Frame.
 	 */
 	public List<Item> getItems(boolean visible) {
+		return new ArrayList<Item>(getItemsView(visible));
+	}
 
-		if (!_sorted) {
-			Collections.sort(_body);
-			_sorted = true;
+	/**
+	 * Returns the Items currently on the Frame (excludes Items attached to the
+	 * cursor) without copying them. The list cannot be changed and is not
+	 * updated as the frame changes, so it is safe to add and remove items
+	 * while iterating over it.
+	 * 
+	 * @param visible
+	 *            true if only the items which are shown should be returned.
+	 * @return The list of Item objects that are on this Frame.
+	 */
+	public List<Item> getItemsView(boolean visible) {
+		checkViews();
+		if (visible) {
+			if (_visibleItemsView == null)
+				_visibleItemsView = Collections.unmodifiableList(filterBody(true));
+			return _visibleItemsView;
 		}
+		if (_itemsView == null)
+			_itemsView = Collections.unmodifiableList(filterBody(false));
+		return _itemsView;
+	}
+
+	public List<Item> getItemsView() {
+		return getItemsView(false);
+	}
+
+	/**
+	 * Sorts the body and drops the views of it built before it last changed.
+	 */
+	private void checkViews() {
+		sortBody();
+		if (_viewsModCount == _modCount)
+			return;
+		_viewsModCount = _modCount;
+		_itemsView = null;
+		_visibleItemsView = null;
+		_textItemsView = null;
+		_nonAnnotationItemsView = null;
+	}
 
-		List<Item> items = new ArrayList<Item>();
+	private List<Item> filterBody(boolean visible) {
+		List<Item> items = new ArrayList<Item>(_body.size());
 
 		for (Item i : _body) {
 			if (i == null)
@@ -328,6 +429,14 @@ public class Frame implements ImageObserver {
 		return getItems(false);
 	}
 
+	/**
+	 * @return the number of items in the body of this frame, counted without
+	 *         copying the item list.
+	 */
+	int getBodySize() {
+		return _body == null ? 0 : _body.size();
+	}
+
 	/**
 	 * @param i
 	 *            Item to check if contained in this frame
@@ -336,7 +445,94 @@ public class Frame implements ImageObserver {
 	public boolean containsItem(Item i) {
 		if (i == null)
 			throw new NullPointerException("i");
-		return _body.contains(i);
+		return getEqualItem(i, null) != null;
+	}
+
+	private Map<Integer, List<Item>> getItemsByID() {
+		if (_itemsByID == null) {
+			_itemsByID = new HashMap<Integer, List<Item>>();
+			for (Item i : _body) {
+				if (i != null)
+					mapID(i, i.getID());
+			}
+		}
+		return _itemsByID;
+	}
+
+	private void mapID(Item item, int id) {
+		List<Item> items = _itemsByID.get(id);
+		if (items == null) {
+			items = new ArrayList<Item>(1);
+			_itemsByID.put(id, items);
+		}
+		items.add(item);
+	}
+
+	private boolean unmapID(Item item, int id) {
+		List<Item> items = _itemsByID.get(id);
+		if (items == null)
+			return false;
+		for (Iterator<Item> it = items.iterator(); it.hasNext();) {
+			if (it.next() == item) {
+				it.remove();
+				if (items.isEmpty())
+					_itemsByID.remove(id);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Called by items in the body of this frame when their ID changes.
+	 */
+	public void itemIDChanged(Item item, int oldID) {
+		if (_itemsByID != null && unmapID(item, oldID))
+			mapID(item, item.getID());
+	}
+
+	/**
+	 * Finds the item in the body which {@link Item#equals(Object)} an item, as
+	 * {@link List#contains(Object)} and {@link List#remove(Object)} would.
+	 * 
+	 * @param ignore
+	 *            items in the body to pass over, or null
+	 * @return the first equal item in the body, or null if there is none.
+	 */
+	private Item getEqualItem(Item item, Set<Item> ignore) {
+		List<Item> sameID = getItemsByID().get(item.getID());
+		if (sameID == null)
+			return null;
+		Item found = null;
+		for (Item i : sameID) {
+			if ((ignore == null || !ignore.contains(i)) && item.equals(i)) {
+				if (found != null) {
+					// only copies of items share their IDs, so this is rare
+					for (Item first : _body) {
+						if (sameID.contains(first)
+								&& (ignore == null || !ignore.contains(first))
+								&& item.equals(first))
+							return first;
+					}
+				}
+				found = i;
+			}
+		}
+		return found;
+	}
+
+	private void removeFromBody(Item item) {
+		for (int index = 0; index < _body.size(); index++) {
+			if (_body.get(index) == item) {
+				_body.remove(index);
+				break;
+			}
+		}
+		if (_itemsByID != null)
+			unmapID(item, item.getID());
+		if (_spatialIndex != null)
+			_spatialIndex.remove(item);
+		bodyChanged();
 	}
 
 	/**
@@ -353,13 +549,12 @@ public class Frame implements ImageObserver {
 	 */
 	public List<Text> getBodyTextItems(boolean includeAnnotations) {
 		List<Text> bodyTextItems = new ArrayList<Text>();
-		for (Item i : getItems(true)) {
+		for (Text i : getTextItemsView()) {
 			// only add up normal body text items
-			if ((i instanceof Text)
-					&& ((includeAnnotations && !((Text) i)
-							.isSpecialAnnotation()) || !i.isAnnotation())
+			if (((includeAnnotations && !i.isSpecialAnnotation()) || !i
+					.isAnnotation())
 					&& !i.isLineEnd()) {
-				bodyTextItems.add((Text) i);
+				bodyTextItems.add(i);
 			}
 		}
 		bodyTextItems.remove(getTitleItem());
@@ -368,19 +563,34 @@ public class Frame implements ImageObserver {
 	}
 
 	public Collection<Item> getNonAnnotationItems(boolean removeTitle) {
-		Collection<Item> items = new ArrayList<Item>();
-		for (Item i : getItems(true)) {
-			// only add up normal body text items
-			if (!i.isAnnotation()) {
-				items.add(i);
-			}
-		}
+		Collection<Item> items = new ArrayList<Item>(
+				getNonAnnotationItemsView());
 		if (removeTitle) {
 			items.remove(getTitleItem());
 		}
 		return items;
 	}
 
+	/**
+	 * @return the items shown on this frame which are not annotations, in a
+	 *         list which cannot be changed and is not updated as the frame
+	 *         changes.
+	 */
+	public List<Item> getNonAnnotationItemsView() {
+		checkViews();
+		if (_nonAnnotationItemsView == null) {
+			List<Item> items = new ArrayList<Item>();
+			for (Item i : getItemsView(true)) {
+				// only add up normal body text items
+				if (!i.isAnnotation()) {
+					items.add(i);
+				}
+			}
+			_nonAnnotationItemsView = Collections.unmodifiableList(items);
+		}
+		return _nonAnnotationItemsView;
+	}
+
 	/**
 	 * Gets the last item on the frame that is a non annotation item but is also
 	 * text.
@@ -388,7 +598,7 @@ public class Frame implements ImageObserver {
 	 * @return the last non annotation text item.
 	 */
 	public Item getLastNonAnnotationTextItem() {
-		List<Item> items = getItems();
+		List<Item> items = getItemsView();
 
 		// find the last non-annotation text item
 		for (int i = (items.size() - 1); i >= 0; i--) {
@@ -411,6 +621,11 @@ public class Frame implements ImageObserver {
 	 *         found.
 	 */
 	public Item getItemWithID(int id) {
+		List<Item> sameID = getItemsByID().get(id);
+		if (sameID == null)
+			return null;
+		if (sameID.size() == 1 && sameID.get(0).getID() == id)
+			return sameID.get(0);
 		for (Item i : _body)
 			if (i.getID() == id)
 				return i;
@@ -476,7 +691,7 @@ public class Frame implements ImageObserver {
 	}
 
 	public Text getTitleItem() {
-		List<Item> items = getVisibleItems();
+		List<Item> items = getItemsView(true);
 		for (Item i : items) {
 			if (i instanceof Text && i.getX() < UserSettings.TitlePosition.get()
 					&& i.getY() < UserSettings.TitlePosition.get())
@@ -573,7 +788,26 @@ public class Frame implements ImageObserver {
 	 */
 	public Collection<Item> getItemsWithin(Polygon poly) {
 		Collection<Item> results = new LinkedHashSet<Item>();
-		for (Item i : getVisibleItems()) {
+		Collection<Item> visibleItems;
+		Collection<Item> vectorItems = null;
+		FrameSpatialIndex index = getSpatialIndex();
+		if (index == null) {
+			visibleItems = getItemsView(true);
+		} else {
+			// only the items near the polygon can intersect it
+			sortBody();
+			visibleItems = new ArrayList<Item>();
+			vectorItems = new LinkedHashSet<Item>(_vectorItems);
+			for (Item i : index.getItemsNear(poly.getBounds())) {
+				if (i.isVisible()) {
+					visibleItems.add(i);
+					if (!i.isAnnotation())
+						vectorItems.add(i);
+				}
+			}
+		}
+
+		for (Item i : visibleItems) {
 			if (i.intersects(poly)) {
 				if (i instanceof XRayable) {
 					results.addAll(i.getConnected());
@@ -588,7 +822,9 @@ public class Frame implements ImageObserver {
 		for (Overlay o : _overlays.keySet())
 			results.addAll(o.Frame.getItemsWithin(poly));
 
-		for (Item i : getVectorItems()) {
+		if (vectorItems == null)
+			vectorItems = getVectorItems();
+		for (Item i : vectorItems) {
 			if (i.intersects(poly)) {
 				// This assumes a results is a set
 				results.add(i.getEditTarget());
@@ -764,7 +1000,7 @@ public class Frame implements ImageObserver {
 	}
 
 	public void addItem(Item item, boolean recalculate) {
-		if (item == null || item.equals(_frameName) || _body.contains(item))
+		if (item == null || item.equals(_frameName) || containsItem(item))
 			return;
 
 		// When an annotation item is anchored the annotation list must be
@@ -773,12 +1009,26 @@ public class Frame implements ImageObserver {
 			clearAnnotations();
 		}
 
+		addToBody(item);
+
+		// if (recalculate && item.recalculateWhenChanged())
+		// recalculate();
+
+		change();
+	}
+
+	private void addToBody(Item item) {
 		if (item instanceof Line)
 			_lineCount++;
 
 		_itemCount = Math.max(_itemCount, item.getID());
 
 		_body.add(item);
+		if (_itemsByID != null)
+			mapID(item, item.getID());
+		if (_spatialIndex != null)
+			_spatialIndex.add(item);
+		bodyChanged();
 		item.setParent(this);
 		item.setFloating(false); // esnure that it is anchored
 
@@ -806,17 +1056,12 @@ public class Frame implements ImageObserver {
 
 		item.onParentStateChanged(new ItemParentStateChangedEvent(this,
 				ItemParentStateChangedEvent.EVENT_TYPE_ADDED));
-
-		// if (recalculate && item.recalculateWhenChanged())
-		// recalculate();
-
-		change();
 	}
 
 	public void refreshSize() {
 		// assert (size != null);
 		boolean bReparse = false;
-		for (Item i : getItems()) {
+		for (Item i : getItemsView()) {
 			Float anchorLeft   = i.getAnchorLeft();
 			Float anchorRight  = i.getAnchorRight();
 			Float anchorTop    = i.getAnchorTop();
@@ -864,23 +1109,78 @@ public class Frame implements ImageObserver {
 		_frameName.resetFrameNamePosition();
 	}
 
+	/**
+	 * Adds each of the given items to the body of this frame as
+	 * {@link #addItem(Item)} does, but clears the annotation lists and marks
+	 * the frame as changed once for all of them.
+	 */
 	public void addAllItems(Collection<Item> toAdd) {
+		Collection<Frame> annotated = new HashSet<Frame>();
+		boolean added = false;
 		for (Item i : toAdd) {
-			// If an annotation is being deleted clear the annotation list
+			// If an annotation is being added clear the annotation list
+			if (i.isAnnotation())
+				annotated.add(i.getParentOrCurrentFrame());
+			if (i.equals(_frameName) || containsItem(i))
+				continue;
 			if (i.isAnnotation())
-				i.getParentOrCurrentFrame().clearAnnotations();
-			// TODO Improve efficiency when addAll is called
-			addItem(i);
+				annotated.add(this);
+			addToBody(i);
+			added = true;
 		}
+
+		for (Frame f : annotated)
+			f.clearAnnotations();
+		if (added)
+			change();
 	}
 
+	/**
+	 * Removes each of the given items from the body of this frame as
+	 * {@link #removeItem(Item)} does, but in one pass over the body, clearing
+	 * the annotation lists and marking the frame as changed once for all of
+	 * them.
+	 */
 	public void removeAllItems(Collection<Item> toRemove) {
+		Collection<Frame> annotated = new HashSet<Frame>();
+		Set<Item> removed = Collections
+				.newSetFromMap(new IdentityHashMap<Item, Boolean>());
+		List<Item> removedItems = new ArrayList<Item>();
 		for (Item i : toRemove) {
 			// If an annotation is being deleted clear the annotation list
 			if (i.isAnnotation())
-				i.getParentOrCurrentFrame().clearAnnotations();
-			removeItem(i);
+				annotated.add(i.getParentOrCurrentFrame());
+			Item equal = getEqualItem(i, removed);
+			if (equal != null) {
+				removed.add(equal);
+				removedItems.add(i);
+			}
+		}
+
+		if (!removed.isEmpty()) {
+			int kept = 0;
+			for (int index = 0; index < _body.size(); index++) {
+				Item i = _body.get(index);
+				if (!removed.contains(i))
+					_body.set(kept++, i);
+			}
+			_body.subList(kept, _body.size()).clear();
+			for (Item i : removed) {
+				unmapID(i, i.getID());
+				if (_spatialIndex != null)
+					_spatialIndex.remove(i);
+			}
+			bodyChanged();
 		}
+
+		for (Frame f : annotated)
+			f.clearAnnotations();
+		if (removed.isEmpty())
+			return;
+		change();
+
+		for (Item item : removedItems)
+			itemRemoved(item);
 	}
 
 	public void removeItem(Item item) {
@@ -892,118 +1192,95 @@ public class Frame implements ImageObserver {
 		if (item.isAnnotation())
 			item.getParentOrCurrentFrame().clearAnnotations();
 
-		if (_body.remove(item)) {
+		Item removed = getEqualItem(item, null);
+		if (removed != null) {
+			removeFromBody(removed);
 			change();
-			// Remove widgets from the widget list
-			if (item != null) {
-				item.onParentStateChanged(new ItemParentStateChangedEvent(this,
-						ItemParentStateChangedEvent.EVENT_TYPE_REMOVED));
-				if (item instanceof WidgetCorner) {
-					_iWidgets.remove(((WidgetCorner) item).getWidgetSource());
-				}
-				item.invalidateCommonTrait(ItemAppearence.Removed);
-			}
-			// TODO Improve efficiency when removeAll is called
+			itemRemoved(item);
 			// if (recalculate && item.recalculateWhenChanged())
 			// recalculate();
 		}
 	}
 
+	private void itemRemoved(Item item) {
+		item.onParentStateChanged(new ItemParentStateChangedEvent(this,
+				ItemParentStateChangedEvent.EVENT_TYPE_REMOVED));
+		// Remove widgets from the widget list
+		if (item instanceof WidgetCorner) {
+			_iWidgets.remove(((WidgetCorner) item).getWidgetSource());
+		}
+		item.invalidateCommonTrait(ItemAppearence.Removed);
+	}
+
+	private synchronized UndoHistory getHistory() {
+		if (_history == null)
+			_history = new UndoHistory();
+		return _history;
+	}
+
 	/**
-	 * Adds the given History event to the stack.
-	 * 
-	 * @param stack The stack to add to
-	 * @param items The items to put in the event
-	 * @param type  The type of event that occurred
+	 * Forgets the changes which can be undone and redone on this frame.
 	 */
-	private void addToUndo(Collection<Item> items, History.Type type) {
-		if (items.size() < 1)
-			return;
-		
-		// System.out.println("Added: " + items);
+	synchronized void clearHistory() {
+		if (_history != null)
+			_history.clear();
+	}
 
-		_undo.push(new History(items, type));
+	/**
+	 * @return the number of changes which can be undone on this frame.
+	 */
+	int getUndoCount() {
+		return _history == null ? 0 : _history.getUndoCount();
 	}
-	
+
 	public void addToUndoDelete(Collection<Item> items) {
-		addToUndo(items, History.Type.deletion);
+		getHistory().pushUndo(UndoHistory.deletion(items));
 	}
+
+	/**
+	 * @param items
+	 *            the items as they were before they were moved, which may be
+	 *            copies with the IDs of the items on the frame.
+	 */
 	public void addToUndoMove(Collection<Item> items) {
-		addToUndo(items, History.Type.movement);
+		getHistory().pushUndo(UndoHistory.movement(items));
 	}
 
 	public void undo() {
-		boolean bReparse = false;
-		boolean bRecalculate = false;
-
-		if (_undo.size() <= 0)
+		if (_history == null)
+			return;
+		UndoHistory.Step undo = _history.popUndo();
+		if (undo == null)
 			return;
 
-		History undo = _undo.pop();
-		
 		// System.out.println("Undoing: " + undo);
 
 		switch(undo.type) {
 		case deletion:
-			_redo.push(undo);
-    		for(Item i : undo.items) {
-    			_body.add(i);
-				bReparse |= i.hasOverlay();
-				bRecalculate |= i.recalculateWhenChanged();
-				if (i instanceof Line) {
-					Line line = (Line) i;
-					line.getStartItem().addLine(line);
-					line.getEndItem().addLine(line);
-				} else {
-					i.setOffset(0, 0);
-				}
-    		}
+			_history.pushRedo(undo);
+			restoreItems(undo.items);
     		break;
 		case movement:
-			List<Item> changed = new LinkedList<Item>(_body);
-			changed.retainAll(undo.items);
-			_redo.push(new History(changed, History.Type.movement));
-			for(Item i : undo.items) {
-				int index;
-				if(i.isVisible() && (index = _body.indexOf(i)) != -1) {
-					_body.set(index, i);
-				}
-    		}
+			_history.pushRedo(moveItems(undo));
 			break;
 		}
-		change();
-		FrameMouseActions.getInstance().refreshHighlights();
-		if (bReparse) {
-			FrameUtils.Parse(this, false, false);
-		} else {
-			notifyObservers(bRecalculate);
-		}
-		// always request a refresh otherwise filled shapes
-		// that were broken by a deletion and then reconnected by the undo
-		// don't get filled until the user otherwise causes them to redraw
-		FrameGraphics.requestRefresh(false);
-		FrameGraphics.Repaint();
-		ItemUtils.EnclosedCheck(_body);
+		historyRestored(undo);
 	}
 	
 	public void redo() {
-		boolean bReparse = false;
-		boolean bRecalculate = false;
-
-		if (_redo.size() <= 0)
+		if (_history == null)
+			return;
+		UndoHistory.Step redo = _history.popRedo();
+		if (redo == null)
 			return;
 
-		History redo = _redo.pop();
-		
 		// System.out.println("Redoing: " + redo);
 
 		switch(redo.type) {
 		case deletion:
-			_undo.push(redo);
+			_history.pushUndo(redo);
     		for(Item i : redo.items) {
     			_body.remove(i);
-				bReparse |= i.hasOverlay();
-				bRecalculate |= i.recalculateWhenChanged();
 				if (i instanceof Line) {
 					Line line = (Line) i;
 					line.getStartItem().removeLine(line);
@@ -1014,17 +1291,64 @@ public class Frame implements ImageObserver {
     		}
     		break;
 		case movement:
-			List<Item> changed = new LinkedList<Item>(_body);
-			changed.retainAll(redo.items);
-			_undo.push(new History(changed, History.Type.movement));
-			for(Item i : redo.items) {
-				int index;
-				if(i.isVisible() && (index = _body.indexOf(i)) != -1) {
-					_body.set(index, i);
-				}
-    		}
+			_history.pushUndo(moveItems(redo));
 			break;
 		}
+		historyRestored(redo);
+	}
+
+	private void restoreItems(List<Item> items) {
+		for(Item i : items) {
+			_body.add(i);
+			if (i instanceof Line) {
+				Line line = (Line) i;
+				line.getStartItem().addLine(line);
+				line.getEndItem().addLine(line);
+			} else {
+				i.setOffset(0, 0);
+			}
+		}
+	}
+
+	/**
+	 * Moves the items on this frame back to the positions and text recorded
+	 * in a step.
+	 * 
+	 * @return a step recording where the items were before they were moved.
+	 */
+	private UndoHistory.Step moveItems(UndoHistory.Step step) {
+		List<Item> moved = new ArrayList<Item>(step.size());
+		for (int k = 0; k < step.size(); k++) {
+			Item i = getItemWithID(step.ids[k]);
+			if (i != null && i.isVisible())
+				moved.add(i);
+		}
+		UndoHistory.Step opposite = UndoHistory.movement(moved);
+		for (int k = 0; k < step.size(); k++) {
+			Item i = getItemWithID(step.ids[k]);
+			if (i == null || !i.isVisible())
+				continue;
+			if (step.texts[k] != null && i instanceof Text
+					&& !step.texts[k].equals(i.getText()))
+				i.setText(step.texts[k]);
+			if (i.getX() != step.xs[k] || i.getY() != step.ys[k])
+				i.setPosition(step.xs[k], step.ys[k]);
+		}
+		return opposite;
+	}
+
+	private void historyRestored(UndoHistory.Step step) {
+		boolean bReparse = false;
+		boolean bRecalculate = false;
+		if (step.type == UndoHistory.Type.deletion) {
+			for (Item i : step.items) {
+				bReparse |= i.hasOverlay();
+				bRecalculate |= i.recalculateWhenChanged();
+			}
+		}
+		_spatialIndex = null;
+		_itemsByID = null;
+		bodyChanged();
 		change();
 		FrameMouseActions.getInstance().refreshHighlights();
 		if (bReparse) {
@@ -1286,6 +1610,8 @@ public class Frame implements ImageObserver {
 			i.setEditTarget(toAdd.Source);
 			i.setHighlightMode(mode, highlightColor);
 			_vectorItems.add(i);
+			_interactableItems.clear();
+			bodyChanged();
 			i.invalidateAll();
 			i.invalidateFill();
 			// Get the right most x and bottom most y pos
@@ -1388,7 +1714,8 @@ public class Frame implements ImageObserver {
 			i.invalidateFill();
 		}
 		_vectorItems.clear();
-
+		_interactableItems.clear();
+		bodyChanged();
 	}
 
 	protected boolean removeVector(Vector toRemove) {
@@ -1398,6 +1725,8 @@ public class Frame implements ImageObserver {
 			i.invalidateAll();
 			i.invalidateFill();
 			_vectorItems.remove(i);
+			_interactableItems.clear();
+			bodyChanged();
 			i.onParentStateChanged(new ItemParentStateChangedEvent(this,
 					ItemParentStateChangedEvent.EVENT_TYPE_REMOVED_VIA_OVERLAY,
 					toRemove.permission));
@@ -1408,7 +1737,7 @@ public class Frame implements ImageObserver {
 
 	public void clearOverlays() {
 		for (Overlay o : _overlays.keySet()) {
-			for (Item i : o.Frame.getItems()) {
+			for (Item i : o.Frame.getItemsView()) {
 				i
 						.onParentStateChanged(new ItemParentStateChangedEvent(
 								this,
@@ -1417,6 +1746,8 @@ public class Frame implements ImageObserver {
 			}
 		}
 		_overlayItems.clear();
+		_interactableItems.clear();
+		bodyChanged();
 		_overlays.clear();
 		assert (_overlays.isEmpty());
 	}
@@ -1425,8 +1756,10 @@ public class Frame implements ImageObserver {
 		for (Overlay o : _overlays.keySet()) {
 			if (o.Frame == f) {
 				_overlays.remove(o);
-				for (Item i : f.getItems()) {
+				for (Item i : f.getItemsView()) {
 					_overlayItems.remove(i);
+					_interactableItems.clear();
+					bodyChanged();
 					i
 							.onParentStateChanged(new ItemParentStateChangedEvent(
 									this,
@@ -1473,12 +1806,14 @@ public class Frame implements ImageObserver {
 
 		// Items must be notified that they have been added or removed from this
 		// frame via the overlay...
-		for (Item i : toAdd.Frame.getVisibleItems()) {
+		for (Item i : toAdd.Frame.getItemsView(true)) {
 			i.onParentStateChanged(new ItemParentStateChangedEvent(this,
 					ItemParentStateChangedEvent.EVENT_TYPE_ADDED_VIA_OVERLAY,
 					permission));
 			// i.setPermission(permission);
 			_overlayItems.add(i);
+			_interactableItems.clear();
+			bodyChanged();
 		}
 
 		return true;
@@ -1507,7 +1842,7 @@ public class Frame implements ImageObserver {
 		if (toMergeWith == null)
 			return;
 
-		List<Item> copies = ItemUtils.CopyItems(toMergeWith.getItems());
+		List<Item> copies = ItemUtils.CopyItems(toMergeWith.getItemsView());
 		copies.remove(toMergeWith.getNameItem());
 
 		for (Item i : copies) {
@@ -1567,6 +1902,9 @@ public class Frame implements ImageObserver {
 		_body.removeAll(newBody);
 		addToUndoDelete(_body);
 		_body = newBody;
+		_spatialIndex = null;
+		_itemsByID = null;
+		bodyChanged();
 		change();
 
 		if (!keepAnnotations && _annotations != null)
@@ -1646,7 +1984,7 @@ public class Frame implements ImageObserver {
 		Text t = null;
 
 		// check for an updated template...
-		for (Item i : this.getItems()) {
+		for (Item i : this.getItemsView()) {
 			if (ItemUtils.startsWithTag(i, templateTag)) {
 				t = (Text) i;
 				break;
@@ -1817,7 +2155,7 @@ public class Frame implements ImageObserver {
 	 * @param index
 	 */
 	public boolean moveMouseToTextItem(int index) {
-		List<Item> items = getItems();
+		List<Item> items = getItemsView();
 		int itemsFound = 0;
 		for (int i = 0; i < items.size(); i++) {
 			Item it = items.get(i);
@@ -1852,7 +2190,7 @@ public class Frame implements ImageObserver {
 	 * cursor location when TDFC occurs.
 	 */
 	public boolean moveMouseToDefaultLocation() {
-		List<Item> items = getItems();
+		List<Item> items = getItemsView();
 
 		for (Item it : items) {
 			if (it instanceof Text) {
@@ -2118,6 +2456,7 @@ public class Frame implements ImageObserver {
 
 	public void clearAnnotations() {
 		_annotations = null;
+		bodyChanged();
 	}
 
 	public List<Item> getVisibleItems() {
@@ -2136,11 +2475,15 @@ public class Frame implements ImageObserver {
 		}
 	}
 
+	/**
+	 * @return the annotation items on this frame, in a collection which cannot
+	 *         be changed.
+	 */
 	public Collection<Text> getAnnotationItems() {
 		if (_annotations == null) {
 			refreshAnnotationList();
 		}
-		return _annotations.values();
+		return Collections.unmodifiableCollection(_annotations.values());
 	}
 
 	/**
@@ -2150,10 +2493,7 @@ public class Frame implements ImageObserver {
 	 */
 	public List<Item> getItemsToSave() {
 
-		if (!_sorted) {
-			Collections.sort(_body);
-			_sorted = true;
-		}
+		sortBody();
 
 		// iWidgets are handled specially since 8 items are written as one
 		Collection<InteractiveWidget> seenWidgets = new LinkedHashSet<InteractiveWidget>();
@@ -2223,14 +2563,26 @@ public class Frame implements ImageObserver {
 	 * @return
 	 */
 	public Collection<Text> getTextItems() {
-		Collection<Text> textItems = new ArrayList<Text>();
-		for (Item i : getItems(true)) {
-			// only add up normal body text items
-			if ((i instanceof Text)) {
-				textItems.add((Text) i);
+		return new ArrayList<Text>(getTextItemsView());
+	}
+
+	/**
+	 * @return the text items shown on this frame, in a list which cannot be
+	 *         changed and is not updated as the frame changes.
+	 */
+	public List<Text> getTextItemsView() {
+		checkViews();
+		if (_textItemsView == null) {
+			List<Text> textItems = new ArrayList<Text>();
+			for (Item i : getItemsView(true)) {
+				// only add up normal body text items
+				if ((i instanceof Text)) {
+					textItems.add((Text) i);
+				}
 			}
+			_textItemsView = Collections.unmodifiableList(textItems);
 		}
-		return textItems;
+		return _textItemsView;
 	}
 
 	public Text getAnnotation(String annotation) {
@@ -2242,7 +2594,7 @@ public class Frame implements ImageObserver {
 
 	public void recalculate() {
 
-		for (Item i : getItems()) {
+		for (Item i : getItemsView()) {
 			if (i.hasFormula() && !i.isAnnotation()) {
 				i.calculate(i.getFormula());
 			}
@@ -2267,7 +2619,7 @@ public class Frame implements ImageObserver {
 
 	public Collection<Text> getNonAnnotationText(boolean removeTitle) {
 		Collection<Text> items = new LinkedHashSet<Text>();
-		for (Item i : getItems(true)) {
+		for (Item i : getItemsView(true)) {
 			// only add up normal body text items
 			if (i instanceof Text && !i.isAnnotation()) {
 				items.add((Text) i);
@@ -2286,6 +2638,9 @@ public class Frame implements ImageObserver {
 		}
 		_frameName.dispose();
 		_body = null;
+		_spatialIndex = null;
+		_itemsByID = null;
+		bodyChanged();
 		_frameName = null;
 	}
 
@@ -2319,8 +2674,8 @@ public class Frame implements ImageObserver {
 
 	public void assertEquals(Frame frame2) {
 		// Check that all the items on the frame are the same
-		List<Item> items1 = getVisibleItems();
-		List<Item> items2 = frame2.getVisibleItems();
+		List<Item> items1 = getItemsView(true);
+		List<Item> items2 = frame2.getItemsView(true);
 		if (items1.size() != items2.size()) {
 			throw new UnitTestFailedException(items1.size() + " items", items2
 					.size()
@@ -2342,6 +2697,72 @@ public class Frame implements ImageObserver {
 		return _observers != null && _observers.size() > 0;
 	}
 
+	/**
+	 * Gets the interactable items which may be under a point, in the same
+	 * order as {@link #getInteractableItems()}. Items in the body which are
+	 * too far from the point to contain it are left out.
+	 */
+	public Collection<? extends Item> getInteractableItemsNear(int x, int y) {
+		FrameSpatialIndex index = getSpatialIndex();
+		if (index == null)
+			return getInteractableItems();
+
+		// the most any item lets the cursor miss it by
+		int gravity = 2 * Math.max(UserSettings.Gravity.get(), 2) + 1;
+		Collection<Item> items = new LinkedHashSet<Item>();
+		for (Item i : index.getItemsNear(new Rectangle(x - gravity, y
+				- gravity, 2 * gravity, 2 * gravity))) {
+			if (i.isVisible())
+				items.add(i);
+		}
+
+		for (Item i : _overlayItems) {
+			if (i.hasPermission(UserAppliedPermission.followLinks)) {
+				items.add(i);
+			}
+		}
+
+		for (Item i : _vectorItems) {
+			if (i.hasPermission(UserAppliedPermission.none)) {
+				items.add(i);
+			}
+		}
+
+		return items;
+	}
+
+	/**
+	 * Gets the items from {@link #getAllItems()} which may be drawn in part of
+	 * the frame. Items in the body which are outside the area are left out.
+	 */
+	public Collection<Item> getAllItemsNear(Rectangle area) {
+		FrameSpatialIndex index = getSpatialIndex();
+		if (index == null)
+			return getAllItems();
+
+		Collection<Item> allItems = new LinkedHashSet<Item>(index
+				.getItemsNear(area));
+		allItems.addAll(_overlayItems);
+		allItems.addAll(_vectorItems);
+		return allItems;
+	}
+
+	/**
+	 * @return the items from the body in a collection, in the order of the
+	 *         body.
+	 */
+	public List<Item> inBodyOrder(Collection<Item> items) {
+		FrameSpatialIndex index = getSpatialIndex();
+		if (index != null)
+			return index.sort(items);
+		List<Item> sorted = new ArrayList<Item>();
+		for (Item i : _body) {
+			if (i != null && items.contains(i))
+				sorted.add(i);
+		}
+		return sorted;
+	}
+
 	public Collection<? extends Item> getInteractableItems() {
 		/*
 		 * TODO: Cache the interactableItems list so we dont have to recreate it
@@ -1,17 +1,211 @@
 package org.expeditee.gui;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 
-public class FrameCache extends HashMap<String, Frame> {
+import org.expeditee.settings.performance.PerformanceSettings;
+
+/**
+ * A bounded cache of loaded frames, keyed by lower case frame name. Frames are
+ * evicted one at a time in least recently used order once either the frame
+ * count or the estimated heap budget in {@link PerformanceSettings} is
+ * exceeded. Frames that are on screen, overlaid or vectored onto a frame on
+ * screen, or on the back/forward stacks are never evicted.
+ *
+ * Evicted frames are not disposed because they may still be referenced as an
+ * overlay or vector of another frame, but their undo history is dropped.
+ */
+public class FrameCache extends LinkedHashMap<String, Frame> {
 
 	/**
-	 * 
+	 *
 	 */
 	private static final long serialVersionUID = 1L;
 
-	 public Frame remove(String key) {
-		 Frame toRemove = super.remove(key);
-		 toRemove.dispose();
-		 return toRemove;
-	 }
+	/**
+	 * Rough heap cost of a frame with no items, used to estimate the size of
+	 * the cache.
+	 */
+	private static final long FRAME_BYTES = 4 * 1024;
+
+	/**
+	 * Rough heap cost of a single item, including its cached drawing state.
+	 */
+	private static final long ITEM_BYTES = 1024;
+
+	private final Map<String, Long> _weights = new HashMap<String, Long>();
+
+	private long _totalWeight = 0;
+
+	private long _hits = 0;
+
+	private long _misses = 0;
+
+	private long _evictions = 0;
+
+	public FrameCache() {
+		// access ordered so iteration starts at the least recently used frame
+		super(128, 0.75F, true);
+	}
+
+	/**
+	 * Gets a frame from the cache, recording whether the lookup was a hit or
+	 * a miss.
+	 *
+	 * @param name
+	 *            the lower case name of the frame
+	 * @return the cached frame or null if it is not cached
+	 */
+	public synchronized Frame lookup(String name) {
+		Frame frame = super.get(name);
+		if (frame == null)
+			_misses++;
+		else
+			_hits++;
+		return frame;
+	}
+
+	@Override
+	public synchronized Frame get(Object key) {
+		return super.get(key);
+	}
+
+	@Override
+	public synchronized boolean containsKey(Object key) {
+		return super.containsKey(key);
+	}
+
+	@Override
+	public synchronized Frame put(String key, Frame frame) {
+		Frame old = super.put(key, frame);
+		Long oldWeight = _weights.put(key, estimateSize(frame));
+		if (oldWeight != null)
+			_totalWeight -= oldWeight;
+		_totalWeight += _weights.get(key);
+		trim();
+		return old;
+	}
+
+	@Override
+	public synchronized Frame remove(Object key) {
+		Frame removed = super.remove(key);
+		removeWeight(key);
+		return removed;
+	}
+
+	@Override
+	public synchronized void clear() {
+		super.clear();
+		_weights.clear();
+		_totalWeight = 0;
+	}
+
+	/**
+	 * @return the estimated number of bytes of heap held by cached frames.
+	 */
+	public synchronized long getEstimatedSize() {
+		return _totalWeight;
+	}
+
+	public synchronized long getHits() {
+		return _hits;
+	}
+
+	public synchronized long getMisses() {
+		return _misses;
+	}
+
+	public synchronized long getEvictions() {
+		return _evictions;
+	}
+
+	public synchronized void resetStats() {
+		_hits = 0;
+		_misses = 0;
+		_evictions = 0;
+	}
+
+	/**
+	 * @return a one line summary of the cache size and counters.
+	 */
+	public synchronized String getStats() {
+		long lookups = _hits + _misses;
+		StringBuffer stats = new StringBuffer("FrameCache: ");
+		stats.append(size()).append(" frames, ");
+		stats.append(_totalWeight / 1024).append("KB, ");
+		stats.append("hits ").append(_hits).append(", ");
+		stats.append("misses ").append(_misses).append(", ");
+		stats.append("evictions ").append(_evictions);
+		if (lookups > 0)
+			stats.append(", hit rate ").append(_hits * 100 / lookups)
+					.append('%');
+		return stats.toString();
+	}
+
+	private void removeWeight(Object key) {
+		Long weight = _weights.remove(key);
+		if (weight != null)
+			_totalWeight -= weight;
+	}
+
+	/**
+	 * Evicts least recently used frames, skipping pinned frames, until the
+	 * cache is within its budget.
+	 */
+	private void trim() {
+		int maxFrames = PerformanceSettings.FrameCacheSize.get();
+		long maxBytes = PerformanceSettings.FrameCacheMemory.get() * 1024L * 1024L;
+
+		if (!isOverBudget(maxFrames, maxBytes))
+			return;
+
+		Set<String> pinned = getPinnedNames();
+		Iterator<Map.Entry<String, Frame>> entries = entrySet().iterator();
+		while (entries.hasNext() && isOverBudget(maxFrames, maxBytes)) {
+			Map.Entry<String, Frame> entry = entries.next();
+			String key = entry.getKey();
+			if (pinned.contains(key))
+				continue;
+			entries.remove();
+			removeWeight(key);
+			// the frame is read again if it is visited, so its changes can no
+			// longer be undone
+			entry.getValue().clearHistory();
+			_evictions++;
+		}
+	}
+
+	private boolean isOverBudget(int maxFrames, long maxBytes) {
+		return (maxFrames > 0 && size() > maxFrames)
+				|| (maxBytes > 0 && _totalWeight > maxBytes);
+	}
+
+	/**
+	 * @return the lower case names of the frames which must stay cached: the
+	 *         frames on screen, their overlays and vectors and the frames on
+	 *         the back and forward stacks.
+	 */
+	private static Set<String> getPinnedNames() {
+		Set<String> pinned = new HashSet<String>();
+		for (Frame frame : DisplayIO.getFrames()) {
+			if (frame == null)
+				continue;
+			pinned.add(frame.getName().toLowerCase());
+			for (Overlay o : frame.getOverlays())
+				pinned.add(o.Frame.getName().toLowerCase());
+			for (Vector v : frame.getVectorsDeep())
+				pinned.add(v.Frame.getName().toLowerCase());
+		}
+		for (String name : DisplayIO.getHistory())
+			pinned.add(name.toLowerCase());
+		return pinned;
+	}
+
+	static long estimateSize(Frame frame) {
+		return FRAME_BYTES + ITEM_BYTES * frame.getBodySize();
+	}
 }
@@ -37,6 +37,8 @@ public class FrameCreator {
 
 	private Frame _firstFrame;
 
+	private FrameNumbers _numbers;
+
 	private boolean _multiColumn;
 
 	public FrameCreator(String frameTitle) {
@@ -109,6 +111,7 @@ public class FrameCreator {
 
 		resetGlobals(toUse);
 		_firstFrame = toUse;
+		_numbers = new FrameNumbers(toUse.getPath(), toUse.getFramesetName());
 
 		// set positions of next\prev frame links
 		// _Mnext.setPosition(FrameGraphics.getMaxSize().width - 100,
@@ -128,7 +131,7 @@ public class FrameCreator {
 	public boolean createNextFrame() {
 		try {
 			Frame newFrame = FrameIO.CreateFrame(_current.getFramesetName(),
-					_current.getTitle(), null);
+					_current.getTitle(), null, _numbers);
 
 			// add link to previous frame
 			// _prev =
@@ -231,6 +234,8 @@ public class FrameCreator {
 
 	public void save() {
 		FrameIO.ForceSaveFrame(_current);
+		// give back the numbers reserved for frames which were not needed
+		_numbers.release();
 	}
 	
 	public int getLastY() {
@@ -0,0 +1,540 @@
+package org.expeditee.gui;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.expeditee.io.Conversion;
+import org.expeditee.io.ExbReader;
+import org.expeditee.io.ExpReader;
+import org.expeditee.io.FramesetLog;
+import org.expeditee.io.FramesetPack;
+
+/**
+ * An in-memory index of the framesets and frame files in each frame
+ * directory, so that frame names can be resolved to files without probing the
+ * file system.
+ *
+ * Each frame directory is listed the first time it is used and each frameset
+ * directory the first time a frame in it is looked up. After that the index is
+ * kept current by FrameIO as it creates, saves, deletes, moves and copies
+ * frames, and by a file system watcher for changes made outside Expeditee.
+ *
+ * All methods are static and synchronized on this class.
+ */
+public class FrameFileIndex {
+
+	/**
+	 * A directory listed in the FrameDirs setting, which contains one sub
+	 * directory per frameset.
+	 */
+	private static final class FrameDirectory {
+		private final File dir;
+
+		// frameset directory names mapped to their contents, null until listed
+		private Map<String, FramesetDirectory> framesets = null;
+
+		private FrameDirectory(File dir) {
+			this.dir = dir;
+		}
+	}
+
+	/**
+	 * A frameset directory containing one file per frame, a log of frames or
+	 * a pack of frames.
+	 */
+	private static final class FramesetDirectory {
+		private final File dir;
+
+		// frame numbers saved in the exp format, null until listed
+		private Set<Integer> expFrames = null;
+
+		// frame numbers saved in the binary exb format
+		private Set<Integer> exbFrames = null;
+
+		// frame numbers stored in the frameset's log
+		private Set<Integer> logFrames = null;
+
+		// frame numbers stored in the frameset's read-only pack
+		private Set<Integer> packFrames = null;
+
+		// frame numbers saved in the old KMS file name format
+		private Set<Integer> oldFrames = null;
+
+		private FramesetDirectory(File dir) {
+			this.dir = dir;
+		}
+	}
+
+	private static final Map<String, FrameDirectory> _FrameDirectories = new HashMap<String, FrameDirectory>();
+
+	// paths as given by callers mapped to their normalised form
+	private static final Map<String, String> _Keys = new HashMap<String, String>();
+
+	private static final Map<WatchKey, Object> _WatchedDirectories = new HashMap<WatchKey, Object>();
+
+	private static WatchService _Watcher = null;
+
+	private static boolean _WatcherFailed = false;
+
+	// All methods are static, this should not be instantiated
+	private FrameFileIndex() {
+	}
+
+	/**
+	 * Indexes the given frame directories and every frameset in them. This is
+	 * done in a background thread so that startup is not delayed; lookups
+	 * made before it finishes index what they need themselves.
+	 *
+	 * @param paths
+	 *            the frame directories to index
+	 */
+	public static void build(Collection<String> paths) {
+		final Collection<String> toIndex = new HashSet<String>(paths);
+		Thread builder = new Thread("FrameFileIndex builder") {
+			@Override
+			public void run() {
+				for (String path : toIndex) {
+					FrameDirectory frameDir = getFrameDirectory(path);
+					Collection<FramesetDirectory> framesets;
+					synchronized (FrameFileIndex.class) {
+						framesets = new HashSet<FramesetDirectory>(frameDir.framesets
+								.values());
+					}
+					for (FramesetDirectory frameset : framesets) {
+						synchronized (FrameFileIndex.class) {
+							if (frameset.expFrames == null)
+								listFrameset(frameset);
+						}
+					}
+				}
+			}
+		};
+		builder.setDaemon(true);
+		builder.setPriority(Thread.MIN_PRIORITY);
+		builder.start();
+	}
+
+	/**
+	 * Gets the full path and file name of the frame.
+	 *
+	 * @param path
+	 *            the frame directory in which to look for the frameset
+	 *            containing the frame.
+	 * @param frameName
+	 *            the name of the frame to locate.
+	 * @return null if the frame can not be located.
+	 */
+	public static synchronized String getFramePath(String path,
+			String frameName) {
+		if (path == null)
+			return null;
+
+		String framesetName = Conversion.getFramesetName(frameName);
+		FramesetDirectory frameset = getFrameDirectory(path).framesets
+				.get(framesetName);
+		if (frameset == null)
+			return null;
+		if (frameset.expFrames == null)
+			listFrameset(frameset);
+
+		int number = Conversion.getFrameNumber(frameName);
+		String source = path + framesetName + File.separator;
+		if (frameset.expFrames.contains(number))
+			return source + number + ExpReader.EXTENTION;
+		if (frameset.exbFrames.contains(number))
+			return source + number + ExbReader.EXTENTION;
+		if (frameset.logFrames.contains(number))
+			return source + number + FramesetLog.EXTENTION;
+		// frames saved since the frameset was packed replace the packed ones
+		if (frameset.packFrames.contains(number))
+			return source + number + FramesetPack.EXTENTION;
+		if (frameset.oldFrames.contains(number))
+			return source + framesetName + "." + number;
+		return null;
+	}
+
+	/**
+	 * Gets the numbers of the frames in a frameset, in whichever format they
+	 * are stored.
+	 *
+	 * @return the frame numbers in order, or null if the frameset has no
+	 *         directory in the given path
+	 */
+	public static synchronized SortedSet<Integer> getFrameNumbers(String path,
+			String framesetName) {
+		if (path == null)
+			return null;
+		FramesetDirectory frameset = getFrameDirectory(path).framesets
+				.get(framesetName.toLowerCase());
+		if (frameset == null)
+			return null;
+		if (frameset.expFrames == null)
+			listFrameset(frameset);
+
+		SortedSet<Integer> numbers = new TreeSet<Integer>(frameset.expFrames);
+		numbers.addAll(frameset.exbFrames);
+		numbers.addAll(frameset.logFrames);
+		numbers.addAll(frameset.packFrames);
+		numbers.addAll(frameset.oldFrames);
+		return numbers;
+	}
+
+	/**
+	 * Checks if a frameset directory exists in a frame directory.
+	 *
+	 * @param path
+	 *            the frame directory
+	 * @param framesetName
+	 *            the name of the frameset
+	 * @return true if the frameset has a directory in the given path
+	 */
+	public static synchronized boolean hasFrameset(String path,
+			String framesetName) {
+		if (path == null)
+			return false;
+		return getFrameDirectory(path).framesets.containsKey(framesetName
+				.toLowerCase());
+	}
+
+	/**
+	 * Gets the names of the frameset directories in a frame directory, in lower
+	 * case.
+	 */
+	public static synchronized SortedSet<String> getFramesetNames(String path) {
+		if (path == null)
+			return new TreeSet<String>();
+		return new TreeSet<String>(getFrameDirectory(path).framesets.keySet());
+	}
+
+	/**
+	 * Records that a frameset directory has been created.
+	 */
+	public static synchronized void addFrameset(String path,
+			String framesetName) {
+		FrameDirectory frameDir = findFrameDirectory(path);
+		if (frameDir == null)
+			return;
+		String name = framesetName.toLowerCase();
+		if (!frameDir.framesets.containsKey(name))
+			frameDir.framesets.put(name, new FramesetDirectory(new File(
+					frameDir.dir, name)));
+	}
+
+	/**
+	 * Records that a frameset directory has been moved or deleted.
+	 */
+	public static synchronized void removeFrameset(String path,
+			String framesetName) {
+		FrameDirectory frameDir = findFrameDirectory(path);
+		if (frameDir == null)
+			return;
+		frameDir.framesets.remove(framesetName.toLowerCase());
+	}
+
+	/**
+	 * Records that a frame file has been written.
+	 *
+	 * @param fullPath
+	 *            the path of the frame file
+	 */
+	public static synchronized void addFile(String fullPath) {
+		File file = new File(fullPath);
+		FramesetDirectory frameset = findFramesetDirectory(file);
+		if (frameset != null && frameset.expFrames != null)
+			indexFile(frameset, file.getName(), true);
+	}
+
+	/**
+	 * Records that a frame file has been deleted.
+	 *
+	 * @param fullPath
+	 *            the path of the frame file
+	 */
+	public static synchronized void removeFile(String fullPath) {
+		File file = new File(fullPath);
+		FramesetDirectory frameset = findFramesetDirectory(file);
+		if (frameset != null && frameset.expFrames != null)
+			indexFile(frameset, file.getName(), false);
+	}
+
+	/**
+	 * Discards everything indexed for the given frame directory, so it is
+	 * listed again when next used.
+	 */
+	public static synchronized void invalidate(String path) {
+		_FrameDirectories.remove(getKey(path));
+	}
+
+	/**
+	 * Discards the whole index.
+	 */
+	public static synchronized void clear() {
+		_FrameDirectories.clear();
+	}
+
+	private static String getKey(String path) {
+		String key = _Keys.get(path);
+		if (key == null) {
+			key = new File(path).getAbsoluteFile().toPath().normalize()
+					.toString();
+			_Keys.put(path, key);
+		}
+		return key;
+	}
+
+	/**
+	 * Gets the entry for a frame directory, listing its framesets if this is
+	 * the first time it has been used.
+	 */
+	private static synchronized FrameDirectory getFrameDirectory(String path) {
+		String key = getKey(path);
+		FrameDirectory frameDir = _FrameDirectories.get(key);
+		if (frameDir == null) {
+			frameDir = new FrameDirectory(new File(key));
+			listFrameDirectory(frameDir);
+			_FrameDirectories.put(key, frameDir);
+		}
+		return frameDir;
+	}
+
+	/**
+	 * Gets the entry for a frame directory only if it is already indexed.
+	 */
+	private static FrameDirectory findFrameDirectory(String path) {
+		if (path == null)
+			return null;
+		return _FrameDirectories.get(getKey(path));
+	}
+
+	private static FramesetDirectory findFramesetDirectory(File file) {
+		File framesetDir = file.getAbsoluteFile().getParentFile();
+		if (framesetDir == null || framesetDir.getParentFile() == null)
+			return null;
+		FrameDirectory frameDir = findFrameDirectory(framesetDir
+				.getParentFile().getPath());
+		if (frameDir == null)
+			return null;
+		return frameDir.framesets.get(framesetDir.getName().toLowerCase());
+	}
+
+	private static void listFrameDirectory(FrameDirectory frameDir) {
+		frameDir.framesets = new HashMap<String, FramesetDirectory>();
+		File[] files = frameDir.dir.listFiles();
+		if (files == null)
+			return;
+		for (File f : files) {
+			if (f.isDirectory())
+				indexFrameset(frameDir, f.getName());
+		}
+		watch(frameDir.dir, frameDir);
+	}
+
+	/**
+	 * Adds a frameset directory to a frame directory's entry, keyed by its name
+	 * in lower case as frameset names are looked up. FrameIO only opens the
+	 * lower case name, so a directory named otherwise is only added if that
+	 * finds it too, ie. if the file system ignores case.
+	 */
+	private static void indexFrameset(FrameDirectory frameDir, String name) {
+		String key = name.toLowerCase();
+		if (frameDir.framesets.containsKey(key))
+			return;
+		File dir = new File(frameDir.dir, key);
+		if (key.equals(name) || dir.isDirectory())
+			frameDir.framesets.put(key, new FramesetDirectory(dir));
+	}
+
+	private static void listFrameset(FramesetDirectory frameset) {
+		frameset.expFrames = new HashSet<Integer>();
+		frameset.exbFrames = new HashSet<Integer>();
+		frameset.logFrames = new HashSet<Integer>();
+		frameset.packFrames = new HashSet<Integer>();
+		frameset.oldFrames = new HashSet<Integer>();
+		String[] files = frameset.dir.list();
+		if (files == null)
+			return;
+		for (String name : files)
+			indexFile(frameset, name, true);
+		watch(frameset.dir, frameset);
+	}
+
+	/**
+	 * Adds or removes a file from a frameset's entry if its name is that of a
+	 * frame file, either <code>number.exp</code>, <code>number.exb</code> or
+	 * <code>frameset.number</code>, or the frames in the log or pack if it is
+	 * the frameset's log or pack. Frames in a log are named
+	 * <code>number.exl</code> and frames in a pack <code>number.exk</code>.
+	 */
+	private static void indexFile(FramesetDirectory frameset, String name,
+			boolean exists) {
+		if (name.equals(FramesetLog.FILENAME)) {
+			indexLog(frameset, exists);
+			return;
+		}
+		if (FramesetPack.isPackFile(name)) {
+			indexPack(frameset);
+			return;
+		}
+
+		Set<Integer> frames;
+		String number;
+		String oldPrefix = frameset.dir.getName() + ".";
+		if (name.endsWith(ExpReader.EXTENTION)) {
+			frames = frameset.expFrames;
+			number = name.substring(0, name.length()
+					- ExpReader.EXTENTION.length());
+		} else if (name.endsWith(ExbReader.EXTENTION)) {
+			frames = frameset.exbFrames;
+			number = name.substring(0, name.length()
+					- ExbReader.EXTENTION.length());
+		} else if (name.endsWith(FramesetLog.EXTENTION)) {
+			frames = frameset.logFrames;
+			number = name.substring(0, name.length()
+					- FramesetLog.EXTENTION.length());
+		} else if (name.endsWith(FramesetPack.EXTENTION)) {
+			frames = frameset.packFrames;
+			number = name.substring(0, name.length()
+					- FramesetPack.EXTENTION.length());
+		} else if (name.regionMatches(true, 0, oldPrefix, 0, oldPrefix
+				.length())) {
+			frames = frameset.oldFrames;
+			number = name.substring(oldPrefix.length());
+		} else {
+			return;
+		}
+
+		// Only the canonical form of the number is ever looked up
+		if (!FrameIO.isPositiveInteger(number)
+				|| (number.length() > 1 && number.charAt(0) == '0')
+				|| number.length() > 9)
+			return;
+
+		if (exists)
+			frames.add(Integer.parseInt(number));
+		else
+			frames.remove(Integer.parseInt(number));
+	}
+
+	private static void indexLog(FramesetDirectory frameset, boolean exists) {
+		frameset.logFrames.clear();
+		if (!exists)
+			return;
+		try {
+			frameset.logFrames.addAll(FramesetLog.open(frameset.dir)
+					.getFrameNumbers());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static void indexPack(FramesetDirectory frameset) {
+		frameset.packFrames.clear();
+		// a generation has been added or removed, so map the latest again
+		FramesetPack.close(frameset.dir);
+		if (!FramesetPack.exists(frameset.dir))
+			return;
+		try {
+			frameset.packFrames.addAll(FramesetPack.open(frameset.dir)
+					.getFrameNumbers());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Registers a directory with the file system watcher, starting the
+	 * watcher thread if this is the first directory.
+	 */
+	private static void watch(File dir, Object entry) {
+		if (_WatcherFailed)
+			return;
+		try {
+			if (_Watcher == null) {
+				_Watcher = FileSystems.getDefault().newWatchService();
+				Thread watcherThread = new Thread("FrameFileIndex watcher") {
+					@Override
+					public void run() {
+						processEvents();
+					}
+				};
+				watcherThread.setDaemon(true);
+				watcherThread.start();
+			}
+			WatchKey key = dir.toPath().register(_Watcher,
+					StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE);
+			_WatchedDirectories.put(key, entry);
+		} catch (IOException e) {
+			// Without a watcher changes made outside Expeditee will not be
+			// seen until the index is invalidated
+			_WatcherFailed = true;
+		} catch (UnsupportedOperationException e) {
+			_WatcherFailed = true;
+		}
+	}
+
+	private static void processEvents() {
+		while (true) {
+			WatchKey key;
+			try {
+				key = _Watcher.take();
+			} catch (InterruptedException e) {
+				return;
+			} catch (ClosedWatchServiceException e) {
+				return;
+			}
+
+			synchronized (FrameFileIndex.class) {
+				Object entry = _WatchedDirectories.get(key);
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (entry instanceof FrameDirectory) {
+						processEvent((FrameDirectory) entry, event);
+					} else if (entry instanceof FramesetDirectory) {
+						processEvent((FramesetDirectory) entry, event);
+					}
+				}
+				if (!key.reset())
+					_WatchedDirectories.remove(key);
+			}
+		}
+	}
+
+	private static void processEvent(FrameDirectory frameDir,
+			WatchEvent<?> event) {
+		if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+			listFrameDirectory(frameDir);
+			return;
+		}
+		String name = ((Path) event.context()).toString();
+		// Check the current state rather than trusting the event kind since
+		// FrameIO may already have updated the index
+		if (new File(frameDir.dir, name).isDirectory())
+			indexFrameset(frameDir, name);
+		else if (!new File(frameDir.dir, name.toLowerCase()).isDirectory())
+			frameDir.framesets.remove(name.toLowerCase());
+	}
+
+	private static void processEvent(FramesetDirectory frameset,
+			WatchEvent<?> event) {
+		if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+			listFrameset(frameset);
+			return;
+		}
+		String name = ((Path) event.context()).toString();
+		indexFile(frameset, name, new File(frameset.dir, name).exists());
+	}
+}
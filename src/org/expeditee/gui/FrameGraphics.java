@@ -12,13 +12,18 @@ import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.geom.Area;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 
 import org.expeditee.items.Circle;
 import org.expeditee.items.Dot;
@@ -31,6 +36,7 @@ import org.expeditee.items.Item.HighlightMode;
 import org.expeditee.items.widgets.InteractiveWidget;
 import org.expeditee.items.widgets.WidgetEdge;
 import org.expeditee.settings.UserSettings;
+import org.expeditee.settings.performance.PerformanceSettings;
 
 public class FrameGraphics {
 
@@ -72,12 +78,12 @@ public class FrameGraphics {
 			_Mode = MODE_NORMAL;
 		} else {
 			_Mode = MODE_AUDIENCE;
-			ItemUtils.UpdateConnectedToAnnotations(current.getItems());
+			ItemUtils.UpdateConnectedToAnnotations(current.getItemsView());
 			for (Overlay o : current.getOverlays()) {
-				ItemUtils.UpdateConnectedToAnnotations(o.Frame.getItems());
+				ItemUtils.UpdateConnectedToAnnotations(o.Frame.getItemsView());
 			}
 			for (Vector v : current.getVectorsDeep()) {
-				ItemUtils.UpdateConnectedToAnnotations(v.Frame.getItems());
+				ItemUtils.UpdateConnectedToAnnotations(v.Frame.getItemsView());
 			}
 		}
 		FrameUtils.Parse(current);
@@ -353,108 +359,52 @@ public class FrameGraphics {
 				backgroundColor = Item.TRANSPARENT;
 		}
 
-		// if(isActual)
-		bg.setColor(backgroundColor);
-		if (isActualFrame) {
-			// bg.setColor(Color.white); // TODO: TEMP FOR DEBUGGING
 
-			// System.out.println("paintPic");
-		}
-		bg.fillRect(0, 0, _MaxSize.width, _MaxSize.height);
-
-		List<Item> visibleItems = new LinkedList<Item>();
 		List<InteractiveWidget> paintWidgets;
-
 		if (isActualFrame) {
-			// Add all the items for this frame and any other from other
-			// frames
-			visibleItems.addAll(toPaint.getAllItems());
 			paintWidgets = new LinkedList<InteractiveWidget>();
 			AddAllOverlayWidgets(paintWidgets, toPaint, new LinkedList<Frame>());
 		} else {
-			visibleItems.addAll(toPaint.getVisibleItems());
-			visibleItems.addAll(toPaint.getVectorItems());
 			paintWidgets = toPaint.getInteractiveWidgets();
 		}
 
-		HashSet<Item> paintedFillsAndLines = new HashSet<Item>();
-		// FIRST: Paint widgets swing gui (not expeditee gui) .
-		// Note that these are the anchored widgets
-		ListIterator<InteractiveWidget> widgetItor = paintWidgets
-				.listIterator(paintWidgets.size());
-		while (widgetItor.hasPrevious()) {
-			// Paint first-in-last-serve ordering - like swing
-			// If it is done the other way around then widgets are covered up by
-			// the box that is supposed to be underneath
-			InteractiveWidget iw = widgetItor.previous();
-			if (clip == null || clip.intersects(iw.getComponant().getBounds())) {
-				iw.paint(bg);
-				PaintItem(bg, iw.getItems().get(4));
-				paintedFillsAndLines.addAll(iw.getItems());
-			}
+		FrameTileCache tiles = getTileCache(toPaint, isActualFrame,
+				paintWidgets, backgroundColor, bg);
+		if (tiles != null && clip != null && !tiles.hasValidTiles()) {
+			// the tiles are dropped when the frame changes as a whole, such as
+			// its items being reordered, which damages no part of it
+			clip = null;
+			currentClip = null;
+			bg.setClip(null);
 		}
 
-		// Filter out items that do not need to be painted
-		List<Item> paintItems;
-		HashSet<Item> fillOnlyItems = null; // only contains items that do
-		// not need drawing but fills
-		// might
-
-		if (clip == null) {
-			paintItems = visibleItems;
-		} else {
-			fillOnlyItems = new HashSet<Item>();
-			paintItems = new LinkedList<Item>();
-			for (Item i : visibleItems) {
-				if (i.isInDrawingArea(clip)) {
-					paintItems.add(i);
-				} else if (i.isEnclosed()) {
-					// just add all fill items despite possibility of fills
-					// not being in clip
-					// because it will be faster than having to test twice
-					// for fills that do need
-					// repainting.
-					fillOnlyItems.add(i);
-				}
-			}
-		}
-		// Only paint files and lines once ... between anchored AND free
-		// items
-		PaintPictures(bg, paintItems, fillOnlyItems, paintedFillsAndLines);
-		PaintLines(bg, visibleItems);
-
 		// Filter out free items that do not need to be painted
 		// This is efficient in cases with animation while free items exist
 
 		List<Item> freeItemsToPaint = new LinkedList<Item>();
+		HashSet<Item> freeFillOnlyItems = null;
 		// Dont paint the free items for the other frame in twin frames mode
 		// if (toPaint == DisplayIO.getCurrentFrame()) {
 		if (clip == null) {
 			freeItemsToPaint = FreeItems.getInstance();
 		} else {
 			freeItemsToPaint = new LinkedList<Item>();
-			fillOnlyItems.clear();
+			freeFillOnlyItems = new HashSet<Item>();
 			for (Item i : FreeItems.getInstance()) {
 				if (i.isInDrawingArea(clip)) {
 					freeItemsToPaint.add(i);
 				} else if (i.isEnclosed()) {
-					fillOnlyItems.add(i);
+					freeFillOnlyItems.add(i);
 				}
 			}
 		}
 		// }
 
-		if (isActualFrame && toPaint == DisplayIO.getCurrentFrame())
-			PaintPictures(bg, freeItemsToPaint, fillOnlyItems,
-					paintedFillsAndLines);
-		// TODO if we can get transparency with FreeItems.getInstance()...
-		// then text can be done before freeItems
-		PaintNonLinesNonPicture(bg, paintItems);
-
-		// toPaint.setBufferValid(true);
-
-		if (isActualFrame && !isAudienceMode()) {
-			PaintItem(bg, toPaint.getNameItem());
+		if (tiles != null) {
+			tiles.paint(bg, clip, toPaint, backgroundColor);
+		} else {
+			paintItems(toPaint, clip, isActualFrame, bg, backgroundColor,
+					paintWidgets, freeItemsToPaint, freeFillOnlyItems);
 		}
 
 		if (DisplayIO.isTwinFramesOn()) {
@@ -532,6 +482,185 @@ public class FrameGraphics {
 			PaintNonLinesNonPicture(bg, FreeItems.getCursor());
 	}
 
+	/**
+	 * Paints the background of a frame and the items anchored on it and its
+	 * overlays, with the fills of the free items under the anchored items
+	 * which are not lines.
+	 * 
+	 * @param freeItemsToPaint
+	 *            the free items in the clip whose fills are painted, or null
+	 *            to leave out the free items.
+	 * @param freeFillOnlyItems
+	 *            the free items outside the clip whose fills may be in it.
+	 */
+	private static void paintItems(Frame toPaint, Area clip,
+			boolean isActualFrame, Graphics2D bg, Color backgroundColor,
+			List<InteractiveWidget> paintWidgets, List<Item> freeItemsToPaint,
+			HashSet<Item> freeFillOnlyItems) {
+		bg.setColor(backgroundColor);
+		bg.fillRect(0, 0, _MaxSize.width, _MaxSize.height);
+
+		List<Item> visibleItems = new LinkedList<Item>();
+		List<Item> lineItems = visibleItems;
+
+		if (isActualFrame && clip != null) {
+			// Items in the body which can not paint in the clip are left out
+			visibleItems.addAll(toPaint.getAllItemsNear(clip.getBounds()));
+			// but a line paints every line connected to it, in the colour of
+			// whichever is first
+			Collection<Item> connected = new HashSet<Item>();
+			for (Item i : visibleItems) {
+				if (i instanceof Line && !connected.contains(i))
+					connected.addAll(i.getAllConnected());
+			}
+			Collection<Item> lines = new LinkedHashSet<Item>(toPaint
+					.inBodyOrder(connected));
+			lines.addAll(visibleItems);
+			lineItems = new LinkedList<Item>(lines);
+		} else if (isActualFrame) {
+			// Add all the items for this frame and any other from other
+			// frames
+			visibleItems.addAll(toPaint.getAllItems());
+		} else {
+			visibleItems.addAll(toPaint.getItemsView(true));
+			visibleItems.addAll(toPaint.getVectorItems());
+		}
+
+		HashSet<Item> paintedFillsAndLines = new HashSet<Item>();
+		// FIRST: Paint widgets swing gui (not expeditee gui) .
+		// Note that these are the anchored widgets
+		ListIterator<InteractiveWidget> widgetItor = paintWidgets
+				.listIterator(paintWidgets.size());
+		while (widgetItor.hasPrevious()) {
+			// Paint first-in-last-serve ordering - like swing
+			// If it is done the other way around then widgets are covered up by
+			// the box that is supposed to be underneath
+			InteractiveWidget iw = widgetItor.previous();
+			if (clip == null || clip.intersects(iw.getComponant().getBounds())) {
+				iw.paint(bg);
+				PaintItem(bg, iw.getItems().get(4));
+				paintedFillsAndLines.addAll(iw.getItems());
+			}
+		}
+
+		// Filter out items that do not need to be painted
+		List<Item> paintItems;
+		HashSet<Item> fillOnlyItems = null; // only contains items that do
+		// not need drawing but fills
+		// might
+
+		if (clip == null) {
+			paintItems = visibleItems;
+		} else {
+			fillOnlyItems = new HashSet<Item>();
+			paintItems = new LinkedList<Item>();
+			for (Item i : visibleItems) {
+				if (i.isInDrawingArea(clip)) {
+					paintItems.add(i);
+				} else if (i.isEnclosed()) {
+					// just add all fill items despite possibility of fills
+					// not being in clip
+					// because it will be faster than having to test twice
+					// for fills that do need
+					// repainting.
+					fillOnlyItems.add(i);
+				}
+			}
+		}
+		// Only paint files and lines once ... between anchored AND free
+		// items
+		PaintPictures(bg, paintItems, fillOnlyItems, paintedFillsAndLines);
+		PaintLines(bg, lineItems);
+
+		if (freeItemsToPaint != null && isActualFrame
+				&& toPaint == DisplayIO.getCurrentFrame())
+			PaintPictures(bg, freeItemsToPaint, freeFillOnlyItems,
+					paintedFillsAndLines);
+		// TODO if we can get transparency with FreeItems.getInstance()...
+		// then text can be done before freeItems
+		PaintNonLinesNonPicture(bg, paintItems);
+
+		// toPaint.setBufferValid(true);
+
+		if (isActualFrame && !isAudienceMode()) {
+			PaintItem(bg, toPaint.getNameItem());
+		}
+	}
+
+	/**
+	 * @return the tile cache to paint the anchored items of a frame from, or
+	 *         null if they must be painted directly.
+	 */
+	private static FrameTileCache getTileCache(Frame toPaint,
+			boolean isActualFrame, List<InteractiveWidget> paintWidgets,
+			Color backgroundColor, Graphics2D bg) {
+		synchronized (_tileDamage) {
+			for (Rectangle r : _tileDamage) {
+				for (FrameTileCache tiles : _tileCaches.values())
+					tiles.invalidate(r);
+			}
+			_tileDamage.clear();
+		}
+
+		// widgets are painted under the anchored items, and the fills of
+		// free items between the anchored items
+		if (!isActualFrame || !PerformanceSettings.CacheFrameTiles.get()
+				|| isAudienceMode() || !paintWidgets.isEmpty()
+				|| backgroundColor.getAlpha() != 255
+				|| (toPaint == DisplayIO.getCurrentFrame() && hasFreeFills()))
+			return null;
+
+		FrameTileCache tiles = _tileCaches.get(toPaint);
+		if (tiles == null || tiles.getWidth() != _MaxSize.width
+				|| tiles.getHeight() != _MaxSize.height) {
+			tiles = new FrameTileCache(bg.getDeviceConfiguration()
+					.createCompatibleImage(_MaxSize.width, _MaxSize.height));
+			_tileCaches.put(toPaint, tiles);
+		}
+		List<Object> overlays = new ArrayList<Object>();
+		for (Overlay o : toPaint.getOverlays()) {
+			overlays.add(o.Frame);
+			overlays.add(o.Frame.getModCount());
+		}
+		tiles.setState(new Object[] { toPaint.getModCount(), overlays, _Mode,
+				UserSettings.AntiAlias.get(), backgroundColor });
+		return tiles;
+	}
+
+	/**
+	 * @return true if any free items have fills, pictures or lines, which are
+	 *         painted under the anchored items.
+	 */
+	private static boolean hasFreeFills() {
+		for (Item i : FreeItems.getInstance()) {
+			if (i instanceof XRayable || i.hasEnclosures() || i.isLineEnd()
+					|| i.isEnclosed())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Paints the tiles of a frame which are missing from its tile cache. The
+	 * tiles hold the frame as {@link #paintFrame} paints it with no widgets
+	 * and without the free items.
+	 * 
+	 * @param clip
+	 *            the tiles to paint.
+	 * @param near
+	 *            the area around the tiles in which the items to paint are
+	 *            looked for.
+	 */
+	static void paintTiles(Frame toPaint, Area clip, Area near, Graphics2D g,
+			Color backgroundColor) {
+		Area paintClip = currentClip;
+		currentClip = clip;
+		g.setClip(clip);
+		paintItems(toPaint, near, true, g, backgroundColor, Collections
+				.<InteractiveWidget> emptyList(), null, null);
+		currentClip = paintClip;
+	}
+
 	// creates a new line so that lines are shown correctly when spanning
 	// across frames in TwinFrames mode
 	// private static Line TransposeLine(Line line, Item d, Frame toPaint,
@@ -884,6 +1013,13 @@ public class FrameGraphics {
 	// Damaged areas pending to render. Accessessed by multiple threads
 	private static HashSet<Rectangle> damagedAreas = new HashSet<Rectangle>();
 
+	// Areas damaged by anchored items, whose tiles must be painted again.
+	// Accessed by multiple threads
+	private static List<Rectangle> _tileDamage = new LinkedList<Rectangle>();
+
+	// the tiles of the frames on screen
+	private static Map<Frame, FrameTileCache> _tileCaches = new IdentityHashMap<Frame, FrameTileCache>();
+
 	/** The clip used while paiting */
 	private static Area currentClip;
 
@@ -912,6 +1048,20 @@ public class FrameGraphics {
 			synchronized (damagedAreas) {
 				damagedAreas.add(toRepaint);
 			}
+			// free items are not in the tiles
+			if (damagedItem.getParent() != null && !damagedItem.isFloating()) {
+				synchronized (_tileDamage) {
+					_tileDamage.add(toRepaint);
+					// collapse the areas if the frame is not being painted
+					if (_tileDamage.size() > 64) {
+						Rectangle union = new Rectangle(toRepaint);
+						for (Rectangle r : _tileDamage)
+							union.add(r);
+						_tileDamage.clear();
+						_tileDamage.add(union);
+					}
+				}
+			}
 		} else if (MessageBay.isMessageItem(damagedItem)) {
 			MessageBay.addDirtyArea(toRepaint);
 		}
@@ -961,40 +1111,18 @@ public class FrameGraphics {
 				|| _MaxSize.height <= 0)
 			return;
 
-		currentClip = null;
-		if (useInvalidation) { // build clip
-
-			synchronized (damagedAreas) {
-				if (!damagedAreas.isEmpty()) {
-
-					for (Rectangle r : damagedAreas) {
-						if (currentClip == null)
-							currentClip = new Area(r);
-						else
-							currentClip.add(new Area(r));
-					}
-					damagedAreas.clear();
-
-				} else if (MessageBay.isDirty()) {
-					// Paint dirty message bay
-					Graphics dg = _DisplayGraphics.create();
-					MessageBay.refresh(true, dg, Item.DEFAULT_BACKGROUND);
-					return;
-
-				} else
-					return; // nothing to render
-			}
-
-		} else {
-			synchronized (damagedAreas) {
-				damagedAreas.clear();
+		if (!paintFrames(useInvalidation)) {
+			if (MessageBay.isDirty()) {
+				// Paint dirty message bay
+				Graphics dg = _DisplayGraphics.create();
+				MessageBay.refresh(true, dg, Item.DEFAULT_BACKGROUND);
 			}
-			// System.out.println("FULLSCREEN REFRESH"); // TODO: REMOVE
+			return; // nothing to render
 		}
 
 		Frame[] toPaint = DisplayIO.getFrames();
-		Image left = Paint(toPaint[0], currentClip);
-		Image right = Paint(toPaint[1], currentClip);
+		Image left = toPaint[0] == null ? null : toPaint[0].getBuffer();
+		Image right = toPaint[1] == null ? null : toPaint[1].getBuffer();
 
 		Graphics dg = _DisplayGraphics.create();
 
@@ -1010,6 +1138,53 @@ public class FrameGraphics {
 		dg.dispose();
 	}
 
+	/**
+	 * Paints the frames on screen into their buffers.
+	 * 
+	 * @param useInvalidation
+	 *            true to paint only the damaged areas, false to paint the whole
+	 *            of each frame.
+	 * @return false if nothing has been damaged since the last paint.
+	 */
+	static boolean paintFrames(boolean useInvalidation) {
+		currentClip = null;
+		if (useInvalidation) { // build clip
+
+			synchronized (damagedAreas) {
+				if (damagedAreas.isEmpty())
+					return false;
+
+				for (Rectangle r : damagedAreas) {
+					if (currentClip == null)
+						currentClip = new Area(r);
+					else
+						currentClip.add(new Area(r));
+				}
+				damagedAreas.clear();
+			}
+
+		} else {
+			synchronized (damagedAreas) {
+				damagedAreas.clear();
+			}
+			// System.out.println("FULLSCREEN REFRESH"); // TODO: REMOVE
+			for (FrameTileCache tiles : _tileCaches.values())
+				tiles.invalidateAll();
+		}
+
+		Frame[] toPaint = DisplayIO.getFrames();
+		// only keep the tiles of the frames on screen
+		for (Iterator<Frame> it = _tileCaches.keySet().iterator(); it
+				.hasNext();) {
+			Frame frame = it.next();
+			if (frame != toPaint[0] && frame != toPaint[1])
+				it.remove();
+		}
+		Paint(toPaint[0], currentClip);
+		Paint(toPaint[1], currentClip);
+		return true;
+	}
+
 	/**
 	 * If wanting to refresh from another thread - other than the main thread
 	 * that handles the expeditee datamodel (modifying / accessing / rendering).
@@ -12,19 +12,29 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.sql.Time;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.SortedSet;
 
 import org.expeditee.actions.Actions;
 import org.expeditee.agents.ExistingFramesetException;
 import org.expeditee.io.Conversion;
+import org.expeditee.io.ExbReader;
+import org.expeditee.io.ExbWriter;
 import org.expeditee.io.ExpReader;
 import org.expeditee.io.ExpWriter;
+import org.expeditee.io.FrameNumberAllocator;
 import org.expeditee.io.FrameReader;
 import org.expeditee.io.FrameWriter;
+import org.expeditee.io.FramesetLog;
+import org.expeditee.io.FramesetPack;
+import org.expeditee.io.FramesetSearchIndex;
 import org.expeditee.io.KMSReader;
 import org.expeditee.io.KMSWriter;
 import org.expeditee.items.Item;
@@ -33,6 +43,7 @@ import org.expeditee.items.PermissionPair;
 import org.expeditee.items.Text;
 import org.expeditee.items.UserAppliedPermission;
 import org.expeditee.network.FrameShare;
+import org.expeditee.network.PublicFrameCache;
 import org.expeditee.settings.UserSettings;
 import org.expeditee.settings.folders.FolderSettings;
 import org.expeditee.settings.templates.TemplateSettings;
@@ -55,6 +66,7 @@ public class FrameIO {
 	public static void changeParentFolder(String newFolder) {
 		PARENT_FOLDER = newFolder;
 		PUBLIC_PATH = PARENT_FOLDER + "public" + File.separator;
+		REMOTE_PATH = PARENT_FOLDER + "remote" + File.separator;
 		FRAME_PATH = PARENT_FOLDER + "framesets" + File.separator;
 		MESSAGES_PATH = PARENT_FOLDER + "messages" + File.separator;
 		TRASH_PATH = PARENT_FOLDER + "trash" + File.separator;
@@ -84,6 +96,11 @@ public class FrameIO {
 
 	public static String PUBLIC_PATH;
 
+	/**
+	 * Where copies of the frames loaded from peers are kept.
+	 */
+	public static String REMOTE_PATH;
+
 	public static String IMAGES_PATH;
 
 	public static String HELP_PATH;
@@ -102,15 +119,11 @@ public class FrameIO {
 
 	public static String LOGS_DIR;
 
-	private static final String INF_FILENAME = "frame.inf";
-
 	public static final String ILLEGAL_CHARS = ";:\\/?";
 
 	public static final int MAX_NAME_LENGTH = 64;
 
-	public static final int MAX_CACHE = 100;
-
-	private static HashMap<String, Frame> _Cache = new FrameCache();
+	private static FrameCache _Cache = new FrameCache();
 
 	// private static HashMap<String, String> _FramesetNameCache = new
 	// HashMap<String, String>();
@@ -129,6 +142,10 @@ public class FrameIO {
 		return _UseCache && ENABLE_CACHE;
 	}
 
+	/**
+	 * Reads a frame into the prefetcher in the background. Errors are shown
+	 * when the frame is loaded.
+	 */
 	public static void Precache(String framename) {
 		// if the cache is turned off, do nothing
 		if (!isCacheOn())
@@ -138,15 +155,8 @@ public class FrameIO {
 		if (_Cache.containsKey(framename.toLowerCase()))
 			return;
 
-		// otherwise, load the frame and put it in the cache
 		Logger.Log(Logger.SYSTEM, Logger.LOAD, "Precaching " + framename + ".");
-
-		// do not display errors encountered to the user
-		// (they will be shown at load time)
-		MessageBay.suppressMessages(true);
-		// loading automatically caches the frame is caching is turned on
-		LoadFromDisk(framename, null, false);
-		MessageBay.suppressMessages(false);
+		FramePrefetcher.prefetch(framename);
 	}
 
 	/**
@@ -181,11 +191,13 @@ public class FrameIO {
 
 		String frameNameLower = frameName.toLowerCase();
 		// first try reading from cache
-		if (isCacheOn() && _Cache.containsKey(frameNameLower)) {
-			Logger.Log(Logger.SYSTEM, Logger.LOAD, "Loading " + frameName
-					+ " from cache.");
-			Frame frame = _Cache.get(frameNameLower);
-			return frame;
+		if (isCacheOn()) {
+			Frame frame = _Cache.lookup(frameNameLower);
+			if (frame != null) {
+				Logger.Log(Logger.SYSTEM, Logger.LOAD, "Loading " + frameName
+						+ " from cache.");
+				return frame;
+			}
 		}
 
 		Logger.Log(Logger.SYSTEM, Logger.LOAD, "Loading " + frameName
@@ -201,21 +213,60 @@ public class FrameIO {
 			return null;
 
 		File frameFile = new File(fullPath);
-		if (frameFile.exists() && frameFile.canRead()) {
+		if (FramesetLog.isLogPath(fullPath)
+				|| FramesetPack.isPackPath(fullPath)
+				|| (frameFile.exists() && frameFile.canRead())) {
 			try {
-				return new BufferedReader(new FileReader(frameFile));
-			} catch (FileNotFoundException e) {
+				return openFrameText(fullPath);
+			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
 		return null;
 	}
 
+	/**
+	 * Opens a frame file for the tools which scan the text of frames. Binary
+	 * Exb files and frames in frameset logs and packs are read as the
+	 * equivalent Exp text.
+	 *
+	 * @param fullPath
+	 *            the path of an Exp, Exb, log, pack or KMS frame file
+	 */
+	public static BufferedReader openFrameText(String fullPath)
+			throws IOException {
+		FrameSaveQueue.flush(fullPath);
+		if (fullPath.endsWith(ExbReader.EXTENTION)
+				|| FramesetLog.isLogPath(fullPath)
+				|| FramesetPack.isPackPath(fullPath)) {
+			File frameFile = new File(fullPath);
+			String fileName = frameFile.getName();
+			String frameName = frameFile.getParentFile().getName()
+					+ fileName.substring(0, fileName.lastIndexOf('.'));
+			return new BufferedReader(new StringReader(ExbReader.getExpText(
+					fullPath, frameName)));
+		}
+		return new BufferedReader(new FileReader(fullPath));
+	}
+
 	private static Frame LoadFromDisk(String framename, String knownPath,
 			boolean ignoreAnnotations) {
 		Frame loaded = null;
 
-		if (knownPath != null) {
+		if (isCacheOn()) {
+			// the frame may have been read ahead by the prefetcher
+			loaded = FramePrefetcher.take(framename);
+			if (loaded != null && knownPath != null
+					&& !knownPath.equals(loaded.getPath()))
+				loaded = null;
+			if (loaded != null && loaded.getNumber() > 0)
+				_Cache.put(framename.toLowerCase(), loaded);
+		}
+
+		if (loaded != null) {
+			Logger.Log(Logger.SYSTEM, Logger.LOAD, "Loaded " + framename
+					+ " from the prefetcher.");
+		} else if (knownPath != null) {
 			loaded = LoadKnowPath(knownPath, framename);
 		} else {
 
@@ -274,30 +325,7 @@ public class FrameIO {
 	 */
 	public static synchronized String getFrameFullPathName(String path,
 			String frameName) {
-		String source = path + Conversion.getFramesetName(frameName)
-				+ File.separator;
-
-		File tester = new File(source);
-		if (!tester.exists())
-			return null;
-
-		// check for the new file name format
-		String fullPath = source + Conversion.getFrameNumber(frameName)
-				+ ExpReader.EXTENTION;
-		tester = new File(fullPath);
-
-		if (tester.exists())
-			return fullPath;
-
-		// check for oldfile name format
-		fullPath = source + Conversion.getFramesetName(frameName) + "."
-				+ Conversion.getFrameNumber(frameName);
-		tester = new File(fullPath);
-
-		if (tester.exists())
-			return fullPath;
-
-		return null;
+		return FrameFileIndex.getFramePath(path, frameName);
 	}
 
 	public static boolean canAccessFrame(String frameName) {
@@ -334,14 +362,18 @@ public class FrameIO {
 		Collection<String> results = new LinkedList<String>();
 		// Open the file and search the text items
 		try {
-			BufferedReader reader = new BufferedReader(new FileReader(fullPath));
-			String next;
-			while (reader.ready() && ((next = reader.readLine()) != null)) {
-				if (next.startsWith("T")) {
-					String toSearch = next.substring(2);
-					if (toSearch.toLowerCase().contains(pattern))
-						results.add(toSearch);
+			BufferedReader reader = openSearchText(fullPath);
+			try {
+				String next;
+				while (reader.ready() && ((next = reader.readLine()) != null)) {
+					if (next.startsWith("T")) {
+						String toSearch = next.substring(2);
+						if (toSearch.toLowerCase().contains(pattern))
+							results.add(toSearch);
+					}
 				}
+			} finally {
+				reader.close();
 			}
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
@@ -352,46 +384,197 @@ public class FrameIO {
 		return results;
 	}
 
+	/**
+	 * Opens a frame file for the search agents. Frames in a frameset with a
+	 * search index are read from the index, which holds the text and link
+	 * lines of each frame, rather than from the frame file.
+	 *
+	 * @param fullPath
+	 *            the path of an Exp, Exb, log, pack or KMS frame file
+	 */
+	public static BufferedReader openSearchText(String fullPath)
+			throws IOException {
+		FrameSaveQueue.flush(fullPath);
+		File framesetDir = new File(fullPath).getParentFile();
+		if (FramesetSearchIndex.exists(framesetDir)) {
+			String text = FramesetSearchIndex.open(framesetDir).getText(
+					FramesetSearchIndex.getNumber(fullPath));
+			if (text != null)
+				return new BufferedReader(new StringReader(text));
+		}
+		return openFrameText(fullPath);
+	}
+
+	/**
+	 * Gets the search index of a frameset, first indexing any frames added
+	 * to the frameset, and removing any deleted, since it was last used.
+	 *
+	 * @param path
+	 *            the frame directory containing the frameset
+	 * @param create
+	 *            true to index the frameset if it does not have an index
+	 * @return the index, or null if the frameset is not indexed
+	 */
+	public static FramesetSearchIndex GetSearchIndex(String path,
+			String framesetName, boolean create) {
+		FrameSaveQueue.flush();
+		SortedSet<Integer> numbers = FrameFileIndex.getFrameNumbers(path,
+				framesetName);
+		if (numbers == null)
+			return null;
+		File framesetDir = new File(path + framesetName.toLowerCase());
+
+		try {
+			FramesetSearchIndex index;
+			if (FramesetSearchIndex.exists(framesetDir))
+				index = FramesetSearchIndex.open(framesetDir);
+			else if (create && framesetDir.canWrite())
+				index = FramesetSearchIndex.create(framesetDir);
+			else
+				return null;
+
+			SortedSet<Integer> indexed = index.getFrameNumbers();
+			for (int number : numbers) {
+				if (indexed.contains(number))
+					continue;
+				String fullPath = getFrameFullPathName(path, framesetName
+						+ number);
+				try {
+					index.put(number, readFrameText(fullPath));
+				} catch (IOException e) {
+					// frames which can not be read are left out, as they are
+					// when scanning
+					e.printStackTrace();
+				}
+			}
+			for (int number : indexed) {
+				if (!numbers.contains(number))
+					index.remove(number);
+			}
+			return index;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Indexes a frameset again from its frame files, which is needed if its
+	 * frames have been edited outside Expeditee.
+	 *
+	 * @return the new index, or null if the frameset could not be indexed
+	 */
+	public static FramesetSearchIndex ReindexFrameset(String path,
+			String framesetName) {
+		FrameSaveQueue.flush();
+		try {
+			FramesetSearchIndex.create(new File(path
+					+ framesetName.toLowerCase()));
+		} catch (IOException e) {
+			MessageBay.errorMessage("Could not index " + framesetName + ": "
+					+ e.getMessage());
+			return null;
+		}
+		return GetSearchIndex(path, framesetName, false);
+	}
+
+	private static String readFrameText(String fullPath) throws IOException {
+		BufferedReader reader = openFrameText(fullPath);
+		try {
+			StringBuffer text = new StringBuffer();
+			String next;
+			while ((next = reader.readLine()) != null)
+				text.append(next).append('\n');
+			return text.toString();
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Indexes a frame file written without going through the save queue, if
+	 * its frameset has a search index.
+	 */
+	private static void UpdateSearchIndex(String fullPath) {
+		try {
+			if (FramesetSearchIndex.exists(new File(fullPath).getParentFile()))
+				FramesetSearchIndex.update(fullPath, readFrameText(fullPath));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
 	private static Frame LoadKnowPath(String path, String frameName) {
+		Frame frame = ReadKnowPath(path, frameName, true);
+
+		// do not put 0 frames or virtual frames into the cache
+		// Why are zero frames not put in the cache
+		if (frame != null && frame.getNumber() > 0 && isCacheOn())
+			_Cache.put(frameName.toLowerCase(), frame);
+
+		return frame;
+	}
+
+	/**
+	 * Reads a frame from the frame directories without parsing it or putting
+	 * it in the cache. Used by the FramePrefetcher, so it is safe to call off
+	 * the event thread and does not display errors.
+	 *
+	 * @return the unparsed frame, or null if it could not be read
+	 */
+	static Frame ReadFromDisk(String frameName) {
+		// copied because the directories may be changed on the swing thread
+		List<String> paths = new ArrayList<String>(FolderSettings.FrameDirs
+				.get());
+		for (String path : paths) {
+			Frame frame = ReadKnowPath(path, frameName, false);
+			if (frame != null)
+				return frame;
+		}
+		return null;
+	}
+
+	private static Frame ReadKnowPath(String path, String frameName,
+			boolean showErrors) {
 		String fullPath = getFrameFullPathName(path, frameName);
 		if (fullPath == null)
 			return null;
+		FrameSaveQueue.flush(fullPath);
 
 		try {
 			FrameReader reader;
 
 			if (fullPath.endsWith(ExpReader.EXTENTION)) {
 				reader = new ExpReader(frameName);
+			} else if (fullPath.endsWith(ExbReader.EXTENTION)
+					|| FramesetLog.isLogPath(fullPath)
+					|| FramesetPack.isPackPath(fullPath)) {
+				reader = new ExbReader(frameName);
 			} else {
 				reader = new KMSReader();
 			}
 			Frame frame = reader.readFrame(fullPath);
 
 			if (frame == null) {
-				MessageBay.errorMessage("Error: " + frameName
-						+ " could not be successfully loaded.");
+				if (showErrors)
+					MessageBay.errorMessage("Error: " + frameName
+							+ " could not be successfully loaded.");
 				return null;
 			}
 
 			frame.setPath(path);
-
-			// do not put 0 frames or virtual frames into the cache
-			// Why are zero frames not put in the cache
-			if (_Cache.size() > MAX_CACHE)
-				_Cache.clear();
-
-			if (frame.getNumber() > 0 && isCacheOn())
-				_Cache.put(frameName.toLowerCase(), frame);
-
 			return frame;
 		} catch (IOException ioe) {
-			ioe.printStackTrace();
-			Logger.Log(ioe);
+			if (showErrors) {
+				ioe.printStackTrace();
+				Logger.Log(ioe);
+			}
 		} catch (Exception e) {
 			e.printStackTrace();
 			Logger.Log(e);
-			MessageBay.errorMessage("Error: " + frameName
-					+ " could not be successfully loaded.");
+			if (showErrors)
+				MessageBay.errorMessage("Error: " + frameName
+						+ " could not be successfully loaded.");
 		}
 
 		return null;
@@ -409,6 +592,71 @@ public class FrameIO {
 		DisplayIO.setCurrentFrame(fresh, false);
 	}
 
+	/**
+	 * Gets the versions of a frame kept in its frameset log.
+	 *
+	 * @return the versions, oldest first, or an empty list if the frame is
+	 *         not stored in a frameset log
+	 */
+	public static List<Integer> GetKeptVersions(Frame frame) {
+		String fullPath = getFrameFullPathName(frame.getPath(), frame
+				.getName());
+		if (!FramesetLog.isLogPath(fullPath))
+			return new LinkedList<Integer>();
+		FrameSaveQueue.flush(fullPath);
+		try {
+			return FramesetLog.open(new File(fullPath).getParentFile())
+					.getVersions(frame.getNumber());
+		} catch (IOException e) {
+			e.printStackTrace();
+			return new LinkedList<Integer>();
+		}
+	}
+
+	/**
+	 * Replaces a frame with a version kept in its frameset log, by saving the
+	 * old version as the newest, and displays it if it is the current frame.
+	 *
+	 * @return the restored frame, or null if the version is not kept
+	 */
+	public static Frame RestoreVersion(Frame frame, int version) {
+		String fullPath = getFrameFullPathName(frame.getPath(), frame
+				.getName());
+		if (!FramesetLog.isLogPath(fullPath)) {
+			MessageBay.errorMessage(frame.getName()
+					+ " is not stored in a frameset log");
+			return null;
+		}
+		FrameSaveQueue.flush(fullPath);
+
+		Frame restored;
+		try {
+			byte[] contents = FramesetLog.open(
+					new File(fullPath).getParentFile()).readVersion(
+					frame.getNumber(), version);
+			if (contents == null) {
+				MessageBay.errorMessage("Version " + version + " of "
+						+ frame.getName() + " is not kept");
+				return null;
+			}
+			restored = new ExbReader(frame.getName()).readFrame(contents);
+		} catch (IOException e) {
+			e.printStackTrace();
+			MessageBay.errorMessage("Could not restore " + frame.getName()
+					+ ": " + e.getMessage());
+			return null;
+		}
+
+		restored.setPath(frame.getPath());
+		// save it as the next version rather than as a conflicting edit
+		restored.setVersion(Math.max(frame.getVersion(), FramesetLog
+				.getVersion(fullPath)));
+		ForceSaveFrame(restored);
+		if (DisplayIO.getCurrentFrame() == frame)
+			DisplayIO.setCurrentFrame(restored, false);
+		return restored;
+	}
+
 	public static Frame LoadPrevious(Frame current) {
 		checkTDFC(current);
 
@@ -552,6 +800,12 @@ public class FrameIO {
 			throw new SecurityException("Attempted to delete remote frame");
 		}
 
+		if (FramesetPack.isPackPath(getFrameFullPathName(toDelete.getPath(),
+				toDelete.getName()))) {
+			throw new SecurityException(toDelete.getName()
+					+ " is in a read-only frameset pack");
+		}
+
 		SaveFrame(toDelete);
 
 		// Copy deleted frames to the DeletedFrames frameset
@@ -580,9 +834,22 @@ public class FrameIO {
 		toDelete.setFrameNumber(lastNumber + 1);
 		toDelete.setPath(framePath);
 		ForceSaveFrame(toDelete);
+		// the original must not be deleted before its copy is written
+		FrameSaveQueue.flush();
 
 		if (_Cache.containsKey(oldFrameName))
 			_Cache.remove(oldFrameName);
+		FramePrefetcher.discard(oldFrameName);
+		PublicFrameCache.discard(oldFrameName);
+
+		if (FramesetLog.isLogPath(source)) {
+			if (FramesetLog.delete(source)) {
+				FrameFileIndex.removeFile(source);
+				FramesetSearchIndex.remove(source);
+				return toDelete.getName();
+			}
+			return null;
+		}
 
 		File del = new File(source);
 
@@ -590,6 +857,8 @@ public class FrameIO {
 		ff.close();
 
 		if (del.delete()) {
+			FrameFileIndex.removeFile(source);
+			FramesetSearchIndex.remove(source);
 			return toDelete.getName();
 		}
 
@@ -608,8 +877,23 @@ public class FrameIO {
 	 *            The title to assign to the newly created Frame (can be NULL).
 	 * @return The newly created Frame.
 	 */
+	public static Frame CreateFrame(String frameset, String frameTitle,
+			String templateFrame) throws RuntimeException {
+		return CreateFrame(frameset, frameTitle, templateFrame, null);
+	}
+
+	/**
+	 * Creates a new Frame in the given frameset, numbered from numbers
+	 * reserved for it.
+	 * 
+	 * @param numbers
+	 *            the numbers reserved for frames in the frameset, or null to
+	 *            take the next number from the INF file.
+	 * @return The newly created Frame.
+	 */
 	public static synchronized Frame CreateFrame(String frameset,
-			String frameTitle, String templateFrame) throws RuntimeException {
+			String frameTitle, String templateFrame, FrameNumbers numbers)
+			throws RuntimeException {
 
 		if (!FrameIO.isValidFramesetName(frameset)) {
 			throw new RuntimeException(frameset
@@ -653,7 +937,10 @@ public class FrameIO {
 
 		// read the next number from the INF file
 		try {
-			next = ReadINF(destFramesetZero.getPath(), frameset, true);
+			if (numbers == null)
+				next = ReadINF(destFramesetZero.getPath(), frameset, true);
+			else
+				next = numbers.next() - 1;
 		} catch (IOException ioe) {
 			ioe.printStackTrace();
 			throw new RuntimeException("INF file could not be read");
@@ -828,6 +1115,9 @@ public class FrameIO {
 			return "";
 		}
 
+		// a copy read ahead of this save would be out of date
+		FramePrefetcher.discard(toSave.getName());
+
 		// Dont save if the frame is protected and it exists
 		if (checkBackup && toSave.isReadOnly()) {
 			_Cache.remove(toSave.getName().toLowerCase());
@@ -859,6 +1149,11 @@ public class FrameIO {
 		 */
 		String fullPath = getFrameFullPathName(toSave.getPath(), toSave
 				.getName());
+		String framesetPath = toSave.getPath()
+				+ toSave.getFramesetName().toLowerCase() + File.separator;
+		// new frames in a frameset stored as a log are added to the log
+		boolean inLog = fullPath == null ? FramesetLog.exists(new File(
+				framesetPath)) : FramesetLog.isLogPath(fullPath);
 
 		// Check if the frame exists
 		if (checkBackup && fullPath == null) {
@@ -871,9 +1166,29 @@ public class FrameIO {
 		int savedVersion;
 		try {
 			// if its a new frame or an existing Exp frame...
-			if (fullPath == null || fullPath.endsWith(ExpReader.EXTENTION)) {
+			// a save still waiting to be written is newer than the file
+			int pendingVersion = fullPath == null ? -1 : FrameSaveQueue
+					.getPendingVersion(fullPath);
+			if (inLog) {
+				writer = new ExbWriter();
+				if (pendingVersion >= 0 || fullPath == null)
+					savedVersion = pendingVersion;
+				else
+					savedVersion = FramesetLog.getVersion(fullPath);
+			} else if (fullPath == null
+					|| fullPath.endsWith(ExpReader.EXTENTION)) {
 				writer = new ExpWriter();
-				savedVersion = ExpReader.getVersion(fullPath);
+				savedVersion = pendingVersion >= 0 ? pendingVersion
+						: ExpReader.getVersion(fullPath);
+			} else if (FramesetPack.isPackPath(fullPath)) {
+				// packs are read only, so changes are saved as a loose file
+				writer = new ExpWriter();
+				savedVersion = pendingVersion >= 0 ? pendingVersion
+						: FramesetPack.getVersion(fullPath);
+			} else if (fullPath.endsWith(ExbReader.EXTENTION)) {
+				writer = new ExbWriter();
+				savedVersion = pendingVersion >= 0 ? pendingVersion
+						: ExbReader.getVersion(fullPath);
 			} else {
 				writer = new KMSWriter();
 				savedVersion = KMSReader.getVersion(fullPath);
@@ -900,7 +1215,7 @@ public class FrameIO {
 				// This will make sure links to the original are set correctly
 				_Cache.remove(toSave.getName().toLowerCase());
 				int nextnum = ReadINF(toSave.getPath(), toSave
-						.getFramesetName(), false) + 1;
+						.getFramesetName(), true) + 1;
 				SuspendCache();
 				Frame original = LoadFrame(toSave.getName());
 				toSave.setFrameNumber(nextnum);
@@ -920,8 +1235,8 @@ public class FrameIO {
 				yourMessage.setLink(toSave.getName());
 				MessageBay.displayMessage(originalMessage);
 				MessageBay.displayMessage(yourMessage);
-			} else if (checkBackup
-					&& ItemUtils.ContainsExactTag(toSave.getItems(),
+			} else if (checkBackup && !inLog
+					&& ItemUtils.ContainsExactTag(toSave.getItemsView(),
 							ItemUtils.TAG_BACKUP)) {
 				SuspendCache();
 				String oldFramesetName = toSave.getFramesetName() + "-old";
@@ -933,8 +1248,8 @@ public class FrameIO {
 
 				int nextnum = -1;
 				try {
-					nextnum = ReadINF(toSave.getPath(), oldFramesetName, false) + 1;
-				} catch (RuntimeException e) {
+					nextnum = ReadINF(toSave.getPath(), oldFramesetName, true) + 1;
+				} catch (Exception e) {
 					try {
 						CreateFrameset(oldFramesetName, toSave.getPath());
 						nextnum = 1;
@@ -952,7 +1267,7 @@ public class FrameIO {
 					SaveFrame(original, false, false);
 				}
 
-				Item i = ItemUtils.FindExactTag(toSave.getItems(),
+				Item i = ItemUtils.FindExactTag(toSave.getItemsView(),
 						ItemUtils.TAG_BACKUP);
 				i.setLink(original.getName());
 				toSave.setFrameNumber(orignum);
@@ -964,8 +1279,34 @@ public class FrameIO {
 			// int oldMode = FrameGraphics.getMode();
 			// if (oldMode != FrameGraphics.MODE_XRAY)
 			// FrameGraphics.setMode(FrameGraphics.MODE_XRAY, true);
-			writer.writeFrame(toSave);
+			// Exp, Exb and log frames are written by the save queue
+			if (writer instanceof ExpWriter) {
+				writer.writeFrame(toSave, new StringWriter());
+				String savePath = framesetPath + toSave.getNumber()
+						+ ExpReader.EXTENTION;
+				FrameSaveQueue.save(savePath, writer.getFileContents()
+						.getBytes("UTF-8"), toSave.getVersion(), toSave);
+				FrameFileIndex.addFile(savePath);
+			} else if (writer instanceof ExbWriter) {
+				String savePath = framesetPath + toSave.getNumber()
+						+ (inLog ? FramesetLog.EXTENTION : ExbReader.EXTENTION);
+				FrameSaveQueue.save(savePath, ((ExbWriter) writer)
+						.encodeFrame(toSave), toSave.getVersion(), toSave);
+				FrameFileIndex.addFile(savePath);
+			} else {
+				writer.writeFrame(toSave);
+				String savePath = toSave.getPath()
+						+ toSave.getFramesetName().toLowerCase()
+						+ File.separator
+						+ toSave.getFramesetName().toLowerCase() + "."
+						+ toSave.getNumber();
+				FrameFileIndex.addFile(savePath);
+				UpdateSearchIndex(savePath);
+			}
 			// FrameGraphics.setMode(oldMode, true);
+			// peers are sent the new version once it is queued, since the
+			// queue is flushed before a frame is read
+			PublicFrameCache.discard(toSave.getName());
 			toSave.setSaved();
 			if (inc) {
 				SessionStats.SavedFrame(toSave.getName());
@@ -978,12 +1319,10 @@ public class FrameIO {
 			Logger.Log(Logger.SYSTEM, Logger.SAVE, "Saving " + toSave.getName()
 					+ " to disk.");
 
-			// check that the INF file is not out of date
-			int last = ReadINF(toSave.getPath(), toSave.getFramesetName(),
-					false);
-			if (last <= toSave.getNumber())
-				WriteINF(toSave.getPath(), toSave.getFramesetName(), toSave
-						.getName());
+			// check that the INF file is not out of date once the frame is
+			// written
+			FrameSaveQueue.updateINF(toSave.getPath(), toSave
+					.getFramesetName(), toSave.getName(), toSave.getNumber());
 
 			// check if this was the profile frame (and thus needs
 			// re-parsing)
@@ -1048,39 +1387,39 @@ public class FrameIO {
 			throws IOException {
 		assert (!frameset.endsWith("."));
 		try {
-			// read INF
-			BufferedReader reader;
-			try {
-				// Check on the local drive
-				reader = new BufferedReader(new FileReader(path
-						+ frameset.toLowerCase() + File.separator
-						+ INF_FILENAME));
-			} catch (Exception e) {
-				reader = new BufferedReader(new FileReader(path
-						+ frameset.toLowerCase() + File.separator
-						+ frameset.toLowerCase() + ".inf"));
-			}
-			String inf = reader.readLine();
-			reader.close();
-
-			int next = Conversion.getFrameNumber(inf);
-			// update INF file
-			if (update) {
-				try {
-					WriteINF(path, frameset, frameset + (next + 1));
-				} catch (IOException ioe) {
-					ioe.printStackTrace();
-					Logger.Log(ioe);
-				}
-			}
-			return next;
-		} catch (Exception e) {
+			// Check on the local drive
+			File dir = new File(path + frameset.toLowerCase());
+			if (update)
+				return FrameNumberAllocator.allocate(dir, frameset, 1) - 1;
+			return FrameNumberAllocator.getLast(dir);
+		} catch (FileNotFoundException e) {
+			// the frameset is not on the local drive
+			if (FrameShare.getInstance() == null)
+				throw e;
 		}
 
 		// Check peers
 		return FrameShare.getInstance().getInfNumber(path, frameset, update);
 	}
 
+	/**
+	 * Updates the INF file of a frameset if it is behind a saved frame. Called
+	 * by the save queue once the frame has been written.
+	 *
+	 * @param number
+	 *            the number of the saved frame
+	 */
+	static void UpdateINF(String path, String frameset, String frameName,
+			int number) {
+		try {
+			FrameNumberAllocator.update(new File(path
+					+ frameset.toLowerCase()), frameName, number);
+		} catch (Exception e) {
+			e.printStackTrace();
+			Logger.Log(e);
+		}
+	}
+
 	/**
 	 * Writes the given String out to the INF file corresponding to the current
 	 * frameset.
@@ -1088,23 +1427,28 @@ public class FrameIO {
 	 * @param toWrite
 	 *            The String to write to the file.
 	 * @throws IOException
-	 *             Any exception encountered by the BufferedWriter.
+	 *             Any exception encountered writing the file.
 	 */
 	public static void WriteINF(String path, String frameset, String frameName)
 			throws IOException {
 		try {
 			assert (!frameset.endsWith("."));
 
-			path += frameset.toLowerCase() + File.separator + INF_FILENAME;
-
-			BufferedWriter writer = new BufferedWriter(new FileWriter(path));
-			writer.write(frameName);
-			writer.close();
+			FrameNumberAllocator.set(new File(path + frameset.toLowerCase()),
+					frameName);
 		} catch (Exception e) {
 
 		}
 	}
 
+	/**
+	 * @return a summary of the frame cache size and hit, miss and eviction
+	 *         counts.
+	 */
+	public static String getCacheStats() {
+		return _Cache.getStats();
+	}
+
 	public static boolean FrameIsCached(String name) {
 		return _Cache.containsKey(name);
 	}
@@ -1253,7 +1597,7 @@ public class FrameIO {
 	public static Boolean canAccessFrameset(String framesetName) {
 		framesetName = framesetName.toLowerCase();
 		for (String path : FolderSettings.FrameDirs.get()) {
-			if ((new File(path + framesetName)).exists())
+			if (FrameFileIndex.hasFrameset(path, framesetName))
 				return true;
 		}
 		return false;
@@ -1297,6 +1641,7 @@ public class FrameIO {
 				return null;
 			}
 		}
+		FrameFileIndex.addFrameset(path, frameset);
 
 		// create the new INF file
 		try {
@@ -1385,8 +1730,10 @@ public class FrameIO {
 			String destinationFolder) {
 		if (!FrameIO.canAccessFrameset(framesetName))
 			return false;
+		FrameSaveQueue.flush();
 		// Clear the cache
 		_Cache.clear();
+		FramePrefetcher.clear();
 
 		// Search all the available directories for the directory
 		for (String path : FolderSettings.FrameDirs.get()) {
@@ -1407,13 +1754,22 @@ public class FrameIO {
 				while (dest.exists()) {
 					dest = new File(destPath + ++copyNumber + File.separator);
 				}
-				if (!framesetDirectory.renameTo(dest)) {
+				FramesetLog.close(framesetDirectory);
+				FramesetPack.close(framesetDirectory);
+				FramesetSearchIndex.close(framesetDirectory);
+				FrameNumberAllocator.close(framesetDirectory);
+				boolean moved = framesetDirectory.renameTo(dest);
+				FrameFileIndex.removeFrameset(path, framesetName);
+				if (!moved) {
 					for (File f : framesetDirectory.listFiles()) {
 						if (!f.delete())
 							return false;
 					}
 					if (!framesetDirectory.delete())
 						return false;
+				} else {
+					FrameFileIndex.addFrameset(destinationFolder, dest
+							.getName());
 				}
 				return true;
 			}
@@ -1427,6 +1783,7 @@ public class FrameIO {
 			return false;
 		if (FrameIO.canAccessFrameset(copiedFrameset))
 			return false;
+		FrameSaveQueue.flush();
 		// search through all the directories to find the frameset we are
 		// copying
 		for (String path : FolderSettings.FrameDirs.get()) {
@@ -1439,6 +1796,7 @@ public class FrameIO {
 						+ copiedFrameset.toLowerCase() + File.separator);
 				if (!copyFramesetDirectory.mkdirs())
 					return false;
+				FrameFileIndex.addFrameset(path, copiedFrameset);
 				// copy each of the frames
 				for (File f : framesetDirectory.listFiles()) {
 					// Ignore hidden files
@@ -1492,7 +1850,12 @@ public class FrameIO {
 				|| isValidFrameName(frameName);
 	}
 
-	public static void SavePublicFrame(String peerName, String frameName,
+	/**
+	 * Saves a frame sent by a peer in the public folder.
+	 * 
+	 * @return true if the frame was saved.
+	 */
+	public static boolean SavePublicFrame(String peerName, String frameName,
 			int version, BufferedReader packetContents) {
 		// TODO handle versioning - add version to the header
 		// Remote user uploads version based on an old version
@@ -1500,12 +1863,14 @@ public class FrameIO {
 		// Remove it from the cache so that next time it is loaded we get the up
 		// todate version
 		_Cache.remove(frameName.toLowerCase());
+		FramePrefetcher.discard(frameName);
 
 		// Save to file
 		String filename = PUBLIC_PATH + Conversion.getFramesetName(frameName)
 				+ File.separator + Conversion.getFrameNumber(frameName)
 				+ ExpReader.EXTENTION;
 
+		FrameSaveQueue.flush(filename);
 		File file = new File(filename);
 		// Ensure the file exists
 		if (file.exists()) {
@@ -1568,11 +1933,16 @@ public class FrameIO {
 			}
 			fw.flush();
 			fw.close();
+			FrameFileIndex.addFile(filename);
+			PublicFrameCache.discard(frameName);
+			UpdateSearchIndex(file.getPath());
 			MessageBay.displayMessage("Saved remote frame: " + frameName);
+			return true;
 		} catch (IOException e) {
 			MessageBay.errorMessage("Error remote saving " + frameName + ": "
 					+ e.getMessage());
 			e.printStackTrace();
+			return false;
 		}
 		// } else {
 		//			
@@ -254,7 +254,7 @@ public class FrameKeyboardActions implements KeyListener {
 			line.replaceLineEnd(dot, text);
 		Frame current = dot.getParentOrCurrentFrame();
 		current.removeItem(dot);
-		ItemUtils.EnclosedCheck(current.getItems());
+		ItemUtils.EnclosedCheck(current.getItemsView());
 		return text;
 	}
 
@@ -276,7 +276,7 @@ public class FrameKeyboardActions implements KeyListener {
 		Frame current = text.getParentOrCurrentFrame();
 		current.addItem(dot);
 		DisplayIO.setCursor(Item.DEFAULT_CURSOR);
-		ItemUtils.EnclosedCheck(current.getItems());
+		ItemUtils.EnclosedCheck(current.getItemsView());
 		return dot;
 	}
 
@@ -0,0 +1,444 @@
+package org.expeditee.gui;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.expeditee.io.Conversion;
+import org.expeditee.io.FramesetSearchIndex;
+import org.expeditee.settings.folders.FolderSettings;
+
+/**
+ * The links between the frames in every frameset in the frame directories,
+ * in both directions, so that the frames linking to a frame can be found
+ * without loading every frame.
+ *
+ * The links are read from the search index of each frameset, which holds the
+ * link lines of every frame and is kept current as frames are saved and
+ * deleted. A frameset without an index is indexed the first time the graph is
+ * used after it appears, so the first use reads every frameset once; later
+ * uses only read framesets which have been added or replaced since. Framesets
+ * in directories which can not be written to are read but not indexed, so
+ * they are read again each session.
+ *
+ * Frame names are kept in lower case with relative links made absolute. All
+ * methods are static and synchronized on this class, except that framesets
+ * are indexed before the lock is taken, since indexing may wait for the save
+ * queue.
+ */
+public class FrameLinkGraph {
+
+	/**
+	 * The frames and links of a frameset in the graph.
+	 */
+	private static final class Frameset {
+		private final String name;
+
+		private final File dir;
+
+		// the frames in the frameset mapped to the frames they link to
+		private final SortedMap<Integer, List<String>> frames = new TreeMap<Integer, List<String>>();
+
+		private Frameset(String name, File dir) {
+			this.name = name;
+			this.dir = dir;
+		}
+	}
+
+	// framesets by lower case name
+	private static final Map<String, Frameset> _Framesets = new HashMap<String, Frameset>();
+
+	// framesets by the absolute path of their directory
+	private static final Map<String, Frameset> _Directories = new HashMap<String, Frameset>();
+
+	// frame names mapped to the names of the frames linking to them
+	private static final Map<String, Set<String>> _LinksTo = new HashMap<String, Set<String>>();
+
+	private static boolean _Listening = false;
+
+	private static final FramesetSearchIndex.Listener _Listener = new FramesetSearchIndex.Listener() {
+		public void frameChanged(File framesetDir, int number, String lines) {
+			synchronized (FrameLinkGraph.class) {
+				Frameset frameset = _Directories.get(framesetDir
+						.getAbsolutePath());
+				if (frameset == null)
+					return;
+				if (lines == null)
+					removeFrame(frameset, number);
+				else
+					putFrame(frameset, number, FramesetSearchIndex
+							.getLinks(lines));
+			}
+		}
+
+		public void indexClosed(File framesetDir) {
+			synchronized (FrameLinkGraph.class) {
+				Frameset frameset = _Directories.get(framesetDir
+						.getAbsolutePath());
+				if (frameset != null)
+					removeFrameset(frameset);
+			}
+		}
+	};
+
+	// All methods are static, this should not be instantiated
+	private FrameLinkGraph() {
+	}
+
+	/**
+	 * Gets the names of the frames which link to a frame.
+	 *
+	 * @return the lower case names of the linking frames, in order
+	 */
+	public static SortedSet<String> getLinksTo(String frameName) {
+		update();
+		synchronized (FrameLinkGraph.class) {
+			Set<String> sources = _LinksTo.get(normalise(null, frameName));
+			if (sources == null)
+				return new TreeSet<String>();
+			return new TreeSet<String>(sources);
+		}
+	}
+
+	/**
+	 * Gets the frames a frame links to, once for each item with the link.
+	 *
+	 * @return the lower case names of the frames linked to, or null if the
+	 *         frame is not in the graph
+	 */
+	public static List<String> getLinksFrom(String frameName) {
+		update();
+		synchronized (FrameLinkGraph.class) {
+			String name = normalise(null, frameName);
+			Frameset frameset = _Framesets.get(getFramesetName(name));
+			if (frameset == null)
+				return null;
+			List<String> links = frameset.frames.get(getFrameNumber(name));
+			return links == null ? null : new ArrayList<String>(links);
+		}
+	}
+
+	/**
+	 * Gets the links from each frame in a frameset.
+	 *
+	 * @return the frame numbers in order mapped to the lower case names of
+	 *         the frames they link to, or null if the frameset is not in the
+	 *         graph
+	 */
+	public static SortedMap<Integer, List<String>> getFramesetLinks(
+			String framesetName) {
+		update();
+		synchronized (FrameLinkGraph.class) {
+			Frameset frameset = _Framesets.get(framesetName.toLowerCase());
+			if (frameset == null)
+				return null;
+			SortedMap<Integer, List<String>> links = new TreeMap<Integer, List<String>>();
+			for (Map.Entry<Integer, List<String>> frame : frameset.frames
+					.entrySet())
+				links.put(frame.getKey(), new ArrayList<String>(frame
+						.getValue()));
+			return links;
+		}
+	}
+
+	/**
+	 * Finds the links to frames which do not exist, including links to
+	 * framesets which are not in any frame directory.
+	 *
+	 * @param framesetName
+	 *            the frameset whose frames' links are checked, or null to
+	 *            check every frameset
+	 * @return the lower case names of the frames with broken links, in order,
+	 *         mapped to the missing frames they link to
+	 */
+	public static SortedMap<String, SortedSet<String>> getDanglingLinks(
+			String framesetName) {
+		update();
+		SortedMap<String, SortedSet<String>> dangling = new TreeMap<String, SortedSet<String>>();
+		synchronized (FrameLinkGraph.class) {
+			Collection<Frameset> framesets;
+			if (framesetName == null) {
+				framesets = _Framesets.values();
+			} else {
+				Frameset frameset = _Framesets.get(framesetName.toLowerCase());
+				if (frameset == null)
+					return dangling;
+				framesets = Collections.singleton(frameset);
+			}
+			for (Frameset frameset : framesets) {
+				for (Map.Entry<Integer, List<String>> frame : frameset.frames
+						.entrySet()) {
+					for (String link : frame.getValue()) {
+						if (exists(link))
+							continue;
+						String source = frameset.name + frame.getKey();
+						SortedSet<String> missing = dangling.get(source);
+						if (missing == null) {
+							missing = new TreeSet<String>();
+							dangling.put(source, missing);
+						}
+						missing.add(link);
+					}
+				}
+			}
+		}
+		return dangling;
+	}
+
+	/**
+	 * @return true if the graph has a frame with the given lower case name.
+	 */
+	private static boolean exists(String frameName) {
+		String framesetName = getFramesetName(frameName);
+		if (framesetName == null)
+			return false;
+		Frameset frameset = _Framesets.get(framesetName);
+		return frameset != null
+				&& frameset.frames.containsKey(getFrameNumber(frameName));
+	}
+
+	/**
+	 * Adds the framesets which have appeared in the frame directories since
+	 * the graph was last used, and removes those which have gone.
+	 */
+	public static void update() {
+		synchronized (FrameLinkGraph.class) {
+			if (!_Listening) {
+				FramesetSearchIndex.addListener(_Listener);
+				_Listening = true;
+			}
+		}
+
+		// the first directory containing a frameset is the one it is loaded
+		// from, as with FrameIO
+		Map<String, String> found = new HashMap<String, String>();
+		for (String path : new ArrayList<String>(FolderSettings.FrameDirs.get())) {
+			for (String name : FrameFileIndex.getFramesetNames(path)) {
+				if (!found.containsKey(name))
+					found.put(name, path);
+			}
+		}
+
+		synchronized (FrameLinkGraph.class) {
+			for (Frameset frameset : new ArrayList<Frameset>(_Framesets
+					.values())) {
+				String path = found.get(frameset.name);
+				if (path == null
+						|| !new File(path + frameset.name).getAbsolutePath()
+								.equals(frameset.dir.getAbsolutePath()))
+					removeFrameset(frameset);
+			}
+		}
+
+		for (Map.Entry<String, String> frameset : found.entrySet()) {
+			synchronized (FrameLinkGraph.class) {
+				if (_Framesets.containsKey(frameset.getKey()))
+					continue;
+			}
+			loadFrameset(frameset.getValue(), frameset.getKey());
+		}
+	}
+
+	/**
+	 * Reads the links of the frames in a frameset from its search index,
+	 * indexing the frameset first if need be.
+	 */
+	private static void loadFrameset(String path, String framesetName) {
+		SortedSet<Integer> numbers = FrameFileIndex.getFrameNumbers(path,
+				framesetName);
+		// directories without frames are checked again next time
+		if (numbers == null || numbers.isEmpty())
+			return;
+
+		Frameset frameset = new Frameset(framesetName, new File(path
+				+ framesetName));
+		FramesetSearchIndex index = FrameIO.GetSearchIndex(path,
+				framesetName, true);
+		if (index == null) {
+			// the frameset can not be indexed so its frame files are read
+			for (int number : numbers) {
+				String fullPath = FrameIO.getFrameFullPathName(path,
+						framesetName + number);
+				if (fullPath == null)
+					continue;
+				try {
+					frameset.frames.put(number, resolve(framesetName,
+							getLinks(fullPath)));
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		synchronized (FrameLinkGraph.class) {
+			if (_Framesets.containsKey(framesetName))
+				return;
+			// the index is read holding the lock so that no changes to it are
+			// missed before the frameset is added
+			if (index != null) {
+				try {
+					for (int number : index.getFrameNumbers())
+						frameset.frames.put(number, resolve(framesetName,
+								FramesetSearchIndex.getLinks(index
+										.getText(number))));
+				} catch (IOException e) {
+					e.printStackTrace();
+					return;
+				}
+			}
+			_Framesets.put(framesetName, frameset);
+			_Directories.put(frameset.dir.getAbsolutePath(), frameset);
+			for (Map.Entry<Integer, List<String>> frame : frameset.frames
+					.entrySet())
+				addLinksTo(framesetName + frame.getKey(), frame.getValue());
+		}
+	}
+
+	/**
+	 * Reads the link lines of a frame file which is not indexed.
+	 */
+	private static List<String> getLinks(String fullPath) throws IOException {
+		List<String> links = new ArrayList<String>();
+		BufferedReader reader = FrameIO.openFrameText(fullPath);
+		try {
+			String next;
+			// the header's F line is the frozen date rather than a link
+			while ((next = reader.readLine()) != null && !next.equals("Z"))
+				;
+			while ((next = reader.readLine()) != null) {
+				if (next.startsWith("F") && next.length() > 2)
+					links.add(next.substring(2).trim());
+			}
+		} finally {
+			reader.close();
+		}
+		return links;
+	}
+
+	// must be called holding the lock
+	private static void putFrame(Frameset frameset, int number,
+			List<String> links) {
+		removeFrame(frameset, number);
+		List<String> resolved = resolve(frameset.name, links);
+		frameset.frames.put(number, resolved);
+		addLinksTo(frameset.name + number, resolved);
+	}
+
+	// must be called holding the lock
+	private static void removeFrame(Frameset frameset, int number) {
+		List<String> old = frameset.frames.remove(number);
+		if (old != null)
+			removeLinksTo(frameset.name + number, old);
+	}
+
+	// must be called holding the lock
+	private static void removeFrameset(Frameset frameset) {
+		_Framesets.remove(frameset.name);
+		_Directories.remove(frameset.dir.getAbsolutePath());
+		for (Map.Entry<Integer, List<String>> frame : frameset.frames
+				.entrySet())
+			removeLinksTo(frameset.name + frame.getKey(), frame.getValue());
+	}
+
+	private static void addLinksTo(String source, List<String> links) {
+		for (String link : links) {
+			Set<String> sources = _LinksTo.get(link);
+			if (sources == null) {
+				sources = new HashSet<String>();
+				_LinksTo.put(link, sources);
+			}
+			sources.add(source);
+		}
+	}
+
+	private static void removeLinksTo(String source, List<String> links) {
+		for (String link : links) {
+			Set<String> sources = _LinksTo.get(link);
+			if (sources == null)
+				continue;
+			sources.remove(source);
+			if (sources.isEmpty())
+				_LinksTo.remove(link);
+		}
+	}
+
+	private static List<String> resolve(String framesetName, List<String> links) {
+		List<String> resolved = new ArrayList<String>(links.size());
+		for (String link : links)
+			resolved.add(normalise(framesetName, link));
+		return resolved;
+	}
+
+	/**
+	 * Converts a link to the lower case name of the frame it links to, with
+	 * leading zeros removed from the frame number.
+	 *
+	 * @param framesetName
+	 *            the frameset containing the link, which relative links are
+	 *            to, or null if the link is absolute
+	 */
+	static String normalise(String framesetName, String link) {
+		if (FrameIO.isPositiveInteger(link) && link.length() <= 9
+				&& framesetName != null)
+			return framesetName + Integer.parseInt(link);
+		String name = link.toLowerCase();
+		if (getFramesetName(name) == null)
+			return name;
+		return getFramesetName(name) + getFrameNumber(name);
+	}
+
+	/**
+	 * @return the frameset part of a frame name, or null if the name is not
+	 *         a valid frame name.
+	 */
+	private static String getFramesetName(String frameName) {
+		if (!FrameIO.isValidFrameName(frameName))
+			return null;
+		String framesetName = Conversion.getFramesetName(frameName);
+		if (framesetName == null
+				|| frameName.length() - framesetName.length() > 9)
+			return null;
+		return framesetName;
+	}
+
+	private static int getFrameNumber(String frameName) {
+		return Conversion.getFrameNumber(frameName);
+	}
+
+	/**
+	 * Forgets every frameset, so that they are all read again the next time
+	 * the graph is used.
+	 */
+	public static synchronized void clear() {
+		_Framesets.clear();
+		_Directories.clear();
+		_LinksTo.clear();
+	}
+
+	/**
+	 * @return the number of framesets, frames and links in the graph.
+	 */
+	public static synchronized String getStats() {
+		int frames = 0;
+		int links = 0;
+		for (Frameset frameset : _Framesets.values()) {
+			frames += frameset.frames.size();
+			for (List<String> frameLinks : frameset.frames.values())
+				links += frameLinks.size();
+		}
+		return "Link graph: " + _Framesets.size() + " framesets, " + frames
+				+ " frames, " + links + " links";
+	}
+}
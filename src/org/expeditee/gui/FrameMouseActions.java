@@ -342,14 +342,6 @@ public class FrameMouseActions implements MouseListener, MouseMotionListener,
 			_MouseTimer.start();
 		}
 
-		// pre-cache the frame if it is linked
-
-		// If pre-caching is done, it must be done in the background
-
-		// if (on != null && on.getLink() != null && on.isLinkValid()) {
-		// FrameIO.Precache(on.getAbsoluteLink());
-		// }
-
 		// check for delete command
 		if (isDelete(modifiersEx)) {
 			_isDelete = true;
@@ -729,7 +721,7 @@ public class FrameMouseActions implements MouseListener, MouseMotionListener,
 			int mouseX = DisplayIO.getMouseX();
 			int mouseY = FrameMouseActions.getY();
 			// System.out.println(mouseX + "," + mouseY);
-			for (Item i : DisplayIO.getCurrentFrame().getItems()) {
+			for (Item i : DisplayIO.getCurrentFrame().getItemsView()) {
 				if (i instanceof Text) {
 					if (i.isNear(mouseX, mouseY)) {
 						clicked = i;
@@ -1130,7 +1122,7 @@ public class FrameMouseActions implements MouseListener, MouseMotionListener,
 									.getPosition(), false);
 							pickup(newPoint);
 							ItemUtils.EnclosedCheck(toDisconnect
-									.getParentOrCurrentFrame().getItems());
+									.getParentOrCurrentFrame().getItemsView());
 						}
 					}
 				}
@@ -2148,6 +2140,11 @@ public class FrameMouseActions implements MouseListener, MouseMotionListener,
 			_alpha = -1;
 		}
 
+		// read the frame the user is pointing at ahead of the click
+		if (on != null && on.getLink() != null && on.isLinkValid()
+				&& FreeItems.getInstance().size() == 0)
+			FramePrefetcher.prefetch(on.getAbsoluteLink());
+
 		// if the user is pointing at an item, highlight it
 		if (on != null && !FreeItems.getInstance().contains(on)) {
 			// if the user can spot-weld, show the virtual spot
@@ -2175,7 +2172,7 @@ public class FrameMouseActions implements MouseListener, MouseMotionListener,
 			// if the last item highlighted is still highlighted, clear it
 			if (_lastHoldsHighlight) {
 				_lastHoldsHighlight = false;
-				for (Item i : DisplayIO.getCurrentFrame().getItems())
+				for (Item i : DisplayIO.getCurrentFrame().getItemsView())
 					if (i.isHighlighted() && i != on)
 						FrameGraphics.changeHighlightMode(i,
 								Item.HighlightMode.None);
@@ -2694,7 +2691,7 @@ public class FrameMouseActions implements MouseListener, MouseMotionListener,
 			// reset the mouse cursor
 			updateCursor();
 			if (parent != null)
-				ItemUtils.EnclosedCheck(parent.getItems());
+				ItemUtils.EnclosedCheck(parent.getItemsView());
 			if (toDelete.hasOverlay()) {
 				FrameUtils.Parse(parent, false, false);
 				FrameGraphics.requestRefresh(false);
@@ -2769,7 +2766,7 @@ public class FrameMouseActions implements MouseListener, MouseMotionListener,
 
 		for (Frame f : modifiedFrames) {
 			f.removeAllItems(itemList);
-			ItemUtils.EnclosedCheck(f.getItems());
+			ItemUtils.EnclosedCheck(f.getItemsView());
 		}
 		// TODO: How should undelete deal with undo when items are removed from
 		// the current frame as well as the overlay frame
@@ -3012,7 +3009,7 @@ public class FrameMouseActions implements MouseListener, MouseMotionListener,
 
 		mergee.getParent().setChanged(true);
 
-		ItemUtils.EnclosedCheck(mergee.getParent().getItems());
+		ItemUtils.EnclosedCheck(mergee.getParent().getItemsView());
 		// Mike: Why does parse frame have to be called?!?
 		FrameUtils.Parse(mergee.getParent());
 
@@ -3203,7 +3200,7 @@ public class FrameMouseActions implements MouseListener, MouseMotionListener,
 
 		if (checkEnclosure) {
 			ItemUtils.EnclosedCheck(toAnchor.getParentOrCurrentFrame()
-					.getItems());
+					.getItemsView());
 			FrameGraphics.Repaint();
 		}
 	}
@@ -3244,7 +3241,7 @@ public class FrameMouseActions implements MouseListener, MouseMotionListener,
 		toAnchor.clear();
 		// Check enclosure for all the frames of the items that were anchored
 		for (Frame f : checkEnclosure) {
-			ItemUtils.EnclosedCheck(f.getItems());
+			ItemUtils.EnclosedCheck(f.getItemsView());
 		}
 
 		Frame currentFrame = DisplayIO.getCurrentFrame();
@@ -0,0 +1,77 @@
+package org.expeditee.gui;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.expeditee.io.FrameNumberAllocator;
+
+/**
+ * Hands out the numbers for frames created one after another in a frameset,
+ * such as the results of an agent, from ranges reserved in the frameset's INF
+ * file. Each range is twice the size of the last, up to {@link #MAX_RANGE},
+ * so a few frames reserve a few numbers and many frames take one lock on the
+ * INF file for every {@link #MAX_RANGE} frames. Numbers which are not used
+ * are given back by {@link #release()}.
+ */
+public class FrameNumbers {
+
+	public static final int MAX_RANGE = 64;
+
+	private final String _path;
+
+	private final String _frameset;
+
+	private int _next = 0;
+
+	private int _end = 0;
+
+	private int _range = 1;
+
+	/**
+	 * @param path
+	 *            the directory containing the frameset
+	 */
+	public FrameNumbers(String path, String frameset) {
+		_path = path;
+		_frameset = frameset;
+	}
+
+	private File getDirectory() {
+		return new File(_path + _frameset.toLowerCase());
+	}
+
+	/**
+	 * @return the number to give the next frame created in the frameset.
+	 */
+	public synchronized int next() throws IOException {
+		if (_next >= _end) {
+			try {
+				_next = FrameNumberAllocator.allocate(getDirectory(),
+						_frameset, _range);
+			} catch (FileNotFoundException e) {
+				// remote framesets are numbered a frame at a time by the peer
+				return FrameIO.ReadINF(_path, _frameset, true) + 1;
+			}
+			_end = _next + _range;
+			_range = Math.min(_range * 2, MAX_RANGE);
+		}
+		return _next++;
+	}
+
+	/**
+	 * Gives back the reserved numbers which have not been used yet, if no
+	 * other frames have been numbered after them.
+	 */
+	public synchronized void release() {
+		if (_next >= _end)
+			return;
+		try {
+			FrameNumberAllocator.release(getDirectory(), _frameset, _next,
+					_end);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		_next = _end = 0;
+	}
+}
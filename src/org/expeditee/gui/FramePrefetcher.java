@@ -0,0 +1,317 @@
+package org.expeditee.gui;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.expeditee.items.Item;
+import org.expeditee.settings.performance.PerformanceSettings;
+
+/**
+ * Reads the frames the user is likely to visit next on a background thread,
+ * so that following a link does not wait for the frame to be read from disk.
+ *
+ * When a frame is displayed the frames it links to and the next and previous
+ * frames in its frameset are queued, and then the frames linked from those,
+ * up to the depth set in {@link PerformanceSettings}. The link under the mouse
+ * is moved to the front of the queue. Displaying another frame cancels the
+ * frames still queued for the last one.
+ *
+ * Frames are read but not parsed, because parsing creates widgets and loads
+ * overlays which must be done on the swing thread. FrameIO takes a read frame
+ * from the prefetcher when it is loaded and parses it then, which is much
+ * quicker than reading it. Read frames are held until they are loaded or
+ * until the memory budget is exceeded, when the oldest are dropped.
+ */
+public class FramePrefetcher {
+
+	private static class Request {
+		private final String name;
+
+		private final int depth;
+
+		private final int generation;
+
+		Request(String name, int depth, int generation) {
+			this.name = name;
+			this.depth = depth;
+			this.generation = generation;
+		}
+	}
+
+	private static final Object _lock = new Object();
+
+	private static final LinkedList<Request> _queue = new LinkedList<Request>();
+
+	// read frames by lower case name, oldest first
+	private static final Map<String, Frame> _prefetched = new LinkedHashMap<String, Frame>();
+
+	private static long _prefetchedWeight = 0;
+
+	// the frame being read by the prefetch thread
+	private static String _reading = null;
+
+	// set when the frame being read is discarded, so the copy being read,
+	// which may be older than the frame's file, is not kept
+	private static boolean _readingDiscarded = false;
+
+	// incremented each time a frame is displayed, to cancel older requests
+	private static int _generation = 0;
+
+	private static Thread _prefetchThread = null;
+
+	private static long _reads = 0;
+
+	private static long _hits = 0;
+
+	private static long _cancelled = 0;
+
+	private static long _dropped = 0;
+
+	// All methods are static, this should not be instantiated
+	private FramePrefetcher() {
+	}
+
+	private static boolean isEnabled() {
+		return PerformanceSettings.PrefetchDepth.get() > 0
+				&& FrameIO.isCacheOn();
+	}
+
+	/**
+	 * Queues the frames that may be visited from a frame which has just been
+	 * displayed, cancelling those queued for the frame displayed before it.
+	 */
+	public static void prefetchFrom(Frame frame) {
+		if (frame == null || !isEnabled())
+			return;
+
+		int depth = PerformanceSettings.PrefetchDepth.get();
+		List<String> names = getLinks(frame);
+
+		synchronized (_lock) {
+			_generation++;
+			_cancelled += _queue.size();
+			_queue.clear();
+			for (String name : names)
+				_queue.add(new Request(name, depth, _generation));
+			start();
+			_lock.notify();
+		}
+	}
+
+	/**
+	 * Reads a frame ahead of the other queued frames, for a link the user is
+	 * pointing at.
+	 */
+	public static void prefetch(String frameName) {
+		if (frameName == null || !isEnabled()
+				|| !FrameIO.isValidFrameName(frameName))
+			return;
+
+		String key = frameName.toLowerCase();
+		synchronized (_lock) {
+			if (key.equals(_reading) || _prefetched.containsKey(key))
+				return;
+			if (!_queue.isEmpty() && _queue.getFirst().name.equals(key))
+				return;
+			removeRequest(key);
+			_queue.addFirst(new Request(key, 1, _generation));
+			start();
+			_lock.notify();
+		}
+	}
+
+	/**
+	 * Takes a frame that has been read ahead. The frame is not parsed and the
+	 * prefetcher keeps no reference to it.
+	 *
+	 * @return the frame, or null if it has not been read
+	 */
+	static Frame take(String frameName) {
+		synchronized (_lock) {
+			Frame frame = remove(frameName.toLowerCase());
+			if (frame != null)
+				_hits++;
+			return frame;
+		}
+	}
+
+	/**
+	 * Drops a frame read ahead, because the frame has changed since.
+	 */
+	static void discard(String frameName) {
+		String key = frameName.toLowerCase();
+		synchronized (_lock) {
+			remove(key);
+			removeRequest(key);
+			if (key.equals(_reading))
+				_readingDiscarded = true;
+		}
+	}
+
+	/**
+	 * Drops all frames read ahead and cancels those still queued.
+	 */
+	public static void clear() {
+		synchronized (_lock) {
+			_generation++;
+			_cancelled += _queue.size();
+			_queue.clear();
+			_prefetched.clear();
+			_prefetchedWeight = 0;
+			if (_reading != null)
+				_readingDiscarded = true;
+		}
+	}
+
+	/**
+	 * Waits until the queued frames have been read.
+	 */
+	static void waitUntilIdle() throws InterruptedException {
+		synchronized (_lock) {
+			while (!_queue.isEmpty() || _reading != null)
+				_lock.wait();
+		}
+	}
+
+	public static String getStats() {
+		synchronized (_lock) {
+			return "FramePrefetcher: " + _prefetched.size() + " frames, "
+					+ (_prefetchedWeight / 1024) + "KB, " + _reads
+					+ " reads, hits " + _hits + ", cancelled " + _cancelled
+					+ ", dropped " + _dropped;
+		}
+	}
+
+	/**
+	 * @return the absolute names of the frames linked from a frame, followed
+	 *         by the next and previous frames in its frameset.
+	 */
+	private static List<String> getLinks(Frame frame) {
+		List<String> names = new ArrayList<String>();
+		for (Item item : frame.getItemsView()) {
+			if (item.getLink() == null || !item.isLinkValid())
+				continue;
+			addName(names, item.getAbsoluteLink());
+		}
+		if (frame.getNumber() > 0) {
+			addName(names, frame.getFramesetName() + (frame.getNumber() + 1));
+			if (frame.getNumber() > 1)
+				addName(names, frame.getFramesetName()
+						+ (frame.getNumber() - 1));
+		}
+		return names;
+	}
+
+	private static void addName(List<String> names, String frameName) {
+		if (frameName == null || !FrameIO.isValidFrameName(frameName))
+			return;
+		String key = frameName.toLowerCase();
+		if (!names.contains(key))
+			names.add(key);
+	}
+
+	// must be called holding _lock
+	private static Frame remove(String key) {
+		Frame frame = _prefetched.remove(key);
+		if (frame != null)
+			_prefetchedWeight -= FrameCache.estimateSize(frame);
+		return frame;
+	}
+
+	// must be called holding _lock
+	private static void removeRequest(String key) {
+		Iterator<Request> requests = _queue.iterator();
+		while (requests.hasNext()) {
+			if (requests.next().name.equals(key))
+				requests.remove();
+		}
+	}
+
+	// must be called holding _lock
+	private static void start() {
+		if (_prefetchThread != null)
+			return;
+
+		_prefetchThread = new Thread("FramePrefetcher") {
+			@Override
+			public void run() {
+				while (true) {
+					try {
+						readNext();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		};
+		_prefetchThread.setDaemon(true);
+		// reading ahead must not slow down the swing thread
+		_prefetchThread.setPriority(Thread.MIN_PRIORITY);
+		_prefetchThread.start();
+	}
+
+	private static void readNext() throws InterruptedException {
+		Request request;
+		synchronized (_lock) {
+			while (_queue.isEmpty())
+				_lock.wait();
+			request = _queue.removeFirst();
+			if (_prefetched.containsKey(request.name)
+					|| FrameIO.FrameIsCached(request.name)) {
+				_lock.notifyAll();
+				return;
+			}
+			_reading = request.name;
+			_readingDiscarded = false;
+		}
+
+		Frame frame = null;
+		List<String> links = null;
+		try {
+			frame = FrameIO.ReadFromDisk(request.name);
+			// links are found before the frame can be taken by another thread
+			if (frame != null && request.depth > 1)
+				links = getLinks(frame);
+		} catch (Throwable e) {
+			e.printStackTrace();
+		} finally {
+			synchronized (_lock) {
+				_reading = null;
+				_reads++;
+				if (!_readingDiscarded)
+					store(request, frame, links);
+				_lock.notifyAll();
+			}
+		}
+	}
+
+	// must be called holding _lock
+	private static void store(Request request, Frame frame, List<String> links) {
+		if (frame == null || FrameIO.FrameIsCached(request.name))
+			return;
+
+		_prefetched.put(request.name, frame);
+		_prefetchedWeight += FrameCache.estimateSize(frame);
+		long budget = PerformanceSettings.PrefetchMemory.get() * 1024L * 1024L;
+		Iterator<Frame> oldest = _prefetched.values().iterator();
+		while (_prefetchedWeight > budget && oldest.hasNext()) {
+			Frame dropped = oldest.next();
+			oldest.remove();
+			_prefetchedWeight -= FrameCache.estimateSize(dropped);
+			_dropped++;
+		}
+
+		// the frames linked from a cancelled request are not wanted
+		if (links == null || request.generation != _generation)
+			return;
+		for (String name : links) {
+			if (!_prefetched.containsKey(name))
+				_queue.add(new Request(name, request.depth - 1,
+						request.generation));
+		}
+	}
+}
@@ -0,0 +1,443 @@
+package org.expeditee.gui;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.swing.SwingUtilities;
+
+import org.expeditee.io.FramesetLog;
+import org.expeditee.io.FramesetSearchIndex;
+import org.expeditee.settings.performance.PerformanceSettings;
+
+/**
+ * Writes saved frames to disk on a background thread so that saving does not
+ * hold up the thread that changed the frame, which is usually the swing
+ * thread. Frames are written out to bytes when they are saved and only the
+ * disk writes are deferred.
+ *
+ * A frame saved again before its previous save reaches the disk replaces the
+ * pending contents. Updates to frame.inf are made once per frameset for each
+ * batch of writes. Files are written to a hidden temporary file and moved over
+ * the frame file, so a crash leaves either the old or the new version of a
+ * frame. Frames in framesets stored as logs are appended to the log, which is
+ * synced once per batch.
+ *
+ * A frame which can not be written is marked as changed again on the swing
+ * thread, so it is saved again like any other unsaved frame. Its contents are
+ * kept and retried with the next batch, or when the queue is flushed, unless
+ * it is saved again first, and frame.inf is not moved on to it until it has
+ * been written. Frames which still can not be written when the JVM exits are
+ * reported on the error stream.
+ *
+ * Code which reads frame files, or moves or deletes them, must call
+ * {@link #flush()} or {@link #flush(String)} first.
+ */
+public class FrameSaveQueue {
+
+	private static class PendingSave {
+		private final byte[] contents;
+
+		private final int version;
+
+		// the frame which was saved, if it is known
+		private final Frame frame;
+
+		PendingSave(byte[] contents, int version, Frame frame) {
+			this.contents = contents;
+			this.version = version;
+			this.frame = frame;
+		}
+	}
+
+	private static class PendingINF {
+		private final String path;
+
+		private final String frameset;
+
+		private String frameName;
+
+		private int number;
+
+		PendingINF(String path, String frameset, String frameName, int number) {
+			this.path = path;
+			this.frameset = frameset;
+			this.frameName = frameName;
+			this.number = number;
+		}
+	}
+
+	private static final Object _lock = new Object();
+
+	// frame files waiting to be written, in the order they were first saved
+	private static Map<String, PendingSave> _pending = new LinkedHashMap<String, PendingSave>();
+
+	// the highest numbered frame saved in each frameset since the last batch
+	private static Map<String, PendingINF> _pendingINF = new HashMap<String, PendingINF>();
+
+	// the frame files being written by the save thread
+	private static Map<String, PendingSave> _writing = new HashMap<String, PendingSave>();
+
+	// frame files which could not be written, and the frame.inf updates
+	// waiting for them, retried with the next batch
+	private static Map<String, PendingSave> _failed = new LinkedHashMap<String, PendingSave>();
+
+	private static Map<String, PendingINF> _failedINF = new HashMap<String, PendingINF>();
+
+	private static boolean _busy = false;
+
+	// set to write the failed frames again, even if nothing else is queued
+	private static boolean _retry = false;
+
+	private static Thread _saveThread = null;
+
+	private static long _saves = 0;
+
+	private static long _writes = 0;
+
+	private static long _coalesced = 0;
+
+	private static long _failures = 0;
+
+	/**
+	 * Queues the contents of a frame file to be written.
+	 *
+	 * @param fullPath
+	 *            the path of the frame file
+	 * @param contents
+	 *            the contents of the file
+	 * @param version
+	 *            the version of the frame being saved
+	 */
+	public static void save(String fullPath, byte[] contents, int version) {
+		save(fullPath, contents, version, null);
+	}
+
+	/**
+	 * Queues the contents of a frame file to be written.
+	 *
+	 * @param frame
+	 *            the frame being saved, which is marked as changed again if
+	 *            its file can not be written
+	 */
+	public static void save(String fullPath, byte[] contents, int version,
+			Frame frame) {
+		synchronized (_lock) {
+			_saves++;
+			_failed.remove(fullPath);
+			if (_pending.put(fullPath, new PendingSave(contents, version,
+					frame)) != null)
+				_coalesced++;
+			start();
+			_lock.notifyAll();
+		}
+		if (!PerformanceSettings.SaveInBackground.get())
+			flush(fullPath);
+	}
+
+	/**
+	 * Queues an update of frame.inf so that it names the highest numbered
+	 * frame saved in the frameset.
+	 */
+	public static void updateINF(String path, String frameset,
+			String frameName, int number) {
+		String key = path + frameset.toLowerCase();
+		synchronized (_lock) {
+			PendingINF inf = _pendingINF.get(key);
+			if (inf == null) {
+				_pendingINF.put(key, new PendingINF(path, frameset, frameName,
+						number));
+			} else if (number > inf.number) {
+				inf.frameName = frameName;
+				inf.number = number;
+			}
+			start();
+			_lock.notifyAll();
+		}
+		if (!PerformanceSettings.SaveInBackground.get())
+			flush();
+	}
+
+	/**
+	 * @return the version of a frame file waiting to be written, or -1 if the
+	 *         file is up to date.
+	 */
+	public static int getPendingVersion(String fullPath) {
+		synchronized (_lock) {
+			PendingSave save = _pending.get(fullPath);
+			if (save == null)
+				save = _writing.get(fullPath);
+			if (save == null)
+				save = _failed.get(fullPath);
+			return save == null ? -1 : save.version;
+		}
+	}
+
+	/**
+	 * Waits until every queued frame and frame.inf update has been written,
+	 * trying again to write those which failed before.
+	 *
+	 * @return false if some frames still could not be written, they are named
+	 *         by {@link #getUnwritten()}.
+	 */
+	public static boolean flush() {
+		synchronized (_lock) {
+			try {
+				if (!_failed.isEmpty() || !_failedINF.isEmpty())
+					retry();
+				while (_busy || _retry || !_pending.isEmpty()
+						|| !_pendingINF.isEmpty())
+					_lock.wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return _failed.isEmpty() && _failedINF.isEmpty();
+		}
+	}
+
+	/**
+	 * Waits until a frame file has been written, if it is waiting to be,
+	 * trying again to write it if it failed before.
+	 *
+	 * @param fullPath
+	 *            the path of the frame file
+	 * @return false if the file still could not be written.
+	 */
+	public static boolean flush(String fullPath) {
+		synchronized (_lock) {
+			try {
+				if (_failed.containsKey(fullPath))
+					retry();
+				while (_pending.containsKey(fullPath)
+						|| _writing.containsKey(fullPath)
+						|| (_retry && _failed.containsKey(fullPath)))
+					_lock.wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return !_failed.containsKey(fullPath);
+		}
+	}
+
+	/**
+	 * @return the paths of the frame files which could not be written and
+	 *         are waiting to be tried again.
+	 */
+	public static Collection<String> getUnwritten() {
+		synchronized (_lock) {
+			return new ArrayList<String>(_failed.keySet());
+		}
+	}
+
+	/**
+	 * @return a one line summary of the saves queued, coalesced and written.
+	 */
+	public static String getStats() {
+		synchronized (_lock) {
+			return "FrameSaveQueue: " + _saves + " saves, " + _coalesced
+					+ " coalesced, " + _writes + " writes, " + _failures
+					+ " failed, " + (_pending.size() + _writing.size())
+					+ " pending";
+		}
+	}
+
+	// must be called holding _lock
+	private static void retry() {
+		_retry = true;
+		start();
+		_lock.notifyAll();
+	}
+
+	// must be called holding _lock
+	private static void start() {
+		if (_saveThread != null)
+			return;
+
+		_saveThread = new Thread("FrameSaveQueue") {
+			@Override
+			public void run() {
+				while (true)
+					writeBatch();
+			}
+		};
+		_saveThread.setDaemon(true);
+		_saveThread.start();
+
+		// make sure queued frames are written whenever the JVM exits
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				if (!flush())
+					System.err.println("Could not save " + getUnwritten()
+							+ " before exiting, their changes are lost");
+			}
+		});
+	}
+
+	private static void writeBatch() {
+		Map<String, PendingSave> batch;
+		Map<String, PendingINF> infs;
+		synchronized (_lock) {
+			try {
+				while (_pending.isEmpty() && _pendingINF.isEmpty() && !_retry)
+					_lock.wait();
+			} catch (InterruptedException e) {
+				return;
+			}
+			// the writes which failed are tried again, unless they have been
+			// saved again since
+			batch = _failed;
+			batch.putAll(_pending);
+			infs = _failedINF;
+			for (PendingINF inf : _pendingINF.values())
+				addINF(infs, inf);
+			_pending = new LinkedHashMap<String, PendingSave>();
+			_pendingINF = new HashMap<String, PendingINF>();
+			_failed = new LinkedHashMap<String, PendingSave>();
+			_failedINF = new HashMap<String, PendingINF>();
+			_writing = batch;
+			_busy = true;
+			_retry = false;
+		}
+
+		Map<String, PendingSave> failed = new LinkedHashMap<String, PendingSave>();
+		Map<String, PendingINF> failedINF = new HashMap<String, PendingINF>();
+		final Map<String, String> errors = new LinkedHashMap<String, String>();
+		try {
+			Set<String> failedFrames = new HashSet<String>();
+			for (Map.Entry<String, PendingSave> save : batch.entrySet()) {
+				try {
+					write(save.getKey(), save.getValue());
+				} catch (IOException e) {
+					e.printStackTrace();
+					failed.put(save.getKey(), save.getValue());
+					errors.put(save.getKey(), e.getMessage());
+					if (save.getValue().frame != null)
+						failedFrames.add(save.getValue().frame.getName()
+								.toLowerCase());
+				}
+			}
+			// logs and search indexes are synced once for the whole batch
+			FramesetLog.syncAll();
+			FramesetSearchIndex.syncAll();
+
+			// frames must be on disk before frame.inf names them
+			for (Map.Entry<String, PendingINF> inf : infs.entrySet()) {
+				PendingINF update = inf.getValue();
+				if (failedFrames.contains(update.frameName.toLowerCase())) {
+					failedINF.put(inf.getKey(), update);
+					continue;
+				}
+				FrameIO.UpdateINF(update.path, update.frameset,
+						update.frameName, update.number);
+			}
+		} finally {
+			synchronized (_lock) {
+				for (Map.Entry<String, PendingSave> save : failed.entrySet()) {
+					if (!_pending.containsKey(save.getKey()))
+						_failed.put(save.getKey(), save.getValue());
+				}
+				for (PendingINF inf : failedINF.values())
+					addINF(_failedINF, inf);
+				_failures += failed.size();
+				_writes += batch.size() - failed.size();
+				_writing = new HashMap<String, PendingSave>();
+				_busy = false;
+				_lock.notifyAll();
+			}
+		}
+
+		if (!failed.isEmpty())
+			reportFailures(failed, errors);
+	}
+
+	/**
+	 * Shows the saves which failed, and marks their frames as changed so they
+	 * are saved again, on the swing thread.
+	 */
+	private static void reportFailures(final Map<String, PendingSave> failed,
+			final Map<String, String> errors) {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				for (Map.Entry<String, PendingSave> save : failed.entrySet()) {
+					Frame frame = save.getValue().frame;
+					if (frame != null)
+						frame.change();
+					MessageBay.errorMessage("Could not save "
+							+ (frame == null ? save.getKey() : frame.getName())
+							+ ": " + errors.get(save.getKey()));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Adds a frame.inf update to those of a batch, keeping the highest
+	 * numbered frame of each frameset.
+	 */
+	private static void addINF(Map<String, PendingINF> infs, PendingINF inf) {
+		String key = inf.path + inf.frameset.toLowerCase();
+		PendingINF other = infs.get(key);
+		if (other == null || inf.number > other.number)
+			infs.put(key, inf);
+	}
+
+	/**
+	 * Writes a file by writing a hidden temporary file next to it and moving it
+	 * over the original, or appends the frame to its frameset log.
+	 */
+	private static void write(String fullPath, PendingSave save)
+			throws IOException {
+		if (FramesetLog.isLogPath(fullPath)) {
+			FramesetLog.write(fullPath, save.version, save.contents);
+			updateSearchIndex(fullPath, save);
+			return;
+		}
+
+		File file = new File(fullPath);
+		File temp = new File(file.getParentFile(), "." + file.getName()
+				+ ".tmp");
+
+		FileOutputStream out = new FileOutputStream(temp);
+		try {
+			out.write(save.contents);
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+
+		try {
+			Files.move(temp.toPath(), file.toPath(),
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			temp.delete();
+			throw e;
+		}
+		updateSearchIndex(fullPath, save);
+	}
+
+	/**
+	 * Indexes a frame once it is written, if its frameset has a search index.
+	 * A frame which can not be indexed is still saved.
+	 */
+	private static void updateSearchIndex(String fullPath, PendingSave save) {
+		try {
+			FramesetSearchIndex.update(fullPath, save.contents);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,312 @@
+package org.expeditee.gui;
+
+import java.awt.Point;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.expeditee.items.Item;
+import org.expeditee.items.Line;
+
+/**
+ * A grid over the items in the body of a frame, so the items which may be
+ * under a point or in a rectangle can be found without looking at every item.
+ * Frames with thousands of dots and lines, such as imported diagrams, would
+ * otherwise test every item each time the mouse moves or part of the frame is
+ * repainted.
+ *
+ * Each item is kept in the cells covered by the smallest rectangle holding
+ * its polygon, its drawing area and, for the corners of filled shapes, the
+ * shape and its lines. Items tell their frame when they may have moved or
+ * changed shape, and are put back in the right cells the next time the index
+ * is used. Items are returned in the order of the frame's body, so callers
+ * which test each item exactly get the same results as testing every item.
+ */
+class FrameSpatialIndex {
+
+	/**
+	 * Frames with fewer items than this are not indexed, as looking at every
+	 * item is as quick.
+	 */
+	static final int MIN_ITEMS = 64;
+
+	// the width and height of the grid's cells
+	private static final int CELL_SIZE = 64;
+
+	// items spanning more cells than this are looked at by every query
+	private static final int MAX_CELLS = 256;
+
+	private final List<Item> _body;
+
+	private final Map<Long, List<Item>> _cells = new HashMap<Long, List<Item>>();
+
+	// the rectangle each item was indexed with, or null until it is placed
+	private final Map<Item, Rectangle> _bounds = new IdentityHashMap<Item, Rectangle>();
+
+	private final Set<Item> _large = newItemSet();
+
+	private final Set<Item> _dirty = newItemSet();
+
+	// the position of each item in the body
+	private final Map<Item, Integer> _order = new IdentityHashMap<Item, Integer>();
+
+	private boolean _ordered = false;
+
+	private int _nextOrder = 0;
+
+	private final Comparator<Item> _byOrder = new Comparator<Item>() {
+		public int compare(Item a, Item b) {
+			return _order.get(a).compareTo(_order.get(b));
+		}
+	};
+
+	/**
+	 * @param body
+	 *            the list of items in the body of the frame, which the frame
+	 *            changes through {@link #add(Item)} and {@link #remove(Item)}
+	 */
+	FrameSpatialIndex(List<Item> body) {
+		_body = body;
+		for (Item i : body) {
+			if (i != null) {
+				_bounds.put(i, null);
+				_dirty.add(i);
+			}
+		}
+	}
+
+	private static Set<Item> newItemSet() {
+		return Collections.newSetFromMap(new IdentityHashMap<Item, Boolean>());
+	}
+
+	/**
+	 * Indexes an item which has been added to the end of the body.
+	 */
+	void add(Item item) {
+		if (_bounds.containsKey(item))
+			return;
+		_bounds.put(item, null);
+		_dirty.add(item);
+		if (_ordered)
+			_order.put(item, _nextOrder++);
+	}
+
+	/**
+	 * Stops indexing an item which has been removed from the body.
+	 * 
+	 * @return false if the item was not indexed.
+	 */
+	boolean remove(Item item) {
+		if (!_bounds.containsKey(item))
+			return false;
+		unplace(item, _bounds.remove(item));
+		_dirty.remove(item);
+		_order.remove(item);
+		return true;
+	}
+
+	/**
+	 * Notes that an item may have moved or changed shape.
+	 */
+	void changed(Item item) {
+		if (_bounds.containsKey(item))
+			_dirty.add(item);
+	}
+
+	/**
+	 * Notes that the items in the body have been put in a different order.
+	 */
+	void reordered() {
+		_ordered = false;
+	}
+
+	/**
+	 * @return the items in the body which may be drawn in, hit in or fill part
+	 *         of an area, in the order of the body.
+	 */
+	List<Item> getItemsNear(Rectangle area) {
+		update();
+		Set<Item> found = newItemSet();
+		long cellsInArea = (long) (cell(area.x + area.width) - cell(area.x) + 1)
+				* (cell(area.y + area.height) - cell(area.y) + 1);
+		if (cellsInArea > _cells.size()) {
+			for (Map.Entry<Long, List<Item>> entry : _cells.entrySet()) {
+				long key = entry.getKey();
+				int x = (int) (key >> 32);
+				int y = (int) key;
+				if (x >= cell(area.x) && x <= cell(area.x + area.width)
+						&& y >= cell(area.y) && y <= cell(area.y + area.height))
+					addIntersecting(found, entry.getValue(), area);
+			}
+		} else {
+			for (int x = cell(area.x); x <= cell(area.x + area.width); x++) {
+				for (int y = cell(area.y); y <= cell(area.y + area.height); y++) {
+					List<Item> items = _cells.get(key(x, y));
+					if (items != null)
+						addIntersecting(found, items, area);
+				}
+			}
+		}
+		addIntersecting(found, _large, area);
+		return sort(found);
+	}
+
+	/**
+	 * @return the items from the body in a collection, in the order of the
+	 *         body.
+	 */
+	List<Item> sort(Collection<Item> items) {
+		if (!_ordered) {
+			_order.clear();
+			_nextOrder = 0;
+			for (Item i : _body) {
+				if (i != null && !_order.containsKey(i))
+					_order.put(i, _nextOrder++);
+			}
+			_ordered = true;
+		}
+		List<Item> sorted = new ArrayList<Item>(items.size());
+		for (Item i : items) {
+			if (_order.containsKey(i))
+				sorted.add(i);
+		}
+		Collections.sort(sorted, _byOrder);
+		return sorted;
+	}
+
+	private void addIntersecting(Set<Item> found, Collection<Item> items,
+			Rectangle area) {
+		for (Item i : items) {
+			Rectangle bounds = _bounds.get(i);
+			// items which could not be measured are always looked at
+			if (bounds == null || bounds.intersects(area))
+				found.add(i);
+		}
+	}
+
+	/**
+	 * Puts the items which have moved or changed shape back in the right
+	 * cells.
+	 */
+	private void update() {
+		if (_dirty.isEmpty())
+			return;
+		// measuring an item can mark it as changed again
+		List<Item> dirty = new ArrayList<Item>(_dirty);
+		Set<Item> done = newItemSet();
+		for (Item i : dirty) {
+			place(i, done);
+			// the shape an item fills and the lines around it change together
+			if (i.isEnclosed()) {
+				for (Item corner : i.getEnclosingDots())
+					place(corner, done);
+			}
+			if (i instanceof Line) {
+				place(((Line) i).getStartItem(), done);
+				place(((Line) i).getEndItem(), done);
+			}
+		}
+		for (Item i : dirty)
+			_dirty.remove(i);
+	}
+
+	private void place(Item item, Set<Item> done) {
+		if (!_bounds.containsKey(item) || !done.add(item))
+			return;
+		unplace(item, _bounds.get(item));
+		Rectangle bounds = getBounds(item);
+		_bounds.put(item, bounds);
+		if (bounds == null) {
+			_large.add(item);
+			return;
+		}
+		int x0 = cell(bounds.x), x1 = cell(bounds.x + bounds.width);
+		int y0 = cell(bounds.y), y1 = cell(bounds.y + bounds.height);
+		if ((long) (x1 - x0 + 1) * (y1 - y0 + 1) > MAX_CELLS) {
+			_large.add(item);
+			return;
+		}
+		for (int x = x0; x <= x1; x++) {
+			for (int y = y0; y <= y1; y++) {
+				Long key = key(x, y);
+				List<Item> items = _cells.get(key);
+				if (items == null) {
+					items = new ArrayList<Item>(4);
+					_cells.put(key, items);
+				}
+				items.add(item);
+			}
+		}
+	}
+
+	private void unplace(Item item, Rectangle bounds) {
+		if (bounds == null || _large.contains(item)) {
+			_large.remove(item);
+			return;
+		}
+		for (int x = cell(bounds.x); x <= cell(bounds.x + bounds.width); x++) {
+			for (int y = cell(bounds.y); y <= cell(bounds.y + bounds.height); y++) {
+				Long key = key(x, y);
+				List<Item> items = _cells.get(key);
+				if (items == null)
+					continue;
+				for (Iterator<Item> it = items.iterator(); it.hasNext();) {
+					if (it.next() == item) {
+						it.remove();
+						break;
+					}
+				}
+				if (items.isEmpty())
+					_cells.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * @return a rectangle holding everything about an item which can be hit
+	 *         or painted, or null if the item cannot be measured.
+	 */
+	private static Rectangle getBounds(Item item) {
+		try {
+			Rectangle bounds = item.getPolygon().getBounds();
+			for (Rectangle r : item.getDrawingArea())
+				bounds.add(r);
+			// items being moved are hit tested as if they were at their offset
+			Point offset = item.getOffset();
+			if (offset.x != 0 || offset.y != 0) {
+				Rectangle moved = new Rectangle(bounds);
+				moved.translate(-offset.x, -offset.y);
+				bounds.add(moved);
+			}
+			if (item.isEnclosed()) {
+				Polygon shape = item.getEnclosedShape();
+				bounds.add(shape.getBounds());
+				for (Line line : item.getLines()) {
+					for (Rectangle r : line.getDrawingArea())
+						bounds.add(r);
+				}
+			}
+			bounds.grow(1, 1);
+			return bounds;
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	private static int cell(int coordinate) {
+		return Math.floorDiv(coordinate, CELL_SIZE);
+	}
+
+	private static Long key(int x, int y) {
+		return ((long) x << 32) | (y & 0xFFFFFFFFL);
+	}
+}
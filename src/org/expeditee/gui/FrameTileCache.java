@@ -0,0 +1,165 @@
+package org.expeditee.gui;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * The items of a frame on screen as they were last drawn, kept in tiles so
+ * only the parts of the frame whose items have changed are drawn again. While
+ * items are carried across a frame the rest of the frame is copied from the
+ * tiles, so each repaint costs in proportion to the area being repainted
+ * rather than the number of items under it.
+ *
+ * The tiles hold everything which {@link FrameGraphics} draws from the items
+ * anchored on the frame and its overlays, including their highlighting and
+ * the text cursor, so those are drawn again when their items are
+ * invalidated. Free items, popups, tooltips and the cursor are drawn over the
+ * tiles each time.
+ */
+class FrameTileCache {
+
+	// the width and height of the tiles
+	static final int TILE_SIZE = 128;
+
+	// antialiased items can paint a pixel or two outside their drawing areas,
+	// so the items this close to a tile are painted in it
+	private static final int MARGIN = 4;
+
+	private final BufferedImage _image;
+
+	private final int _columns;
+
+	private final int _rows;
+
+	// the tiles which hold what is on the frame now
+	private final boolean[] _valid;
+
+	// what the tiles were drawn for, the tiles are dropped when it changes
+	private Object[] _state = null;
+
+	/**
+	 * @param image
+	 *            an image the size of the frame compatible with the buffer
+	 *            the frame is painted to.
+	 */
+	FrameTileCache(BufferedImage image) {
+		_image = image;
+		_columns = (image.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+		_rows = (image.getHeight() + TILE_SIZE - 1) / TILE_SIZE;
+		_valid = new boolean[_columns * _rows];
+	}
+
+	int getWidth() {
+		return _image.getWidth();
+	}
+
+	int getHeight() {
+		return _image.getHeight();
+	}
+
+	/**
+	 * Drops every tile unless the tiles were drawn in the same state.
+	 *
+	 * @param state
+	 *            everything the drawing of the whole frame depends on which is
+	 *            not invalidated item by item.
+	 */
+	void setState(Object[] state) {
+		if (!Arrays.equals(_state, state)) {
+			Arrays.fill(_valid, false);
+			_state = state;
+		}
+	}
+
+	/**
+	 * Drops the tiles which an area of the frame overlaps.
+	 */
+	void invalidate(Rectangle area) {
+		int x0 = Math.max(0, Math.floorDiv(area.x, TILE_SIZE));
+		int y0 = Math.max(0, Math.floorDiv(area.y, TILE_SIZE));
+		int x1 = Math.min(_columns - 1, Math.floorDiv(area.x + area.width,
+				TILE_SIZE));
+		int y1 = Math.min(_rows - 1, Math.floorDiv(area.y + area.height,
+				TILE_SIZE));
+		for (int y = y0; y <= y1; y++) {
+			for (int x = x0; x <= x1; x++)
+				_valid[y * _columns + x] = false;
+		}
+	}
+
+	void invalidateAll() {
+		Arrays.fill(_valid, false);
+	}
+
+	/**
+	 * @return false if every tile must be drawn again.
+	 */
+	boolean hasValidTiles() {
+		for (boolean valid : _valid) {
+			if (valid)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Copies the tiles in the clip of a graphics context onto it, first
+	 * drawing the tiles which are not valid.
+	 *
+	 * @param g
+	 *            the graphics to paint on, with its clip set.
+	 * @param clip
+	 *            the clip of g, or null to paint the whole frame.
+	 */
+	void paint(Graphics2D g, Area clip, Frame frame, Color background) {
+		Rectangle bounds = new Rectangle(0, 0, _image.getWidth(), _image
+				.getHeight());
+		if (clip != null)
+			bounds = bounds.intersection(clip.getBounds());
+		if (bounds.isEmpty())
+			return;
+
+		Area missing = null;
+		Area near = null;
+		int y1 = (bounds.y + bounds.height - 1) / TILE_SIZE;
+		int x1 = (bounds.x + bounds.width - 1) / TILE_SIZE;
+		for (int y = bounds.y / TILE_SIZE; y <= y1; y++) {
+			// runs of missing tiles in a row are drawn as one rectangle
+			int start = -1;
+			for (int x = bounds.x / TILE_SIZE; x <= x1 + 1; x++) {
+				boolean valid = x > x1 || _valid[y * _columns + x];
+				if (!valid && start < 0) {
+					start = x;
+				} else if (valid && start >= 0) {
+					Rectangle run = new Rectangle(start * TILE_SIZE, y
+							* TILE_SIZE, (x - start) * TILE_SIZE, TILE_SIZE);
+					Rectangle around = new Rectangle(run);
+					around.grow(MARGIN, MARGIN);
+					if (missing == null) {
+						missing = new Area(run);
+						near = new Area(around);
+					} else {
+						missing.add(new Area(run));
+						near.add(new Area(around));
+					}
+					for (int i = start; i < x; i++)
+						_valid[y * _columns + i] = true;
+					start = -1;
+				}
+			}
+		}
+
+		if (missing != null) {
+			Graphics2D ig = _image.createGraphics();
+			ig.setRenderingHints(g.getRenderingHints());
+			FrameGraphics.paintTiles(frame, missing, near, ig, background);
+			ig.dispose();
+		}
+
+		g.drawImage(_image, 0, 0, null);
+	}
+}
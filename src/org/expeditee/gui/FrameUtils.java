@@ -347,7 +347,7 @@ public class FrameUtils {
 	if (!SaveCheck(current))
 	    return false;
 
-	for (Item i : current.getItems())
+	for (Item i : current.getItemsView())
 	    i.setHighlightMode(Item.HighlightMode.None);
 	return true;
     }
@@ -780,8 +780,8 @@ public class FrameUtils {
 	    return;
 	// System.out.println(firstParse);
 	if (firstParse)
-	    ItemUtils.EnclosedCheck(toParse.getItems());
-	List<Item> items = toParse.getItems();
+	    ItemUtils.EnclosedCheck(toParse.getItemsView());
+	List<Item> items = toParse.getItemsView();
 
 	// if XRayMode is on, replace pictures with their underlying text
 	if (FrameGraphics.isXRayMode()) {
@@ -831,7 +831,7 @@ public class FrameUtils {
 	toParse.clearAnnotations();
 
 	// check for any new overlay items
-	for (Item i : toParse.getItems()) {
+	for (Item i : toParse.getItemsView()) {
 	    try {
 		// reset overlay permission
 		i.setOverlayPermission(null);
@@ -1149,7 +1149,7 @@ public class FrameUtils {
 			&& !FreeItems.getInstance().contains(LastEdited)
 			&& LastEdited.getParent() == DisplayIO
 				.getCurrentFrame()
-			&& LastEdited.getParent().getItems()
+			&& LastEdited.getParent().getItemsView()
 				.contains(LastEdited)) {
 		    LastEdited.setOverlayPermission(UserAppliedPermission.full);
 		    return LastEdited;
@@ -1158,7 +1158,7 @@ public class FrameUtils {
 		}
 	    }
 	    ArrayList<Item> checkList = new ArrayList<Item>();
-	    checkList.addAll(toCheck.getInteractableItems());
+	    checkList.addAll(toCheck.getInteractableItemsNear(x, y));
 	    checkList.add(toCheck.getNameItem());
 	    for (Item i : checkList) {
 		// do not check annotation items in audience mode
@@ -1538,7 +1538,7 @@ public class FrameUtils {
 		    Frame indexFrame = FrameIO.LoadFrame(framesetName + '1');
 		    // Look through the folder for help index pages
 		    if (indexFrame != null
-			    && ItemUtils.FindTag(indexFrame.getItems(),
+			    && ItemUtils.FindTag(indexFrame.getItemsView(),
 				    "@HelpIndex") != null) {
 			// yPos += spacing;
 			yPos += 30;
@@ -0,0 +1,263 @@
+package org.expeditee.gui;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.expeditee.items.Item;
+import org.expeditee.items.Text;
+import org.expeditee.settings.performance.PerformanceSettings;
+
+/**
+ * The changes to a frame which can be undone and redone. Deleted items are
+ * kept so they can be put back, but items which have been moved or
+ * reformatted are only recorded by their IDs, positions and text, rather than
+ * by copies of the items.
+ *
+ * The number of steps kept for each frame is limited, and the steps of every
+ * frame share the memory budget in {@link PerformanceSettings}. Once it is
+ * exceeded the oldest steps of any frame are forgotten.
+ */
+public class UndoHistory {
+
+	/**
+	 * Rough heap cost of a step, not counting its items.
+	 */
+	private static final long STEP_BYTES = 64;
+
+	/**
+	 * Rough heap cost of a deleted item, as it is counted by the frame cache.
+	 */
+	private static final long ITEM_BYTES = 1024;
+
+	/**
+	 * Rough heap cost of the ID and position of a moved item.
+	 */
+	private static final long STATE_BYTES = 16;
+
+	enum Type {
+		deletion, movement
+	}
+
+	/**
+	 * A change which can be undone or redone.
+	 */
+	static final class Step {
+		final Type type;
+
+		// the items which were deleted
+		final List<Item> items;
+
+		// the IDs, positions and text of the items which were moved
+		final int[] ids;
+
+		final int[] xs;
+
+		final int[] ys;
+
+		final String[] texts;
+
+		final long bytes;
+
+		private UndoHistory _owner = null;
+
+		private Step(List<Item> items) {
+			this.type = Type.deletion;
+			this.items = items;
+			this.ids = this.xs = this.ys = null;
+			this.texts = null;
+			this.bytes = STEP_BYTES + ITEM_BYTES * items.size();
+		}
+
+		private Step(Collection<Item> moved) {
+			this.type = Type.movement;
+			this.items = null;
+			int size = moved.size();
+			ids = new int[size];
+			xs = new int[size];
+			ys = new int[size];
+			texts = new String[size];
+			long bytes = STEP_BYTES + STATE_BYTES * size;
+			int k = 0;
+			for (Item i : moved) {
+				ids[k] = i.getID();
+				xs[k] = i.getX();
+				ys[k] = i.getY();
+				if (i instanceof Text && i.getText() != null) {
+					texts[k] = i.getText();
+					bytes += 2 * texts[k].length();
+				}
+				k++;
+			}
+			this.bytes = bytes;
+		}
+
+		int size() {
+			return type == Type.deletion ? items.size() : ids.length;
+		}
+
+		@Override
+		public String toString() {
+			return type.toString() + ": " + size() + " items";
+		}
+	}
+
+	private static final Object _lock = new Object();
+
+	// the steps of every frame, oldest first
+	private static final Set<Step> _steps = new LinkedHashSet<Step>();
+
+	private static long _totalBytes = 0;
+
+	private static long _forgotten = 0;
+
+	// the steps of this frame, most recent last
+	private final LinkedList<Step> _undo = new LinkedList<Step>();
+
+	private final LinkedList<Step> _redo = new LinkedList<Step>();
+
+	/**
+	 * @param items
+	 *            the items deleted from the frame.
+	 */
+	static Step deletion(Collection<Item> items) {
+		return new Step(new ArrayList<Item>(items));
+	}
+
+	/**
+	 * @param items
+	 *            the items on the frame, or copies of them with the same IDs,
+	 *            as they were before they were moved.
+	 */
+	static Step movement(Collection<Item> items) {
+		return new Step(items);
+	}
+
+	void pushUndo(Step step) {
+		push(_undo, step);
+	}
+
+	void pushRedo(Step step) {
+		push(_redo, step);
+	}
+
+	/**
+	 * @return the most recent step which can be undone, or null if there are
+	 *         none.
+	 */
+	Step popUndo() {
+		return pop(_undo);
+	}
+
+	/**
+	 * @return the most recently undone step, or null if there are none.
+	 */
+	Step popRedo() {
+		return pop(_redo);
+	}
+
+	int getUndoCount() {
+		synchronized (_lock) {
+			return _undo.size();
+		}
+	}
+
+	int getRedoCount() {
+		synchronized (_lock) {
+			return _redo.size();
+		}
+	}
+
+	/**
+	 * Forgets every step of this frame.
+	 */
+	void clear() {
+		synchronized (_lock) {
+			while (!_undo.isEmpty())
+				forget(_undo.getFirst());
+			while (!_redo.isEmpty())
+				forget(_redo.getFirst());
+		}
+	}
+
+	/**
+	 * @return the estimated number of bytes of heap held by the steps of every
+	 *         frame.
+	 */
+	public static long getEstimatedSize() {
+		synchronized (_lock) {
+			return _totalBytes;
+		}
+	}
+
+	/**
+	 * @return a one line summary of the steps kept and forgotten.
+	 */
+	public static String getStats() {
+		synchronized (_lock) {
+			return "UndoHistory: " + _steps.size() + " steps, "
+					+ (_totalBytes / 1024) + "KB, forgotten " + _forgotten;
+		}
+	}
+
+	private void push(LinkedList<Step> stack, Step step) {
+		if (step.size() < 1)
+			return;
+
+		synchronized (_lock) {
+			step._owner = this;
+			stack.addLast(step);
+			_steps.add(step);
+			_totalBytes += step.bytes;
+
+			int maxSteps = PerformanceSettings.UndoSteps.get();
+			while (maxSteps > 0 && stack.size() > maxSteps) {
+				forget(stack.getFirst());
+				_forgotten++;
+			}
+			trim();
+		}
+	}
+
+	private Step pop(LinkedList<Step> stack) {
+		synchronized (_lock) {
+			if (stack.isEmpty())
+				return null;
+			Step step = stack.removeLast();
+			_steps.remove(step);
+			_totalBytes -= step.bytes;
+			step._owner = null;
+			return step;
+		}
+	}
+
+	/**
+	 * Forgets the oldest steps of any frame until the steps are within the
+	 * budget. The step just added is kept even if it is larger than the
+	 * budget.
+	 */
+	// must be called holding _lock
+	private static void trim() {
+		long maxBytes = PerformanceSettings.UndoMemory.get() * 1024L * 1024L;
+		if (maxBytes <= 0)
+			return;
+		while (_totalBytes > maxBytes && _steps.size() > 1) {
+			forget(_steps.iterator().next());
+			_forgotten++;
+		}
+	}
+
+	// must be called holding _lock
+	private static void forget(Step step) {
+		_steps.remove(step);
+		_totalBytes -= step.bytes;
+		UndoHistory owner = step._owner;
+		// the oldest steps are at the bottom of the stacks
+		if (!owner._undo.remove(step))
+			owner._redo.remove(step);
+		step._owner = null;
+	}
+}
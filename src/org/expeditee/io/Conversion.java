@@ -5,8 +5,11 @@ import java.awt.Font;
 import java.awt.Point;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
 
 import org.expeditee.actions.Actions;
@@ -28,6 +31,40 @@ public class Conversion {
 
 	private static final float RGB_CONVERSION_FACTOR = 2.55F;
 
+	private static final int SHARED_FONTS = 512;
+
+	private static final Object _fontLock = new Object();
+
+	// fonts are immutable, so one instance of each font is shared by every
+	// text item using it, along with the codes the fonts are read from and
+	// written as
+	private static final Map<Font, Font> _sharedFonts = new SharedFonts<Font, Font>();
+
+	private static final Map<String, Font> _fontsByCode = new SharedFonts<String, Font>();
+
+	private static final Map<Font, String> _fontCodes = new SharedFonts<Font, String>();
+
+	private static long _fontHits = 0;
+
+	private static long _fontMisses = 0;
+
+	/**
+	 * The most recently used fonts, sizes and styles are shared as text is
+	 * resized and restyled.
+	 */
+	private static class SharedFonts<K, V> extends LinkedHashMap<K, V> {
+		private static final long serialVersionUID = 1L;
+
+		SharedFonts() {
+			super(64, 0.75F, true);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+			return size() > SHARED_FONTS;
+		}
+	}
+
 	/**
 	 * Returns the Color corresponding to the given Expeditee color code. For
 	 * example: <br>
@@ -122,7 +159,7 @@ public class Conversion {
 		}
 	}
 
-	private static Integer toColorPercent(int rgb) {
+	static int toColorPercent(int rgb) {
 		assert (rgb >= 0);
 		assert (rgb <= RGB_MAX);
 
@@ -138,7 +175,7 @@ public class Conversion {
 		return percent;
 	}
 
-	private static Integer toRGB(int percent) {
+	static int toRGB(int percent) {
 		int rgb = Math.round(percent * RGB_CONVERSION_FACTOR);
 		if (rgb > RGB_MAX)
 			rgb = RGB_MAX;
@@ -176,6 +213,19 @@ public class Conversion {
 	 * @return The Expeditee font code that corresponds to the given Font.
 	 */
 	public static String getExpediteeFontCode(Font font) {
+		synchronized (_fontLock) {
+			String code = _fontCodes.get(font);
+			if (code != null)
+				return code;
+		}
+		String code = toExpediteeFontCode(font);
+		synchronized (_fontLock) {
+			_fontCodes.put(font, code);
+		}
+		return code;
+	}
+
+	private static String toExpediteeFontCode(Font font) {
 		String fontName = font.getFamily();
 		String code = font.getFamily() + '_';
 
@@ -217,6 +267,53 @@ public class Conversion {
 	public static Font getFont(String fontCode) {
 		assert (fontCode != null);
 
+		synchronized (_fontLock) {
+			Font font = _fontsByCode.get(fontCode);
+			if (font != null) {
+				_fontHits++;
+				return font;
+			}
+			_fontMisses++;
+		}
+		Font font = getSharedFont(decodeFont(fontCode));
+		synchronized (_fontLock) {
+			_fontsByCode.put(fontCode, font);
+		}
+		return font;
+	}
+
+	/**
+	 * Gets the instance of a font which is shared by the items using it.
+	 * 
+	 * @param font
+	 *            the font to share.
+	 * @return an equal font, which is font itself if no equal font is shared.
+	 */
+	public static Font getSharedFont(Font font) {
+		if (font == null)
+			return null;
+		synchronized (_fontLock) {
+			Font shared = _sharedFonts.get(font);
+			if (shared != null)
+				return shared;
+			_sharedFonts.put(font, font);
+			return font;
+		}
+	}
+
+	/**
+	 * @return a one line summary of the number of shared fonts and how often
+	 *         font codes were found already decoded.
+	 */
+	public static String getFontStats() {
+		synchronized (_fontLock) {
+			return "Fonts: " + _sharedFonts.size() + " shared, "
+					+ _fontsByCode.size() + " codes, hits " + _fontHits
+					+ ", misses " + _fontMisses;
+		}
+	}
+
+	private static Font decodeFont(String fontCode) {
 		int separator = fontCode.indexOf('_');
 		String code = Text.FONT_WHEEL[0];
 		if (separator > 0) {
@@ -324,6 +421,30 @@ public class Conversion {
 		return set;
 	}
 
+	private static Map<String, Color> _ColorFields = null;
+
+	/**
+	 * @return the named colors declared in the Color class, keyed by lower
+	 *         case name.
+	 */
+	private static synchronized Map<String, Color> getColorFields() {
+		if (_ColorFields == null) {
+			Map<String, Color> colorFields = new HashMap<String, Color>();
+			for (Field field : Color.class.getFields()) {
+				String name = field.getName().toLowerCase();
+				if (field.getType() != Color.class
+						|| colorFields.containsKey(name))
+					continue;
+				try {
+					colorFields.put(name, (Color) field.get(null));
+				} catch (Exception e) {
+				}
+			}
+			_ColorFields = colorFields;
+		}
+		return _ColorFields;
+	}
+
 	public static Object Convert(Class type, String value) {
 		return Convert(type, value, null);
 	}
@@ -347,25 +468,21 @@ public class Conversion {
 			if (value.length() == 0)
 				return null;
 
-			try {
-				// Try to decode the string as a hex or octal color code
-				return Color.decode(value);
-			} catch (NumberFormatException nfe) {
+			// Saved colors are lists of percentages, which are neither color
+			// codes nor field names
+			if (value.indexOf(' ') < 0) {
 				try {
-					// Try to find the field in the Color class with the same name as the given string
-					Field[] fields = java.awt.Color.class.getFields();
-					Field field = null;
-					for (int i = 0; i < fields.length; i++) {
-						if (fields[i].getName().equalsIgnoreCase(value)) {
-							field = fields[i];
-							break;
-						}
-					}
-					return (Color) field.get(null);
-				} catch (Exception e) {
-					return getColor(value, (Color) orig);
+					// Try to decode the string as a hex or octal color code
+					return Color.decode(value);
+				} catch (NumberFormatException nfe) {
+					// Try to find the field in the Color class with the same
+					// name as the given string
+					Color field = getColorFields().get(value);
+					if (field != null)
+						return field;
 				}
 			}
+			return getColor(value, (Color) orig);
 		}
 
 		if (type.equals(int.class)) {
@@ -592,11 +709,11 @@ public class Conversion {
 		return o;
 	}
 
-	private static float getArrowLength(String args123) {
+	static float getArrowLength(String args123) {
 		return Float.parseFloat(args123.substring(0, args123.indexOf(" ")));
 	}
 
-	private static double getArrowRatio(String args123) {
+	static double getArrowRatio(String args123) {
 		int first_space_pos = args123.indexOf(" ");
 		String args23 = args123.substring(first_space_pos).trim();
 		int second_space_pos = args23.indexOf(" ");
@@ -608,7 +725,7 @@ public class Conversion {
 		return Double.parseDouble(args23.substring(0,second_space_pos).trim());
 	}
 	
-	private static double getArrowNibPerc(String args123) {
+	static double getArrowNibPerc(String args123) {
 		int first_space_pos = args123.indexOf(" ");
 		String args23 = args123.substring(first_space_pos).trim();
 		int second_space_pos = args23.indexOf(" ");
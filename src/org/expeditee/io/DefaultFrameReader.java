@@ -46,102 +46,118 @@ public abstract class DefaultFrameReader implements FrameReader {
 		if (_ItemTags != null && _FrameTags != null)
 			return;
 
-		_ItemTags = new LinkedHashMap<Character, Method>();
-		_FrameTags = new LinkedHashMap<Character, Method>();
+		_FrameTags = getFrameTags();
+		_ItemTags = getItemTags();
+	}
+
+	/**
+	 * @return the methods setting the frame attributes stored by each tag,
+	 *         which ExpTags compiles for the exp and exb readers.
+	 */
+	static LinkedHashMap<Character, Method> getFrameTags() {
+		LinkedHashMap<Character, Method> tags = new LinkedHashMap<Character, Method>();
 
 		try {
-			_FrameTags.put('A', Frame.class.getMethod("setName", pString));
-			_FrameTags.put('V', Frame.class.getMethod("setVersion", pInt));
-			_FrameTags
-					.put('p', Frame.class.getMethod("setPermission", pPermission));
-			_FrameTags.put('U', Frame.class.getMethod("setOwner", pString));
-			_FrameTags.put('D', Frame.class
+			tags.put('A', Frame.class.getMethod("setName", pString));
+			tags.put('V', Frame.class.getMethod("setVersion", pInt));
+			tags.put('p', Frame.class.getMethod("setPermission", pPermission));
+			tags.put('U', Frame.class.getMethod("setOwner", pString));
+			tags.put('D', Frame.class
 					.getMethod("setDateCreated", pString));
-			_FrameTags.put('M', Frame.class.getMethod("setLastModifyUser",
+			tags.put('M', Frame.class.getMethod("setLastModifyUser",
 					pString));
-			_FrameTags.put('d', Frame.class.getMethod("setLastModifyDate",
+			tags.put('d', Frame.class.getMethod("setLastModifyDate",
 					pString));
-			_FrameTags
-					.put('F', Frame.class.getMethod("setFrozenDate", pString));
+			tags.put('F', Frame.class.getMethod("setFrozenDate", pString));
 
-			_FrameTags.put('O', Frame.class.getMethod("setForegroundColor",
+			tags.put('O', Frame.class.getMethod("setForegroundColor",
 					pColor));
-			_FrameTags.put('B', Frame.class.getMethod("setBackgroundColor",
+			tags.put('B', Frame.class.getMethod("setBackgroundColor",
 					pColor));
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return tags;
+	}
 
-			_ItemTags.put('S', Item.class.getMethod("setID", pInt));
-			_ItemTags.put('s', Item.class.getMethod("setDateCreated", pString));
-			_ItemTags.put('d', Item.class.getMethod("setColor", pColor));
-			_ItemTags.put('G', Item.class.getMethod("setBackgroundColor",
+	/**
+	 * @return the methods setting the item attributes stored by each tag.
+	 */
+	static LinkedHashMap<Character, Method> getItemTags() {
+		LinkedHashMap<Character, Method> tags = new LinkedHashMap<Character, Method>();
+
+		try {
+			tags.put('S', Item.class.getMethod("setID", pInt));
+			tags.put('s', Item.class.getMethod("setDateCreated", pString));
+			tags.put('d', Item.class.getMethod("setColor", pColor));
+			tags.put('G', Item.class.getMethod("setBackgroundColor",
 					pColor));
-			_ItemTags.put('K', Item.class.getMethod("setBorderColor",
+			tags.put('K', Item.class.getMethod("setBorderColor",
 					pColor));
 
-			_ItemTags.put('R', Item.class.getMethod("setAnchorLeft", pFloatO));
-			_ItemTags.put('H', Item.class.getMethod("setAnchorRight", pFloatO));
-			_ItemTags.put('N', Item.class.getMethod("setAnchorTop", pFloatO));
-			_ItemTags.put('I', Item.class.getMethod("setAnchorBottom", pFloatO));
+			tags.put('R', Item.class.getMethod("setAnchorLeft", pFloatO));
+			tags.put('H', Item.class.getMethod("setAnchorRight", pFloatO));
+			tags.put('N', Item.class.getMethod("setAnchorTop", pFloatO));
+			tags.put('I', Item.class.getMethod("setAnchorBottom", pFloatO));
 
-			_ItemTags.put('P', Item.class.getMethod("setPosition", pPoint));
-			_ItemTags.put('F', Item.class.getMethod("setLink", pString));
-			_ItemTags.put('J', Item.class.getMethod("setFormula", pString));
+			tags.put('P', Item.class.getMethod("setPosition", pPoint));
+			tags.put('F', Item.class.getMethod("setLink", pString));
+			tags.put('J', Item.class.getMethod("setFormula", pString));
 			
-			_ItemTags.put('X', Item.class.getMethod("setActions", pList));
-			_ItemTags.put('x', Item.class.getMethod("setActionMark", pBool));
-			_ItemTags.put('U', Item.class.getMethod("setActionCursorEnter",
+			tags.put('X', Item.class.getMethod("setActions", pList));
+			tags.put('x', Item.class.getMethod("setActionMark", pBool));
+			tags.put('U', Item.class.getMethod("setActionCursorEnter",
 					pList));
-			_ItemTags.put('V', Item.class.getMethod("setActionCursorLeave",
+			tags.put('V', Item.class.getMethod("setActionCursorLeave",
 					pList));
-			_ItemTags.put('W', Item.class.getMethod("setActionEnterFrame",
+			tags.put('W', Item.class.getMethod("setActionEnterFrame",
 					pList));
-			_ItemTags.put('Y', Item.class.getMethod("setActionLeaveFrame",
+			tags.put('Y', Item.class.getMethod("setActionLeaveFrame",
 					pList));
-			_ItemTags.put('D', Item.class.getMethod("addToData", pString));
-			_ItemTags.put('u', Item.class.getMethod("setHighlight", pBool));
-			_ItemTags.put('e', Item.class.getMethod("setFillColor", pColor));
-			_ItemTags.put('E', Item.class.getMethod("setGradientColor", pColor));
-			_ItemTags.put('Q', Item.class.getMethod("setGradientAngle", pInt));
+			tags.put('D', Item.class.getMethod("addToData", pString));
+			tags.put('u', Item.class.getMethod("setHighlight", pBool));
+			tags.put('e', Item.class.getMethod("setFillColor", pColor));
+			tags.put('E', Item.class.getMethod("setGradientColor", pColor));
+			tags.put('Q', Item.class.getMethod("setGradientAngle", pInt));
 			
-			_ItemTags.put('i', Item.class.getMethod("setFillPattern", pString));
-			_ItemTags.put('o', Item.class.getMethod("setOwner", pString));
-			_ItemTags.put('n', Item.class.getMethod("setLinkMark", pBool));
-			_ItemTags
-					.put('q', Item.class.getMethod("setLinkFrameset", pString));
-			_ItemTags
-					.put('y', Item.class.getMethod("setLinkTemplate", pString));
-			_ItemTags.put('g', Item.class.getMethod("setLinePattern", pIntArray));
+			tags.put('i', Item.class.getMethod("setFillPattern", pString));
+			tags.put('o', Item.class.getMethod("setOwner", pString));
+			tags.put('n', Item.class.getMethod("setLinkMark", pBool));
+			tags.put('q', Item.class.getMethod("setLinkFrameset", pString));
+			tags.put('y', Item.class.getMethod("setLinkTemplate", pString));
+			tags.put('g', Item.class.getMethod("setLinePattern", pIntArray));
 
-			_ItemTags.put('j', Item.class.getMethod("setArrow", pArrow));
+			tags.put('j', Item.class.getMethod("setArrow", pArrow));
 
-			_ItemTags.put('v', Item.class.getMethod("setDotType", new Class[]{DotType.class}));
-			_ItemTags.put('z', Item.class.getMethod("setFilled", pBool));
+			tags.put('v', Item.class.getMethod("setDotType", new Class[]{DotType.class}));
+			tags.put('z', Item.class.getMethod("setFilled", pBool));
 			
-			_ItemTags.put('f', Text.class.getMethod("setFont", pFont));
-			_ItemTags.put('t', Text.class.getMethod("setSpacing", pFloat));
-			_ItemTags.put('T', Text.class.getMethod("appendLine", pString));
-			_ItemTags.put('a', Text.class.getMethod("setWordSpacing", pInt));
-			_ItemTags.put('b', Text.class.getMethod("setLetterSpacing", pFloat));
-			_ItemTags.put('m', Text.class.getMethod("setInitialSpacing", pFloat));
-			_ItemTags.put('w', Text.class.getMethod("setWidth", pIntO));
-			_ItemTags.put('k', Text.class.getMethod("setJustification", pJustification));
-			_ItemTags.put('r', Text.class.getMethod("setAutoWrap", pBool));
+			tags.put('f', Text.class.getMethod("setFont", pFont));
+			tags.put('t', Text.class.getMethod("setSpacing", pFloat));
+			tags.put('T', Text.class.getMethod("appendLine", pString));
+			tags.put('a', Text.class.getMethod("setWordSpacing", pInt));
+			tags.put('b', Text.class.getMethod("setLetterSpacing", pFloat));
+			tags.put('m', Text.class.getMethod("setInitialSpacing", pFloat));
+			tags.put('w', Text.class.getMethod("setWidth", pIntO));
+			tags.put('k', Text.class.getMethod("setJustification", pJustification));
+			tags.put('r', Text.class.getMethod("setAutoWrap", pBool));
 
-			_ItemTags.put('h', Item.class.getMethod("setThickness", pFloat));
-			_ItemTags.put('l', Item.class.getMethod("setLineIDs", pString));
-			_ItemTags.put('c', Item.class.getMethod("setConstraintIDs", pString));
+			tags.put('h', Item.class.getMethod("setThickness", pFloat));
+			tags.put('l', Item.class.getMethod("setLineIDs", pString));
+			tags.put('c', Item.class.getMethod("setConstraintIDs", pString));
 			
-			_ItemTags.put('A', Item.class.getMethod("setTooltip", pString));
-			_ItemTags.put('B', Item.class.getMethod("setLinkHistory", pBool));
+			tags.put('A', Item.class.getMethod("setTooltip", pString));
+			tags.put('B', Item.class.getMethod("setLinkHistory", pBool));
 			
-			_ItemTags.put('p', Item.class.getMethod("setPermission", pPermission));
+			tags.put('p', Item.class.getMethod("setPermission", pPermission));
 			
 			// Lines and constraints are created differently
-			_ItemTags.put('L', Line.class.getMethod("setStartItem", pItem));
-			_ItemTags.put('C', Constraint.class.getMethod("getID", (Class[]) null));
+			tags.put('L', Line.class.getMethod("setStartItem", pItem));
+			tags.put('C', Constraint.class.getMethod("getID", (Class[]) null));
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
-		
+		return tags;
 	}
 	
 	public Frame readFrame(String fullPath) throws IOException {
@@ -46,85 +46,108 @@ public abstract class DefaultFrameWriter extends ItemWriter implements
 		if (_ItemTags != null && _FrameTags != null)
 			return;
 
-		_ItemTags = new LinkedHashMap<Character, Method>();
-		_FrameTags = new LinkedHashMap<Character, Method>();
+		_FrameTags = getFrameTags();
+		_ItemTags = getItemTags();
+	}
+
+	/**
+	 * @return the methods getting the frame attributes stored by each tag, in
+	 *         the order they are written, which ExpTags compiles for the exp
+	 *         and exb writers.
+	 */
+	static LinkedHashMap<Character, Method> getFrameTags() {
+		LinkedHashMap<Character, Method> tags = new LinkedHashMap<Character, Method>();
 
 		try {
-			_FrameTags.put('V', Frame.class.getMethod("getVersion"));
-			_FrameTags.put('p', Frame.class.getMethod("getPermission"));
-			_FrameTags.put('U', Frame.class.getMethod("getOwner"));
-			_FrameTags.put('D', Frame.class.getMethod("getDateCreated"));
-			_FrameTags.put('M', Frame.class.getMethod("getLastModifyUser"));
-			_FrameTags.put('d', Frame.class.getMethod("getLastModifyDate"));
-			_FrameTags.put('F', Frame.class.getMethod("getFrozenDate"));
-
-			_FrameTags.put('O', Frame.class.getMethod("getForegroundColor"));
-			_FrameTags.put('B', Frame.class.getMethod("getBackgroundColor"));
-			
-			_ItemTags.put('S', Item.class.getMethod("getTypeAndID"));
-			_ItemTags.put('s', Item.class.getMethod("getDateCreated"));
-			_ItemTags.put('d', Item.class.getMethod("getColor"));
-			_ItemTags.put('G', Item.class.getMethod("getBackgroundColor"));
-			_ItemTags.put('K', Item.class.getMethod("getBorderColor"));
-
-			_ItemTags.put('P', Item.class.getMethod("getPosition"));
-			_ItemTags.put('T', Text.class.getMethod("getText"));
-			_ItemTags.put('F', Item.class.getMethod("getLink"));
-			_ItemTags.put('X', Item.class.getMethod("getAction"));
-			_ItemTags.put('x', Item.class.getMethod("getActionMark"));
-			_ItemTags.put('U', Item.class.getMethod("getActionCursorEnter"));
-			_ItemTags.put('V', Item.class.getMethod("getActionCursorLeave"));
-			_ItemTags.put('W', Item.class.getMethod("getActionEnterFrame"));
-			_ItemTags.put('Y', Item.class.getMethod("getActionLeaveFrame"));
-			_ItemTags.put('D', Item.class.getMethod("getData"));
-			_ItemTags.put('u', Item.class.getMethod("getHighlight"));
-			_ItemTags.put('e', Item.class.getMethod("getFillColor"));
-			_ItemTags.put('E', Item.class.getMethod("getGradientColor"));
-			_ItemTags.put('Q', Item.class.getMethod("getGradientAngle"));
+			tags.put('V', Frame.class.getMethod("getVersion"));
+			tags.put('p', Frame.class.getMethod("getPermission"));
+			tags.put('U', Frame.class.getMethod("getOwner"));
+			tags.put('D', Frame.class.getMethod("getDateCreated"));
+			tags.put('M', Frame.class.getMethod("getLastModifyUser"));
+			tags.put('d', Frame.class.getMethod("getLastModifyDate"));
+			tags.put('F', Frame.class.getMethod("getFrozenDate"));
+
+			tags.put('O', Frame.class.getMethod("getForegroundColor"));
+			tags.put('B', Frame.class.getMethod("getBackgroundColor"));
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return tags;
+	}
+
+	/**
+	 * @return the methods getting the item attributes stored by each tag, in
+	 *         the order they are written.
+	 */
+	static LinkedHashMap<Character, Method> getItemTags() {
+		LinkedHashMap<Character, Method> tags = new LinkedHashMap<Character, Method>();
+
+		try {
+			tags.put('S', Item.class.getMethod("getTypeAndID"));
+			tags.put('s', Item.class.getMethod("getDateCreated"));
+			tags.put('d', Item.class.getMethod("getColor"));
+			tags.put('G', Item.class.getMethod("getBackgroundColor"));
+			tags.put('K', Item.class.getMethod("getBorderColor"));
+
+			tags.put('P', Item.class.getMethod("getPosition"));
+			tags.put('T', Text.class.getMethod("getText"));
+			tags.put('F', Item.class.getMethod("getLink"));
+			tags.put('X', Item.class.getMethod("getAction"));
+			tags.put('x', Item.class.getMethod("getActionMark"));
+			tags.put('U', Item.class.getMethod("getActionCursorEnter"));
+			tags.put('V', Item.class.getMethod("getActionCursorLeave"));
+			tags.put('W', Item.class.getMethod("getActionEnterFrame"));
+			tags.put('Y', Item.class.getMethod("getActionLeaveFrame"));
+			tags.put('D', Item.class.getMethod("getData"));
+			tags.put('u', Item.class.getMethod("getHighlight"));
+			tags.put('e', Item.class.getMethod("getFillColor"));
+			tags.put('E', Item.class.getMethod("getGradientColor"));
+			tags.put('Q', Item.class.getMethod("getGradientAngle"));
 			
-			_ItemTags.put('R', Item.class.getMethod("getAnchorLeft"));
-			_ItemTags.put('H', Item.class.getMethod("getAnchorRight"));
-			_ItemTags.put('N', Item.class.getMethod("getAnchorTop"));
-			_ItemTags.put('I', Item.class.getMethod("getAnchorBottom"));
-
-			_ItemTags.put('i', Item.class.getMethod("getFillPattern"));
-			_ItemTags.put('o', Item.class.getMethod("getOwner"));
-			_ItemTags.put('n', Item.class.getMethod("getLinkMark"));
-			_ItemTags.put('q', Item.class.getMethod("getLinkFrameset"));
-			_ItemTags.put('y', Item.class.getMethod("getLinkTemplate"));
-			_ItemTags.put('g', Item.class.getMethod("getLinePattern"));
-
-			_ItemTags.put('j', Item.class.getMethod("getArrow"));
+			tags.put('R', Item.class.getMethod("getAnchorLeft"));
+			tags.put('H', Item.class.getMethod("getAnchorRight"));
+			tags.put('N', Item.class.getMethod("getAnchorTop"));
+			tags.put('I', Item.class.getMethod("getAnchorBottom"));
+
+			tags.put('i', Item.class.getMethod("getFillPattern"));
+			tags.put('o', Item.class.getMethod("getOwner"));
+			tags.put('n', Item.class.getMethod("getLinkMark"));
+			tags.put('q', Item.class.getMethod("getLinkFrameset"));
+			tags.put('y', Item.class.getMethod("getLinkTemplate"));
+			tags.put('g', Item.class.getMethod("getLinePattern"));
+
+			tags.put('j', Item.class.getMethod("getArrow"));
 			
-			_ItemTags.put('v', Item.class.getMethod("getDotType"));
-			_ItemTags.put('z', Item.class.getMethod("getFilled"));
+			tags.put('v', Item.class.getMethod("getDotType"));
+			tags.put('z', Item.class.getMethod("getFilled"));
 
-			_ItemTags.put('f', Text.class.getMethod("getFont"));
-			_ItemTags.put('t', Text.class.getMethod("getSpacing"));
+			tags.put('f', Text.class.getMethod("getFont"));
+			tags.put('t', Text.class.getMethod("getSpacing"));
 
 			// TODO set a boolean flag to indicate that the text is a formula
 			// Store the formula in the text property NOT the answer
-			_ItemTags.put('J', Item.class.getMethod("getFormula"));
-
-			_ItemTags.put('a', Text.class.getMethod("getWordSpacing"));
-			_ItemTags.put('b', Text.class.getMethod("getLetterSpacing"));
-			_ItemTags.put('m', Text.class.getMethod("getInitialSpacing"));
-			_ItemTags.put('w', Text.class.getMethod("getWidthToSave"));
-			_ItemTags.put('k', Text.class.getMethod("getJustification"));
-			_ItemTags.put('r', Text.class.getMethod("getAutoWrapToSave"));
-
-			_ItemTags.put('h', Item.class.getMethod("getThickness"));
-			_ItemTags.put('l', Item.class.getMethod("getLineIDs"));
-			_ItemTags.put('c', Item.class.getMethod("getConstraintIDs"));
+			tags.put('J', Item.class.getMethod("getFormula"));
+
+			tags.put('a', Text.class.getMethod("getWordSpacing"));
+			tags.put('b', Text.class.getMethod("getLetterSpacing"));
+			tags.put('m', Text.class.getMethod("getInitialSpacing"));
+			tags.put('w', Text.class.getMethod("getWidthToSave"));
+			tags.put('k', Text.class.getMethod("getJustification"));
+			tags.put('r', Text.class.getMethod("getAutoWrapToSave"));
+
+			tags.put('h', Item.class.getMethod("getThickness"));
+			tags.put('l', Item.class.getMethod("getLineIDs"));
+			tags.put('c', Item.class.getMethod("getConstraintIDs"));
 			
-			_ItemTags.put('A', Item.class.getMethod("getTooltip"));
-			_ItemTags.put('B', Item.class.getMethod("getLinkHistory"));
+			tags.put('A', Item.class.getMethod("getTooltip"));
+			tags.put('B', Item.class.getMethod("getLinkHistory"));
 			
-			_ItemTags.put('p', Item.class.getMethod("getPermission"));
+			tags.put('p', Item.class.getMethod("getPermission"));
 
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
+		return tags;
 	}
 
 	public void setOutputLocation(String filename) {
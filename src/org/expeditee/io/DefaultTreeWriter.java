@@ -68,7 +68,7 @@ public abstract class DefaultTreeWriter extends DefaultFrameWriter implements
 
 	protected List<Item> getSortedItems(Frame frame) 
 	{
-		List<Item> items = frame.getItems();
+		List<Item> items = frame.getItemsView();
 		return items;
 	}
 	
@@ -0,0 +1,355 @@
+package org.expeditee.io;
+
+import java.awt.Color;
+import java.awt.Point;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+import org.expeditee.gui.Frame;
+import org.expeditee.items.Constraint;
+import org.expeditee.items.Dot;
+import org.expeditee.items.Item;
+import org.expeditee.items.Line;
+import org.expeditee.items.Text;
+
+/**
+ * Reads in Exb format files, the binary form of Exp files written by
+ * ExbWriter, and constructs the Frame and Item objects they contain.
+ *
+ * A file starts with the magic bytes <code>EXB</code> and a format version
+ * and ends with a CRC32 checksum of everything before it. In between are the
+ * same sections as an Exp file: the frame header, the items, the lines, the
+ * constraints and the session stats. Each attribute is stored as its tag
+ * character followed by its value, encoded as the type the tag's getter
+ * returns (see ExpTags) rather than as text. Integers are stored as zig-zag
+ * variable length numbers and strings as a length followed by UTF-8 bytes.
+ */
+public class ExbReader implements FrameReader {
+
+	public static final String EXTENTION = ".exb";
+
+	static final byte[] MAGIC = { 'E', 'X', 'B' };
+
+	/**
+	 * The version of the binary encoding, which is increased whenever the
+	 * encoding of existing tags changes or new tags are added.
+	 */
+	static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Marks the end of the header and item sections.
+	 */
+	static final int END_OF_SECTION = 0;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private String _frameName;
+
+	private ByteBuffer _data;
+
+	private int _pos;
+
+	// the end of the encoded frame, before the checksum
+	private int _end;
+
+	// Stores points used when constructing lines
+	private HashMap<Integer, Item> _linePoints = new HashMap<Integer, Item>();
+
+	public ExbReader(String frameName) {
+		_frameName = frameName;
+	}
+
+	public Frame readFrame(String fullPath) throws IOException {
+		return readFrame(readContents(fullPath));
+	}
+
+	/**
+	 * Reads the contents of an Exb file, or of a frame stored in a frameset
+	 * log or pack.
+	 */
+	private static ByteBuffer readContents(String fullPath) throws IOException {
+		if (FramesetPack.isPackPath(fullPath))
+			return FramesetPack.read(fullPath);
+		if (FramesetLog.isLogPath(fullPath))
+			return ByteBuffer.wrap(FramesetLog.read(fullPath));
+		return ByteBuffer.wrap(Files.readAllBytes(new File(fullPath).toPath()));
+	}
+
+	/**
+	 * Binary frames can not be read from a character stream.
+	 */
+	public Frame readFrame(BufferedReader frameContents) throws IOException {
+		throw new IOException("Exb frames can not be read as text");
+	}
+
+	/**
+	 * Reads a frame from the contents of an Exb file.
+	 *
+	 * @throws IOException
+	 *             if the contents are not an Exb file, were written by a
+	 *             newer version or fail the checksum.
+	 */
+	public Frame readFrame(byte[] contents) throws IOException {
+		return readFrame(ByteBuffer.wrap(contents));
+	}
+
+	/**
+	 * Reads a frame from the contents of an Exb file between the position and
+	 * limit of a buffer, which may be a slice of a memory mapped file.
+	 */
+	public Frame readFrame(ByteBuffer contents) throws IOException {
+		open(contents);
+
+		Frame newFrame = new Frame();
+		try {
+			// Framename must be set before setting the frame number
+			newFrame.setName(_frameName);
+
+			// First read all the header tags
+			int tag;
+			while ((tag = readByte()) != END_OF_SECTION) {
+				String value = readString();
+				ExpTags.FrameSetter setter = ExpTags.getFrameSetter((char) tag);
+				if (setter != null)
+					setter.read(newFrame, value);
+				else if (tag != 'v')
+					System.out.println("Tag '" + (char) tag
+							+ "' is not supported.");
+			}
+
+			// Now read all the items
+			Item currentItem = null;
+			while ((tag = readByte()) != END_OF_SECTION) {
+				if (tag == 'S') {
+					char type = (char) readByte();
+					int id = readInt();
+					switch (type) {
+					case 'P': // check if its a point
+						currentItem = new Dot(id);
+						break;
+					default:
+						currentItem = new Text(id);
+						break;
+					}
+					_linePoints.put(currentItem.getID(), currentItem);
+					newFrame.addItem(currentItem);
+					continue;
+				}
+
+				ExpTags.ItemSetter setter = ExpTags.getItemSetter((char) tag);
+				// The value can not be skipped without knowing its type
+				if (setter == null || currentItem == null)
+					throw new IOException("Unexpected tag '" + (char) tag
+							+ "' in " + _frameName);
+				setter.read(currentItem, this);
+			}
+
+			// Read the lines
+			for (int count = readInt(); count > 0; count--) {
+				int id = readInt();
+				readInt(); // the line type
+				Item start = _linePoints.get(readInt());
+				Item end = _linePoints.get(readInt());
+				if (start != null && end != null) {
+					newFrame.addItem(new Line(start, end, id));
+				} else {
+					System.out
+							.println("Error reading line with unknown end points");
+				}
+			}
+
+			// Read the constraints
+			for (int count = readInt(); count > 0; count--) {
+				int id = readInt();
+				int type = readInt();
+				Item a = _linePoints.get(readInt());
+				Item b = _linePoints.get(readInt());
+
+				new Constraint(a, b, id, type);
+			}
+
+			// Read the stats
+			for (String line : readString().split("\n"))
+				ExpReader.processStatsLine(newFrame, line);
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.out.println("Error reading frame file " + _frameName + " "
+					+ e.getMessage());
+		}
+
+		newFrame.setChanged(false);
+
+		return newFrame;
+	}
+
+	/**
+	 * Reads just the frame version from the header of an Exb file.
+	 *
+	 * @return the version, or -1 if it could not be read
+	 */
+	public static int getVersion(String fullpath) {
+		if (FramesetLog.isLogPath(fullpath))
+			return FramesetLog.getVersion(fullpath);
+		if (FramesetPack.isPackPath(fullpath))
+			return FramesetPack.getVersion(fullpath);
+		try {
+			ExbReader reader = new ExbReader(null);
+			reader.open(readContents(fullpath));
+			int tag;
+			while ((tag = reader.readByte()) != END_OF_SECTION) {
+				String value = reader.readString();
+				if (tag == 'V')
+					return Integer.parseInt(value);
+			}
+		} catch (Exception e) {
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads an Exb file and returns the equivalent Exp file contents, for the
+	 * tools which search the text of frame files.
+	 */
+	public static String getExpText(String fullPath, String frameName)
+			throws IOException {
+		Frame frame = new ExbReader(frameName).readFrame(fullPath);
+		StringWriter text = new StringWriter();
+		ExpWriter writer = new ExpWriter();
+		writer.setOutputLocation(fullPath);
+		writer.writeFrame(frame, text);
+		return text.toString();
+	}
+
+	/**
+	 * Decodes an Exb encoded frame and returns the equivalent Exp file
+	 * contents.
+	 */
+	public static String getExpText(byte[] contents, String frameName)
+			throws IOException {
+		Frame frame = new ExbReader(frameName).readFrame(contents);
+		StringWriter text = new StringWriter();
+		ExpWriter writer = new ExpWriter();
+		writer.writeFrame(frame, text);
+		return text.toString();
+	}
+
+	/**
+	 * Checks the header and checksum of an encoded frame and positions the
+	 * reader at the start of the frame header.
+	 */
+	private void open(ByteBuffer contents) throws IOException {
+		int start = contents.position();
+		int headerLength = MAGIC.length + 1;
+		if (contents.remaining() < headerLength + 4)
+			throw new IOException("Exb file is truncated: " + _frameName);
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (contents.get(start + i) != MAGIC[i])
+				throw new IOException("Not an Exb file: " + _frameName);
+		}
+		if (contents.get(start + MAGIC.length) > FORMAT_VERSION)
+			throw new IOException("Exb format version "
+					+ contents.get(start + MAGIC.length)
+					+ " is not supported: " + _frameName);
+
+		_data = contents;
+		_end = contents.limit() - 4;
+		_pos = _end;
+		CRC32 checksum = new CRC32();
+		ByteBuffer checked = contents.duplicate();
+		checked.limit(_end);
+		checksum.update(checked);
+		if ((int) checksum.getValue() != readFixedInt())
+			throw new IOException("Exb file is corrupt: " + _frameName);
+
+		_pos = start + headerLength;
+	}
+
+	private int readFixedInt() throws IOException {
+		if (_pos + 4 > _data.limit())
+			throw new IOException("Unexpected end of file");
+		int value = _data.getInt(_pos);
+		_pos += 4;
+		return value;
+	}
+
+	int readByte() throws IOException {
+		if (_pos >= _end)
+			throw new IOException("Unexpected end of file");
+		return _data.get(_pos++) & 0xFF;
+	}
+
+	int readInt() throws IOException {
+		int shift = 0;
+		int encoded = 0;
+		int b;
+		do {
+			b = readByte();
+			encoded |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0 && shift < 35);
+		// undo the zig-zag encoding
+		return (encoded >>> 1) ^ -(encoded & 1);
+	}
+
+	float readFloat() throws IOException {
+		if (_pos + 4 > _end)
+			throw new IOException("Unexpected end of file");
+		return Float.intBitsToFloat(readFixedInt());
+	}
+
+	boolean readBoolean() throws IOException {
+		return readByte() != 0;
+	}
+
+	String readString() throws IOException {
+		int length = readInt();
+		if (length < 0 || _pos + length > _end)
+			throw new IOException("Unexpected end of file");
+		String value;
+		if (_data.hasArray()) {
+			value = new String(_data.array(), _data.arrayOffset() + _pos,
+					length, UTF8);
+		} else {
+			byte[] bytes = new byte[length];
+			ByteBuffer source = _data.duplicate();
+			source.position(_pos);
+			source.get(bytes);
+			value = new String(bytes, UTF8);
+		}
+		_pos += length;
+		return value;
+	}
+
+	/**
+	 * Reads a color saved as its red, green, blue and alpha percentages, the
+	 * same precision as an Exp color code.
+	 */
+	Color readColor() throws IOException {
+		int r = Conversion.toRGB(readByte());
+		int g = Conversion.toRGB(readByte());
+		int b = Conversion.toRGB(readByte());
+		int a = Conversion.toRGB(readByte());
+		return new Color(r, g, b, a);
+	}
+
+	Point readPoint() throws IOException {
+		int x = readInt();
+		int y = readInt();
+		return new Point(x, y);
+	}
+
+	int[] readIntArray() throws IOException {
+		int[] values = new int[readInt()];
+		for (int i = 0; i < values.length; i++)
+			values[i] = readInt();
+		return values;
+	}
+}
@@ -0,0 +1,268 @@
+package org.expeditee.io;
+
+import java.awt.Color;
+import java.awt.Point;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.expeditee.gui.Frame;
+import org.expeditee.items.Constraint;
+import org.expeditee.items.Item;
+import org.expeditee.items.Line;
+import org.expeditee.items.widgets.WidgetEdge;
+import org.expeditee.stats.SessionStats;
+
+/**
+ * Writes a Frame out to an Exb file, the binary form of the Exp format. The
+ * encoding is described in ExbReader.
+ */
+public class ExbWriter extends DefaultFrameWriter implements ExpTags.TagOutput {
+
+	private ByteArrayOutputStream _out = null;
+
+	private List<Item> _lineEnds = new LinkedList<Item>();
+
+	public ExbWriter() {
+		super();
+	}
+
+	@Override
+	protected void initialise(Frame start, Writer writer) throws IOException {
+		if (writer != null)
+			throw new IOException("Exb frames can not be written as text");
+
+		if (_filename == null)
+			_filename = start.getPath()
+					+ start.getFramesetName().toLowerCase() + File.separator
+					+ start.getNumber() + ExbReader.EXTENTION;
+
+		_out = new ByteArrayOutputStream(4096);
+		_out.write(ExbReader.MAGIC);
+		_out.write(ExbReader.FORMAT_VERSION);
+	}
+
+	@Override
+	protected void outputFrame(Frame frame) throws IOException {
+		if (_out == null)
+			return;
+
+		// the header
+		for (ExpTags.FrameGetter getter : ExpTags.getFrameGetters()) {
+			try {
+				writeTag(getter.tag, getter.write(frame));
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		_out.write(ExbReader.END_OF_SECTION);
+
+		// write each item in the frame
+		for (Item i : frame.getItemsToSave()) {
+			assert (!(i instanceof Line));
+			if (i.isLineEnd()) {
+				_lineEnds.add(i);
+				writeClass(i);
+			} else if (!(i instanceof Line)) {
+				writeClass(i);
+			}
+		}
+		_out.write(ExbReader.END_OF_SECTION);
+
+		writeLineData();
+		writeConstraintData();
+		writeString(SessionStats.getFrameEventList(frame));
+	}
+
+	private void writeClass(Item toWrite) throws IOException {
+		for (ExpTags.ItemGetter getter : ExpTags.getItemGetters()) {
+			if (getter.tag == 'S') {
+				// items are started by their type and id rather than the
+				// string form written to Exp files
+				_out.write('S');
+				_out.write(toWrite.getTypeAndID().charAt(0));
+				writeInt(toWrite.getID());
+			} else if (getter.appliesTo(toWrite)) {
+				try {
+					getter.write(toWrite, this);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	// writes out all lines in the same order as ExpWriter
+	private void writeLineData() throws IOException {
+		List<Line> seen = new LinkedList<Line>();
+		List<Line> toWrite = new LinkedList<Line>();
+
+		for (Item lineEnd : _lineEnds) {
+			List<Line> lines = lineEnd.getLines();
+			if (lines == null)
+				continue;
+			for (Line line : lines) {
+				// Brook: widget edges are not saved
+				if (!seen.contains(line)) {
+					seen.add(line);
+					if (!(line instanceof WidgetEdge))
+						toWrite.add(line);
+				}
+			}
+		}
+
+		writeInt(toWrite.size());
+		for (Line line : toWrite) {
+			writeInt(line.getID());
+			writeInt(line.getLineType());
+			writeInt(line.getStartItem().getID());
+			writeInt(line.getEndItem().getID());
+		}
+	}
+
+	// writes out the constraints in the same order as ExpWriter
+	private void writeConstraintData() throws IOException {
+		List<Constraint> toWrite = new LinkedList<Constraint>();
+
+		while (_lineEnds.size() > 0) {
+			Item i = _lineEnds.get(0);
+			if (i.getConstraints() != null) {
+				for (Constraint c : i.getConstraints()) {
+					if (_lineEnds.contains(c.getStart())
+							&& _lineEnds.contains(c.getEnd()))
+						toWrite.add(c);
+				}
+			}
+			_lineEnds.remove(0);
+		}
+
+		writeInt(toWrite.size());
+		for (Constraint c : toWrite) {
+			writeInt(c.getID());
+			writeInt(c.getType());
+			writeInt(c.getStart().getID());
+			writeInt(c.getEnd().getID());
+		}
+	}
+
+	@Override
+	protected String finaliseFrame() throws IOException {
+		byte[] contents = getContents();
+
+		OutputStream file = new FileOutputStream(_filename);
+		try {
+			file.write(contents);
+		} finally {
+			file.close();
+		}
+
+		return "Frame successfully written to " + _filename;
+	}
+
+	/**
+	 * Encodes a frame without writing it to disk.
+	 *
+	 * @return the contents of the Exb file for the frame
+	 */
+	public byte[] encodeFrame(Frame frame) throws IOException {
+		if (_filename == null)
+			_filename = "";
+		initialise(frame, null);
+		outputFrame(frame);
+		_running = false;
+		return getContents();
+	}
+
+	// the encoded frame followed by its checksum
+	private byte[] getContents() {
+		CRC32 checksum = new CRC32();
+		byte[] contents = _out.toByteArray();
+		checksum.update(contents, 0, contents.length);
+		int crc = (int) checksum.getValue();
+		_out.write(crc >>> 24);
+		_out.write(crc >>> 16);
+		_out.write(crc >>> 8);
+		_out.write(crc);
+		contents = _out.toByteArray();
+		_out = null;
+		return contents;
+	}
+
+	public void writeTag(char tag, String value) throws IOException {
+		if (value == null)
+			return;
+		_out.write(tag);
+		writeString(value);
+	}
+
+	public void writeTag(char tag, int value) throws IOException {
+		_out.write(tag);
+		writeInt(value);
+	}
+
+	public void writeTag(char tag, float value) throws IOException {
+		int bits = Float.floatToIntBits(value);
+		_out.write(tag);
+		_out.write(bits >>> 24);
+		_out.write(bits >>> 16);
+		_out.write(bits >>> 8);
+		_out.write(bits);
+	}
+
+	public void writeTag(char tag, boolean value) throws IOException {
+		_out.write(tag);
+		_out.write(value ? 1 : 0);
+	}
+
+	/**
+	 * Colors are saved as percentages, the same precision as Exp files.
+	 */
+	public void writeTag(char tag, Color value) throws IOException {
+		if (value == null)
+			return;
+		_out.write(tag);
+		_out.write(Conversion.toColorPercent(value.getRed()));
+		_out.write(Conversion.toColorPercent(value.getGreen()));
+		_out.write(Conversion.toColorPercent(value.getBlue()));
+		_out.write(Conversion.toColorPercent(value.getAlpha()));
+	}
+
+	public void writeTag(char tag, Point value) throws IOException {
+		if (value == null)
+			return;
+		_out.write(tag);
+		writeInt(value.x);
+		writeInt(value.y);
+	}
+
+	public void writeTag(char tag, int[] value) throws IOException {
+		if (value == null || value.length == 0)
+			return;
+		_out.write(tag);
+		writeInt(value.length);
+		for (int i : value)
+			writeInt(i);
+	}
+
+	private void writeInt(int value) {
+		// zig-zag encode so small negative numbers stay small
+		int encoded = (value << 1) ^ (value >> 31);
+		while ((encoded & ~0x7F) != 0) {
+			_out.write((encoded & 0x7F) | 0x80);
+			encoded >>>= 7;
+		}
+		_out.write(encoded);
+	}
+
+	private void writeString(String value) throws IOException {
+		byte[] bytes = value.getBytes(ExbReader.UTF8);
+		writeInt(bytes.length);
+		_out.write(bytes);
+	}
+}
@@ -3,7 +3,6 @@ package org.expeditee.io;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
-import java.lang.reflect.Method;
 import java.util.HashMap;
 
 import org.expeditee.gui.Frame;
@@ -142,21 +141,7 @@ public class ExpReader extends DefaultFrameReader {
 
 			// Read the stats
 			while (_reader.ready() && ((next = _reader.readLine()) != null)) {
-				if (next.startsWith(SessionStats.ACTIVE_TIME_ATTRIBUTE)) {
-					try {
-						String value = next.substring(SessionStats.ACTIVE_TIME_ATTRIBUTE.length()).trim();
-						newFrame.setActiveTime(value);
-					} catch (Exception e) {
-					}
-
-				} else if (next.startsWith(SessionStats.DARK_TIME_ATTRIBUTE)) {
-					try {
-						String value = next.substring(SessionStats.DARK_TIME_ATTRIBUTE.length()).trim();
-						newFrame.setDarkTime(value);
-					} catch (Exception e) {
-					}
-
-				}
+				processStatsLine(newFrame, next);
 			}
 
 		} catch (Exception e) {
@@ -172,6 +157,28 @@ public class ExpReader extends DefaultFrameReader {
 		return newFrame;
 	}
 
+	/**
+	 * Reads the active and dark time from a line of the session stats at the
+	 * end of the file.
+	 */
+	static void processStatsLine(Frame frame, String line) {
+		if (line.startsWith(SessionStats.ACTIVE_TIME_ATTRIBUTE)) {
+			try {
+				String value = line.substring(SessionStats.ACTIVE_TIME_ATTRIBUTE.length()).trim();
+				frame.setActiveTime(value);
+			} catch (Exception e) {
+			}
+
+		} else if (line.startsWith(SessionStats.DARK_TIME_ATTRIBUTE)) {
+			try {
+				String value = line.substring(SessionStats.DARK_TIME_ATTRIBUTE.length()).trim();
+				frame.setDarkTime(value);
+			} catch (Exception e) {
+			}
+
+		}
+	}
+
 	// Stores points used when constructing lines
 	private HashMap<Integer, Item> _linePoints = new HashMap<Integer, Item>();
 
@@ -185,21 +192,13 @@ public class ExpReader extends DefaultFrameReader {
 	 */
 	protected void processBodyLine(Item item, String line) {
 		// separate the tag from the value
-		Character tag = getTag(line);
-		String value = getValue(line);
-
-		Method toRun = _ItemTags.get(tag);
-		if (toRun == null)
+		char tag = line.charAt(0);
+		ExpTags.ItemSetter setter = ExpTags.getItemSetter(tag);
+		if (setter == null) {
 			System.out.println("Error accessing tag method: " + tag);
-		Object[] vals = Conversion.Convert(toRun, value);
-
-		try {
-			if (vals != null)
-				toRun.invoke(item, vals);
-		} catch (Exception e) {
-			System.out.println("Error running tag method: " + tag);
-			e.printStackTrace();
+			return;
 		}
+		setter.read(item, getValue(line));
 	}
 
 	protected static Character getTag(String line) {
@@ -226,11 +225,10 @@ public class ExpReader extends DefaultFrameReader {
 	 */
 	private void processHeaderLine(Frame frame, String line) throws IOException {
 		// first separate the tag from the text
-		Character tag = getTag(line);
-		String value = getValue(line);
-		Method toRun = _FrameTags.get(tag);
+		char tag = line.charAt(0);
+		ExpTags.FrameSetter setter = ExpTags.getFrameSetter(tag);
 
-		if (toRun == null) {
+		if (setter == null) {
 			if (tag != 'v') {
 				System.out.println("Tag '" + tag + "' in '" + line
 						+ "' is not supported.");
@@ -238,14 +236,7 @@ public class ExpReader extends DefaultFrameReader {
 			return;
 		}
 
-		Object[] vals = Conversion.Convert(toRun, value);
-		try {
-			toRun.invoke(frame, vals);
-		} catch (Exception e) {
-			System.out.println("Error running method: "
-					+ toRun.toGenericString());
-			e.printStackTrace();
-		}
+		setter.read(frame, getValue(line));
 	}
 
 	// Returns a point from a String containing two ints separated by a space
@@ -259,6 +250,24 @@ public class ExpReader extends DefaultFrameReader {
 	public static int getVersion(String fullpath) {
 		try {
 			BufferedReader reader = new BufferedReader(new FileReader(fullpath));
+			try {
+				return getVersion(reader);
+			} finally {
+				reader.close();
+			}
+		} catch (Exception e) {
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads the version from the header of a frame, without reading the rest
+	 * of it.
+	 * 
+	 * @return the version, or -1 if the header does not have one.
+	 */
+	public static int getVersion(BufferedReader reader) {
+		try {
 			String next = "";
 			// First read the header lines until we get the version number
 			while (reader.ready() && !(next = reader.readLine()).equals("Z")) {
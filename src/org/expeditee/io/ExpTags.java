@@ -0,0 +1,1090 @@
+package org.expeditee.io;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Point;
+import java.io.IOException;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import org.expeditee.gui.Frame;
+import org.expeditee.items.Item;
+
+/**
+ * The tags of the Exp format, compiled from the methods DefaultFrameReader and
+ * DefaultFrameWriter list for each tag. ExpReader and ExpWriter dispatch
+ * through these tables rather than looking up and invoking the methods by
+ * reflection for every line. Each item tag's method is compiled to a class
+ * which calls it directly, and its value is parsed and formatted according to
+ * the method's type so that primitive attributes are not boxed.
+ *
+ * Values are parsed and formatted the same way Conversion does it for the
+ * reflective readers and writers, so the files written are unchanged. Header
+ * tags are only read once per frame, so they are still converted by
+ * Conversion and invoked by reflection.
+ */
+final class ExpTags {
+
+	/**
+	 * Receives the tagged values of a frame as they are written. ExpWriter
+	 * formats them as text lines and ExbWriter encodes them in binary.
+	 */
+	interface TagOutput {
+		void writeTag(char tag, String value) throws IOException;
+
+		void writeTag(char tag, int value) throws IOException;
+
+		void writeTag(char tag, float value) throws IOException;
+
+		void writeTag(char tag, boolean value) throws IOException;
+
+		void writeTag(char tag, Color value) throws IOException;
+
+		void writeTag(char tag, Point value) throws IOException;
+
+		void writeTag(char tag, int[] value) throws IOException;
+	}
+
+	// The calls which the methods of the item tags are compiled to. Values
+	// which are not primitive are passed as objects.
+
+	interface SetsObject {
+		void set(Item item, Object value);
+	}
+
+	interface SetsInt {
+		void set(Item item, int value);
+	}
+
+	interface SetsFloat {
+		void set(Item item, float value);
+	}
+
+	interface SetsBoolean {
+		void set(Item item, boolean value);
+	}
+
+	interface SetsArrow {
+		void set(Item item, float length, double ratio, double nibPerc);
+	}
+
+	interface GetsObject {
+		Object get(Item item);
+	}
+
+	interface GetsInt {
+		int get(Item item);
+	}
+
+	interface GetsFloat {
+		float get(Item item);
+	}
+
+	interface GetsBoolean {
+		boolean get(Item item);
+	}
+
+	interface Converts {
+		Object convert(Object value);
+	}
+
+	/**
+	 * Sets an item attribute from the value of a tagged line.
+	 */
+	static abstract class ItemSetter {
+		final char tag;
+
+		// the class declaring the method, which the item must be an instance
+		// of
+		private final Class<?> _owner;
+
+		// the type binary frames store the value as, if the getter writes the
+		// same type
+		private final Class<?> _stored;
+
+		private boolean _typed = false;
+
+		ItemSetter(char tag, Method method, Class<?> stored) {
+			this.tag = tag;
+			_owner = method.getDeclaringClass();
+			_stored = stored;
+		}
+
+		/**
+		 * Parses the value and sets it on the item. Exceptions thrown while
+		 * parsing the value are passed on to the caller, exceptions thrown
+		 * while setting it are reported.
+		 */
+		abstract void read(Item item, String value);
+
+		/**
+		 * Reads the value written to a binary frame by the matching getter
+		 * and sets it on the item. Values are strings unless the getter writes
+		 * the type the setter reads.
+		 */
+		final void read(Item item, ExbReader in) throws IOException {
+			if (_typed)
+				readTyped(item, in);
+			else
+				read(item, in.readString());
+		}
+
+		void readTyped(Item item, ExbReader in) throws IOException {
+			read(item, in.readString());
+		}
+
+		protected boolean canSet(Item item) {
+			if (_owner.isInstance(item))
+				return true;
+			System.out.println("Error running tag method: " + tag);
+			return false;
+		}
+
+		protected void setFailed(Exception e) {
+			System.out.println("Error running tag method: " + tag);
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Writes the tagged lines for an item attribute, if it has a value to
+	 * save.
+	 */
+	static abstract class ItemGetter {
+		final char tag;
+
+		private final Class<?> _owner;
+
+		private final Class<?> _stored;
+
+		ItemGetter(char tag, Method method, Class<?> stored) {
+			this.tag = tag;
+			_owner = method.getDeclaringClass();
+			_stored = stored;
+		}
+
+		boolean appliesTo(Item item) {
+			return _owner.isInstance(item);
+		}
+
+		abstract void write(Item item, TagOutput out) throws IOException;
+	}
+
+	/**
+	 * Sets a frame attribute from the value of a tagged header line.
+	 */
+	static class FrameSetter {
+		final char tag;
+
+		private final Method _method;
+
+		FrameSetter(char tag, Method method) {
+			this.tag = tag;
+			_method = method;
+		}
+
+		void read(Frame frame, String value) {
+			Object[] vals = Conversion.Convert(_method, value);
+			try {
+				_method.invoke(frame, vals);
+			} catch (Exception e) {
+				System.out.println("Error running tag method: " + tag);
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Gets the value to save for a frame attribute, or null if there is
+	 * nothing to save.
+	 */
+	static class FrameGetter {
+		final char tag;
+
+		private final Method _method;
+
+		FrameGetter(char tag, Method method) {
+			this.tag = tag;
+			_method = method;
+		}
+
+		String write(Frame frame) throws Exception {
+			Object value = Conversion.ConvertToExpeditee(_method, _method
+					.invoke(frame));
+			return value == null ? null : value.toString();
+		}
+	}
+
+	private static class StringSetter extends ItemSetter {
+		private final SetsObject _set;
+
+		StringSetter(char tag, Method method) throws Exception {
+			super(tag, method, String.class);
+			_set = compile(SetsObject.class, method);
+		}
+
+		@Override
+		void read(Item item, String value) {
+			String parsed = parseString(value);
+			if (!canSet(item))
+				return;
+			try {
+				_set.set(item, parsed);
+			} catch (Exception e) {
+				setFailed(e);
+			}
+		}
+	}
+
+	private static class IntSetter extends ItemSetter {
+		private final SetsInt _set;
+
+		IntSetter(char tag, Method method) throws Exception {
+			super(tag, method, int.class);
+			_set = compile(SetsInt.class, method);
+		}
+
+		@Override
+		void read(Item item, String value) {
+			read(item, parseInt(value));
+		}
+
+		@Override
+		void readTyped(Item item, ExbReader in) throws IOException {
+			read(item, in.readInt());
+		}
+
+		private void read(Item item, int value) {
+			if (!canSet(item))
+				return;
+			try {
+				_set.set(item, value);
+			} catch (Exception e) {
+				setFailed(e);
+			}
+		}
+	}
+
+	private static class IntegerSetter extends ItemSetter {
+		private final SetsObject _set;
+
+		IntegerSetter(char tag, Method method) throws Exception {
+			super(tag, method, int.class);
+			_set = compile(SetsObject.class, method);
+		}
+
+		@Override
+		void read(Item item, String value) {
+			value = value.trim().toLowerCase();
+			Integer parsed = null;
+			if (value.length() > 0 && !value.equals("null"))
+				parsed = Integer.parseInt(value);
+			read(item, parsed);
+		}
+
+		@Override
+		void readTyped(Item item, ExbReader in) throws IOException {
+			read(item, Integer.valueOf(in.readInt()));
+		}
+
+		private void read(Item item, Integer value) {
+			if (!canSet(item))
+				return;
+			try {
+				_set.set(item, value);
+			} catch (Exception e) {
+				setFailed(e);
+			}
+		}
+	}
+
+	private static class FloatSetter extends ItemSetter {
+		private final SetsFloat _set;
+
+		FloatSetter(char tag, Method method) throws Exception {
+			super(tag, method, float.class);
+			_set = compile(SetsFloat.class, method);
+		}
+
+		@Override
+		void read(Item item, String value) {
+			read(item, Float.parseFloat(value.trim().toLowerCase()));
+		}
+
+		@Override
+		void readTyped(Item item, ExbReader in) throws IOException {
+			read(item, in.readFloat());
+		}
+
+		private void read(Item item, float value) {
+			if (!canSet(item))
+				return;
+			try {
+				_set.set(item, value);
+			} catch (Exception e) {
+				setFailed(e);
+			}
+		}
+	}
+
+	private static class FloatObjectSetter extends ItemSetter {
+		private final SetsObject _set;
+
+		FloatObjectSetter(char tag, Method method) throws Exception {
+			super(tag, method, float.class);
+			_set = compile(SetsObject.class, method);
+		}
+
+		@Override
+		void read(Item item, String value) {
+			value = value.trim().toLowerCase();
+			Float parsed = null;
+			if (value.length() > 0 && !value.equals("null"))
+				parsed = Float.parseFloat(value);
+			read(item, parsed);
+		}
+
+		@Override
+		void readTyped(Item item, ExbReader in) throws IOException {
+			read(item, Float.valueOf(in.readFloat()));
+		}
+
+		private void read(Item item, Float value) {
+			if (!canSet(item))
+				return;
+			try {
+				_set.set(item, value);
+			} catch (Exception e) {
+				setFailed(e);
+			}
+		}
+	}
+
+	private static class BooleanSetter extends ItemSetter {
+		private final SetsBoolean _set;
+
+		BooleanSetter(char tag, Method method) throws Exception {
+			super(tag, method, boolean.class);
+			_set = compile(SetsBoolean.class, method);
+		}
+
+		@Override
+		void read(Item item, String value) {
+			read(item, parseBoolean(value));
+		}
+
+		@Override
+		void readTyped(Item item, ExbReader in) throws IOException {
+			read(item, in.readBoolean());
+		}
+
+		private void read(Item item, boolean value) {
+			if (!canSet(item))
+				return;
+			try {
+				_set.set(item, value);
+			} catch (Exception e) {
+				setFailed(e);
+			}
+		}
+	}
+
+	private static class ColorSetter extends ItemSetter {
+		private final SetsObject _set;
+
+		ColorSetter(char tag, Method method) throws Exception {
+			super(tag, method, Color.class);
+			_set = compile(SetsObject.class, method);
+		}
+
+		@Override
+		void read(Item item, String value) {
+			read(item, (Color) Conversion.Convert(Color.class, value));
+		}
+
+		@Override
+		void readTyped(Item item, ExbReader in) throws IOException {
+			read(item, in.readColor());
+		}
+
+		private void read(Item item, Color value) {
+			if (!canSet(item))
+				return;
+			try {
+				_set.set(item, value);
+			} catch (Exception e) {
+				setFailed(e);
+			}
+		}
+	}
+
+	private static class PointSetter extends ItemSetter {
+		private final SetsObject _set;
+
+		PointSetter(char tag, Method method) throws Exception {
+			super(tag, method, Point.class);
+			_set = compile(SetsObject.class, method);
+		}
+
+		@Override
+		void read(Item item, String value) {
+			read(item, (Point) Conversion.Convert(Point.class, value));
+		}
+
+		@Override
+		void readTyped(Item item, ExbReader in) throws IOException {
+			read(item, in.readPoint());
+		}
+
+		private void read(Item item, Point value) {
+			if (!canSet(item))
+				return;
+			try {
+				_set.set(item, value);
+			} catch (Exception e) {
+				setFailed(e);
+			}
+		}
+	}
+
+	private static class IntArraySetter extends ItemSetter {
+		private final SetsObject _set;
+
+		IntArraySetter(char tag, Method method) throws Exception {
+			super(tag, method, int[].class);
+			_set = compile(SetsObject.class, method);
+		}
+
+		@Override
+		void read(Item item, String value) {
+			read(item, (int[]) Conversion.Convert(int[].class, value));
+		}
+
+		@Override
+		void readTyped(Item item, ExbReader in) throws IOException {
+			read(item, in.readIntArray());
+		}
+
+		private void read(Item item, int[] value) {
+			if (!canSet(item))
+				return;
+			try {
+				_set.set(item, value);
+			} catch (Exception e) {
+				setFailed(e);
+			}
+		}
+	}
+
+	private static class FontSetter extends ItemSetter {
+		private final SetsObject _set;
+
+		FontSetter(char tag, Method method) throws Exception {
+			super(tag, method, String.class);
+			_set = compile(SetsObject.class, method);
+		}
+
+		@Override
+		void read(Item item, String value) {
+			Font parsed = (Font) Conversion.Convert(Font.class, value);
+			if (!canSet(item))
+				return;
+			try {
+				_set.set(item, parsed);
+			} catch (Exception e) {
+				setFailed(e);
+			}
+		}
+	}
+
+	private static class ListSetter extends ItemSetter {
+		private final SetsObject _set;
+
+		ListSetter(char tag, Method method) throws Exception {
+			super(tag, method, String.class);
+			_set = compile(SetsObject.class, method);
+		}
+
+		@Override
+		void read(Item item, String value) {
+			StringTokenizer st = new StringTokenizer(value.trim(), "\n");
+			List<String> list = new LinkedList<String>();
+			while (st.hasMoreTokens())
+				list.add(st.nextToken());
+			if (!canSet(item))
+				return;
+			try {
+				_set.set(item, list);
+			} catch (Exception e) {
+				setFailed(e);
+			}
+		}
+	}
+
+	/**
+	 * Sets the arrow of an item from its length, ratio and nib percentage.
+	 */
+	private static class ArrowSetter extends ItemSetter {
+		private final SetsArrow _set;
+
+		ArrowSetter(char tag, Method method) throws Exception {
+			super(tag, method, String.class);
+			_set = compile(SetsArrow.class, method);
+		}
+
+		@Override
+		void read(Item item, String value) {
+			value = value.trim();
+			if (value.indexOf(" ") < 0)
+				return;
+			float length = Conversion.getArrowLength(value);
+			double ratio = Conversion.getArrowRatio(value);
+			double nibPerc = Conversion.getArrowNibPerc(value);
+			if (!canSet(item))
+				return;
+			try {
+				_set.set(item, length, ratio, nibPerc);
+			} catch (Exception e) {
+				setFailed(e);
+			}
+		}
+	}
+
+	/**
+	 * Sets an attribute whose type is saved as a code, such as a
+	 * justification, which the type's convertString method reads.
+	 */
+	private static class CodeSetter extends ItemSetter {
+		private final Converts _convert;
+
+		private final SetsObject _set;
+
+		CodeSetter(char tag, Method method, Converts convert) throws Exception {
+			super(tag, method, String.class);
+			_convert = convert;
+			_set = compile(SetsObject.class, method);
+		}
+
+		@Override
+		void read(Item item, String value) {
+			Object parsed = null;
+			try {
+				parsed = _convert.convert(value.trim());
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+			if (!canSet(item))
+				return;
+			try {
+				_set.set(item, parsed);
+			} catch (Exception e) {
+				setFailed(e);
+			}
+		}
+	}
+
+	private static class StringGetter extends ItemGetter {
+		private final GetsObject _get;
+
+		StringGetter(char tag, Method method) throws Exception {
+			super(tag, method, String.class);
+			_get = compile(GetsObject.class, method);
+		}
+
+		@Override
+		void write(Item item, TagOutput out) throws IOException {
+			out.writeTag(tag, (String) _get.get(item));
+		}
+	}
+
+	/**
+	 * Writes text a line at a time, as Conversion does for methods whose name
+	 * ends in Text.
+	 */
+	private static class LinesGetter extends ItemGetter {
+		private final GetsObject _get;
+
+		LinesGetter(char tag, Method method) throws Exception {
+			super(tag, method, String.class);
+			_get = compile(GetsObject.class, method);
+		}
+
+		@Override
+		void write(Item item, TagOutput out) throws IOException {
+			String text = (String) _get.get(item);
+			if (text == null)
+				return;
+			for (String line : text.split("\n"))
+				out.writeTag(tag, line);
+		}
+	}
+
+	private static class ListGetter extends ItemGetter {
+		private final GetsObject _get;
+
+		ListGetter(char tag, Method method) throws Exception {
+			super(tag, method, String.class);
+			_get = compile(GetsObject.class, method);
+		}
+
+		@Override
+		void write(Item item, TagOutput out) throws IOException {
+			List<?> lines = (List<?>) _get.get(item);
+			if (lines == null)
+				return;
+			for (Object line : lines)
+				out.writeTag(tag, line.toString());
+		}
+	}
+
+	private static class IntGetter extends ItemGetter {
+		private final GetsInt _get;
+
+		IntGetter(char tag, Method method) throws Exception {
+			super(tag, method, int.class);
+			_get = compile(GetsInt.class, method);
+		}
+
+		@Override
+		void write(Item item, TagOutput out) throws IOException {
+			// negative numbers signal no value
+			int value = _get.get(item);
+			if (value >= 0)
+				out.writeTag(tag, value);
+		}
+	}
+
+	private static class IntegerGetter extends ItemGetter {
+		private final GetsObject _get;
+
+		IntegerGetter(char tag, Method method) throws Exception {
+			super(tag, method, int.class);
+			_get = compile(GetsObject.class, method);
+		}
+
+		@Override
+		void write(Item item, TagOutput out) throws IOException {
+			Integer value = (Integer) _get.get(item);
+			if (value != null)
+				out.writeTag(tag, value.intValue());
+		}
+	}
+
+	private static class FloatGetter extends ItemGetter {
+		private final GetsFloat _get;
+
+		FloatGetter(char tag, Method method) throws Exception {
+			super(tag, method, float.class);
+			_get = compile(GetsFloat.class, method);
+		}
+
+		@Override
+		void write(Item item, TagOutput out) throws IOException {
+			out.writeTag(tag, _get.get(item));
+		}
+	}
+
+	private static class FloatObjectGetter extends ItemGetter {
+		private final GetsObject _get;
+
+		FloatObjectGetter(char tag, Method method) throws Exception {
+			super(tag, method, float.class);
+			_get = compile(GetsObject.class, method);
+		}
+
+		@Override
+		void write(Item item, TagOutput out) throws IOException {
+			Float value = (Float) _get.get(item);
+			if (value != null)
+				out.writeTag(tag, value.floatValue());
+		}
+	}
+
+	private static class BooleanGetter extends ItemGetter {
+		private final GetsBoolean _get;
+
+		BooleanGetter(char tag, Method method) throws Exception {
+			super(tag, method, boolean.class);
+			_get = compile(GetsBoolean.class, method);
+		}
+
+		@Override
+		void write(Item item, TagOutput out) throws IOException {
+			// true is the default so only false is saved
+			if (!_get.get(item))
+				out.writeTag(tag, false);
+		}
+	}
+
+	private static class ColorGetter extends ItemGetter {
+		private final GetsObject _get;
+
+		ColorGetter(char tag, Method method) throws Exception {
+			super(tag, method, Color.class);
+			_get = compile(GetsObject.class, method);
+		}
+
+		@Override
+		void write(Item item, TagOutput out) throws IOException {
+			out.writeTag(tag, (Color) _get.get(item));
+		}
+	}
+
+	private static class PointGetter extends ItemGetter {
+		private final GetsObject _get;
+
+		PointGetter(char tag, Method method) throws Exception {
+			super(tag, method, Point.class);
+			_get = compile(GetsObject.class, method);
+		}
+
+		@Override
+		void write(Item item, TagOutput out) throws IOException {
+			out.writeTag(tag, (Point) _get.get(item));
+		}
+	}
+
+	private static class IntArrayGetter extends ItemGetter {
+		private final GetsObject _get;
+
+		IntArrayGetter(char tag, Method method) throws Exception {
+			super(tag, method, int[].class);
+			_get = compile(GetsObject.class, method);
+		}
+
+		@Override
+		void write(Item item, TagOutput out) throws IOException {
+			out.writeTag(tag, (int[]) _get.get(item));
+		}
+	}
+
+	private static class FontGetter extends ItemGetter {
+		private final GetsObject _get;
+
+		FontGetter(char tag, Method method) throws Exception {
+			super(tag, method, String.class);
+			_get = compile(GetsObject.class, method);
+		}
+
+		@Override
+		void write(Item item, TagOutput out) throws IOException {
+			Font font = (Font) _get.get(item);
+			if (font != null)
+				out.writeTag(tag, Conversion.getExpediteeFontCode(font));
+		}
+	}
+
+	/**
+	 * Writes the code of an attribute whose type is saved as one.
+	 */
+	private static class CodeGetter extends ItemGetter {
+		private final GetsObject _get;
+
+		private final Converts _code;
+
+		CodeGetter(char tag, Method method, Converts code) throws Exception {
+			super(tag, method, String.class);
+			_get = compile(GetsObject.class, method);
+			_code = code;
+		}
+
+		@Override
+		void write(Item item, TagOutput out) throws IOException {
+			Object value = _get.get(item);
+			if (value != null)
+				out.writeTag(tag, String.valueOf(_code.convert(value)));
+		}
+	}
+
+	private static final MethodHandles.Lookup _Lookup = MethodHandles.lookup();
+
+	private static final ItemSetter[] _ItemSetters = new ItemSetter[128];
+
+	private static final FrameSetter[] _FrameSetters = new FrameSetter[128];
+
+	private static final List<ItemGetter> _ItemGetters = new LinkedList<ItemGetter>();
+
+	private static final List<FrameGetter> _FrameGetters = new LinkedList<FrameGetter>();
+
+	// All methods are static, this should not be instantiated
+	private ExpTags() {
+	}
+
+	/**
+	 * @return the setter for an item tag, or null if the tag is not an item
+	 *         attribute.
+	 */
+	static ItemSetter getItemSetter(char tag) {
+		if (tag >= _ItemSetters.length)
+			return null;
+		return _ItemSetters[tag];
+	}
+
+	/**
+	 * @return the setter for a frame header tag, or null if the tag is not a
+	 *         frame attribute.
+	 */
+	static FrameSetter getFrameSetter(char tag) {
+		if (tag >= _FrameSetters.length)
+			return null;
+		return _FrameSetters[tag];
+	}
+
+	/**
+	 * @return the item tags in the order they are written.
+	 */
+	static List<ItemGetter> getItemGetters() {
+		return _ItemGetters;
+	}
+
+	/**
+	 * @return the frame header tags in the order they are written.
+	 */
+	static List<FrameGetter> getFrameGetters() {
+		return _FrameGetters;
+	}
+
+	// Conversion.Convert(String.class, value)
+	static String parseString(String value) {
+		if (value.trim().length() == 0)
+			return null;
+		return value;
+	}
+
+	// Conversion.Convert(int.class, value)
+	static int parseInt(String value) {
+		value = value.trim().toLowerCase();
+		if (value.length() == 0 || value.equals("null"))
+			return Item.DEFAULT_INTEGER;
+		if (isPlainInteger(value))
+			return Integer.parseInt(value);
+		// hex, octal and signed values
+		return Integer.decode(value);
+	}
+
+	// Conversion.Convert(boolean.class, value)
+	static boolean parseBoolean(String value) {
+		value = value.trim().toLowerCase();
+		return value.equals("t") || value.equals("true")
+				|| value.equals("yes") || value.equals("y")
+				|| value.equals("");
+	}
+
+	/**
+	 * Checks if a value is a decimal number without a sign or leading zeros,
+	 * which Integer.parseInt reads the same as Integer.decode.
+	 */
+	private static boolean isPlainInteger(String value) {
+		if (value.length() > 1 && value.charAt(0) == '0')
+			return false;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < '0' || c > '9')
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Compiles a call of an item's getter or setter to a class implementing
+	 * one of the interfaces above, the same as the compiler does for a method
+	 * reference.
+	 */
+	private static <T> T compile(Class<T> type, Method method)
+			throws Exception {
+		Class<?>[] params = method.getParameterTypes();
+		Class<?>[] instantiated = new Class<?>[params.length + 1];
+		instantiated[0] = method.getDeclaringClass();
+		System.arraycopy(params, 0, instantiated, 1, params.length);
+		return compile(type, _Lookup.unreflect(method), MethodType.methodType(
+				method.getReturnType(), instantiated));
+	}
+
+	/**
+	 * @param type
+	 *            the interface to implement, which has a single method.
+	 * @param target
+	 *            the method to call.
+	 * @param instantiated
+	 *            the types which the interface's method is called with.
+	 */
+	private static <T> T compile(Class<T> type, MethodHandle target,
+			MethodType instantiated) throws Exception {
+		Method call = type.getMethods()[0];
+		MethodType erased = MethodType.methodType(call.getReturnType(), call
+				.getParameterTypes());
+		// setters are called for their side effect alone
+		if (erased.returnType() == void.class)
+			instantiated = instantiated.changeReturnType(void.class);
+		CallSite site = LambdaMetafactory.metafactory(_Lookup, call.getName(),
+				MethodType.methodType(type), erased, target, instantiated);
+		try {
+			return type.cast(site.getTarget().invoke());
+		} catch (Throwable e) {
+			throw new LambdaConversionException(e.toString());
+		}
+	}
+
+	/**
+	 * @return the static convertString method which reads the code of the
+	 *         given type, or null if the type is not saved as a code.
+	 */
+	private static Converts getConvert(Class<?> type) throws Exception {
+		MethodHandle convert;
+		try {
+			convert = _Lookup.findStatic(type, "convertString", MethodType
+					.methodType(type, String.class));
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+		return compile(Converts.class, convert, convert.type());
+	}
+
+	/**
+	 * @return the getCode method of the given type, or null if the type is not
+	 *         saved as a code.
+	 */
+	private static Converts getCode(Class<?> type) throws Exception {
+		Method code;
+		try {
+			code = type.getMethod("getCode");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+		// the code is boxed, since it is only ever written as a string
+		return compile(Converts.class, _Lookup.unreflect(code), MethodType
+				.methodType(Object.class, type));
+	}
+
+	/**
+	 * Compiles the method setting an item attribute according to the type of
+	 * value it takes.
+	 *
+	 * @return the setter, or null if the value of the tag can not be read
+	 *         from a line of its own.
+	 */
+	private static ItemSetter compileSetter(char tag, Method method)
+			throws Exception {
+		Class<?>[] types = method.getParameterTypes();
+		if (Arrays.equals(types, DefaultFrameReader.pArrow))
+			return new ArrowSetter(tag, method);
+		// Lines and constraints are created by the readers themselves
+		if (types.length != 1)
+			return null;
+
+		Class<?> type = types[0];
+		if (type == String.class)
+			return new StringSetter(tag, method);
+		if (type == int.class)
+			return new IntSetter(tag, method);
+		if (type == Integer.class)
+			return new IntegerSetter(tag, method);
+		if (type == float.class)
+			return new FloatSetter(tag, method);
+		if (type == Float.class)
+			return new FloatObjectSetter(tag, method);
+		if (type == boolean.class)
+			return new BooleanSetter(tag, method);
+		if (type == Color.class)
+			return new ColorSetter(tag, method);
+		if (type == Point.class)
+			return new PointSetter(tag, method);
+		if (type == int[].class)
+			return new IntArraySetter(tag, method);
+		if (type == Font.class)
+			return new FontSetter(tag, method);
+		if (type == List.class)
+			return new ListSetter(tag, method);
+		Converts convert = getConvert(type);
+		if (convert != null)
+			return new CodeSetter(tag, method, convert);
+		return null;
+	}
+
+	/**
+	 * Compiles the method getting an item attribute according to the type of
+	 * value it returns.
+	 *
+	 * @return the getter, or null if the value can not be saved.
+	 */
+	private static ItemGetter compileGetter(char tag, Method method)
+			throws Exception {
+		Class<?> type = method.getReturnType();
+		if (type == String.class) {
+			if (method.getName().endsWith("Text"))
+				return new LinesGetter(tag, method);
+			return new StringGetter(tag, method);
+		}
+		if (type == int.class)
+			return new IntGetter(tag, method);
+		if (type == Integer.class)
+			return new IntegerGetter(tag, method);
+		if (type == float.class)
+			return new FloatGetter(tag, method);
+		if (type == Float.class)
+			return new FloatObjectGetter(tag, method);
+		if (type == boolean.class)
+			return new BooleanGetter(tag, method);
+		if (type == Color.class)
+			return new ColorGetter(tag, method);
+		if (type == Point.class)
+			return new PointGetter(tag, method);
+		if (type == int[].class)
+			return new IntArrayGetter(tag, method);
+		if (type == Font.class)
+			return new FontGetter(tag, method);
+		if (List.class.isAssignableFrom(type))
+			return new ListGetter(tag, method);
+		Converts code = getCode(type);
+		if (code != null)
+			return new CodeGetter(tag, method, code);
+		return null;
+	}
+
+	static {
+		try {
+			for (Map.Entry<Character, Method> entry : DefaultFrameReader
+					.getFrameTags().entrySet()) {
+				char tag = entry.getKey();
+				_FrameSetters[tag] = new FrameSetter(tag, entry.getValue());
+			}
+			for (Map.Entry<Character, Method> entry : DefaultFrameWriter
+					.getFrameTags().entrySet()) {
+				_FrameGetters.add(new FrameGetter(entry.getKey(), entry
+						.getValue()));
+			}
+
+			for (Map.Entry<Character, Method> entry : DefaultFrameReader
+					.getItemTags().entrySet()) {
+				char tag = entry.getKey();
+				_ItemSetters[tag] = compileSetter(tag, entry.getValue());
+			}
+			for (Map.Entry<Character, Method> entry : DefaultFrameWriter
+					.getItemTags().entrySet()) {
+				ItemGetter getter = compileGetter(entry.getKey(), entry
+						.getValue());
+				if (getter == null)
+					continue;
+				_ItemGetters.add(getter);
+
+				// binary frames store typed values where the setter reads the
+				// type the getter writes
+				ItemSetter setter = _ItemSetters[getter.tag];
+				if (setter != null && setter._stored != String.class)
+					setter._typed = setter._stored == getter._stored;
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
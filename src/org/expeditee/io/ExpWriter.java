@@ -1,5 +1,7 @@
 package org.expeditee.io;
 
+import java.awt.Color;
+import java.awt.Point;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
@@ -7,8 +9,6 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
-import java.lang.reflect.Method;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -26,7 +26,7 @@ import org.expeditee.stats.SessionStats;
  * @author jdm18
  * 
  */
-public class ExpWriter extends DefaultFrameWriter {
+public class ExpWriter extends DefaultFrameWriter implements ExpTags.TagOutput {
 
 	private ProxyWriter _writer = null;
 
@@ -63,13 +63,6 @@ public class ExpWriter extends DefaultFrameWriter {
 			_writer = new ProxyWriter(out);
 		}
 
-		try {
-			_FrameTags.remove('A');
-			_ItemTags.put('S', Item.class.getMethod("getTypeAndID",
-					new Class[] {}));
-		} catch (Exception e) {
-
-		}
 	}
 
 	/**
@@ -106,17 +99,9 @@ public class ExpWriter extends DefaultFrameWriter {
 	}
 
 	private void writeHeader(Frame toWrite) throws IOException {
-		Iterator<Character> it = _FrameTags.keySet().iterator();
-		Object[] param = {};
-
-		while (it.hasNext()) {
-			Character tag = it.next();
+		for (ExpTags.FrameGetter getter : ExpTags.getFrameGetters()) {
 			try {
-				Object o = _FrameTags.get(tag).invoke(toWrite, param);
-				o = Conversion.ConvertToExpeditee(_FrameTags.get(tag), o);
-				if (o != null) {
-					writeLine(tag.toString(), o.toString());
-				}
+				writeTag(getter.tag, getter.write(toWrite));
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
@@ -129,6 +114,47 @@ public class ExpWriter extends DefaultFrameWriter {
 		writeLine(tag + " " + line);
 	}
 
+	/**
+	 * Writes a tagged line, unless the value is null.
+	 */
+	public void writeTag(char tag, String value) throws IOException {
+		if (value != null)
+			writeLine(tag + " " + value);
+	}
+
+	public void writeTag(char tag, int value) throws IOException {
+		writeLine(tag + " " + value);
+	}
+
+	public void writeTag(char tag, float value) throws IOException {
+		writeLine(tag + " " + value);
+	}
+
+	public void writeTag(char tag, boolean value) throws IOException {
+		writeLine(tag + (value ? " T" : " F"));
+	}
+
+	public void writeTag(char tag, Color value) throws IOException {
+		writeTag(tag, Conversion.getExpediteeColorCode(value));
+	}
+
+	public void writeTag(char tag, Point value) throws IOException {
+		if (value != null)
+			writeLine(tag + " " + value.x + " " + value.y);
+	}
+
+	public void writeTag(char tag, int[] value) throws IOException {
+		if (value == null || value.length == 0)
+			return;
+		StringBuilder line = new StringBuilder().append(tag).append(' ');
+		for (int i = 0; i < value.length; i++) {
+			if (i > 0)
+				line.append(' ');
+			line.append(value[i]);
+		}
+		writeLine(line.toString());
+	}
+
 	protected void writeTerminator() throws IOException {
 		writeLine(TERMINATOR + "\n");
 	}
@@ -246,25 +272,11 @@ public class ExpWriter extends DefaultFrameWriter {
 		return "Frame successfully written to " + _filename;
 	}
 
-	private void writeClass(Object toWrite) throws IOException {
-		Iterator<Character> it = _ItemTags.keySet().iterator();
-		Object[] param = {};
-
-		while (it.hasNext()) {
-			Character tag = it.next();
-			Method toRun = _ItemTags.get(tag);
-			Class<?> declarer = toRun.getDeclaringClass();
-			if (declarer.isAssignableFrom(toWrite.getClass())) {
+	private void writeClass(Item toWrite) throws IOException {
+		for (ExpTags.ItemGetter getter : ExpTags.getItemGetters()) {
+			if (getter.appliesTo(toWrite)) {
 				try {
-					Object o = toRun.invoke(toWrite, param);
-					o = Conversion.ConvertToExpeditee(toRun, o);
-					if (o != null) {
-						if (o instanceof List) {
-							for (Object line : (List) o)
-								writeLine(tag.toString(), line.toString());
-						} else
-							writeLine(tag.toString(), o.toString());
-					}
+					getter.write(toWrite, this);
 				} catch (Exception e) {
 					e.printStackTrace();
 				}
@@ -0,0 +1,293 @@
+package org.expeditee.io;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.expeditee.gui.FrameIO;
+
+/**
+ * Allocates frame numbers from the <code>frame.inf</code> file of a local
+ * frameset, which names the highest numbered frame in the frameset.
+ *
+ * The file is kept open between calls instead of being opened each time a
+ * frame is saved or created, and is locked while it is read and updated so
+ * several Expeditee instances using the same frame directories do not hand
+ * out the same number twice. Callers which create many frames can reserve a
+ * range of numbers at once and give back the numbers they did not use.
+ *
+ * Framesets which can not be written to, such as those installed or shared
+ * read-only, can still be read: the file is then opened only to be read, and
+ * an older <code>&lt;frameset&gt;.inf</code> is only copied to frame.inf when a
+ * number is allocated.
+ *
+ * Frames in remote framesets are numbered by their peer, see
+ * {@link FrameIO#ReadINF(String, String, boolean)}.
+ */
+public class FrameNumberAllocator {
+
+	public static final String FILENAME = "frame.inf";
+
+	// the most frame.inf files kept open at once
+	private static final int MAX_OPEN = 64;
+
+	// open files by the absolute path of their frameset directory, least
+	// recently used first
+	private static final Map<String, FrameNumberAllocator> _open = new LinkedHashMap<String, FrameNumberAllocator>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<String, FrameNumberAllocator> eldest) {
+			if (size() <= MAX_OPEN)
+				return false;
+			eldest.getValue().close();
+			return true;
+		}
+	};
+
+	private final RandomAccessFile _raf;
+
+	private final FileChannel _channel;
+
+	// false if the file could only be opened to be read
+	private final boolean _writable;
+
+	private FrameNumberAllocator(File file, boolean writable)
+			throws IOException {
+		_raf = new RandomAccessFile(file, writable ? "rw" : "r");
+		_channel = _raf.getChannel();
+		_writable = writable;
+	}
+
+	/**
+	 * @param write
+	 *            true if the file will be written, in which case an older
+	 *            frameset's file is copied to frame.inf.
+	 * @param create
+	 *            true to create frame.inf if the frameset has none.
+	 */
+	private static FrameNumberAllocator get(File framesetDir, boolean write,
+			boolean create) throws IOException {
+		String key = framesetDir.getAbsolutePath();
+		FrameNumberAllocator allocator = _open.get(key);
+		if (allocator != null) {
+			if (allocator._writable || !write)
+				return allocator;
+			// it was opened to be read, so it is opened again to be written
+			_open.remove(key);
+			allocator.close();
+		}
+
+		File file = new File(framesetDir, FILENAME);
+		if (!file.exists()) {
+			// older framesets name the file after the frameset
+			File old = new File(framesetDir, framesetDir.getName() + ".inf");
+			if (old.exists() && !write) {
+				allocator = new FrameNumberAllocator(old, false);
+				_open.put(key, allocator);
+				return allocator;
+			} else if (old.exists()) {
+				Files.copy(old.toPath(), file.toPath());
+			} else if (!create || !framesetDir.isDirectory()) {
+				throw new FileNotFoundException("No " + FILENAME + " in "
+						+ framesetDir);
+			}
+		}
+
+		try {
+			allocator = new FrameNumberAllocator(file, true);
+		} catch (FileNotFoundException e) {
+			if (!file.exists())
+				throw e;
+			if (write)
+				throw new IOException(file + " can not be written");
+			// the frameset is read-only
+			allocator = new FrameNumberAllocator(file, false);
+		}
+		_open.put(key, allocator);
+		return allocator;
+	}
+
+	/**
+	 * @return the number of the highest numbered frame in a frameset.
+	 * @throws FileNotFoundException
+	 *             if the frameset directory has no frame.inf
+	 */
+	public static int getLast(File framesetDir) throws IOException {
+		synchronized (_open) {
+			FrameNumberAllocator allocator = get(framesetDir, false, false);
+			FileLock lock;
+			try {
+				lock = allocator._channel.lock(0, Long.MAX_VALUE, true);
+			} catch (IOException e) {
+				// some read-only file systems can not lock files
+				if (allocator._writable)
+					throw e;
+				return allocator.read();
+			}
+			try {
+				return allocator.read();
+			} finally {
+				lock.release();
+			}
+		}
+	}
+
+	/**
+	 * Reserves the next numbers in a frameset.
+	 *
+	 * @param count
+	 *            how many numbers to reserve
+	 * @return the first of the reserved numbers.
+	 * @throws FileNotFoundException
+	 *             if the frameset directory has no frame.inf
+	 */
+	public static int allocate(File framesetDir, String frameset, int count)
+			throws IOException {
+		assert (count > 0);
+		synchronized (_open) {
+			FrameNumberAllocator allocator = get(framesetDir, true, false);
+			FileLock lock = allocator._channel.lock();
+			try {
+				int first = allocator.read() + 1;
+				allocator.write(frameset + (first + count - 1));
+				return first;
+			} finally {
+				lock.release();
+			}
+		}
+	}
+
+	/**
+	 * Gives back the end of a range of reserved numbers which was not used,
+	 * as long as nothing has been numbered after the range since it was
+	 * reserved.
+	 *
+	 * @param next
+	 *            the first number in the range which was not used
+	 * @param end
+	 *            the number after the last in the range
+	 */
+	public static void release(File framesetDir, String frameset, int next,
+			int end) throws IOException {
+		if (next >= end)
+			return;
+		synchronized (_open) {
+			FrameNumberAllocator allocator = get(framesetDir, true, false);
+			FileLock lock = allocator._channel.lock();
+			try {
+				if (allocator.read() == end - 1)
+					allocator.write(frameset + (next - 1));
+			} finally {
+				lock.release();
+			}
+		}
+	}
+
+	/**
+	 * Names a frame in frame.inf if it is not behind the frame's number,
+	 * creating the file if the frameset does not have one.
+	 */
+	public static void update(File framesetDir, String frameName, int number)
+			throws IOException {
+		synchronized (_open) {
+			FrameNumberAllocator allocator = get(framesetDir, true, true);
+			FileLock lock = allocator._channel.lock();
+			try {
+				int last = -1;
+				try {
+					last = allocator.read();
+				} catch (IOException e) {
+					// an empty or unreadable file is replaced
+				}
+				if (last <= number)
+					allocator.write(frameName);
+			} finally {
+				lock.release();
+			}
+		}
+	}
+
+	/**
+	 * Names a frame in frame.inf, creating the file if the frameset does not
+	 * have one.
+	 */
+	public static void set(File framesetDir, String frameName)
+			throws IOException {
+		synchronized (_open) {
+			FrameNumberAllocator allocator = get(framesetDir, true, true);
+			FileLock lock = allocator._channel.lock();
+			try {
+				allocator.write(frameName);
+			} finally {
+				lock.release();
+			}
+		}
+	}
+
+	/**
+	 * Closes the frame.inf of a frameset directory, if it is open, so that the
+	 * directory can be moved or removed.
+	 */
+	public static void close(File framesetDir) {
+		synchronized (_open) {
+			FrameNumberAllocator allocator = _open.remove(framesetDir
+					.getAbsolutePath());
+			if (allocator != null)
+				allocator.close();
+		}
+	}
+
+	/**
+	 * Closes every open frame.inf.
+	 */
+	public static void closeAll() {
+		synchronized (_open) {
+			for (FrameNumberAllocator allocator : _open.values())
+				allocator.close();
+			_open.clear();
+		}
+	}
+
+	private int read() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) _channel.size());
+		while (buffer.hasRemaining() && _channel.read(buffer, buffer.position()) >= 0)
+			;
+		String inf = new String(buffer.array(), 0, buffer.position(), "UTF-8");
+		int end = inf.indexOf('\n');
+		if (end >= 0)
+			inf = inf.substring(0, end);
+		inf = inf.trim();
+		try {
+			return Conversion.getFrameNumber(inf);
+		} catch (RuntimeException e) {
+			throw new IOException("Could not read frame number from '" + inf
+					+ "'");
+		}
+	}
+
+	private void write(String frameName) throws IOException {
+		byte[] bytes = frameName.getBytes("UTF-8");
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		while (buffer.hasRemaining())
+			_channel.write(buffer, buffer.position());
+		_channel.truncate(bytes.length);
+	}
+
+	private void close() {
+		try {
+			_raf.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
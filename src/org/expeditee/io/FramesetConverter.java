@@ -0,0 +1,346 @@
+package org.expeditee.io;
+
+import java.awt.Dimension;
+import java.awt.HeadlessException;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.expeditee.gui.Frame;
+import org.expeditee.gui.FrameFileIndex;
+import org.expeditee.gui.FrameGraphics;
+import org.expeditee.gui.FrameSaveQueue;
+import org.expeditee.gui.MessageBay;
+import org.expeditee.stats.SessionStats;
+
+/**
+ * Converts the frames of a frameset between the Exp text format, the binary
+ * Exb format, a frameset log and a read-only frameset pack. Each frame is read
+ * back after it is written and the original is only removed once the copy
+ * reproduces the same frame. Only the latest version of each frame is
+ * converted out of a log.
+ */
+public class FramesetConverter {
+
+	/**
+	 * Converts every frame in a frameset directory which is not already in
+	 * the given format. Frames in the old KMS format are left as they are.
+	 * Packing a frameset which already has a pack rebuilds the pack with any
+	 * frames saved since.
+	 *
+	 * @param framesetDir
+	 *            the directory containing the frameset
+	 * @param to
+	 *            the format to convert to, {@link ExpReader#EXTENTION},
+	 *            {@link ExbReader#EXTENTION}, {@link FramesetLog#EXTENTION}
+	 *            or {@link FramesetPack#EXTENTION}
+	 * @return the number of frames converted
+	 * @throws IOException
+	 *             if a frame could not be converted, frames converted before
+	 *             it are left in the new format
+	 */
+	public static int convert(File framesetDir, String to) throws IOException {
+		if (!to.equals(ExpReader.EXTENTION) && !to.equals(ExbReader.EXTENTION)
+				&& !to.equals(FramesetLog.EXTENTION)
+				&& !to.equals(FramesetPack.EXTENTION))
+			throw new IllegalArgumentException("Unknown frame format: " + to);
+		String frameset = framesetDir.getName();
+		boolean toLog = to.equals(FramesetLog.EXTENTION);
+		boolean toPack = to.equals(FramesetPack.EXTENTION);
+
+		FrameSaveQueue.flush();
+		File[] files = framesetDir.listFiles();
+		if (files == null)
+			throw new IOException("Could not list " + framesetDir);
+
+		// the current path of each frame, in the same order of precedence as
+		// FrameFileIndex so frames saved since packing replace packed ones
+		Map<Integer, String> sources = new TreeMap<Integer, String>();
+		boolean fromPack = FramesetPack.exists(framesetDir);
+		if (fromPack) {
+			for (int number : FramesetPack.open(framesetDir)
+					.getFrameNumbers())
+				sources.put(number, FramesetPack.getPath(framesetDir, number));
+		}
+		boolean fromLog = FramesetLog.exists(framesetDir);
+		if (fromLog) {
+			for (int number : FramesetLog.open(framesetDir).getFrameNumbers())
+				sources.put(number, FramesetLog.getPath(framesetDir, number));
+		}
+		for (String extention : new String[] { ExbReader.EXTENTION,
+				ExpReader.EXTENTION }) {
+			for (File file : files) {
+				String name = file.getName();
+				if (!name.endsWith(extention))
+					continue;
+				String number = name.substring(0, name.length()
+						- extention.length());
+				if (isNumber(number))
+					sources.put(Integer.parseInt(number), file.getPath());
+			}
+		}
+
+		if (toPack)
+			return pack(framesetDir, sources);
+
+		// leave the frames which are already in the target format
+		for (Iterator<String> i = sources.values().iterator(); i.hasNext();) {
+			if (i.next().endsWith(to))
+				i.remove();
+		}
+		if (toLog)
+			fromLog = false;
+
+		FramesetLog log = toLog ? FramesetLog.create(framesetDir) : null;
+		int converted = 0;
+		for (Map.Entry<Integer, String> source : sources.entrySet()) {
+			String frameName = frameset + source.getKey();
+			String target = toLog ? FramesetLog.getPath(framesetDir, source
+					.getKey()) : new File(framesetDir, source.getKey() + to)
+					.getPath();
+			if (toLog ? log.getVersion(source.getKey()) >= 0 : new File(
+					target).exists())
+				throw new IOException(target + " already exists");
+
+			Frame frame = read(source.getValue(), frameName);
+			write(frame, target);
+
+			if (!getExpected(frame).equals(
+					withoutStats(getExpText(read(target, frameName))))) {
+				remove(target);
+				throw new IOException("Frame " + frameName
+						+ " did not convert exactly");
+			}
+
+			// logs and packs are removed as a whole once every frame is
+			// converted
+			if (isFile(source.getValue())
+					&& !new File(source.getValue()).delete()) {
+				remove(target);
+				throw new IOException("Could not remove " + source.getValue());
+			}
+			FrameFileIndex.removeFile(source.getValue());
+			FrameFileIndex.addFile(target);
+			converted++;
+		}
+
+		if (log != null)
+			log.sync();
+		if (fromLog) {
+			FramesetLog.close(framesetDir);
+			removeWhole(new File(framesetDir, FramesetLog.FILENAME));
+		}
+		if (fromPack) {
+			FramesetPack.close(framesetDir);
+			for (File packFile : FramesetPack.getFiles(framesetDir))
+				removeWhole(packFile);
+		}
+		return converted;
+	}
+
+	/**
+	 * Writes every frame into a new pack, checks each packed frame against
+	 * its source and then adds it as the next generation of the pack and
+	 * removes the loose files, log and older generations. The existing pack
+	 * may still be mapped, so it is never renamed over, and if it cannot be
+	 * removed yet it is removed when the frameset is next packed.
+	 */
+	private static int pack(File framesetDir, Map<Integer, String> sources)
+			throws IOException {
+		String frameset = framesetDir.getName();
+		File temp = new File(framesetDir, "." + FramesetPack.FILENAME + ".tmp");
+		FramesetPack.Builder builder = new FramesetPack.Builder(temp);
+		try {
+			for (Map.Entry<Integer, String> source : sources.entrySet()) {
+				Frame frame = read(source.getValue(), frameset
+						+ source.getKey());
+				builder.add(source.getKey(), frame.getVersion(),
+						new ExbWriter().encodeFrame(frame));
+			}
+			builder.finish();
+
+			// read rather than mapped, so it can be moved into place
+			FramesetPack packed = new FramesetPack(temp, false);
+			for (Map.Entry<Integer, String> source : sources.entrySet()) {
+				String frameName = frameset + source.getKey();
+				Frame frame = read(source.getValue(), frameName);
+				Frame copy = new ExbReader(frameName).readFrame(packed
+						.read(source.getKey()));
+				if (!getExpected(frame).equals(withoutStats(getExpText(copy))))
+					throw new IOException("Frame " + frameName
+							+ " did not convert exactly");
+			}
+		} catch (IOException e) {
+			builder.abort();
+			temp.delete();
+			throw e;
+		}
+
+		File packFile = FramesetPack.getNextFile(framesetDir);
+		try {
+			Files.move(temp.toPath(), packFile.toPath(),
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), packFile.toPath());
+		}
+		FramesetPack.close(framesetDir);
+		FrameFileIndex.addFile(packFile.getPath());
+
+		for (String source : sources.values()) {
+			if (isFile(source)) {
+				if (!new File(source).delete())
+					throw new IOException("Could not remove " + source);
+				FrameFileIndex.removeFile(source);
+			}
+		}
+		if (FramesetLog.exists(framesetDir)) {
+			FramesetLog.close(framesetDir);
+			removeWhole(new File(framesetDir, FramesetLog.FILENAME));
+		}
+		for (File oldPack : FramesetPack.getFiles(framesetDir)) {
+			if (!oldPack.equals(packFile) && oldPack.delete())
+				FrameFileIndex.removeFile(oldPack.getPath());
+		}
+		return sources.size();
+	}
+
+	/**
+	 * @return true if the path is a loose frame file rather than a frame in a
+	 *         log or pack.
+	 */
+	private static boolean isFile(String fullPath) {
+		return !FramesetLog.isLogPath(fullPath)
+				&& !FramesetPack.isPackPath(fullPath);
+	}
+
+	private static void removeWhole(File file) throws IOException {
+		if (!file.delete())
+			throw new IOException("Could not remove " + file);
+		FrameFileIndex.removeFile(file.getPath());
+	}
+
+	/**
+	 * Gets the text a converted frame should have: the frame as it would be
+	 * reloaded after saving it as Exp, since files from older versions can be
+	 * missing defaults.
+	 */
+	private static String getExpected(Frame frame) throws IOException {
+		Frame saved = new ExpReader(frame.getName())
+				.readFrame(new BufferedReader(new StringReader(
+						getExpText(frame))));
+		return withoutStats(getExpText(saved));
+	}
+
+	private static boolean isNumber(String number) {
+		if (number.length() == 0)
+			return false;
+		for (int i = 0; i < number.length(); i++) {
+			if (!Character.isDigit(number.charAt(i)))
+				return false;
+		}
+		return true;
+	}
+
+	private static Frame read(String fullPath, String frameName)
+			throws IOException {
+		FrameReader reader;
+		if (fullPath.endsWith(ExpReader.EXTENTION))
+			reader = new ExpReader(frameName);
+		else
+			reader = new ExbReader(frameName);
+		Frame frame = reader.readFrame(fullPath);
+		if (frame == null)
+			throw new IOException("Could not read " + fullPath);
+		frame.setPath(new File(fullPath).getParentFile().getParent()
+				+ File.separator);
+		return frame;
+	}
+
+	private static void write(Frame frame, String fullPath) throws IOException {
+		if (FramesetLog.isLogPath(fullPath)) {
+			FramesetLog.write(fullPath, frame.getVersion(), new ExbWriter()
+					.encodeFrame(frame));
+			return;
+		}
+		FrameWriter writer = fullPath.endsWith(ExbReader.EXTENTION) ? new ExbWriter()
+				: new ExpWriter();
+		writer.setOutputLocation(fullPath);
+		writer.writeFrame(frame);
+	}
+
+	private static void remove(String fullPath) throws IOException {
+		if (FramesetLog.isLogPath(fullPath))
+			FramesetLog.delete(fullPath);
+		else
+			new File(fullPath).delete();
+	}
+
+	private static String getExpText(Frame frame) throws IOException {
+		StringWriter text = new StringWriter();
+		ExpWriter writer = new ExpWriter();
+		writer.setOutputLocation("");
+		writer.writeFrame(frame, text);
+		return text.toString();
+	}
+
+	/**
+	 * Removes the session stats from Exp text. They are copied as they are
+	 * but the times change each time they are read.
+	 */
+	private static String withoutStats(String expText) {
+		int stats = expText.indexOf(SessionStats.ACTIVE_TIME_ATTRIBUTE);
+		return stats < 0 ? expText : expText.substring(0, stats);
+	}
+
+	/**
+	 * Converts the framesets in the directories given on the command line.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+
+		if (args.length < 2
+				|| !(args[0].equals("-exb") || args[0].equals("-exp")
+						|| args[0].equals("-log") || args[0].equals("-pack"))) {
+			System.err.println("Usage: java "
+					+ FramesetConverter.class.getName()
+					+ " -exp|-exb|-log|-pack frameset-directory...");
+			System.exit(1);
+		}
+
+		MessageBay.suppressMessages(true);
+		try {
+			FrameGraphics.setMaxSize(new Dimension(1024, 768));
+		} catch (HeadlessException e) {
+			// the size is only needed to position anchored items
+		}
+
+		String to;
+		if (args[0].equals("-exb"))
+			to = ExbReader.EXTENTION;
+		else if (args[0].equals("-log"))
+			to = FramesetLog.EXTENTION;
+		else if (args[0].equals("-pack"))
+			to = FramesetPack.EXTENTION;
+		else
+			to = ExpReader.EXTENTION;
+		for (int i = 1; i < args.length; i++) {
+			try {
+				int count = convert(new File(args[i]), to);
+				System.out.println("Converted " + count + " frames in "
+						+ args[i]);
+			} catch (Exception e) {
+				e.printStackTrace();
+				System.exit(2);
+			}
+		}
+	}
+}
@@ -0,0 +1,678 @@
+package org.expeditee.io;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import org.expeditee.settings.performance.PerformanceSettings;
+
+/**
+ * Stores the frames of a frameset in a single append-only file,
+ * <code>frames.log</code>, instead of one file per frame. Saving a frame
+ * appends its Exb encoding to the end of the log and an in-memory index,
+ * built when the log is opened, maps each frame number to its records.
+ *
+ * The last few versions of each frame are kept (see
+ * {@link PerformanceSettings#LogVersionsKept}), so framesets stored as logs do
+ * not need the full copies made by the @backup tag. Once most of a log is
+ * versions which are no longer kept or deleted frames it is compacted on a
+ * background thread.
+ *
+ * The log starts with the magic bytes <code>EXL</code> and a format version.
+ * Each record is the length of its contents, the frame number, the frame
+ * version and the record type, followed by the contents and a CRC32 of
+ * everything before it in the record. A record which is cut short or fails its
+ * checksum, such as one being written when Expeditee crashed, is truncated
+ * when the log is opened.
+ *
+ * Frames in a log are named by paths ending in {@link #EXTENTION} in the
+ * frameset directory, which FrameIO passes to the static methods here.
+ */
+public class FramesetLog {
+
+	public static final String FILENAME = "frames.log";
+
+	// the log being written by compaction, hidden from frameset listings
+	private static final String COMPACT_FILENAME = "." + FILENAME + ".compact";
+
+	/**
+	 * The extension of the paths given to frames stored in a log. There are
+	 * no files with these names.
+	 */
+	public static final String EXTENTION = ".exl";
+
+	private static final byte[] MAGIC = { 'E', 'X', 'L' };
+
+	private static final int FORMAT_VERSION = 1;
+
+	// length, number, version and type
+	private static final int HEADER_SIZE = 13;
+
+	private static final int CHECKSUM_SIZE = 4;
+
+	private static final byte FRAME_RECORD = 1;
+
+	private static final byte DELETE_RECORD = 2;
+
+	/**
+	 * Logs are not compacted until they have at least this many bytes which
+	 * are no longer used.
+	 */
+	private static final long MIN_COMPACT_BYTES = 1024 * 1024;
+
+	private static class Record {
+		private final long offset;
+
+		private final int length;
+
+		private final int version;
+
+		Record(long offset, int length, int version) {
+			this.offset = offset;
+			this.length = length;
+			this.version = version;
+		}
+
+		long getSize() {
+			return HEADER_SIZE + length + CHECKSUM_SIZE;
+		}
+	}
+
+	// open logs by the absolute path of their frameset directory
+	private static final Map<String, FramesetLog> _logs = new HashMap<String, FramesetLog>();
+
+	private static final Set<FramesetLog> _toCompact = new LinkedHashSet<FramesetLog>();
+
+	private static Thread _compactor = null;
+
+	private final File _dir;
+
+	private final File _file;
+
+	private RandomAccessFile _raf;
+
+	private FileChannel _channel;
+
+	// the kept versions of each frame, oldest first
+	private Map<Integer, List<Record>> _frames = new HashMap<Integer, List<Record>>();
+
+	private long _end;
+
+	// bytes of records which are no longer kept
+	private long _garbage = 0;
+
+	private boolean _dirty = false;
+
+	private boolean _compacting = false;
+
+	private FramesetLog(File dir) {
+		_dir = dir;
+		_file = new File(dir, FILENAME);
+	}
+
+	/**
+	 * @return true if the frameset directory stores its frames in a log.
+	 */
+	public static boolean exists(File framesetDir) {
+		return new File(framesetDir, FILENAME).exists();
+	}
+
+	/**
+	 * Opens the log of a frameset directory.
+	 *
+	 * @throws FileNotFoundException
+	 *             if the frameset is not stored as a log
+	 */
+	public static FramesetLog open(File framesetDir) throws IOException {
+		String key = framesetDir.getAbsolutePath();
+		synchronized (_logs) {
+			FramesetLog log = _logs.get(key);
+			if (log == null) {
+				if (!exists(framesetDir))
+					throw new FileNotFoundException("No " + FILENAME + " in "
+							+ framesetDir);
+				log = new FramesetLog(framesetDir);
+				log.load();
+				_logs.put(key, log);
+			}
+			return log;
+		}
+	}
+
+	/**
+	 * Creates an empty log in a frameset directory, or opens the existing one.
+	 */
+	public static FramesetLog create(File framesetDir) throws IOException {
+		synchronized (_logs) {
+			if (!exists(framesetDir)) {
+				RandomAccessFile raf = new RandomAccessFile(new File(
+						framesetDir, FILENAME), "rw");
+				try {
+					raf.write(MAGIC);
+					raf.write(FORMAT_VERSION);
+					raf.getFD().sync();
+				} finally {
+					raf.close();
+				}
+			}
+			return open(framesetDir);
+		}
+	}
+
+	/**
+	 * Closes the log of a frameset directory, if it is open, so that the
+	 * directory can be moved or the log removed.
+	 */
+	public static void close(File framesetDir) {
+		FramesetLog log;
+		synchronized (_logs) {
+			log = _logs.remove(framesetDir.getAbsolutePath());
+		}
+		if (log != null)
+			log.close();
+	}
+
+	/**
+	 * Makes sure everything appended to the open logs is on disk.
+	 */
+	public static void syncAll() {
+		List<FramesetLog> logs;
+		synchronized (_logs) {
+			logs = new ArrayList<FramesetLog>(_logs.values());
+		}
+		for (FramesetLog log : logs) {
+			try {
+				log.sync();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	public static boolean isLogPath(String fullPath) {
+		return fullPath != null && fullPath.endsWith(EXTENTION);
+	}
+
+	/**
+	 * @return the path which names a frame stored in the log of a frameset
+	 *         directory.
+	 */
+	public static String getPath(File framesetDir, int number) {
+		return framesetDir.getPath() + File.separator + number + EXTENTION;
+	}
+
+	private static FramesetLog forPath(String fullPath) throws IOException {
+		return open(new File(fullPath).getParentFile());
+	}
+
+	private static int getNumber(String fullPath) {
+		String name = new File(fullPath).getName();
+		return Integer.parseInt(name.substring(0, name.length()
+				- EXTENTION.length()));
+	}
+
+	/**
+	 * Reads the latest version of the frame named by a log path.
+	 */
+	public static byte[] read(String fullPath) throws IOException {
+		byte[] contents = forPath(fullPath).read(getNumber(fullPath));
+		if (contents == null)
+			throw new FileNotFoundException(fullPath);
+		return contents;
+	}
+
+	/**
+	 * @return the latest version of the frame named by a log path, or -1 if
+	 *         it is not in the log.
+	 */
+	public static int getVersion(String fullPath) {
+		try {
+			return forPath(fullPath).getVersion(getNumber(fullPath));
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Appends a version of the frame named by a log path.
+	 */
+	public static void write(String fullPath, int version, byte[] contents)
+			throws IOException {
+		forPath(fullPath).append(getNumber(fullPath), version, contents);
+	}
+
+	/**
+	 * Removes the frame named by a log path from the log.
+	 */
+	public static boolean delete(String fullPath) throws IOException {
+		return forPath(fullPath).delete(getNumber(fullPath));
+	}
+
+	/**
+	 * @return the numbers of the frames in the log.
+	 */
+	public synchronized Set<Integer> getFrameNumbers() {
+		return new HashSet<Integer>(_frames.keySet());
+	}
+
+	/**
+	 * @return the latest version of a frame, or -1 if it is not in the log.
+	 */
+	public synchronized int getVersion(int number) {
+		List<Record> versions = _frames.get(number);
+		if (versions == null)
+			return -1;
+		return versions.get(versions.size() - 1).version;
+	}
+
+	/**
+	 * @return the versions of a frame kept in the log, oldest first.
+	 */
+	public synchronized List<Integer> getVersions(int number) {
+		List<Integer> result = new LinkedList<Integer>();
+		List<Record> versions = _frames.get(number);
+		if (versions != null) {
+			for (Record r : versions)
+				result.add(r.version);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the Exb contents of the latest version of a frame, or null if
+	 *         it is not in the log.
+	 */
+	public synchronized byte[] read(int number) throws IOException {
+		List<Record> versions = _frames.get(number);
+		if (versions == null)
+			return null;
+		return readContents(versions.get(versions.size() - 1));
+	}
+
+	/**
+	 * @return the Exb contents of a kept version of a frame, or null if that
+	 *         version is not kept.
+	 */
+	public synchronized byte[] readVersion(int number, int version)
+			throws IOException {
+		List<Record> versions = _frames.get(number);
+		if (versions == null)
+			return null;
+		for (Record r : versions) {
+			if (r.version == version)
+				return readContents(r);
+		}
+		return null;
+	}
+
+	/**
+	 * Appends a version of a frame to the log.
+	 */
+	public void append(int number, int version, byte[] contents)
+			throws IOException {
+		synchronized (this) {
+			Record record = writeRecord(number, version, FRAME_RECORD,
+					contents);
+			addRecord(_frames, number, record);
+		}
+		checkCompact();
+	}
+
+	/**
+	 * Removes a frame, and all of its versions, from the log.
+	 *
+	 * @return false if the frame was not in the log
+	 */
+	public boolean delete(int number) throws IOException {
+		synchronized (this) {
+			List<Record> versions = _frames.remove(number);
+			if (versions == null)
+				return false;
+			Record record = writeRecord(number, 0, DELETE_RECORD, new byte[0]);
+			for (Record r : versions)
+				_garbage += r.getSize();
+			_garbage += record.getSize();
+		}
+		checkCompact();
+		return true;
+	}
+
+	/**
+	 * Writes out everything appended to the log.
+	 */
+	public synchronized void sync() throws IOException {
+		if (_dirty && _channel != null) {
+			_channel.force(false);
+			_dirty = false;
+		}
+	}
+
+	/**
+	 * @return the size of the log file in bytes.
+	 */
+	public synchronized long getSize() {
+		return _end;
+	}
+
+	/**
+	 * Rewrites the log with only the kept versions of each frame. Frames can
+	 * be read and saved while the log is being compacted.
+	 */
+	public void compact() throws IOException {
+		Map<Integer, List<Record>> snapshot = new HashMap<Integer, List<Record>>();
+		FileChannel oldChannel;
+		long snapshotEnd;
+		synchronized (this) {
+			if (_compacting || _channel == null)
+				return;
+			_compacting = true;
+			for (Map.Entry<Integer, List<Record>> frame : _frames.entrySet())
+				snapshot.put(frame.getKey(), new ArrayList<Record>(frame
+						.getValue()));
+			oldChannel = _channel;
+			snapshotEnd = _end;
+		}
+
+		File temp = new File(_dir, COMPACT_FILENAME);
+		RandomAccessFile out = new RandomAccessFile(temp, "rw");
+		try {
+			out.setLength(0);
+			FileChannel newChannel = out.getChannel();
+			newChannel.write(ByteBuffer.wrap(new byte[] { MAGIC[0], MAGIC[1],
+					MAGIC[2], FORMAT_VERSION }));
+			Map<Integer, List<Record>> compacted = new HashMap<Integer, List<Record>>();
+
+			// copy the kept records, in frame order so frames load together
+			for (Integer number : new TreeSet<Integer>(snapshot.keySet())) {
+				for (Record r : snapshot.get(number)) {
+					long offset = newChannel.position();
+					copy(oldChannel, r.offset, r.getSize(), newChannel);
+					addRecord(compacted, number, new Record(offset, r.length,
+							r.version));
+				}
+			}
+
+			synchronized (this) {
+				// replay anything saved or deleted during the copy
+				long position = snapshotEnd;
+				while (position < _end) {
+					ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+					readFully(oldChannel, header, position);
+					header.flip();
+					int length = header.getInt();
+					int number = header.getInt();
+					int version = header.getInt();
+					byte type = header.get();
+					long size = HEADER_SIZE + length + CHECKSUM_SIZE;
+
+					long offset = newChannel.position();
+					copy(oldChannel, position, size, newChannel);
+					if (type == FRAME_RECORD)
+						addRecord(compacted, number, new Record(offset, length,
+								version));
+					else
+						compacted.remove(number);
+					position += size;
+				}
+
+				newChannel.force(true);
+				long newEnd = newChannel.position();
+				out.close();
+				out = null;
+				move(temp, _file);
+
+				_raf.close();
+				_raf = new RandomAccessFile(_file, "rw");
+				_channel = _raf.getChannel();
+				_frames = compacted;
+				_end = newEnd;
+				_garbage = 0;
+				_dirty = false;
+			}
+		} finally {
+			if (out != null) {
+				out.close();
+				temp.delete();
+			}
+			synchronized (this) {
+				_compacting = false;
+			}
+		}
+	}
+
+	private synchronized void close() {
+		try {
+			sync();
+			if (_raf != null)
+				_raf.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		_raf = null;
+		_channel = null;
+	}
+
+	/**
+	 * Builds the index by reading every record in the log, truncating any
+	 * incomplete or corrupt records at the end.
+	 */
+	private void load() throws IOException {
+		// left behind if Expeditee stopped part way through compacting
+		new File(_dir, COMPACT_FILENAME).delete();
+
+		long fileLength = _file.length();
+		long position = MAGIC.length + 1;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(_file), 1 << 16));
+		try {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			for (int i = 0; i < MAGIC.length; i++) {
+				if (magic[i] != MAGIC[i])
+					throw new IOException("Not a frameset log: " + _file);
+			}
+			int formatVersion = in.read();
+			if (formatVersion > FORMAT_VERSION)
+				throw new IOException("Frameset log version " + formatVersion
+						+ " is not supported: " + _file);
+
+			CRC32 checksum = new CRC32();
+			byte[] header = new byte[HEADER_SIZE];
+			byte[] contents = new byte[4096];
+			while (position < fileLength) {
+				if (position + HEADER_SIZE + CHECKSUM_SIZE > fileLength)
+					break;
+				in.readFully(header);
+				ByteBuffer fields = ByteBuffer.wrap(header);
+				int length = fields.getInt();
+				int number = fields.getInt();
+				int version = fields.getInt();
+				byte type = fields.get();
+				if (length < 0
+						|| position + HEADER_SIZE + length + CHECKSUM_SIZE > fileLength)
+					break;
+				if (contents.length < length)
+					contents = new byte[Math.max(length, contents.length * 2)];
+				in.readFully(contents, 0, length);
+				checksum.reset();
+				checksum.update(header, 0, HEADER_SIZE);
+				checksum.update(contents, 0, length);
+				if ((int) checksum.getValue() != in.readInt())
+					break;
+
+				Record record = new Record(position, length, version);
+				if (type == FRAME_RECORD) {
+					addRecord(_frames, number, record);
+				} else {
+					List<Record> versions = _frames.remove(number);
+					if (versions != null) {
+						for (Record r : versions)
+							_garbage += r.getSize();
+					}
+					_garbage += record.getSize();
+				}
+				position += record.getSize();
+			}
+		} catch (EOFException e) {
+		} finally {
+			in.close();
+		}
+
+		_raf = new RandomAccessFile(_file, "rw");
+		_channel = _raf.getChannel();
+		if (position < fileLength) {
+			System.err.println("Truncating " + (fileLength - position)
+					+ " bytes of incomplete records from " + _file);
+			_channel.truncate(position);
+			_channel.force(true);
+		}
+		_end = position;
+	}
+
+	// must be called holding the lock
+	private Record writeRecord(int number, int version, byte type,
+			byte[] contents) throws IOException {
+		if (_channel == null)
+			throw new IOException("Frameset log is closed: " + _file);
+
+		ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + contents.length
+				+ CHECKSUM_SIZE);
+		record.putInt(contents.length);
+		record.putInt(number);
+		record.putInt(version);
+		record.put(type);
+		record.put(contents);
+		CRC32 checksum = new CRC32();
+		checksum.update(record.array(), 0, record.position());
+		record.putInt((int) checksum.getValue());
+		record.flip();
+
+		long offset = _end;
+		while (record.hasRemaining())
+			_end += _channel.write(record, _end);
+		_dirty = true;
+		return new Record(offset, contents.length, version);
+	}
+
+	/**
+	 * Adds a version of a frame to an index, dropping the oldest versions
+	 * beyond the number which are kept.
+	 */
+	private void addRecord(Map<Integer, List<Record>> index, int number,
+			Record record) {
+		List<Record> versions = index.get(number);
+		if (versions == null) {
+			versions = new ArrayList<Record>(2);
+			index.put(number, versions);
+		}
+		versions.add(record);
+		int kept = Math.max(1, PerformanceSettings.LogVersionsKept.get());
+		while (versions.size() > kept) {
+			Record dropped = versions.remove(0);
+			if (index == _frames)
+				_garbage += dropped.getSize();
+		}
+	}
+
+	// must be called holding the lock
+	private byte[] readContents(Record record) throws IOException {
+		if (_channel == null)
+			throw new IOException("Frameset log is closed: " + _file);
+		ByteBuffer contents = ByteBuffer.allocate(record.length);
+		readFully(_channel, contents, record.offset + HEADER_SIZE);
+		return contents.array();
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer,
+			long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0)
+				throw new EOFException();
+			position += read;
+		}
+	}
+
+	private static void copy(FileChannel from, long position, long size,
+			FileChannel to) throws IOException {
+		while (size > 0) {
+			long copied = from.transferTo(position, size, to);
+			if (copied <= 0)
+				throw new EOFException();
+			position += copied;
+			size -= copied;
+		}
+	}
+
+	private static void move(File from, File to) throws IOException {
+		try {
+			Files.move(from.toPath(), to.toPath(),
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(from.toPath(), to.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Queues the log to be compacted once most of it is no longer used.
+	 */
+	private void checkCompact() {
+		synchronized (this) {
+			if (_compacting || _garbage < MIN_COMPACT_BYTES
+					|| _garbage * 2 < _end)
+				return;
+		}
+		synchronized (_toCompact) {
+			_toCompact.add(this);
+			if (_compactor == null) {
+				_compactor = new Thread("FramesetLogCompactor") {
+					@Override
+					public void run() {
+						while (true) {
+							FramesetLog log;
+							synchronized (_toCompact) {
+								try {
+									while (_toCompact.isEmpty())
+										_toCompact.wait();
+								} catch (InterruptedException e) {
+									return;
+								}
+								log = _toCompact.iterator().next();
+								_toCompact.remove(log);
+							}
+							try {
+								log.compact();
+							} catch (IOException e) {
+								e.printStackTrace();
+							}
+						}
+					}
+				};
+				_compactor.setDaemon(true);
+				_compactor.start();
+			}
+			_toCompact.notifyAll();
+		}
+	}
+}
@@ -0,0 +1,451 @@
+package org.expeditee.io;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * A read-only file, <code>frames.pack</code>, holding every frame of a
+ * frameset. Packs are for framesets which are read far more often than they
+ * are changed, such as documentation and help. The pack is memory mapped when
+ * it is first used and frames are decoded straight from the mapped buffer, so
+ * loading a packed frame makes no system calls.
+ *
+ * A pack starts with the magic bytes <code>EXK</code>, a format version, the
+ * number of frames, the offset of the index and a CRC32 of the index. The
+ * frames follow, each in the Exb format with its own checksum, and then the
+ * index, which lists the number, version, offset and length of each frame in
+ * order of frame number.
+ *
+ * Frames in a pack are named by paths ending in {@link #EXTENTION} in the
+ * frameset directory. Packs are built by FramesetConverter, which removes the
+ * loose frame files it packs. Frames saved after that are written as loose
+ * files which take the place of the packed frame.
+ *
+ * A pack is never replaced while it may still be mapped, since Windows will
+ * not delete or rename over a mapped file and Java has no way to unmap one.
+ * Rebuilding a pack writes a new generation, <code>frames.N.pack</code>, and
+ * the frameset uses the pack with the highest generation. Older generations
+ * are removed once nothing has them mapped.
+ */
+public class FramesetPack {
+
+	/**
+	 * The name of the first generation of a pack. Later generations are named
+	 * <code>frames.N.pack</code>.
+	 */
+	public static final String FILENAME = "frames.pack";
+
+	private static final String PREFIX = "frames.";
+
+	private static final String SUFFIX = ".pack";
+
+	/**
+	 * The extension of the paths given to frames stored in a pack. There are
+	 * no files with these names.
+	 */
+	public static final String EXTENTION = ".exk";
+
+	private static final byte[] MAGIC = { 'E', 'X', 'K' };
+
+	private static final int FORMAT_VERSION = 1;
+
+	private static final int HEADER_SIZE = 16;
+
+	// number, version, offset and length
+	private static final int INDEX_ENTRY_SIZE = 16;
+
+	// open packs by the absolute path of their frameset directory
+	private static final Map<String, FramesetPack> _packs = new HashMap<String, FramesetPack>();
+
+	private final File _file;
+
+	private final ByteBuffer _buffer;
+
+	// the index, sorted by frame number
+	private final int[] _numbers;
+
+	private final int[] _versions;
+
+	private final int[] _offsets;
+
+	private final int[] _lengths;
+
+	/**
+	 * Maps a pack file and reads its index.
+	 *
+	 * @throws IOException
+	 *             if the file is not a pack or its index is corrupt
+	 */
+	FramesetPack(File file) throws IOException {
+		this(file, true);
+	}
+
+	/**
+	 * Reads the index of a pack file, either mapping the file or reading it
+	 * all into memory. A pack which is read rather than mapped can be renamed
+	 * or deleted as soon as it has been read.
+	 *
+	 * @throws IOException
+	 *             if the file is not a pack or its index is corrupt
+	 */
+	FramesetPack(File file, boolean map) throws IOException {
+		_file = file;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			long size = raf.length();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("Frameset pack is too large: " + file);
+			if (size < HEADER_SIZE)
+				throw new IOException("Frameset pack is truncated: " + file);
+			if (map) {
+				_buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+						0, size);
+			} else {
+				byte[] contents = new byte[(int) size];
+				raf.readFully(contents);
+				_buffer = ByteBuffer.wrap(contents);
+			}
+		} finally {
+			// the mapping remains valid once the file is closed
+			raf.close();
+		}
+
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (_buffer.get(i) != MAGIC[i])
+				throw new IOException("Not a frameset pack: " + file);
+		}
+		if (_buffer.get(MAGIC.length) > FORMAT_VERSION)
+			throw new IOException("Frameset pack version "
+					+ _buffer.get(MAGIC.length) + " is not supported: " + file);
+		int count = _buffer.getInt(4);
+		int indexOffset = _buffer.getInt(8);
+		if (count < 0 || indexOffset < HEADER_SIZE
+				|| (long) indexOffset + (long) count * INDEX_ENTRY_SIZE != _buffer
+						.capacity())
+			throw new IOException("Frameset pack is truncated: " + file);
+
+		ByteBuffer index = _buffer.duplicate();
+		index.position(indexOffset);
+		CRC32 checksum = new CRC32();
+		checksum.update(index);
+		if ((int) checksum.getValue() != _buffer.getInt(12))
+			throw new IOException("Frameset pack is corrupt: " + file);
+
+		_numbers = new int[count];
+		_versions = new int[count];
+		_offsets = new int[count];
+		_lengths = new int[count];
+		for (int i = 0; i < count; i++) {
+			int entry = indexOffset + i * INDEX_ENTRY_SIZE;
+			_numbers[i] = _buffer.getInt(entry);
+			_versions[i] = _buffer.getInt(entry + 4);
+			_offsets[i] = _buffer.getInt(entry + 8);
+			_lengths[i] = _buffer.getInt(entry + 12);
+			if (_offsets[i] < HEADER_SIZE || _lengths[i] < 0
+					|| (long) _offsets[i] + _lengths[i] > indexOffset
+					|| (i > 0 && _numbers[i] <= _numbers[i - 1]))
+				throw new IOException("Frameset pack is corrupt: " + file);
+		}
+	}
+
+	/**
+	 * @return true if the frameset directory has a pack.
+	 */
+	public static boolean exists(File framesetDir) {
+		return getFile(framesetDir) != null;
+	}
+
+	/**
+	 * @return true if a file name is that of a generation of a pack.
+	 */
+	public static boolean isPackFile(String name) {
+		return getGeneration(name) >= 0;
+	}
+
+	/**
+	 * @return the generation of a pack file name, or -1 if it is not the name
+	 *         of a pack.
+	 */
+	private static int getGeneration(String name) {
+		if (name.equals(FILENAME))
+			return 0;
+		if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX))
+			return -1;
+		String generation = name.substring(PREFIX.length(), name.length()
+				- SUFFIX.length());
+		if (generation.length() == 0 || generation.length() > 9
+				|| generation.charAt(0) == '0')
+			return -1;
+		for (int i = 0; i < generation.length(); i++) {
+			if (!Character.isDigit(generation.charAt(i)))
+				return -1;
+		}
+		return Integer.parseInt(generation);
+	}
+
+	/**
+	 * @return the latest generation of the pack of a frameset directory, or
+	 *         null if it does not have a pack.
+	 */
+	static File getFile(File framesetDir) {
+		String[] names = framesetDir.list();
+		if (names == null)
+			return null;
+		String latest = null;
+		int latestGeneration = -1;
+		for (String name : names) {
+			int generation = getGeneration(name);
+			if (generation > latestGeneration) {
+				latest = name;
+				latestGeneration = generation;
+			}
+		}
+		return latest == null ? null : new File(framesetDir, latest);
+	}
+
+	/**
+	 * @return every generation of the pack of a frameset directory.
+	 */
+	static List<File> getFiles(File framesetDir) {
+		List<File> files = new ArrayList<File>();
+		String[] names = framesetDir.list();
+		if (names != null) {
+			for (String name : names) {
+				if (isPackFile(name))
+					files.add(new File(framesetDir, name));
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * @return the file for the generation after the latest pack of a
+	 *         frameset directory, which does not exist yet.
+	 */
+	static File getNextFile(File framesetDir) {
+		File latest = getFile(framesetDir);
+		if (latest == null)
+			return new File(framesetDir, FILENAME);
+		return new File(framesetDir, PREFIX
+				+ (getGeneration(latest.getName()) + 1) + SUFFIX);
+	}
+
+	/**
+	 * Opens the pack of a frameset directory.
+	 *
+	 * @throws FileNotFoundException
+	 *             if the frameset does not have a pack
+	 */
+	public static FramesetPack open(File framesetDir) throws IOException {
+		String key = framesetDir.getAbsolutePath();
+		synchronized (_packs) {
+			FramesetPack pack = _packs.get(key);
+			if (pack == null) {
+				File file = getFile(framesetDir);
+				if (file == null)
+					throw new FileNotFoundException("No " + FILENAME + " in "
+							+ framesetDir);
+				pack = new FramesetPack(file);
+				_packs.put(key, pack);
+			}
+			return pack;
+		}
+	}
+
+	/**
+	 * Forgets the pack of a frameset directory, so that the latest generation
+	 * is mapped when next used. The old mapping lasts until it is garbage
+	 * collected.
+	 */
+	public static void close(File framesetDir) {
+		synchronized (_packs) {
+			_packs.remove(framesetDir.getAbsolutePath());
+		}
+	}
+
+	public static boolean isPackPath(String fullPath) {
+		return fullPath != null && fullPath.endsWith(EXTENTION);
+	}
+
+	/**
+	 * @return the path which names a frame stored in the pack of a frameset
+	 *         directory.
+	 */
+	public static String getPath(File framesetDir, int number) {
+		return framesetDir.getPath() + File.separator + number + EXTENTION;
+	}
+
+	private static FramesetPack forPath(String fullPath) throws IOException {
+		return open(new File(fullPath).getParentFile());
+	}
+
+	private static int getNumber(String fullPath) {
+		String name = new File(fullPath).getName();
+		return Integer.parseInt(name.substring(0, name.length()
+				- EXTENTION.length()));
+	}
+
+	/**
+	 * Gets the frame named by a pack path.
+	 *
+	 * @return the Exb contents of the frame, as a buffer which shares the
+	 *         mapped pack
+	 */
+	public static ByteBuffer read(String fullPath) throws IOException {
+		ByteBuffer contents = forPath(fullPath).read(getNumber(fullPath));
+		if (contents == null)
+			throw new FileNotFoundException(fullPath);
+		return contents;
+	}
+
+	/**
+	 * @return the version of the frame named by a pack path, or -1 if it is
+	 *         not in the pack.
+	 */
+	public static int getVersion(String fullPath) {
+		try {
+			return forPath(fullPath).getVersion(getNumber(fullPath));
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return the numbers of the frames in the pack.
+	 */
+	public Set<Integer> getFrameNumbers() {
+		Set<Integer> numbers = new HashSet<Integer>();
+		for (int number : _numbers)
+			numbers.add(number);
+		return numbers;
+	}
+
+	/**
+	 * @return the version of a frame, or -1 if it is not in the pack.
+	 */
+	public int getVersion(int number) {
+		int i = find(number);
+		return i < 0 ? -1 : _versions[i];
+	}
+
+	/**
+	 * @return the Exb contents of a frame, or null if it is not in the pack.
+	 */
+	public ByteBuffer read(int number) {
+		int i = find(number);
+		if (i < 0)
+			return null;
+		ByteBuffer contents = _buffer.duplicate();
+		contents.limit(_offsets[i] + _lengths[i]);
+		contents.position(_offsets[i]);
+		return contents.slice();
+	}
+
+	private int find(int number) {
+		int low = 0;
+		int high = _numbers.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (_numbers[mid] < number)
+				low = mid + 1;
+			else if (_numbers[mid] > number)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	@Override
+	public String toString() {
+		return _file.getPath();
+	}
+
+	/**
+	 * Writes a pack file, one frame at a time.
+	 */
+	static class Builder {
+		private final RandomAccessFile _out;
+
+		// frame numbers mapped to their version, offset and length
+		private final TreeMap<Integer, int[]> _index = new TreeMap<Integer, int[]>();
+
+		Builder(File file) throws IOException {
+			_out = new RandomAccessFile(file, "rw");
+			_out.setLength(0);
+			_out.write(new byte[HEADER_SIZE]);
+		}
+
+		/**
+		 * Adds a frame to the pack.
+		 *
+		 * @param contents
+		 *            the Exb encoding of the frame
+		 */
+		void add(int number, int version, byte[] contents) throws IOException {
+			if (_index.containsKey(number))
+				throw new IllegalArgumentException("Frame " + number
+						+ " is already in the pack");
+			long offset = _out.getFilePointer();
+			if (offset + contents.length > Integer.MAX_VALUE)
+				throw new IOException("Frameset pack is too large");
+			_out.write(contents);
+			_index.put(number, new int[] { version, (int) offset,
+					contents.length });
+		}
+
+		/**
+		 * Writes the index and header and closes the file.
+		 */
+		void finish() throws IOException {
+			try {
+				int indexOffset = (int) _out.getFilePointer();
+				ByteBuffer index = ByteBuffer.allocate(_index.size()
+						* INDEX_ENTRY_SIZE);
+				for (Map.Entry<Integer, int[]> entry : _index.entrySet()) {
+					index.putInt(entry.getKey());
+					index.putInt(entry.getValue()[0]);
+					index.putInt(entry.getValue()[1]);
+					index.putInt(entry.getValue()[2]);
+				}
+				_out.write(index.array());
+				CRC32 checksum = new CRC32();
+				checksum.update(index.array());
+
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.put(MAGIC);
+				header.put((byte) FORMAT_VERSION);
+				header.putInt(_index.size());
+				header.putInt(indexOffset);
+				header.putInt((int) checksum.getValue());
+				_out.seek(0);
+				_out.write(header.array());
+				_out.getFD().sync();
+			} finally {
+				_out.close();
+			}
+		}
+
+		/**
+		 * Closes the file without finishing it.
+		 */
+		void abort() {
+			try {
+				_out.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+}
@@ -0,0 +1,845 @@
+package org.expeditee.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * A full-text index of the frames in a frameset, stored in the frameset
+ * directory as <code>frames.index</code>, so that searching a frameset does not
+ * open every frame file.
+ *
+ * The file holds the lines of each frame which the search agents read: the
+ * text lines (<code>T</code>), the link lines (<code>F</code>) and the blank
+ * lines between items. Like a frameset log it is append only, with one record
+ * per saved or deleted frame, and it is rewritten once most of it is
+ * superseded records. An inverted index from each word to the frames using it
+ * is built in memory when the file is opened.
+ *
+ * Searches find the same text lines as scanning the frame files does. The
+ * words of the pattern narrow the search to the frames which may contain it,
+ * with the partial words at either end of the pattern matched as a prefix or
+ * suffix, and then the text of those frames is checked for the whole pattern.
+ * So phrases and word prefixes need no special syntax.
+ *
+ * Indexes are kept current by the save queue as frames are written and by
+ * FrameIO as frames are deleted. Frames edited outside Expeditee are not seen
+ * until the frameset is indexed again.
+ */
+public class FramesetSearchIndex {
+
+	public static final String FILENAME = "frames.index";
+
+	// the index being written by compaction, hidden from frameset listings
+	private static final String COMPACT_FILENAME = "." + FILENAME + ".compact";
+
+	private static final byte[] MAGIC = { 'E', 'X', 'I' };
+
+	private static final int FORMAT_VERSION = 1;
+
+	// length, number and type
+	private static final int HEADER_SIZE = 9;
+
+	private static final int CHECKSUM_SIZE = 4;
+
+	private static final byte FRAME_RECORD = 1;
+
+	private static final byte DELETE_RECORD = 2;
+
+	/**
+	 * Indexes are not compacted until they have at least this many bytes
+	 * which are no longer used.
+	 */
+	private static final long MIN_COMPACT_BYTES = 256 * 1024;
+
+	private static class Record {
+		private final long offset;
+
+		private final int length;
+
+		Record(long offset, int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+
+		long getSize() {
+			return HEADER_SIZE + length + CHECKSUM_SIZE;
+		}
+	}
+
+	/**
+	 * The sorted numbers of the frames using a word. Arrays are used rather
+	 * than sets because a large frameset has millions of entries.
+	 */
+	private static class Postings {
+		private int[] numbers = new int[2];
+
+		private int size = 0;
+
+		void add(int number) {
+			int i = Arrays.binarySearch(numbers, 0, size, number);
+			if (i >= 0)
+				return;
+			i = -i - 1;
+			if (size == numbers.length)
+				numbers = Arrays.copyOf(numbers, size * 2);
+			System.arraycopy(numbers, i, numbers, i + 1, size - i);
+			numbers[i] = number;
+			size++;
+		}
+
+		void remove(int number) {
+			int i = Arrays.binarySearch(numbers, 0, size, number);
+			if (i < 0)
+				return;
+			System.arraycopy(numbers, i + 1, numbers, i, size - i - 1);
+			size--;
+		}
+	}
+
+	/**
+	 * Is told about changes to the indexed frames, for keeping information
+	 * derived from the index, such as the links between frames, up to date.
+	 * Listeners are called without the index locked.
+	 */
+	public interface Listener {
+		/**
+		 * Called when a frame is added to the index, its lines change or it
+		 * is removed.
+		 *
+		 * @param lines
+		 *            the indexed lines of the frame, or null if it was removed
+		 */
+		void frameChanged(File framesetDir, int number, String lines);
+
+		/**
+		 * Called when an index is closed or replaced, after which any
+		 * information taken from it should be read again.
+		 */
+		void indexClosed(File framesetDir);
+	}
+
+	// open indexes by the absolute path of their frameset directory
+	private static final Map<String, FramesetSearchIndex> _indexes = new HashMap<String, FramesetSearchIndex>();
+
+	private static final List<Listener> _listeners = new ArrayList<Listener>();
+
+	private final File _dir;
+
+	private final File _file;
+
+	private RandomAccessFile _raf;
+
+	private FileChannel _channel;
+
+	private Map<Integer, Record> _frames = new HashMap<Integer, Record>();
+
+	private final TreeMap<String, Postings> _words = new TreeMap<String, Postings>();
+
+	private long _end;
+
+	// bytes of records which have been superseded
+	private long _garbage = 0;
+
+	private boolean _dirty = false;
+
+	private FramesetSearchIndex(File dir) {
+		_dir = dir;
+		_file = new File(dir, FILENAME);
+	}
+
+	/**
+	 * @return true if the frameset directory has a search index.
+	 */
+	public static boolean exists(File framesetDir) {
+		return new File(framesetDir, FILENAME).exists();
+	}
+
+	/**
+	 * Opens the search index of a frameset directory.
+	 *
+	 * @throws FileNotFoundException
+	 *             if the frameset has no index
+	 */
+	public static FramesetSearchIndex open(File framesetDir)
+			throws IOException {
+		String key = framesetDir.getAbsolutePath();
+		synchronized (_indexes) {
+			FramesetSearchIndex index = _indexes.get(key);
+			if (index == null) {
+				if (!exists(framesetDir))
+					throw new FileNotFoundException("No " + FILENAME + " in "
+							+ framesetDir);
+				index = new FramesetSearchIndex(framesetDir);
+				index.load();
+				_indexes.put(key, index);
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * Creates an empty index in a frameset directory, replacing any existing
+	 * one.
+	 */
+	public static FramesetSearchIndex create(File framesetDir)
+			throws IOException {
+		FramesetSearchIndex index;
+		try {
+			synchronized (_indexes) {
+				FramesetSearchIndex old = _indexes.remove(framesetDir
+						.getAbsolutePath());
+				if (old != null)
+					old.close();
+				RandomAccessFile raf = new RandomAccessFile(new File(
+						framesetDir, FILENAME), "rw");
+				try {
+					raf.setLength(0);
+					raf.write(MAGIC);
+					raf.write(FORMAT_VERSION);
+				} finally {
+					raf.close();
+				}
+				index = open(framesetDir);
+			}
+		} finally {
+			fireIndexClosed(framesetDir);
+		}
+		return index;
+	}
+
+	/**
+	 * Closes the index of a frameset directory, if it is open, so that the
+	 * directory can be moved.
+	 */
+	public static void close(File framesetDir) {
+		FramesetSearchIndex index;
+		synchronized (_indexes) {
+			index = _indexes.remove(framesetDir.getAbsolutePath());
+		}
+		if (index != null) {
+			index.close();
+			fireIndexClosed(framesetDir);
+		}
+	}
+
+	public static void addListener(Listener listener) {
+		synchronized (_listeners) {
+			_listeners.add(listener);
+		}
+	}
+
+	public static void removeListener(Listener listener) {
+		synchronized (_listeners) {
+			_listeners.remove(listener);
+		}
+	}
+
+	private static List<Listener> getListeners() {
+		synchronized (_listeners) {
+			return new ArrayList<Listener>(_listeners);
+		}
+	}
+
+	private static void fireIndexClosed(File framesetDir) {
+		for (Listener listener : getListeners())
+			listener.indexClosed(framesetDir);
+	}
+
+	private void fireFrameChanged(int number, String lines) {
+		for (Listener listener : getListeners())
+			listener.frameChanged(_dir, number, lines);
+	}
+
+	/**
+	 * Makes sure everything added to the open indexes is on disk.
+	 */
+	public static void syncAll() {
+		List<FramesetSearchIndex> indexes;
+		synchronized (_indexes) {
+			indexes = new ArrayList<FramesetSearchIndex>(_indexes.values());
+		}
+		for (FramesetSearchIndex index : indexes) {
+			try {
+				index.sync();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Gets the index of the frameset containing a frame file, if the
+	 * frameset has one.
+	 *
+	 * @return the index, or null if the frameset is not indexed
+	 */
+	private static FramesetSearchIndex forPath(String fullPath)
+			throws IOException {
+		File dir = new File(fullPath).getParentFile();
+		if (dir == null)
+			return null;
+		synchronized (_indexes) {
+			FramesetSearchIndex index = _indexes.get(dir.getAbsolutePath());
+			if (index != null)
+				return index;
+		}
+		return exists(dir) ? open(dir) : null;
+	}
+
+	/**
+	 * Gets the frame number from the path of an Exp, Exb, log, pack or KMS
+	 * frame file.
+	 *
+	 * @return the number, or -1 if the path is not that of a frame
+	 */
+	public static int getNumber(String fullPath) {
+		String name = new File(fullPath).getName();
+		int dot = name.lastIndexOf('.');
+		String number = name.substring(0, dot < 0 ? name.length() : dot);
+		// old KMS frames are named frameset.number
+		if (!isNumber(number) && dot >= 0)
+			number = name.substring(dot + 1);
+		return isNumber(number) ? Integer.parseInt(number) : -1;
+	}
+
+	private static boolean isNumber(String s) {
+		if (s.length() == 0 || s.length() > 9)
+			return false;
+		for (int i = 0; i < s.length(); i++) {
+			if (!Character.isDigit(s.charAt(i)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Indexes a frame file which has just been written, if its frameset is
+	 * indexed.
+	 *
+	 * @param contents
+	 *            the Exp or Exb contents of the file
+	 */
+	public static void update(String fullPath, byte[] contents)
+			throws IOException {
+		FramesetSearchIndex index = forPath(fullPath);
+		int number = getNumber(fullPath);
+		if (index == null || number < 0)
+			return;
+
+		String text;
+		if (fullPath.endsWith(ExpReader.EXTENTION)) {
+			text = new String(contents, "UTF-8");
+		} else {
+			String frameName = new File(fullPath).getParentFile().getName()
+					+ number;
+			text = ExbReader.getExpText(contents, frameName);
+		}
+		index.put(number, text);
+	}
+
+	/**
+	 * Indexes a frame file which has just been written, if its frameset is
+	 * indexed.
+	 *
+	 * @param text
+	 *            the contents of the file in the Exp or KMS format
+	 */
+	public static void update(String fullPath, String text) throws IOException {
+		FramesetSearchIndex index = forPath(fullPath);
+		int number = getNumber(fullPath);
+		if (index != null && number >= 0)
+			index.put(number, text);
+	}
+
+	/**
+	 * Removes a deleted frame file from the index of its frameset.
+	 */
+	public static void remove(String fullPath) throws IOException {
+		FramesetSearchIndex index = forPath(fullPath);
+		int number = getNumber(fullPath);
+		if (index != null && number >= 0)
+			index.remove(number);
+	}
+
+	/**
+	 * @return the numbers of the frames in the index, in order.
+	 */
+	public synchronized SortedSet<Integer> getFrameNumbers() {
+		return new TreeSet<Integer>(_frames.keySet());
+	}
+
+	/**
+	 * Gets the indexed lines of a frame: its text and link lines, and the
+	 * blank lines which separate its items.
+	 *
+	 * @return the lines, or null if the frame is not in the index
+	 */
+	public synchronized String getText(int number) throws IOException {
+		Record record = _frames.get(number);
+		if (record == null)
+			return null;
+		return readText(record);
+	}
+
+	/**
+	 * Adds or replaces the indexed text of a frame.
+	 *
+	 * @param text
+	 *            the contents of the frame in the Exp or KMS format
+	 */
+	public void put(int number, String text) throws IOException {
+		String lines = filter(text);
+		synchronized (this) {
+			Record old = _frames.get(number);
+			if (old != null) {
+				String oldLines = readText(old);
+				if (oldLines.equals(lines))
+					return;
+				removeWords(number, oldLines);
+				_garbage += old.getSize();
+			}
+			_frames.put(number, writeRecord(number, FRAME_RECORD, lines));
+			addWords(number, lines);
+		}
+		fireFrameChanged(number, lines);
+		checkCompact();
+	}
+
+	/**
+	 * Removes a frame from the index.
+	 *
+	 * @return false if the frame was not in the index
+	 */
+	public boolean remove(int number) throws IOException {
+		synchronized (this) {
+			Record old = _frames.remove(number);
+			if (old == null)
+				return false;
+			removeWords(number, readText(old));
+			Record record = writeRecord(number, DELETE_RECORD, "");
+			_garbage += old.getSize() + record.getSize();
+		}
+		fireFrameChanged(number, null);
+		checkCompact();
+		return true;
+	}
+
+	/**
+	 * Finds the text lines which contain a pattern, as FrameIO.searchFrame
+	 * does for a single frame file. Lines are matched once converted to lower
+	 * case, so the pattern should be lower case.
+	 *
+	 * @return the matching lines of each frame with at least one match, in
+	 *         order of frame number
+	 */
+	public synchronized SortedMap<Integer, List<String>> search(String pattern)
+			throws IOException {
+		SortedMap<Integer, List<String>> results = new TreeMap<Integer, List<String>>();
+		for (int number : getCandidates(pattern)) {
+			List<String> found = new LinkedList<String>();
+			BufferedReader reader = new BufferedReader(new StringReader(
+					readText(_frames.get(number))));
+			String next;
+			while ((next = reader.readLine()) != null) {
+				if (next.startsWith("T")) {
+					String toSearch = next.length() < 2 ? "" : next
+							.substring(2);
+					if (toSearch.toLowerCase().contains(pattern))
+						found.add(toSearch);
+				}
+			}
+			if (found.size() > 0)
+				results.put(number, found);
+		}
+		return results;
+	}
+
+	/**
+	 * Gets the frames which may contain a pattern, using the words in the
+	 * pattern. A word in the middle of the pattern must be a whole word in the
+	 * frame, while those at the ends may be part of a longer word.
+	 */
+	private SortedSet<Integer> getCandidates(String pattern) {
+		SortedSet<Integer> candidates = null;
+		int i = 0;
+		while (i < pattern.length()) {
+			if (!Character.isLetterOrDigit(pattern.charAt(i))) {
+				i++;
+				continue;
+			}
+			int start = i;
+			while (i < pattern.length()
+					&& Character.isLetterOrDigit(pattern.charAt(i)))
+				i++;
+			String word = pattern.substring(start, i);
+			boolean wholeStart = start > 0;
+			boolean wholeEnd = i < pattern.length();
+
+			SortedSet<Integer> frames = new TreeSet<Integer>();
+			if (wholeStart && wholeEnd) {
+				addPostings(frames, _words.get(word));
+			} else if (wholeStart) {
+				for (Postings p : _words.subMap(word, word + Character.MAX_VALUE)
+						.values())
+					addPostings(frames, p);
+			} else {
+				for (Map.Entry<String, Postings> entry : _words.entrySet()) {
+					String indexed = entry.getKey();
+					if (wholeEnd ? indexed.endsWith(word) : indexed
+							.contains(word))
+						addPostings(frames, entry.getValue());
+				}
+			}
+
+			if (candidates == null)
+				candidates = frames;
+			else
+				candidates.retainAll(frames);
+			if (candidates.isEmpty())
+				return candidates;
+		}
+		// a pattern without words could be in any frame
+		if (candidates == null)
+			candidates = new TreeSet<Integer>(_frames.keySet());
+		return candidates;
+	}
+
+	/**
+	 * Gets the links in the indexed lines of a frame, as they were written:
+	 * relative links are just the number of a frame in the same frameset.
+	 */
+	public static List<String> getLinks(String lines) {
+		List<String> links = new ArrayList<String>();
+		int lineStart = 0;
+		while (lineStart < lines.length()) {
+			int lineEnd = lines.indexOf('\n', lineStart);
+			if (lineEnd < 0)
+				lineEnd = lines.length();
+			if (lines.charAt(lineStart) == 'F' && lineEnd - lineStart > 2)
+				links.add(lines.substring(lineStart + 2, lineEnd).trim());
+			lineStart = lineEnd + 1;
+		}
+		return links;
+	}
+
+	private static void addPostings(SortedSet<Integer> frames, Postings p) {
+		if (p == null)
+			return;
+		for (int i = 0; i < p.size; i++)
+			frames.add(p.numbers[i]);
+	}
+
+	/**
+	 * Keeps the lines of a frame file which the search agents read: text and
+	 * link lines and the blank lines between items. The frame header, which
+	 * ends at the first terminator line, is left out since its <code>F</code>
+	 * line is the frozen date rather than a link.
+	 */
+	static String filter(String text) {
+		StringBuffer lines = new StringBuffer();
+		BufferedReader reader = new BufferedReader(new StringReader(text));
+		try {
+			String next;
+			if (text.startsWith("Z\n") || text.contains("\nZ\n")
+					|| text.contains("\nZ\r\n")) {
+				while ((next = reader.readLine()) != null && !next.equals("Z"))
+					;
+			}
+			while ((next = reader.readLine()) != null) {
+				if (next.length() == 0 || next.startsWith("T")
+						|| next.startsWith("F"))
+					lines.append(next).append('\n');
+			}
+		} catch (IOException e) {
+			// strings can always be read
+		}
+		return lines.toString();
+	}
+
+	private void addWords(int number, String lines) {
+		for (String word : getWords(lines)) {
+			Postings p = _words.get(word);
+			if (p == null) {
+				p = new Postings();
+				_words.put(word, p);
+			}
+			p.add(number);
+		}
+	}
+
+	private void removeWords(int number, String lines) {
+		for (String word : getWords(lines)) {
+			Postings p = _words.get(word);
+			if (p == null)
+				continue;
+			p.remove(number);
+			if (p.size == 0)
+				_words.remove(word);
+		}
+	}
+
+	/**
+	 * @return the distinct lower case words in the text lines.
+	 */
+	private static TreeSet<String> getWords(String lines) {
+		TreeSet<String> words = new TreeSet<String>();
+		int lineStart = 0;
+		while (lineStart < lines.length()) {
+			int lineEnd = lines.indexOf('\n', lineStart);
+			if (lineEnd < 0)
+				lineEnd = lines.length();
+			if (lines.charAt(lineStart) == 'T' && lineEnd - lineStart > 2) {
+				String text = lines.substring(lineStart + 2, lineEnd)
+						.toLowerCase();
+				int i = 0;
+				while (i < text.length()) {
+					if (!Character.isLetterOrDigit(text.charAt(i))) {
+						i++;
+						continue;
+					}
+					int start = i;
+					while (i < text.length()
+							&& Character.isLetterOrDigit(text.charAt(i)))
+						i++;
+					words.add(text.substring(start, i));
+				}
+			}
+			lineStart = lineEnd + 1;
+		}
+		return words;
+	}
+
+	private synchronized void sync() throws IOException {
+		if (_dirty && _channel != null) {
+			_channel.force(false);
+			_dirty = false;
+		}
+	}
+
+	private synchronized void close() {
+		try {
+			sync();
+			if (_raf != null)
+				_raf.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		_raf = null;
+		_channel = null;
+	}
+
+	/**
+	 * Reads every record in the index and builds the inverted index,
+	 * truncating any incomplete or corrupt records at the end.
+	 */
+	private void load() throws IOException {
+		// left behind if Expeditee stopped part way through compacting
+		new File(_dir, COMPACT_FILENAME).delete();
+
+		long fileLength = _file.length();
+		long position = MAGIC.length + 1;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(_file), 1 << 16));
+		try {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			for (int i = 0; i < MAGIC.length; i++) {
+				if (magic[i] != MAGIC[i])
+					throw new IOException("Not a frameset search index: "
+							+ _file);
+			}
+			int formatVersion = in.read();
+			if (formatVersion > FORMAT_VERSION)
+				throw new IOException("Frameset search index version "
+						+ formatVersion + " is not supported: " + _file);
+
+			// the latest text of each frame, indexed once all are read
+			Map<Integer, String> latest = new HashMap<Integer, String>();
+			CRC32 checksum = new CRC32();
+			byte[] header = new byte[HEADER_SIZE];
+			byte[] contents = new byte[4096];
+			while (position + HEADER_SIZE + CHECKSUM_SIZE <= fileLength) {
+				in.readFully(header);
+				ByteBuffer fields = ByteBuffer.wrap(header);
+				int length = fields.getInt();
+				int number = fields.getInt();
+				byte type = fields.get();
+				if (length < 0
+						|| position + HEADER_SIZE + length + CHECKSUM_SIZE > fileLength)
+					break;
+				if (contents.length < length)
+					contents = new byte[Math.max(length, contents.length * 2)];
+				in.readFully(contents, 0, length);
+				checksum.reset();
+				checksum.update(header, 0, HEADER_SIZE);
+				checksum.update(contents, 0, length);
+				if ((int) checksum.getValue() != in.readInt())
+					break;
+
+				Record record = new Record(position, length);
+				Record old = type == FRAME_RECORD ? _frames.put(number,
+						record) : _frames.remove(number);
+				if (old != null)
+					_garbage += old.getSize();
+				if (type == FRAME_RECORD) {
+					latest.put(number, new String(contents, 0, length, "UTF-8"));
+				} else {
+					latest.remove(number);
+					_garbage += record.getSize();
+				}
+				position += record.getSize();
+			}
+			for (Map.Entry<Integer, String> frame : latest.entrySet())
+				addWords(frame.getKey(), frame.getValue());
+		} catch (EOFException e) {
+		} finally {
+			in.close();
+		}
+
+		_raf = new RandomAccessFile(_file, "rw");
+		_channel = _raf.getChannel();
+		if (position < fileLength) {
+			System.err.println("Truncating " + (fileLength - position)
+					+ " bytes of incomplete records from " + _file);
+			_channel.truncate(position);
+		}
+		_end = position;
+	}
+
+	// must be called holding the lock
+	private Record writeRecord(int number, byte type, String lines)
+			throws IOException {
+		if (_channel == null)
+			throw new IOException("Frameset search index is closed: "
+					+ _file);
+
+		byte[] contents = lines.getBytes("UTF-8");
+		ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + contents.length
+				+ CHECKSUM_SIZE);
+		record.putInt(contents.length);
+		record.putInt(number);
+		record.put(type);
+		record.put(contents);
+		CRC32 checksum = new CRC32();
+		checksum.update(record.array(), 0, record.position());
+		record.putInt((int) checksum.getValue());
+		record.flip();
+
+		long offset = _end;
+		while (record.hasRemaining())
+			_end += _channel.write(record, _end);
+		_dirty = true;
+		return new Record(offset, contents.length);
+	}
+
+	// must be called holding the lock
+	private String readText(Record record) throws IOException {
+		if (_channel == null)
+			throw new IOException("Frameset search index is closed: "
+					+ _file);
+		ByteBuffer contents = ByteBuffer.allocate(record.length);
+		long position = record.offset + HEADER_SIZE;
+		while (contents.hasRemaining()) {
+			int read = _channel.read(contents, position);
+			if (read < 0)
+				throw new EOFException();
+			position += read;
+		}
+		return new String(contents.array(), "UTF-8");
+	}
+
+	/**
+	 * Rewrites the index once most of it is superseded records. Indexes hold
+	 * only text, so this is done straight away rather than in the background.
+	 */
+	private synchronized void checkCompact() throws IOException {
+		if (_garbage < MIN_COMPACT_BYTES || _garbage < _end - _garbage
+				|| _channel == null)
+			return;
+
+		File temp = new File(_dir, COMPACT_FILENAME);
+		RandomAccessFile out = new RandomAccessFile(temp, "rw");
+		try {
+			out.setLength(0);
+			FileChannel newChannel = out.getChannel();
+			newChannel.write(ByteBuffer.wrap(new byte[] { MAGIC[0], MAGIC[1],
+					MAGIC[2], FORMAT_VERSION }));
+			Map<Integer, Record> compacted = new HashMap<Integer, Record>();
+			for (Integer number : new TreeSet<Integer>(_frames.keySet())) {
+				Record r = _frames.get(number);
+				long offset = newChannel.position();
+				long position = r.offset;
+				long size = r.getSize();
+				while (size > 0) {
+					long copied = _channel.transferTo(position, size,
+							newChannel);
+					if (copied <= 0)
+						throw new EOFException();
+					position += copied;
+					size -= copied;
+				}
+				compacted.put(number, new Record(offset, r.length));
+			}
+			newChannel.force(true);
+			long newEnd = newChannel.position();
+			out.close();
+			out = null;
+			try {
+				Files.move(temp.toPath(), _file.toPath(),
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), _file.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+
+			_raf.close();
+			_raf = new RandomAccessFile(_file, "rw");
+			_channel = _raf.getChannel();
+			_frames = compacted;
+			_end = newEnd;
+			_garbage = 0;
+			_dirty = false;
+		} finally {
+			if (out != null) {
+				out.close();
+				temp.delete();
+			}
+		}
+	}
+
+	/**
+	 * @return the size of the index file in bytes.
+	 */
+	public synchronized long getSize() {
+		return _end;
+	}
+
+	@Override
+	public String toString() {
+		return _file.getPath();
+	}
+}
@@ -23,10 +23,10 @@ public class TXTWriter extends DefaultTreeWriter {
 
 	@Override
 	protected void writeStartFrame(Frame toParse) throws IOException {
-		if (ItemUtils.ContainsTag(toParse.getItems(), "@join"))
+		if (ItemUtils.ContainsTag(toParse.getItemsView(), "@join"))
 			_join = !_join;
 
-		if (ItemUtils.ContainsTag(toParse.getItems(), "@indent"))
+		if (ItemUtils.ContainsTag(toParse.getItemsView(), "@indent"))
 			_indent++;
 
 		super.writeStartFrame(toParse);
@@ -54,11 +54,11 @@ public class TXTWriter extends DefaultTreeWriter {
 
 	@Override
 	protected void writeEndFrame(Frame toParse) throws IOException {
-		if (ItemUtils.ContainsTag(toParse.getItems(), "@indent"))
+		if (ItemUtils.ContainsTag(toParse.getItemsView(), "@indent"))
 			if (_indent > 0)
 				_indent--;
 
-		if (ItemUtils.ContainsTag(toParse.getItems(), "@join"))
+		if (ItemUtils.ContainsTag(toParse.getItemsView(), "@join"))
 			_join = !_join;
 
 		_writer.write(ItemWriter.NEW_LINE);
@@ -66,7 +66,7 @@ public class TXTWriter extends DefaultTreeWriter {
 
 	@Override
 	protected void resumeFrame(Frame resuming) {
-		_join = ItemUtils.ContainsTag(resuming.getItems(), "@join");
+		_join = ItemUtils.ContainsTag(resuming.getItemsView(), "@join");
 	}
 
 	@Override
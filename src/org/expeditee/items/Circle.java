@@ -255,6 +255,7 @@ public class Circle extends XRayable {
 		}
 
 		_poly = new Polygon(xPoints, yPoints, xPoints.length);
+		boundsChanged();
 		_poly.translate(_center.getX(), _center.getY());
 		return;
 	}
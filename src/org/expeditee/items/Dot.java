@@ -268,6 +268,7 @@ public class Dot extends Item {
 		int y = getY() - thick / 2;
 
 		_poly = new Polygon();
+		boundsChanged();
 		_poly.addPoint(x - getGravity(), y - getGravity());
 		_poly.addPoint(x + thick + getGravity(), y - getGravity());
 		_poly.addPoint(x + thick + getGravity(), y + thick + getGravity());
@@ -399,7 +400,7 @@ public class Dot extends Item {
 
 		// TODO is the code below needed... what for?
 		for (Line line : getLines()) {
-			if (line.getID() < 0 && !current.getItems().contains(line)) {
+			if (line.getID() < 0 && !current.getItemsView().contains(line)) {
 				line.setID(current.getNextItemID());
 				line.setHighlightColor();
 				// Mike: Why was this line here?
@@ -0,0 +1,652 @@
+package org.expeditee.items;
+
+import java.awt.Dimension;
+import java.awt.EventQueue;
+import java.awt.Image;
+import java.awt.Toolkit;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.ImageIcon;
+
+import org.expeditee.settings.performance.PerformanceSettings;
+import org.expeditee.stats.Logger;
+
+/**
+ * The images read by pictures, shared by every picture showing the same file,
+ * and the scaled, cropped and flipped copies pictures are painted from.
+ * Images are evicted in least recently used order once the estimated heap
+ * budget in {@link PerformanceSettings} is exceeded, and read again the next
+ * time a picture needs them.
+ *
+ * Pictures do not hold on to the images they get from the cache, so the
+ * images of pictures on frames which are cached but not shown can be evicted.
+ *
+ * Pictures only read the size of their images when they are created, and
+ * their images are read at a fraction of their resolution when they are
+ * shown much smaller than their size. These images are read by background
+ * threads, the pictures drawing a placeholder until they have been read.
+ */
+public class ImageCache {
+
+	/**
+	 * A scaled, cropped and flipped copy of an image.
+	 */
+	static final class Variant {
+		private final String path;
+
+		private final int startX, startY, endX, endY;
+
+		private final int width, height;
+
+		private final float scale;
+
+		private final boolean flipX, flipY;
+
+		Variant(String path, int startX, int startY, int endX, int endY,
+				int width, int height, float scale, boolean flipX,
+				boolean flipY) {
+			this.path = path;
+			this.startX = startX;
+			this.startY = startY;
+			this.endX = endX;
+			this.endY = endY;
+			this.width = width;
+			this.height = height;
+			this.scale = scale;
+			this.flipX = flipX;
+			this.flipY = flipY;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Variant))
+				return false;
+			Variant v = (Variant) o;
+			return path.equals(v.path) && startX == v.startX
+					&& startY == v.startY && endX == v.endX && endY == v.endY
+					&& width == v.width && height == v.height
+					&& scale == v.scale && flipX == v.flipX && flipY == v.flipY;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = path.hashCode();
+			hash = hash * 31 + startX;
+			hash = hash * 31 + startY;
+			hash = hash * 31 + endX;
+			hash = hash * 31 + endY;
+			hash = hash * 31 + width;
+			hash = hash * 31 + height;
+			hash = hash * 31 + Float.floatToIntBits(scale);
+			return hash * 4 + (flipX ? 2 : 0) + (flipY ? 1 : 0);
+		}
+	}
+
+	/**
+	 * An image read at a fraction of its resolution.
+	 */
+	private static final class Sample {
+		private final String path;
+
+		private final int subsampling;
+
+		Sample(String path, int subsampling) {
+			this.path = path;
+			this.subsampling = subsampling;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Sample))
+				return false;
+			Sample s = (Sample) o;
+			return path.equals(s.path) && subsampling == s.subsampling;
+		}
+
+		@Override
+		public int hashCode() {
+			return path.hashCode() * 31 + subsampling;
+		}
+	}
+
+	private static final class Size {
+		private final int width, height;
+
+		private final long modified;
+
+		private final long length;
+
+		Size(Dimension size, long modified, long length) {
+			this.width = size.width;
+			this.height = size.height;
+			this.modified = modified;
+			this.length = length;
+		}
+	}
+
+	private static final class Entry {
+		private final Image image;
+
+		private final long bytes;
+
+		// when the file was modified and its length when it was read
+		private final long modified;
+
+		private final long length;
+
+		Entry(Image image, long modified, long length) {
+			this.image = image;
+			this.bytes = estimateSize(image);
+			this.modified = modified;
+			this.length = length;
+		}
+	}
+
+	private static final Object _lock = new Object();
+
+	// images by path and copies by variant, least recently used first
+	private static final Map<Object, Entry> _entries = new LinkedHashMap<Object, Entry>(
+			64, 0.75F, true);
+
+	// the sizes of image files, which are kept when their images are evicted
+	private static final Map<String, Size> _sizes = new LinkedHashMap<String, Size>(
+			64, 0.75F, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Size> eldest) {
+			return size() > MAX_SIZES;
+		}
+	};
+
+	private static final int MAX_SIZES = 4096;
+
+	// the images waiting to be read in the background, most recent first, and
+	// what to do when each has been read
+	private static final LinkedList<Sample> _queue = new LinkedList<Sample>();
+
+	private static final Map<Sample, List<Runnable>> _pending = new HashMap<Sample, List<Runnable>>();
+
+	private static int _decoders = 0;
+
+	// the number of images being read by the background threads
+	private static int _decoding = 0;
+
+	private static long _totalBytes = 0;
+
+	private static long _hits = 0;
+
+	private static long _misses = 0;
+
+	private static long _reads = 0;
+
+	private static long _evictions = 0;
+
+	// All methods are static, this should not be instantiated
+	private ImageCache() {
+	}
+
+	/**
+	 * Gets the image in a file, reading it if it is not cached.
+	 *
+	 * @param path
+	 *            the path of the image file.
+	 * @param checkFile
+	 *            true if the image should be read again if the file has
+	 *            changed since it was cached.
+	 * @return the image or null if the file could not be read.
+	 */
+	public static Image getImage(String path, boolean checkFile) {
+		File file = new File(path);
+		long modified = checkFile ? file.lastModified() : 0;
+		long length = checkFile ? file.length() : 0;
+		synchronized (_lock) {
+			Entry entry = _entries.get(path);
+			if (entry != null
+					&& (!checkFile || (entry.modified == modified && entry.length == length))) {
+				_hits++;
+				return entry.image;
+			}
+			_misses++;
+			// the copies of an image which has changed are dropped with it
+			if (entry != null)
+				remove(path);
+		}
+
+		if (!checkFile) {
+			modified = file.lastModified();
+			length = file.length();
+		}
+		Image image = read(file);
+		if (image == null)
+			return null;
+		put(path, new Entry(image, modified, length));
+		return image;
+	}
+
+	/**
+	 * Gets the size of the image in a file, reading only as much of the file
+	 * as is needed to find it where possible.
+	 *
+	 * @param path
+	 *            the path of the image file.
+	 * @param checkFile
+	 *            true if the size and images of the file should be read again
+	 *            if the file has changed since they were cached.
+	 * @return the size or null if the file could not be read.
+	 */
+	public static Dimension getImageSize(String path, boolean checkFile) {
+		File file = new File(path);
+		long modified = file.lastModified();
+		long length = file.length();
+		synchronized (_lock) {
+			Size size = _sizes.get(path);
+			if (size != null
+					&& (!checkFile || (size.modified == modified && size.length == length)))
+				return new Dimension(size.width, size.height);
+			// the images of a file which has changed are dropped with its size
+			_sizes.remove(path);
+			if (checkFile)
+				removeChanged(path, modified, length);
+		}
+
+		Dimension size = readSize(file);
+		if (size == null) {
+			// the file is in a format only the toolkit can read
+			Image image = getImage(path, checkFile);
+			if (image == null)
+				return null;
+			size = new Dimension(image.getWidth(null), image.getHeight(null));
+		}
+		synchronized (_lock) {
+			_sizes.put(path, new Size(size, modified, length));
+		}
+		return size;
+	}
+
+	/**
+	 * Gets an image read at a fraction of its resolution, or at a higher
+	 * resolution if that is cached. If it is not cached and images are read
+	 * in the background it is queued to be read.
+	 *
+	 * @param path
+	 *            the path of the image file.
+	 * @param subsampling
+	 *            the number of pixels of the file in each direction which are
+	 *            read as one.
+	 * @param whenRead
+	 *            run on the event thread once the image has been read in the
+	 *            background.
+	 * @return the image, or null if it is being read in the background or
+	 *         could not be read.
+	 */
+	public static Image getImage(String path, int subsampling,
+			Runnable whenRead) {
+		synchronized (_lock) {
+			for (int n = subsampling; n >= 1; n /= 2) {
+				Entry entry = _entries.get(n > 1 ? new Sample(path, n) : path);
+				if (entry != null) {
+					_hits++;
+					return entry.image;
+				}
+			}
+			_misses++;
+			if (PerformanceSettings.ImageDecodeThreads.get() > 0) {
+				Sample request = new Sample(path, subsampling);
+				List<Runnable> waiting = _pending.get(request);
+				if (waiting == null) {
+					waiting = new ArrayList<Runnable>();
+					_pending.put(request, waiting);
+					_queue.addFirst(request);
+					startDecoders();
+					_lock.notify();
+				}
+				if (!waiting.contains(whenRead))
+					waiting.add(whenRead);
+				return null;
+			}
+		}
+		return decode(path, subsampling);
+	}
+
+	/**
+	 * Waits until the images queued to be read in the background have been
+	 * read.
+	 */
+	static void waitUntilRead() throws InterruptedException {
+		synchronized (_lock) {
+			while (!_queue.isEmpty() || _decoding > 0)
+				_lock.wait();
+		}
+	}
+
+	/**
+	 * @return the cached copy of an image, or null if it is not cached.
+	 */
+	static BufferedImage getVariant(Variant variant) {
+		synchronized (_lock) {
+			Entry entry = _entries.get(variant);
+			if (entry == null) {
+				_misses++;
+				return null;
+			}
+			_hits++;
+			return (BufferedImage) entry.image;
+		}
+	}
+
+	static void putVariant(Variant variant, BufferedImage image) {
+		put(variant, new Entry(image, 0, 0));
+	}
+
+	/**
+	 * Drops every cached image and image size.
+	 */
+	public static void clear() {
+		synchronized (_lock) {
+			_entries.clear();
+			_sizes.clear();
+			_totalBytes = 0;
+		}
+	}
+
+	/**
+	 * @return the estimated number of bytes of heap held by cached images.
+	 */
+	public static long getEstimatedSize() {
+		synchronized (_lock) {
+			return _totalBytes;
+		}
+	}
+
+	/**
+	 * @return the number of images which have been read, at full or lower
+	 *         resolution.
+	 */
+	public static long getReads() {
+		synchronized (_lock) {
+			return _reads;
+		}
+	}
+
+	public static void resetStats() {
+		synchronized (_lock) {
+			_hits = 0;
+			_misses = 0;
+			_reads = 0;
+			_evictions = 0;
+		}
+	}
+
+	/**
+	 * @return a one line summary of the cache size and counters.
+	 */
+	public static String getStats() {
+		synchronized (_lock) {
+			long lookups = _hits + _misses;
+			StringBuffer stats = new StringBuffer("ImageCache: ");
+			stats.append(_entries.size()).append(" images, ");
+			stats.append(_totalBytes / 1024).append("KB, ");
+			stats.append("hits ").append(_hits).append(", ");
+			stats.append("misses ").append(_misses).append(", ");
+			stats.append("reads ").append(_reads).append(", ");
+			stats.append("evictions ").append(_evictions);
+			if (lookups > 0)
+				stats.append(", hit rate ").append(_hits * 100 / lookups)
+						.append('%');
+			return stats.toString();
+		}
+	}
+
+	/**
+	 * Drops an image and its copies from the cache.
+	 */
+	private static void remove(String path) {
+		Iterator<Map.Entry<Object, Entry>> entries = _entries.entrySet()
+				.iterator();
+		while (entries.hasNext()) {
+			Map.Entry<Object, Entry> entry = entries.next();
+			Object key = entry.getKey();
+			if (key.equals(path)
+					|| (key instanceof Variant && ((Variant) key).path
+							.equals(path))
+					|| (key instanceof Sample && ((Sample) key).path
+							.equals(path))) {
+				_totalBytes -= entry.getValue().bytes;
+				entries.remove();
+			}
+		}
+	}
+
+	/**
+	 * Drops an image and its copies if they were read before the file
+	 * changed.
+	 */
+	private static void removeChanged(String path, long modified, long length) {
+		for (Map.Entry<Object, Entry> entry : _entries.entrySet()) {
+			Object key = entry.getKey();
+			if ((key.equals(path) || (key instanceof Sample && ((Sample) key).path
+					.equals(path)))
+					&& (entry.getValue().modified != modified || entry
+							.getValue().length != length)) {
+				remove(path);
+				return;
+			}
+		}
+	}
+
+	private static void put(Object key, Entry entry) {
+		synchronized (_lock) {
+			Entry old = _entries.put(key, entry);
+			if (old != null)
+				_totalBytes -= old.bytes;
+			_totalBytes += entry.bytes;
+			trim();
+		}
+	}
+
+	/**
+	 * Evicts least recently used images until the cache is within its budget.
+	 * The image just added is kept even if it is larger than the budget.
+	 */
+	private static void trim() {
+		long maxBytes = PerformanceSettings.ImageCacheMemory.get() * 1024L * 1024L;
+		if (maxBytes <= 0)
+			return;
+		Iterator<Entry> entries = _entries.values().iterator();
+		while (_totalBytes > maxBytes && _entries.size() > 1) {
+			_totalBytes -= entries.next().bytes;
+			entries.remove();
+			_evictions++;
+		}
+	}
+
+	// must be called holding _lock
+	private static void startDecoders() {
+		int threads = PerformanceSettings.ImageDecodeThreads.get();
+		for (; _decoders < threads; _decoders++) {
+			Thread decoder = new Thread("ImageDecoder") {
+				@Override
+				public void run() {
+					while (true) {
+						try {
+							decodeNext();
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+			};
+			decoder.setDaemon(true);
+			// reading images must not slow down the swing thread
+			decoder.setPriority(Thread.MIN_PRIORITY);
+			decoder.start();
+		}
+	}
+
+	private static void decodeNext() throws InterruptedException {
+		Sample request;
+		synchronized (_lock) {
+			while (_queue.isEmpty())
+				_lock.wait();
+			request = _queue.removeFirst();
+			_decoding++;
+		}
+
+		Image image = null;
+		try {
+			image = decode(request.path, request.subsampling);
+		} catch (Throwable e) {
+			e.printStackTrace();
+		} finally {
+			List<Runnable> waiting;
+			synchronized (_lock) {
+				_decoding--;
+				waiting = _pending.remove(request);
+				_lock.notifyAll();
+			}
+			// pictures of images which cannot be read are not painted again
+			if (image != null && waiting != null) {
+				for (Runnable whenRead : waiting)
+					EventQueue.invokeLater(whenRead);
+			}
+		}
+	}
+
+	/**
+	 * Reads an image at a fraction of its resolution and caches it.
+	 */
+	private static Image decode(String path, int subsampling) {
+		File file = new File(path);
+		long modified = file.lastModified();
+		long length = file.length();
+		Object key = new Sample(path, subsampling);
+		Image image = subsampling > 1 ? readSampled(file, subsampling) : null;
+		if (image == null) {
+			key = path;
+			image = read(file);
+			if (image == null)
+				return null;
+		}
+		put(key, new Entry(image, modified, length));
+		return image;
+	}
+
+	/**
+	 * Reads the size of an image from its file without reading the image.
+	 *
+	 * @return the size, or null if the file is not in a format ImageIO can
+	 *         read.
+	 */
+	private static Dimension readSize(File file) {
+		ImageReader reader = null;
+		ImageInputStream in = null;
+		try {
+			in = ImageIO.createImageInputStream(file);
+			reader = getReader(in);
+			if (reader == null)
+				return null;
+			return new Dimension(reader.getWidth(0), reader.getHeight(0));
+		} catch (IOException e) {
+			return null;
+		} finally {
+			close(reader, in);
+		}
+	}
+
+	/**
+	 * Reads every nth pixel in each direction of an image, so large images
+	 * shown small are never held at full size.
+	 *
+	 * @return the image, or null if the file is not in a format ImageIO can
+	 *         read.
+	 */
+	private static BufferedImage readSampled(File file, int subsampling) {
+		ImageReader reader = null;
+		ImageInputStream in = null;
+		try {
+			in = ImageIO.createImageInputStream(file);
+			reader = getReader(in);
+			if (reader == null)
+				return null;
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+			BufferedImage image = reader.read(0, param);
+			synchronized (_lock) {
+				_reads++;
+			}
+			return image;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			close(reader, in);
+		}
+	}
+
+	private static ImageReader getReader(ImageInputStream in) {
+		if (in == null)
+			return null;
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+		if (!readers.hasNext())
+			return null;
+		ImageReader reader = readers.next();
+		reader.setInput(in, true, true);
+		return reader;
+	}
+
+	private static void close(ImageReader reader, ImageInputStream in) {
+		if (reader != null)
+			reader.dispose();
+		try {
+			if (in != null)
+				in.close();
+		} catch (IOException e) {
+		}
+	}
+
+	private static Image read(File file) {
+		synchronized (_lock) {
+			_reads++;
+		}
+		Image image = null;
+		// ImageIcon is faster, but cannot handle some formats
+		// (notably.bmp) hence, we try this first, then if it fails we try
+		// ImageIO. The image is created rather than got from the toolkit so
+		// the toolkit does not keep its own copy.
+		try {
+			image = new ImageIcon(Toolkit.getDefaultToolkit().createImage(
+					file.getPath())).getImage();
+		} catch (Exception e) {
+		}
+
+		// if ImageIcon failed to read the image
+		if (image == null || image.getWidth(null) <= 0) {
+			try {
+				image = ImageIO.read(file);
+			} catch (IOException e) {
+				// e.printStackTrace();
+				Logger.Log(e);
+				return null;
+			}
+		}
+		return image;
+	}
+
+	private static long estimateSize(Image image) {
+		return 4L * Math.max(0, image.getWidth(null))
+				* Math.max(0, image.getHeight(null));
+	}
+}
@@ -424,6 +424,7 @@ public abstract class Item implements Comparable<Item>, Runnable {
 		_actions.add(action);
 		if (_actions.size() == 1) {
 			_poly = null;
+			boundsChanged();
 			invalidateCommonTrait(ItemAppearence.LinkChanged);
 		}
 	}
@@ -504,6 +505,7 @@ public abstract class Item implements Comparable<Item>, Runnable {
 
 	public void delete() {
 		_deleted = true;
+		visibilityChanged();
 	}
 
 	@Override
@@ -1446,6 +1448,7 @@ public abstract class Item implements Comparable<Item>, Runnable {
 		// Want to resize the highlight box for text items if actions have been
 		// added
 		_poly = null;
+		boundsChanged();
 		invalidateCommonTrait(ItemAppearence.LinkChanged);
 	}
 
@@ -1493,6 +1496,7 @@ public abstract class Item implements Comparable<Item>, Runnable {
 		if (!val)
 			invalidateCommonTrait(ItemAppearence.LinkChanged);
 		_poly = null;
+		boundsChanged();
 		_actionMark = val;
 		if (val)
 			invalidateCommonTrait(ItemAppearence.LinkChanged);
@@ -1667,7 +1671,18 @@ public abstract class Item implements Comparable<Item>, Runnable {
 	 *            The new ID to assign this Item.
 	 */
 	public void setID(int newID) {
+		int oldID = getID();
 		_id = newID;
+		idChanged(oldID);
+	}
+
+	/**
+	 * Tells the frame this item is on that the item's ID has changed, so the
+	 * frame can find the item by its new ID.
+	 */
+	protected final void idChanged(int oldID) {
+		if (_parent != null && oldID != getID())
+			_parent.itemIDChanged(this, oldID);
 	}
 
 	/**
@@ -1708,8 +1723,10 @@ public abstract class Item implements Comparable<Item>, Runnable {
 
 		// If a link is being removed or set then need to reset poly so the
 		// highlighting is drawn with the correct width
-		if (frameName == null || getLink() == null)
+		if (frameName == null || getLink() == null) {
 			_poly = null;
+			boundsChanged();
+		}
 
 		if (FrameIO.isValidLink(frameName))
 			_link = frameName;
@@ -1742,6 +1759,7 @@ public abstract class Item implements Comparable<Item>, Runnable {
 		if (!val)
 			invalidateCommonTrait(ItemAppearence.LinkChanged);
 		_poly = null;
+		boundsChanged();
 		_linkMark = val;
 		if (val)
 			invalidateCommonTrait(ItemAppearence.LinkChanged);
@@ -1772,10 +1790,12 @@ public abstract class Item implements Comparable<Item>, Runnable {
 
 	public void setOffset(int x, int y) {
 		_offset.setLocation(x, y);
+		boundsChanged();
 	}
 
 	public void setOffset(Point p) {
 		_offset.setLocation(p);
+		boundsChanged();
 	}
 
 	public void setOwner(String own) {
@@ -2157,11 +2177,14 @@ public abstract class Item implements Comparable<Item>, Runnable {
 	public abstract void updatePolygon();
 
 	public void setHidden(boolean state) {
-		this._visible = !state;
+		setVisible(!state);
 	}
 
 	public void setVisible(boolean state) {
+		if (_visible == state)
+			return;
 		this._visible = state;
+		visibilityChanged();
 	}
 
 	public boolean isVisible() {
@@ -2269,6 +2292,7 @@ public abstract class Item implements Comparable<Item>, Runnable {
 		}
 
 		_enclosure = enclosed;
+		boundsChanged();
 
 		if (changed) {
 			invalidateFill();
@@ -2390,6 +2414,7 @@ public abstract class Item implements Comparable<Item>, Runnable {
 		}
 		if (_actions == null || _actions.size() == 0) {
 			_poly = null;
+			boundsChanged();
 			_actions = new LinkedList<String>();
 		} else {
 			_actions.clear();
@@ -2797,6 +2822,26 @@ public abstract class Item implements Comparable<Item>, Runnable {
 	 */
 	protected final void invalidate(Rectangle damagedArea) {
 		FrameGraphics.invalidateItem(this, damagedArea);
+		// whatever needs redrawing may have been moved or reshaped
+		boundsChanged();
+	}
+
+	/**
+	 * Tells the frame this item is on that the item may have moved or changed
+	 * shape, so the frame can find the item by where it is.
+	 */
+	protected final void boundsChanged() {
+		if (_parent != null)
+			_parent.itemBoundsChanged(this);
+	}
+
+	/**
+	 * Tells the frame this item is on that the item has been shown, hidden or
+	 * deleted.
+	 */
+	private void visibilityChanged() {
+		if (_parent != null)
+			_parent.itemVisibilityChanged(this);
 	}
 
 	/**
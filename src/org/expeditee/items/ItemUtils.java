@@ -706,11 +706,11 @@ public class ItemUtils {
 	}
 
 	public static void New() {
-		EnclosedCheck(DisplayIO.getCurrentFrame().getItems());
+		EnclosedCheck(DisplayIO.getCurrentFrame().getItemsView());
 	}
 
 	public static void Old() {
-		OldEnclosedCheck(DisplayIO.getCurrentFrame().getItems());
+		OldEnclosedCheck(DisplayIO.getCurrentFrame().getItemsView());
 	}
 
 	/**
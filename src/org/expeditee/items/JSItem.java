@@ -100,6 +100,7 @@ public class JSItem extends XRayable implements JSThreadable {
 	@Override
 	public void updatePolygon() {
 		_poly = new Polygon();
+		boundsChanged();
 		_poly.addPoint(getX(), getY());
 		_poly.addPoint(getX() + _width, getY());
 		_poly.addPoint(getX() + _width, getY() + _height);
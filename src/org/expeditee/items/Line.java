@@ -1084,6 +1084,7 @@ public class Line extends Item {
 	@Override
 	public void updatePolygon() {
 		_poly = new Polygon();
+		boundsChanged();
 
 		Rectangle one;
 		Rectangle two;
@@ -3,6 +3,7 @@ package org.expeditee.items;
 import java.awt.AlphaComposite;
 import java.awt.BasicStroke;
 import java.awt.Color;
+import java.awt.Dimension;
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Point;
@@ -21,19 +22,15 @@ import java.io.File;
 import java.io.IOException;
 import java.text.DecimalFormat;
 
-import javax.imageio.ImageIO;
-import javax.swing.ImageIcon;
-
 import org.expeditee.gui.FrameGraphics;
 import org.expeditee.gui.FrameIO;
 import org.expeditee.gui.FrameMouseActions;
 import org.expeditee.gui.FrameUtils;
-import org.expeditee.stats.Logger;
 
 /**
  * This class represents an Image loaded from a file which is shown on the
- * screen. Loading of the Image from disk occurs in the constructor, and takes
- * approximately one second per mb of the Image file size. <br>
+ * screen. Only the size of the Image is read from disk in the constructor, the
+ * Image itself is read by the {@link ImageCache} when it is first drawn. <br>
  * <br>
  * Currently Supported (Tested) Image formats:<br>
  * BMP<br>
@@ -55,8 +52,28 @@ public class Picture extends XRayable {
 
 	public static final int RATIO = 1;
 
+	// the image of a picture which is not read from a file, pictures of files
+	// get their images from the ImageCache each time they are needed
 	protected Image _image = null;
 
+	// true if the image is read from the file at _path
+	private boolean _imageCached = false;
+
+	// the size of the image in the file at _path
+	private int _imageWidth = 0;
+
+	private int _imageHeight = 0;
+
+	// drawn until the image has been read in the background
+	private static final Color PLACEHOLDER_COLOR = Color.LIGHT_GRAY;
+
+	private final Runnable _whenRead = new Runnable() {
+		public void run() {
+			invalidateAll();
+			FrameGraphics.requestRefresh(true);
+		}
+	};
+
 	private int _scaleType = RATIO;
 
 	private float _scale = 1.0f;
@@ -139,10 +156,10 @@ public class Picture extends XRayable {
 
 		// set the default values for start and end
 		_start.setLocation(0, 0);
-		if (_image == null)
+		if (!hasImage())
 			_end.setLocation(0, 0);
 		else
-			_end.setLocation(_image.getWidth(null), _image.getHeight(null));
+			_end.setLocation(getImageWidth(), getImageHeight());
 		size = size.trim();
 		String sizeLower = size.toLowerCase();
 		String[] values = size.split("\\s+");
@@ -184,7 +201,7 @@ public class Picture extends XRayable {
 
 		try {
 			if (size.length() == 0) {
-				size = "" + _image.getWidth(null);
+				size = "" + getImageWidth();
 				_source.setText(getTagText() + size);
 				return;
 			}
@@ -266,7 +283,7 @@ public class Picture extends XRayable {
 	}
 
 	public void updatePolygon() {
-		if (_image == null) {
+		if (!hasImage()) {
 			refresh();
 			parseSize();
 		}
@@ -320,6 +337,7 @@ public class Picture extends XRayable {
 		AffineTransform.getRotateInstance(Math.PI * _rotate / 180, centre.x, centre.y).transform(ori, 0, rot, 0, 4);
 		
 		_poly = new Polygon();
+		boundsChanged();
 		for(Point2D p : rot) {
 			_poly.addPoint((int)p.getX(), (int)p.getY());
 		}
@@ -370,16 +388,87 @@ public class Picture extends XRayable {
 	}
 	
 	public void paintImageTiling(Graphics2D g) {
-		if (_image == null) {
-			return;
+		int dX1 = _source.getX();
+		int dY1 = _source.getY();
+
+		// the copy is looked up first so the image is not read again for a
+		// picture whose copy is still cached. Animated gifs are drawn from
+		// the image each time so they move
+		ImageCache.Variant variant = null;
+		BufferedImage tmp = null;
+		if (_imageCached && !_path.toLowerCase().endsWith(".gif")) {
+			variant = new ImageCache.Variant(_path, _start.x, _start.y,
+					_end.x, _end.y, getWidth(), getHeight(), _scale, _flipX,
+					_flipY);
+			tmp = ImageCache.getVariant(variant);
 		}
-		
-		int iw = _image.getWidth(null);
-		int ih = _image.getHeight(null);
-		if(iw <= 0 || ih <= 0) {
-			return;
+		if (tmp == null) {
+			Image image;
+			if (variant != null) {
+				image = ImageCache.getImage(_path, getSubsampling(), _whenRead);
+				if (image == null) {
+					paintPlaceholder(g);
+					return;
+				}
+			} else {
+				image = getImage();
+				if (image == null) {
+					return;
+				}
+			}
+
+			if(image.getWidth(null) <= 0 || image.getHeight(null) <= 0) {
+				return;
+			}
+
+			tmp = paintVariant(image, getImageWidth(), getImageHeight());
+			if (variant != null)
+				ImageCache.putVariant(variant, tmp);
 		}
 		
+		AffineTransform at = new AffineTransform();
+		at.translate(dX1, dY1);
+		at.rotate(Math.PI * _rotate / 180, tmp.getWidth() / 2, tmp.getHeight() / 2);
+		g.drawImage(tmp, at, _imageObserver);
+		// g.drawImage(tmp, dX1, dY1, dX2, dY2, 0, 0, tmp.getWidth(), tmp.getHeight(), _imageObserver);
+	}
+
+	/**
+	 * Fills the area the image will be drawn in.
+	 */
+	private void paintPlaceholder(Graphics2D g) {
+		Graphics2D g2d = (Graphics2D) g.create();
+		g2d.translate(_source.getX(), _source.getY());
+		g2d.rotate(Math.PI * _rotate / 180, getWidth() / 2, getHeight() / 2);
+		g2d.setColor(PLACEHOLDER_COLOR);
+		g2d.fillRect(0, 0, getWidth(), getHeight());
+		g2d.dispose();
+	}
+
+	/**
+	 * @return the number of pixels of the image in each direction shown as
+	 *         one pixel of the picture, rounded down to a power of two. The
+	 *         image is read at this fraction of its resolution.
+	 */
+	private int getSubsampling() {
+		int subsampling = 1;
+		while (subsampling * 2 * _scale <= 1)
+			subsampling *= 2;
+		return subsampling;
+	}
+
+	/**
+	 * Draws the image scaled, cropped, tiled and flipped, but not rotated, as
+	 * it is shown by this picture.
+	 * 
+	 * @param image
+	 *            the image, which may have been read at a lower resolution.
+	 * @param iw
+	 *            the width of the image at full resolution.
+	 * @param ih
+	 *            the height of the image at full resolution.
+	 */
+	private BufferedImage paintVariant(Image image, int iw, int ih) {
 		int dX1 = _source.getX();
 		int dY1 = _source.getY();
 		int dX2 = _source.getX() + getWidth();
@@ -389,6 +478,9 @@ public class Picture extends XRayable {
 		Graphics2D g2d = tmp.createGraphics();
 		int offX = (tmp.getWidth() - getWidth()) / 2;
 		int offY = (tmp.getHeight() - getHeight()) / 2;
+		// crops are in pixels of the image at full resolution
+		float sampleX = image.getWidth(null) / (float) iw;
+		float sampleY = image.getHeight(null) / (float) ih;
 		
 		// g2d.rotate(rotate, tmp.getWidth() / 2, tmp.getHeight() / 2);
 		
@@ -424,7 +516,8 @@ public class Picture extends XRayable {
 				int ex = _flipX ? cropStartX : cropEndX;
 				int sy = _flipY ? cropEndY : cropStartY;
 				int ey = _flipY ? cropStartY : cropEndY;
-				g2d.drawImage(_image, x - dX1 + offX, y - dY1 + offY, endX - dX1 + offX, endY - dY1 + offY, sx, sy, ex, ey, null);
+				g2d.drawImage(image, x - dX1 + offX, y - dY1 + offY, endX - dX1 + offX, endY - dY1 + offY,
+						Math.round(sx * sampleX), Math.round(sy * sampleY), Math.round(ex * sampleX), Math.round(ey * sampleY), null);
 				
 				cropStartY = 0;
 				cropEndY = ih;
@@ -437,17 +530,13 @@ public class Picture extends XRayable {
 			
 			x = endX;
 		}
-		
-		AffineTransform at = new AffineTransform();
-		at.translate(dX1, dY1);
-		at.rotate(Math.PI * _rotate / 180, tmp.getWidth() / 2, tmp.getHeight() / 2);
-		g.drawImage(tmp, at, _imageObserver);
-		// g.drawImage(tmp, dX1, dY1, dX2, dY2, 0, 0, tmp.getWidth(), tmp.getHeight(), _imageObserver);
+		g2d.dispose();
+		return tmp;
 	}
 
 	@Override
 	public void paint(Graphics2D g) {
-		if (_image == null)
+		if (!_imageCached && _image == null)
 			return;
 
 		paintLink(g);
@@ -535,8 +624,8 @@ public class Picture extends XRayable {
 			int startY = Math.round(topLeft.y / _scale) + _start.y;
 			int endX = Math.round(bottomRight.x / _scale + _start.x);
 			int endY = Math.round(bottomRight.y / _scale + _start.y);
-			int width = _image.getWidth(null);
-			int height = _image.getHeight(null);
+			int width = getImageWidth();
+			int height = getImageHeight();
 			// adjust our start and end if the user has dragged outside of the
 			// shape
 			if (endX > width) {
@@ -580,8 +669,8 @@ public class Picture extends XRayable {
 	
 	public void scaleCrop() {
 		// scale crop values to within image bounds
-		int iw = _image.getWidth(null);
-		int ih = _image.getHeight(null);
+		int iw = getImageWidth();
+		int ih = getImageHeight();
 		if(iw > 0 || ih > 0) {
 			while(_start.x >= iw) {
     			_start.x -= iw;
@@ -645,18 +734,24 @@ public class Picture extends XRayable {
 	 * @return The Image that this Picture object represents.
 	 */
 	public Image getImage() {
+		if (_imageCached) {
+			Image image = ImageCache.getImage(_path, false);
+			if (image != null)
+				return image;
+		}
 		return _image;
 	}
 
 	public Image getCroppedImage() {
-		if (_image == null)
+		Image image = getImage();
+		if (image == null)
 			return null;
 		if (!isCropped()) {
-			return _image;
+			return image;
 		}
 		
 		return Toolkit.getDefaultToolkit().createImage(
-				new FilteredImageSource(_image.getSource(),
+				new FilteredImageSource(image.getSource(),
 						new CropImageFilter(_start.x, _start.y,
 								getUnscaledWidth(), getUnscaledHeight())));
 	}
@@ -673,31 +768,43 @@ public class Picture extends XRayable {
 	 * @return true if this is a cropped image.
 	 */
 	public boolean isCropped() {
-		return (_end.x != 0 && _end.x != _image.getWidth(null)) || (_end.y != 0 && _end.y != _image.getHeight(null)) || _start.y != 0 || _start.x != 0;
+		return (_end.x != 0 && _end.x != getImageWidth()) || (_end.y != 0 && _end.y != getImageHeight()) || _start.y != 0 || _start.x != 0;
+	}
+
+	private boolean hasImage() {
+		return _imageCached || _image != null;
+	}
+
+	/**
+	 * @return the width of the image at full resolution.
+	 */
+	private int getImageWidth() {
+		if (_imageCached)
+			return _imageWidth;
+		return _image.getWidth(null);
+	}
+
+	/**
+	 * @return the height of the image at full resolution.
+	 */
+	private int getImageHeight() {
+		if (_imageCached)
+			return _imageHeight;
+		return _image.getHeight(null);
 	}
 
 	@Override
 	public boolean refresh() {
-		// ImageIcon is faster, but cannot handle some formats
-		// (notably.bmp) hence, we try this first, then if it fails we try
-		// ImageIO
-		try {
-			_image = new ImageIcon(_path).getImage();
-		} catch (Exception e) {
-		}
-
-		// if ImageIcon failed to read the image
-		if (_image == null || _image.getWidth(null) <= 0) {
-			try {
-				_image = ImageIO.read(new File(_path));
-			} catch (IOException e) {
-				// e.printStackTrace();
-				Logger.Log(e);
-				_image = null;
-				return false;
-			}
+		// only the size of the image is read, the image is read when it is
+		// drawn and is shared with other pictures of the same file
+		_image = null;
+		Dimension size = ImageCache.getImageSize(_path, true);
+		_imageCached = size != null;
+		if (_imageCached) {
+			_imageWidth = size.width;
+			_imageHeight = size.height;
 		}
-		return true;
+		return _imageCached;
 	}
 
 	@Override
@@ -794,8 +901,8 @@ public class Picture extends XRayable {
 
 		// If the image is cropped add the position for the start and finish of
 		// the crop to the soure text
-		if (_start.x > 0 || _start.y > 0 || _end.x != _image.getWidth(null)
-				|| _end.y != _image.getHeight(null)) {
+		if (_start.x > 0 || _start.y > 0 || _end.x != getImageWidth()
+				|| _end.y != getImageHeight()) {
 			newText.append(" ").append(_start.x).append(" ").append(_start.y);
 			newText.append(" ").append(_end.x).append(" ").append(_end.y);
 		}
@@ -25,11 +25,16 @@ import java.awt.geom.Rectangle2D;
 import java.io.File;
 import java.io.IOException;
 import java.text.AttributedString;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.expeditee.gui.AttributeValuePair;
 import org.expeditee.gui.DisplayIO;
@@ -40,6 +45,7 @@ import org.expeditee.gui.FrameKeyboardActions;
 import org.expeditee.gui.FrameMouseActions;
 import org.expeditee.gui.FrameUtils;
 import org.expeditee.gui.FreeItems;
+import org.expeditee.io.Conversion;
 import org.expeditee.math.ExpediteeJEP;
 import org.expeditee.settings.experimental.ExperimentalFeatures;
 import org.nfunk.jep.Node;
@@ -134,15 +140,49 @@ public class Text extends Item {
 	// text is broken up into lines
 	private StringBuffer _text = new StringBuffer();
 
-	private List<TextLayout> _textLayouts = new LinkedList<TextLayout>();
+	// whether the text was an annotation when it was last rebuilt
+	private boolean _annotationWhenBuilt = false;
 
-	private List<Integer> _lineOffsets = new LinkedList<Integer>();
+	private List<TextLayout> _textLayouts = new ArrayList<TextLayout>();
+
+	private List<Integer> _lineOffsets = new ArrayList<Integer>();
+
+	// the bounds of the logical highlight of each line
+	private List<Rectangle2D> _lineBounds = new ArrayList<Rectangle2D>();
+
+	// the width the lines were broken to when they were last built
+	private float _layoutWidth = Float.NaN;
+
+	// the part of the text edited since the lines were last built, _editStart
+	// is -1 when every line has to be built again
+	private int _editStart = -1;
+
+	private int _editEnd = -1;
+
+	// how much longer the text is than when the lines were last built
+	private int _editShift = 0;
 
 	private FontRenderContext frc = null;
 	private LineBreakMeasurer _lineBreaker = null;
 
+	// the lines built for recently laid out text, so copies of an item on
+	// vectors are not laid out again
+	private static final int SHARED_LINES = 256;
+
+	private static final Map<LinesKey, Lines> _sharedLines = new LinkedHashMap<LinesKey, Lines>(
+			SHARED_LINES, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<LinesKey, Lines> eldest) {
+			return size() > SHARED_LINES;
+		}
+	};
+
 	// The font to display this text in
 	private Font _font;
+
+	// the font of every text item without a font of its own
+	private static final Font _defaultFont = Conversion.getSharedFont(Font
+			.decode(DEFAULT_FONT));
 	
 	
 	protected static void InitFontFamily(GraphicsEnvironment ge, File fontFamilyDir)
@@ -435,6 +475,7 @@ public class Text extends Item {
 			// Need the invalidate all for dateStamp toggling
 			invalidateAll();
 			_text.delete(0, text.length());
+			_lineBreaker = null;
 		}
 
 	}
@@ -447,6 +488,7 @@ public class Text extends Item {
 			int textToRemoveLength = textToRemove.length();
 			if (pos + textToRemoveLength == length) {
 				_text.delete(pos, length);
+				_lineBreaker = null;
 			}
 		}
 
@@ -1030,10 +1072,10 @@ public class Text extends Item {
 
 		float y = getY();
 
-		for (TextLayout text : _textLayouts) {
+		for (int line = 0; line < _textLayouts.size(); line++) {
+			TextLayout text = _textLayouts.get(line);
 			// calculate X to ensure it is in the shape
-			Rectangle2D bounds = text.getLogicalHighlightShape(0,
-					text.getCharacterCount()).getBounds2D();
+			Rectangle2D bounds = getLineBounds(line);
 
 			if (bounds.getWidth() < 1)
 				bounds.setRect(bounds.getMinX(), bounds.getMinY(), 10, bounds
@@ -1042,11 +1084,11 @@ public class Text extends Item {
 			double x = bounds.getCenterX();
 
 			if (bounds.contains(x, mouseY - getY() - (y - getY())))
-				return _textLayouts.indexOf(text);
+				return line;
 
 			// check if the cursor is between lines
 			if (mouseY - getY() - (y - getY()) < bounds.getMinY())
-				return Math.max(0, _textLayouts.indexOf(text) - 1);
+				return Math.max(0, line - 1);
 
 			y += getLineDrop(text);
 		}
@@ -1062,8 +1104,9 @@ public class Text extends Item {
 	 */
 	public void setFont(Font font) {
 		invalidateAll();
-		// all decoding occurs in the Utils class
-		_font = font;
+		// all decoding occurs in the Utils class, and items with the same
+		// font share it
+		_font = Conversion.getSharedFont(font);
 		// rejustify();
 		rebuild(false);
 
@@ -1082,7 +1125,7 @@ public class Text extends Item {
 
 	public Font getPaintFont() {
 		if (getFont() == null)
-			return Font.decode(DEFAULT_FONT);
+			return _defaultFont;
 
 		return getFont();
 	}
@@ -1285,6 +1328,13 @@ public class Text extends Item {
 		return _spacing;
 	}
 
+	/**
+	 * @return a copy of the bounds of the logical highlight of a line.
+	 */
+	private Rectangle2D getLineBounds(int line) {
+		return (Rectangle2D) _lineBounds.get(line).clone();
+	}
+
 	private float getLineDrop(TextLayout layout) {
 		if (getSpacing() < 0)
 			return layout.getAscent() + layout.getDescent()
@@ -1313,7 +1363,7 @@ public class Text extends Item {
 		attr.put(TextAttribute.TRACKING, spacing);
 		
 		if (this._font == null) {
-			this._font = Font.decode(DEFAULT_FONT);
+			this._font = _defaultFont;
 		}
 
 		this.setFont(this._font.deriveFont(attr));
@@ -1339,10 +1389,10 @@ public class Text extends Item {
 		if (super.intersects(p)) {
 			float textY = getY();
 
-			for (TextLayout text : _textLayouts) {
+			for (int line = 0; line < _textLayouts.size(); line++) {
+				TextLayout text = _textLayouts.get(line);
 				// check left and right of each box
-				Rectangle2D textOutline = text.getLogicalHighlightShape(0,
-						text.getCharacterCount()).getBounds2D();
+				Rectangle2D textOutline = getLineBounds(line);
 				textOutline
 						.setRect(textOutline.getX() + getX() - 1, textOutline
 								.getY()
@@ -1378,10 +1428,10 @@ public class Text extends Item {
 			return false;
 		}
 
-		for (TextLayout text : _textLayouts) {
+		for (int line = 0; line < _textLayouts.size(); line++) {
+			TextLayout text = _textLayouts.get(line);
 			// check left and right of each box
-			Rectangle2D textOutline = text.getLogicalHighlightShape(0,
-					text.getCharacterCount()).getBounds2D();
+			Rectangle2D textOutline = getLineBounds(line);
 
 			// check if the cursor is within the top, bottom and within the
 			// gravity of right
@@ -1409,6 +1459,7 @@ public class Text extends Item {
 			return;
 
 		_poly = new Polygon();
+		boundsChanged();
 
 		if (_textLayouts.size() < 1)
 			return;
@@ -1423,13 +1474,15 @@ public class Text extends Item {
 		
 		// Fix concurrency error in ScaleFrameset
 		List<TextLayout> tmpTextLayouts;
+		List<Rectangle2D> tmpLineBounds;
 		synchronized(_textLayouts) {
-			tmpTextLayouts = new LinkedList<TextLayout>(_textLayouts);
+			tmpTextLayouts = new ArrayList<TextLayout>(_textLayouts);
+			tmpLineBounds = new ArrayList<Rectangle2D>(_lineBounds);
 		}
 
-		for (TextLayout layout : tmpTextLayouts) {
-			Rectangle2D bounds = layout.getLogicalHighlightShape(0,
-					layout.getCharacterCount()).getBounds2D();
+		for (int line = 0; line < tmpTextLayouts.size(); line++) {
+			TextLayout layout = tmpTextLayouts.get(line);
+			Rectangle2D bounds = tmpLineBounds.get(line);
 		
 			if (y < 0)
 				y = 0;
@@ -1474,7 +1527,10 @@ public class Text extends Item {
 	private void rebuild(boolean limitWidth, boolean newLinebreakerAlways) {
 		// TODO make this more efficient so it only clears annotation list when
 		// it really has to
-		if (isAnnotation()) {
+		boolean annotation = isAnnotation();
+		// the list must also be cleared when the text stops being an annotation
+		if (annotation || _annotationWhenBuilt) {
+			_annotationWhenBuilt = annotation;
 			Frame parent = getParent();
 			// parent can be null when running tests
 			if (parent != null) {
@@ -1490,40 +1546,20 @@ public class Text extends Item {
 			return;
 		}
 
-		if (_lineBreaker == null || newLinebreakerAlways) {
-			AttributedString paragraphText = new AttributedString(_text
-					.toString());
-			paragraphText.addAttribute(TextAttribute.FONT, getPaintFont());
-			frc = new FontRenderContext(null, true, true);
-			_lineBreaker = new LineBreakMeasurer(paragraphText.getIterator(), frc);
-		}
-
-		/* float width = Float.MAX_VALUE;
-
-		if (limitWidth) {
-			width = getAbsoluteWidth();
-			// else if (getMaxWidth() > 0)
-			// width = Math.max(50, getMaxWidth() - getX()
-			// - Item.MARGIN_RIGHT);
-		} */
-
-		_textLayouts.clear();
-		_lineOffsets.clear();
-		// the first line always has a 0 offset
-		_lineOffsets.add(0);
+		if (newLinebreakerAlways)
+			_lineBreaker = null;
 
-		TextLayout layout;
-		
 		float width;
-		float lineHeight = Float.NaN;
 		List<Point[]> lines = null;
+		boolean autoWrap = _autoWrap || ExperimentalFeatures.AutoWrap.get();
 		
-		if(_autoWrap || ExperimentalFeatures.AutoWrap.get()) {
+		if(autoWrap) {
 		lines = new LinkedList<Point[]>();
     		if(DisplayIO.getCurrentFrame() == null) {
+    			clearLines();
     			return;
     		}
-    		for(Item item : DisplayIO.getCurrentFrame().getItems()) {
+    		for(Item item : DisplayIO.getCurrentFrame().getItemsView()) {
     				if(item instanceof Line) {
     					lines.add(new Point[] { ((Line) item).getStartItem().getPosition(), ((Line) item).getEndItem().getPosition() });
     				}
@@ -1553,47 +1589,151 @@ public class Text extends Item {
      			// - Item.MARGIN_RIGHT);
      		}
 		}
-		
-		_lineBreaker.setPosition(0);
+
+		// the lines before the first line touched by the edits since the
+		// lines were last built are kept, as are the lines after the edits
+		// once the lines being built start where they did before
+		List<TextLayout> oldLayouts = null;
+		List<Rectangle2D> oldBounds = null;
+		List<Integer> oldOffsets = null;
+		if (_lineBreaker != null && !autoWrap && _editStart >= 0
+				&& width == _layoutWidth && _lineOffsets.size() > 1
+				&& _lineOffsets.get(_lineOffsets.size() - 1) + _editShift == _text.length()) {
+			int first = Collections.binarySearch(_lineOffsets, _editStart);
+			if (first < 0)
+				first = -first - 2;
+			// an edit at the start of a line can change where the line above
+			// it breaks
+			first = Math.max(0, Math.min(first, _textLayouts.size() - 1) - 1);
+			oldLayouts = new ArrayList<TextLayout>(_textLayouts.subList(first,
+					_textLayouts.size()));
+			oldBounds = new ArrayList<Rectangle2D>(_lineBounds.subList(first,
+					_lineBounds.size()));
+			oldOffsets = new ArrayList<Integer>(_lineOffsets.subList(first,
+					_lineOffsets.size()));
+			_textLayouts.subList(first, _textLayouts.size()).clear();
+			_lineBounds.subList(first, _lineBounds.size()).clear();
+			_lineOffsets.subList(first + 1, _lineOffsets.size()).clear();
+		} else {
+			LinesKey key = null;
+			if (!autoWrap) {
+				key = new LinesKey(_text.toString(), getPaintFont(), width,
+						getJustification());
+				Lines shared;
+				synchronized (_sharedLines) {
+					shared = _sharedLines.get(key);
+				}
+				if (shared != null) {
+					clearLines();
+					_textLayouts.addAll(Arrays.asList(shared.layouts));
+					_lineBounds.addAll(Arrays.asList(shared.bounds));
+					for (int i = 1; i < shared.offsets.length; i++)
+						_lineOffsets.add(shared.offsets[i]);
+					linesBuilt(width);
+					return;
+				}
+			}
+
+			if (_lineBreaker == null) {
+				AttributedString paragraphText = new AttributedString(_text
+						.toString());
+				paragraphText.addAttribute(TextAttribute.FONT, getPaintFont());
+				frc = new FontRenderContext(null, true, true);
+				_lineBreaker = new LineBreakMeasurer(paragraphText
+						.getIterator(), frc);
+			}
+			clearLines();
+			buildLines(width, autoWrap, lines, null, null, null);
+			if (key != null) {
+				Lines built = new Lines(_textLayouts, _lineBounds,
+						_lineOffsets);
+				synchronized (_sharedLines) {
+					_sharedLines.put(key, built);
+				}
+			}
+			linesBuilt(width);
+			return;
+		}
+
+		buildLines(width, autoWrap, lines, oldLayouts, oldBounds, oldOffsets);
+		linesBuilt(width);
+	}
+
+	/**
+	 * Breaks the text into lines from the end of the last line built.
+	 * 
+	 * @param oldLayouts
+	 *            the lines from the first line being built as they were built
+	 *            before the text was edited, or null if the text is being laid
+	 *            out from the start.
+	 * @param oldBounds
+	 *            the bounds of those lines.
+	 * @param oldOffsets
+	 *            where the text of those lines started.
+	 */
+	private void buildLines(float width, boolean autoWrap, List<Point[]> lines,
+			List<TextLayout> oldLayouts, List<Rectangle2D> oldBounds,
+			List<Integer> oldOffsets) {
+		TextLayout layout;
+		float lineHeight = Float.NaN;
+
+		int start = _lineOffsets.get(_lineOffsets.size() - 1);
+		_lineBreaker.setPosition(start);
 		boolean requireNextWord = false;
+		// the first new line at or after the start of the current line
+		int newline = -1;
 
 		// --- Get the output of the LineBreakMeasurer and store it in a
 		while (_lineBreaker.getPosition() < _text.length()) {
 			
-			if(_autoWrap || ExperimentalFeatures.AutoWrap.get()) {
+			if(autoWrap) {
 				requireNextWord = width < FrameGraphics.getMaxFrameSize().width - getX();
 			}
 			
-			layout = _lineBreaker.nextLayout(width, _text.length(), requireNextWord);
-			
 			// lineBreaker does not break on newline
 			// characters so they have to be check manually
-			int start = _lineOffsets.get(_lineOffsets.size() - 1);
+			start = _lineOffsets.get(_lineOffsets.size() - 1);
 			
 			// int y = getY() + (getLineDrop(layout) * (_lineOffsets.size() - 1) 
 			
-			// check through the current line for newline characters
-			for (int i = start + 1; i < _text.length(); i++) {
-				if (_text.charAt(i) == '\n') {// || c == '\t'){
-					_lineBreaker.setPosition(start);
-					layout = _lineBreaker.nextLayout(width, i, requireNextWord);
-					break;
-				}
+			// find the next newline after the start of the line, the line
+			// ends there if not before
+			if (newline <= start && newline < _text.length()) {
+				newline = _text.indexOf("\n", start + 1);
+				if (newline < 0)
+					newline = _text.length();
 			}
+			layout = _lineBreaker.nextLayout(width, newline, requireNextWord);
 
-			_lineOffsets.add(_lineBreaker.getPosition());
+			int end = _lineBreaker.getPosition();
+			_lineOffsets.add(end);
 			
 			if(layout == null) {
 				layout = new TextLayout(" ", getPaintFont(), frc);
 			}
 
 			if (/* hasWidth() && */getJustification() == Justification.full
-					&& _lineBreaker.getPosition() < _text.length())
+					&& end < _text.length())
 				layout = layout.getJustifiedLayout(width);
 			
 			_textLayouts.add(layout);
+			_lineBounds.add(layout.getLogicalHighlightShape(0,
+					layout.getCharacterCount()).getBounds2D());
+
+			// the rest of the lines are as they were once a line starts where
+			// one did before, past the edited text
+			if (oldLayouts != null && end >= _editEnd) {
+				int old = Collections.binarySearch(oldOffsets, end - _editShift);
+				if (old >= 0 && old < oldLayouts.size()) {
+					_textLayouts.addAll(oldLayouts.subList(old, oldLayouts.size()));
+					_lineBounds.addAll(oldBounds.subList(old, oldBounds.size()));
+					for (int i = old + 1; i < oldOffsets.size(); i++)
+						_lineOffsets.add(oldOffsets.get(i) + _editShift);
+					break;
+				}
+			}
     						
-			if(_autoWrap || ExperimentalFeatures.AutoWrap.get()) {
+			if(autoWrap) {
 				
     			if(lineHeight != Float.NaN) {
     				lineHeight = getLineDrop(layout);
@@ -1601,7 +1741,21 @@ public class Text extends Item {
     			width = getLineWidth(getX(), getY() + (lineHeight * (_textLayouts.size() - 1)), lines);
 			}
 		}
+	}
 
+	private void clearLines() {
+		_textLayouts.clear();
+		_lineBounds.clear();
+		_lineOffsets.clear();
+		// the first line always has a 0 offset
+		_lineOffsets.add(0);
+	}
+
+	private void linesBuilt(float width) {
+		_layoutWidth = width;
+		_editStart = -1;
+		_editEnd = -1;
+		_editShift = 0;
 		updatePolygon();
 
 	}
@@ -1995,6 +2149,7 @@ public class Text extends Item {
 		assert (toInsert.length() > 0);
 
 		_text.insert(pos, toInsert);
+		textEdited(pos, 0, toInsert.length());
 
 		if (toInsert.length() > 1) {
 			_lineBreaker = null;
@@ -2007,8 +2162,30 @@ public class Text extends Item {
 		}
 	}
 
+	/**
+	 * Records an edit to the text so only the lines around it are built again
+	 * the next time the lines are rebuilt with the same line breaker.
+	 * 
+	 * @param pos
+	 *            where the text was edited.
+	 * @param removed
+	 *            the number of characters removed.
+	 * @param inserted
+	 *            the number of characters inserted in their place.
+	 */
+	private void textEdited(int pos, int removed, int inserted) {
+		if (_editStart < 0 || pos < _editStart)
+			_editStart = pos;
+		if (_editEnd >= pos + removed)
+			_editEnd += inserted - removed;
+		else
+			_editEnd = pos + inserted;
+		_editShift += inserted - removed;
+	}
+
 	private void deleteChar(int pos) {
 		_text.deleteCharAt(pos);
+		textEdited(pos, 1, 0);
 
 		if (_text.length() == 0) {
 			if (this.isLineEnd()) {
@@ -2167,10 +2344,10 @@ public class Text extends Item {
 			float textY = getY();
 			float textX = getX();
 
-			for (TextLayout text : _textLayouts) {
+			for (int line = 0; line < _textLayouts.size(); line++) {
+				TextLayout text = _textLayouts.get(line);
 				// check left and right of each box
-				Rectangle2D textOutline = text.getLogicalHighlightShape(0,
-						text.getCharacterCount()).getBounds2D();
+				Rectangle2D textOutline = getLineBounds(line);
 
 				// check if the cursor is within the top, bottom and within the
 				// gravity of right
@@ -2433,7 +2610,7 @@ public class Text extends Item {
 		Collection<Item> seen = new HashSet<Item>();
 		Frame parent = getParentOrCurrentFrame();
 		double enclosureArea = Double.MAX_VALUE;
-		for (Item i : parent.getVisibleItems()) {
+		for (Item i : parent.getItemsView(true)) {
 			/*
 			 * Go through all the enclosures looking for one that includes this
 			 * item
@@ -2670,4 +2847,61 @@ public class Text extends Item {
 	public void setAutoWrap(boolean autoWrap) {
 		_autoWrap = autoWrap;
 	}
+
+	/**
+	 * What the lines of a text item are built from.
+	 */
+	private static final class LinesKey {
+		private final String _text;
+
+		private final Font _font;
+
+		private final float _width;
+
+		private final Justification _justification;
+
+		LinesKey(String text, Font font, float width,
+				Justification justification) {
+			_text = text;
+			_font = font;
+			_width = width;
+			_justification = justification;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof LinesKey))
+				return false;
+			LinesKey key = (LinesKey) o;
+			return _text.equals(key._text) && _font.equals(key._font)
+					&& _width == key._width
+					&& _justification == key._justification;
+		}
+
+		@Override
+		public int hashCode() {
+			return _text.hashCode() * 31 + _font.hashCode();
+		}
+	}
+
+	/**
+	 * The lines of a text item, which can be shared since text layouts are not
+	 * changed once built.
+	 */
+	private static final class Lines {
+		final TextLayout[] layouts;
+
+		final Rectangle2D[] bounds;
+
+		final int[] offsets;
+
+		Lines(List<TextLayout> layouts, List<Rectangle2D> bounds,
+				List<Integer> offsets) {
+			this.layouts = layouts.toArray(new TextLayout[layouts.size()]);
+			this.bounds = bounds.toArray(new Rectangle2D[bounds.size()]);
+			this.offsets = new int[offsets.size()];
+			for (int i = 0; i < this.offsets.length; i++)
+				this.offsets[i] = offsets.get(i);
+		}
+	}
 }
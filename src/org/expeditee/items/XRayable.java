@@ -68,7 +68,9 @@ public abstract class XRayable extends Item {
 
 	@Override
 	public void setID(int newID) {
+		int oldID = getID();
 		_source.setID(newID);
+		idChanged(oldID);
 	}
 	
 	@Override
@@ -7,7 +7,7 @@ import java.util.LinkedList;
 import java.util.Set;
 
 import org.expeditee.gui.DisplayIOObserver;
-import org.expeditee.gui.FrameIO;
+import org.expeditee.settings.performance.PerformanceSettings;
 
 
 /**
@@ -42,7 +42,8 @@ public final class WidgetCacheManager implements DisplayIOObserver {
 	public static void cacheWidget(HeavyDutyInteractiveWidget widget) {
 		if (widget == null) throw new NullPointerException("widget");
 		
-		if (widget.getCacheDepth() > FrameIO.MAX_CACHE ||
+		int maxDepth = PerformanceSettings.FrameCacheSize.get();
+		if ((maxDepth > 0 && widget.getCacheDepth() > maxDepth) ||
 				widget.getCacheDepth() <= 0) return;
 		
 		// If widget already exists, then the current count will be reset (overriden to zero)
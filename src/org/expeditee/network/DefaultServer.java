@@ -12,6 +12,8 @@ public abstract class DefaultServer extends Thread {
 	protected boolean _stop = false;
 	protected DatagramSocket socket = null;
 
+	protected final ServerStats _stats = new ServerStats();
+
 	public DefaultServer() {
 		super();
 	}
@@ -54,6 +56,21 @@ public abstract class DefaultServer extends Thread {
 		_stop = true;
 	}
 
+	/**
+	 * @return the number of requests this server has answered.
+	 */
+	public long getRequests() {
+		return _stats.getRequests();
+	}
+
+	/**
+	 * @return a one line summary of the requests answered, their rate, bytes
+	 *         and latency.
+	 */
+	public String getStats() {
+		return _stats.getStats(getName());
+	}
+
 	public void run() {
 		//MessageBay.displayMessage(this.getName() + " started on port "
 		//		+ socket.getLocalPort());
@@ -22,6 +22,7 @@ public class FrameSaver extends DefaultServer {
 		// receive request
 		DatagramPacket packet = new DatagramPacket(buf, buf.length);
 		socket.receive(packet);
+		long start = System.nanoTime();
 
 		BufferedReader packetContents = new BufferedReader(new StringReader(
 				new String(packet.getData(), 0, packet.getLength())));
@@ -40,6 +41,7 @@ public class FrameSaver extends DefaultServer {
 		} catch(Exception e) {
 			e.printStackTrace();
 		}
+		_stats.request(System.nanoTime() - start, packet.getLength(), 0);
 	}
 
 }
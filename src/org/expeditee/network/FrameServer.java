@@ -1,11 +1,9 @@
 package org.expeditee.network;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 
-import org.expeditee.gui.FrameIO;
 import org.expeditee.gui.MessageBay;
 
 public class FrameServer extends DefaultServer {
@@ -15,28 +13,25 @@ public class FrameServer extends DefaultServer {
 		super("FrameServer", port);
 	}
 
-	protected String getFrame(String frameName) {
-		StringBuffer sb = new StringBuffer();
-		BufferedReader br = FrameIO.LoadPublicFrame(frameName);
-		if (br == null)
-			return null;
-
-		String s = null;
+	/**
+	 * @return the contents of a public frame, or null if there is no such
+	 *         frame or it is too large to be sent in a single packet.
+	 */
+	protected byte[] getFrame(String frameName) {
+		byte[] contents;
 		try {
-			while ((s = br.readLine()) != null) {
-				// Check if there is space for the next line in the packet
-				if (sb.length() + s.length() > MAX_PACKET_LENGTH) {
-					MessageBay.errorMessage(frameName
-							+ " is too large to be sent in a single packet");
-					break;
-				}
-				sb.append(s).append('\n');
-			}
+			contents = PublicFrameCache.getContents(frameName);
 		} catch (IOException e) {
 			e.printStackTrace();
+			return null;
 		}
-
-		return sb.toString();
+		if (contents != null && contents.length > MAX_PACKET_LENGTH) {
+			MessageBay.errorMessage(frameName
+					+ " is too large to be sent in a single packet");
+			// a truncated frame would lose items if it was saved back
+			return null;
+		}
+		return contents;
 	}
 
 	@Override
@@ -46,22 +41,23 @@ public class FrameServer extends DefaultServer {
 		// receive request
 		DatagramPacket packet = new DatagramPacket(buf, buf.length);
 		socket.receive(packet);
+		long start = System.nanoTime();
+		int received = packet.getLength();
 
 		String frameName = new String(packet.getData(), 0, packet.getLength());
 		MessageBay.displayMessage("Recieved request for " + frameName);
 
 		// figure out response
-		String dString = getFrame(frameName);
-		if (dString == null) {
-			dString = "";
+		buf = getFrame(frameName);
+		if (buf == null) {
+			buf = new byte[0];
 		}
 
-		buf = dString.getBytes(FrameShare.CHARSET);
-
 		// send the response to the client at "address" and "port"
 		InetAddress address = packet.getAddress();
 		int port = packet.getPort();
 		packet = new DatagramPacket(buf, buf.length, address, port);
 		socket.send(packet);
+		_stats.request(System.nanoTime() - start, received, buf.length);
 	}
 }
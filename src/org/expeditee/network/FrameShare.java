@@ -7,13 +7,14 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.net.ConnectException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.Socket;
-import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -47,6 +48,28 @@ public class FrameShare {
 
 	private Map<String, Peer> _peers;
 
+	private Map<Peer, FrameStream> _streams = new HashMap<Peer, FrameStream>();
+
+	private static final Object _imageLock = new Object();
+
+	/**
+	 * Milliseconds between attempts to send the frames saved while their peer
+	 * could not be reached.
+	 */
+	private static final long RETRY_WRITES = 30000;
+
+	private final Object _writerLock = new Object();
+
+	private Thread _writer = null;
+
+	private boolean _writesQueued = false;
+
+	/**
+	 * Milliseconds between the server stats printed by a headless server
+	 * which has answered requests since.
+	 */
+	private static final long STATS_INTERVAL = 60000;
+
 	private int _port = Peer.DEFAULT_PORT;
 
 
@@ -60,6 +83,7 @@ public class FrameShare {
 	    _servers.add(new InfUpdate(_port));
 	    _servers.add(new ImageServer(_port));
 	    _servers.add(new ImageSaver(_port));
+	    _servers.add(new FrameStreamServer(_port));
 
 	}
 
@@ -138,6 +162,10 @@ public class FrameShare {
 		} catch (Exception e) {
 			MessageBay.errorMessage("Error in PeerToPeer setup");
 		}
+
+		// send the frames saved while the peers could not be reached last time
+		if (RemoteFrameCache.hasPendingWrites())
+			startWriter();
 	}
 
 	public void finalise() {
@@ -145,6 +173,12 @@ public class FrameShare {
 
 		for (DefaultServer server : _servers)
 			server.close();
+
+		synchronized (_streams) {
+			for (FrameStream stream : _streams.values())
+				stream.close();
+			_streams.clear();
+		}
 	}
 
 	public static FrameShare getInstance() {
@@ -152,44 +186,49 @@ public class FrameShare {
 	}
 
 	/**
-	 * TODO check each peer on a different thread.
+	 * Loads a frame from a peer, or from whichever peer answers first if no
+	 * peer is given.
 	 * 
 	 * @param frameName
 	 * @return
 	 */
-	public Frame loadFrame(String frameName, String peerName) {
-		String result = null;
+	public Frame loadFrame(final String frameName, String peerName) {
+		PeerRequest<String> request = new PeerRequest<String>() {
+			@Override
+			protected String ask(Peer peer) throws IOException {
+				String contents = getFrameContents(frameName, peer);
+				if (contents == null || contents.length() == 0)
+					return null;
+				return contents;
+			}
 
-		try {
-			// get a datagram socket
-			DatagramSocket socket = new DatagramSocket();
-			socket.setSoTimeout(NetworkSettings.FrameShareTimeout.get() * 2);
-			if (peerName == null) {
-				for (Peer peer : _peers.values()) {
-					try {
-						result = getFrameContents(frameName, socket, peer);
-						if(result == null || result.length() == 0) {
-							continue;
-						}
+			@Override
+			protected void failed(Peer peer, Exception e) {
+				reportError(frameName, peer, e);
+			}
+		};
+
+		String result = null;
+		if (peerName == null) {
+			result = request.askAll(getPeers());
+			if (result != null) {
+				peerName = request.getAnsweredBy().getName();
+			} else {
+				for (Peer peer : getPeers()) {
+					result = readCopy(peer, frameName);
+					if (result != null) {
 						peerName = peer.getName();
 						break;
-					} catch (Exception e) {
-						e.printStackTrace();
-					}
-				}
-			} else {
-				try {
-					Peer peer = _peers.get(peerName.toLowerCase());
-					if (peer != null) {
-						result = getFrameContents(frameName, socket, peer);
 					}
-				} catch (Exception e) {
-					e.printStackTrace();
 				}
 			}
-			socket.close();
-		} catch (Exception e) {
-		    e.printStackTrace();
+		} else {
+			Peer peer = _peers.get(peerName.toLowerCase());
+			if (peer != null) {
+				result = request.askOne(peer);
+				if (result == null)
+					result = readCopy(peer, frameName);
+			}
 		}
 
 		if (result == null || result.length() == 0)
@@ -227,38 +266,138 @@ public class FrameShare {
 	 * @param peerName
 	 * @return true if the image was successfully downloaded and saved in the default images folder
 	 */
-	public boolean loadImage(String imageName, String peerName) {
-		boolean result = false;
-		try {
-			if (peerName == null) {
-				for (Peer peer : _peers.values()) {
-					try {
-						result = getImage(imageName, peer);
-						if(!result) {
-							continue;
+	public boolean loadImage(final String imageName, String peerName) {
+		PeerRequest<Boolean> request = new PeerRequest<Boolean>() {
+			@Override
+			protected Boolean ask(Peer peer) throws IOException {
+				return getImage(imageName, peer) ? Boolean.TRUE : null;
+			}
+		};
+
+		Boolean result = null;
+		if (peerName == null) {
+			result = request.askAll(getPeers());
+		} else {
+			Peer peer = _peers.get(peerName.toLowerCase());
+			if (peer != null)
+				result = request.askOne(peer);
+		}
+		return result != null;
+	}
+
+	/**
+	 * A request made to peers, which records whether each peer answered.
+	 * Several peers can be asked at once, each on its own thread, in which
+	 * case the first to have what was asked for is used without waiting for
+	 * the rest. Peers which have not been answering are skipped.
+	 */
+	private abstract static class PeerRequest<T> {
+
+		private final Object _lock = new Object();
+
+		private T _result = null;
+
+		private Peer _answeredBy = null;
+
+		// the number of peers which have not answered yet
+		private int _asking = 0;
+
+		/**
+		 * @return the peer's answer, or null if it does not have what was
+		 *         asked for.
+		 */
+		protected abstract T ask(Peer peer) throws Exception;
+
+		/**
+		 * Called when a peer could not answer.
+		 */
+		protected void failed(Peer peer, Exception e) {
+			e.printStackTrace();
+		}
+
+		/**
+		 * Asks a peer, even if it has not been answering.
+		 * 
+		 * @return the peer's answer, or null if it did not have one.
+		 */
+		T askOne(Peer peer) {
+			T result = answer(peer);
+			if (result != null)
+				_answeredBy = peer;
+			return result;
+		}
+
+		/**
+		 * Asks every peer which has been answering, and waits until one has
+		 * answered with a result or none of them have one.
+		 * 
+		 * @return the first result, or null if no peer had one.
+		 */
+		T askAll(Collection<Peer> peers) {
+			synchronized (_lock) {
+				for (final Peer peer : peers) {
+					if (!peer.isAvailable())
+						continue;
+					_asking++;
+					Thread thread = new Thread("PeerRequest") {
+						@Override
+						public void run() {
+							T result = answer(peer);
+							synchronized (_lock) {
+								_asking--;
+								if (result != null && _result == null) {
+									_result = result;
+									_answeredBy = peer;
+								}
+								_lock.notifyAll();
+							}
 						}
-						peerName = peer.getName();
-						break;
-					} catch (Exception e) {
-						e.printStackTrace();
-					}
+					};
+					thread.setDaemon(true);
+					thread.start();
 				}
-			} else {
-				try {
-					Peer peer = _peers.get(peerName.toLowerCase());
-					if (peer != null) {
-						result = getImage(imageName, peer);
+
+				while (_result == null && _asking > 0) {
+					try {
+						_lock.wait();
+					} catch (InterruptedException e) {
+						break;
 					}
-				} catch (Exception e) {
-					e.printStackTrace();
 				}
+				return _result;
 			}
-		} catch(Exception e) {
-			e.printStackTrace();
 		}
-		return result;
+
+		/**
+		 * @return the peer which gave the result.
+		 */
+		Peer getAnsweredBy() {
+			synchronized (_lock) {
+				return _answeredBy;
+			}
+		}
+
+		private T answer(Peer peer) {
+			try {
+				T result = ask(peer);
+				peer.succeeded();
+				return result;
+			} catch (FrameStream.FrameStreamException e) {
+				// the peer answered, but could not do what was asked
+				peer.succeeded();
+				failed(peer, e);
+			} catch (Exception e) {
+				peer.failed();
+				failed(peer, e);
+			}
+			return null;
+		}
 	}
-	
+
+	private Collection<Peer> getPeers() {
+		return new ArrayList<Peer>(_peers.values());
+	}
+
 	/**
 	 * Send a list of images that may need to be uploaded
 	 * Then wait for a response (in form of a list of shorts denoting which files to keep)
@@ -314,7 +453,16 @@ public class FrameShare {
 		}
 	}
 	
+	/**
+	 * Downloads an image from a peer into the images folder. It is read into a
+	 * file of its own first, so several peers can be asked for it at once.
+	 * 
+	 * @return true if the image is in the images folder.
+	 */
 	private boolean getImage(String imageName, Peer peer) throws IOException {
+		File file = new File(FrameIO.IMAGES_PATH + imageName);
+		File part = new File(file.getPath() + "." + peer.getName() + ".part");
+		part.delete();
 		try(Socket socket = new Socket(peer.getAddress(), peer.getPort() + ImageServer.OFFSET)) {
     		socket.setSoTimeout(NetworkSettings.FrameShareTimeout.get() * 2);
     		byte[] fileName = imageName.getBytes(FrameShare.CHARSET);
@@ -323,12 +471,203 @@ public class FrameShare {
         	os.write((byte) ((fileNameLen) & 0xFF));
         	os.write(fileName);
         	os.flush();
-        	boolean ret = ImageSaver.recvImage(new File(FrameIO.IMAGES_PATH + imageName), socket);
-        	socket.close();
-        	return ret;
-		} catch(Exception e) {
+        	if (!ImageSaver.recvImage(part, socket))
+        		return false;
+		} catch (IOException e) {
+			part.delete();
+			throw e;
+		}
+
+		synchronized (_imageLock) {
+			// another peer may have sent the image first
+			if (file.exists() || !part.renameTo(file)) {
+				part.delete();
+				return file.exists();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Requests a frame over the peer's FrameStreamServer, or by datagram if the
+	 * peer does not run one. A peer with a FrameStreamServer only sends the
+	 * frame if it has changed since the copy kept in the RemoteFrameCache.
+	 * 
+	 * @return the contents of the frame, or null if the peer does not have it.
+	 * @throws IOException
+	 *             if the peer could not be reached or could not read the frame.
+	 */
+	private String getFrameContents(String frameName, Peer peer)
+			throws IOException {
+		String peerName = peer.getName();
+		boolean keepCopy = FrameIO.isValidFrameName(frameName);
+
+		// the frame must not be read from the peer before the changes saved
+		// while it could not be reached have been sent
+		if (keepCopy && RemoteFrameCache.hasPendingWrite(peerName, frameName))
+			sendPendingWrites(peer);
+
+		byte[] copy = null;
+		if (keepCopy)
+			copy = RemoteFrameCache.read(peerName, frameName);
+
+		FrameStream stream = getStream(peer);
+		if (stream.isAvailable()) {
+			try {
+				byte[] contents = stream.getFrame(frameName, copy == null ? -1
+						: RemoteFrameCache.getVersion(copy));
+				if (contents == FrameStream.UNCHANGED) {
+					RemoteFrameCache.unchanged();
+					return new String(copy, FrameShare.CHARSET);
+				}
+				if (contents == null) {
+					if (copy != null)
+						RemoteFrameCache.remove(peerName, frameName);
+					return null;
+				}
+				if (keepCopy) {
+					RemoteFrameCache.write(peerName, frameName, contents);
+					RemoteFrameCache.fetched();
+				}
+				return new String(contents, FrameShare.CHARSET);
+			} catch (ConnectException e) {
+				// a peer which has accepted connections before is down,
+				// otherwise it only runs the datagram servers
+				if (stream.hasConnected())
+					throw e;
+			}
+		}
+
+		DatagramSocket socket = new DatagramSocket();
+		String contents;
+		try {
+			socket.setSoTimeout(NetworkSettings.FrameShareTimeout.get() * 2);
+			contents = getFrameContents(frameName, socket, peer);
+		} finally {
+			socket.close();
+		}
+		if (keepCopy && contents != null && contents.length() > 0) {
+			RemoteFrameCache.write(peerName, frameName, contents
+					.getBytes(FrameShare.CHARSET));
+			RemoteFrameCache.fetched();
+		}
+		return contents;
+	}
+
+	/**
+	 * @return the copy of a frame kept from a peer which could not be reached,
+	 *         or null if there is none.
+	 */
+	private static String readCopy(Peer peer, String frameName) {
+		if (peer.getFailures() == 0 || !FrameIO.isValidFrameName(frameName))
+			return null;
+		byte[] copy = RemoteFrameCache.read(peer.getName(), frameName);
+		if (copy == null)
+			return null;
+		RemoteFrameCache.readOffline();
+		return new String(copy, FrameShare.CHARSET);
+	}
+
+	/**
+	 * Sends the frames saved while a peer could not be reached.
+	 * 
+	 * @throws IOException
+	 *             if the peer still can not be reached.
+	 */
+	void sendPendingWrites(Peer peer) throws IOException {
+		String peerName = peer.getName();
+		FrameStream stream = getStream(peer);
+		for (String frameName : RemoteFrameCache.getPendingWrites(peerName)) {
+			int version = RemoteFrameCache.getPendingVersion(peerName,
+					frameName);
+			byte[] contents = RemoteFrameCache.getPendingContents(peerName,
+					frameName);
+			if (contents == null)
+				continue;
+			try {
+				stream.saveFrame(frameName, version, contents);
+				MessageBay.displayMessage("Saved " + frameName + " to "
+						+ peerName);
+			} catch (FrameStream.FrameStreamException e) {
+				// the peer will never be able to save it
+				MessageBay.errorMessage("Could not save " + frameName + " to "
+						+ peerName + ": " + e.getMessage());
+			}
+			RemoteFrameCache.removePendingWrite(peerName, frameName, version);
+		}
+	}
+
+	/**
+	 * Keeps sending the frames saved while peers could not be reached, until
+	 * they have all been sent.
+	 */
+	private void startWriter() {
+		synchronized (_writerLock) {
+			_writesQueued = true;
+			if (_writer != null)
+				return;
+
+			_writer = new Thread("RemoteFrameWriter") {
+				@Override
+				public void run() {
+					while (true) {
+						synchronized (_writerLock) {
+							_writesQueued = false;
+						}
+						boolean sent = true;
+						for (Peer peer : getPeers()) {
+							try {
+								sendPendingWrites(peer);
+							} catch (IOException e) {
+								sent = false;
+							}
+						}
+						synchronized (_writerLock) {
+							if (sent && !_writesQueued) {
+								_writer = null;
+								return;
+							}
+							try {
+								_writerLock.wait(RETRY_WRITES);
+							} catch (InterruptedException e) {
+								_writer = null;
+								return;
+							}
+						}
+					}
+				}
+			};
+			_writer.setDaemon(true);
+			_writer.setPriority(Thread.MIN_PRIORITY);
+			_writer.start();
+		}
+	}
+
+	/**
+	 * @return the connection to the FrameStreamServer of a peer, which is
+	 *         opened when it is first used.
+	 */
+	FrameStream getStream(Peer peer) {
+		synchronized (_streams) {
+			FrameStream stream = _streams.get(peer);
+			if (stream == null) {
+				stream = new FrameStream(peer, _port);
+				_streams.put(peer, stream);
+			}
+			return stream;
+		}
+	}
+
+	private static void reportError(String frameName, Peer peer, Exception e) {
+		// errors from peers which could read the request are shown to the user
+		if (e instanceof FrameStream.FrameStreamException) {
+			MessageBay.errorMessage("Could not load " + frameName + " from "
+					+ peer.getName() + ": " + e.getMessage());
+		} else if (e instanceof ConnectException) {
+			// the peer is down, and its copy of the frame is read instead
+			System.err.println(e.getMessage());
+		} else {
 			e.printStackTrace();
-			return false;
 		}
 	}
 
@@ -393,9 +732,14 @@ public class FrameShare {
 		FrameIO.setSavedProperties(toSave);
 
 		Peer peer = _peers.get(toSave.getPath().toLowerCase());
+		if (peer == null) {
+			MessageBay.errorMessage("Could not save " + toSave.getName()
+					+ " to unknown peer " + toSave.getPath());
+			return "";
+		}
 		
 		List<File> imageFiles = new LinkedList<File>();
-		for(Item i : toSave.getItems()) {
+		for(Item i : toSave.getItemsView()) {
 			if(i instanceof Picture) {
 				((Picture) i).moveToImagesFolder();
 				File f = new File(((Picture) i).getPath());
@@ -404,7 +748,8 @@ public class FrameShare {
 				}
 			}
 		}
-		new ImageSender(imageFiles, peer).start();
+		if (!imageFiles.isEmpty())
+			new ImageSender(imageFiles, peer).start();
 		
 		String fileContents = "";
 		// Now read the frame from the file contents
@@ -418,11 +763,60 @@ public class FrameShare {
 			sw.write(toSave.getName() + "\n");
 			// Then the version
 			sw.write(toSave.getVersion() + "\n");
+			int headerLength = sw.getBuffer().length();
 			// Write out the rest of the frame
 			writer.writeFrame(toSave, sw);
 			// Now send the packet
 			fileContents = sw.getBuffer().toString();
+
+			byte[] body = fileContents.substring(headerLength).getBytes(
+					FrameShare.CHARSET);
+
+			// Peers running a FrameStreamServer say whether the frame was saved
+			FrameStream stream = getStream(peer);
+			if (stream.isAvailable()) {
+				try {
+					stream.saveFrame(toSave.getName(), toSave.getVersion(),
+							body);
+					RemoteFrameCache.write(peer.getName(), toSave.getName(),
+							body);
+					toSave.setSaved();
+					return fileContents;
+				} catch (FrameStream.FrameStreamException e) {
+					MessageBay.errorMessage("Could not save "
+							+ toSave.getName() + " to " + peer.getName()
+							+ ": " + e.getMessage());
+					return fileContents;
+				} catch (IOException e) {
+					// a peer which has accepted connections before is down, so
+					// the frame is sent when it can be reached again
+					if (stream.hasConnected()) {
+						RemoteFrameCache.queueWrite(peer.getName(), toSave
+								.getName(), toSave.getVersion(), body);
+						startWriter();
+						MessageBay.displayMessage(toSave.getName()
+								+ " will be saved to " + peer.getName()
+								+ " when it can be reached");
+						toSave.setSaved();
+						return fileContents;
+					}
+					if (!(e instanceof ConnectException)) {
+						MessageBay.errorMessage("Could not save "
+								+ toSave.getName() + " to " + peer.getName()
+								+ ": " + e.getMessage());
+						return fileContents;
+					}
+					// the peer only runs the datagram servers
+				}
+			}
+
 			byte[] contentsBuf = fileContents.getBytes(FrameShare.CHARSET);
+			if (contentsBuf.length > DefaultServer.MAX_PACKET_LENGTH) {
+				MessageBay.errorMessage(toSave.getName()
+						+ " is too large to be sent in a single packet to "
+						+ peer.getName());
+				return fileContents;
+			}
 
 			// get a datagram socket
 			DatagramSocket socket = new DatagramSocket(_port - 2);
@@ -434,6 +828,7 @@ public class FrameShare {
 						contentsBuf.length, peer.getAddress(), peer.getPort()
 								+ FrameSaver.OFFSET);
 				socket.send(packet);
+				RemoteFrameCache.write(peer.getName(), toSave.getName(), body);
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
@@ -446,6 +841,10 @@ public class FrameShare {
 		return fileContents;
 	}
 
+	Peer getPeer(String peerName) {
+		return _peers.get(peerName.toLowerCase());
+	}
+
 	public String getPeerName(int port, InetAddress address) {
 		for (Peer p : _peers.values()) {
 			if (p.getPort() == port && p.getAddress().equals(address))
@@ -454,48 +853,48 @@ public class FrameShare {
 		return null;
 	}
 
-	public int getInfNumber(String peerName, String frameset, boolean update)
+	public int getInfNumber(String peerName, final String frameset,
+			final boolean update) throws IOException {
+		Peer peer = _peers.get(peerName.toLowerCase());
+		if (peer == null)
+			return -1;
+
+		Integer result = new PeerRequest<Integer>() {
+			@Override
+			protected Integer ask(Peer peer) throws IOException {
+				return getInfNumber(peer, frameset, update);
+			}
+		}.askOne(peer);
+		return result == null ? -1 : result;
+	}
+
+	private int getInfNumber(Peer peer, String frameset, boolean update)
 			throws IOException {
-		int result = -1;
 		// get a datagram socket
-		DatagramSocket socket = null;
+		DatagramSocket socket = new DatagramSocket();
 		try {
-			socket = new DatagramSocket(_port - 3);
 			socket.setSoTimeout(NetworkSettings.FrameShareTimeout.get());
 
 			byte[] contentsBuf = frameset.getBytes();
-			Peer peer = _peers.get(peerName.toLowerCase());
-			if(peer != null) {
-    			try {
-    				// send inf request
-    				DatagramPacket packet = new DatagramPacket(
-    						contentsBuf,
-    						contentsBuf.length,
-    						peer.getAddress(),
-    						peer.getPort()
-    								+ (update ? InfUpdate.OFFSET : InfServer.OFFSET));
-    				socket.send(packet);
-    
-    				byte[] buf = new byte[100];
-    				// get response
-    				packet = new DatagramPacket(buf, buf.length);
-    				socket.receive(packet);
-    
-    				// store frame contents
-    				result = Integer.parseInt(new String(packet.getData(), 0,
-    						packet.getLength()));
-    				peerName = peer.getName();
-    
-    			} catch (Exception e) {
-    				e.printStackTrace();
-    			}
-			}
+			// send inf request
+			DatagramPacket packet = new DatagramPacket(
+					contentsBuf,
+					contentsBuf.length,
+					peer.getAddress(),
+					peer.getPort()
+							+ (update ? InfUpdate.OFFSET : InfServer.OFFSET));
+			socket.send(packet);
+
+			byte[] buf = new byte[100];
+			// get response
+			packet = new DatagramPacket(buf, buf.length);
+			socket.receive(packet);
+
+			return Integer.parseInt(new String(packet.getData(), 0,
+					packet.getLength()));
+		} finally {
 			socket.close();
-		} catch (SocketException e1) {
-			e1.printStackTrace();
 		}
-
-		return result;
 	}
 
 	public static void init(Frame settingsFrame) {
@@ -524,6 +923,24 @@ public class FrameShare {
 		return headless;
 	}
 
+	/**
+	 * @return a line for each server summarising the requests it has
+	 *         answered, followed by the public frames kept in memory for them.
+	 */
+	public static String getServerStats() {
+		StringBuilder sb = new StringBuilder();
+		for (DefaultServer server : _servers)
+			sb.append(server.getStats()).append('\n');
+		return sb.append(PublicFrameCache.getStats()).toString();
+	}
+
+	private static long getServerRequests() {
+		long requests = 0;
+		for (DefaultServer server : _servers)
+			requests += server.getRequests();
+		return requests;
+	}
+
 
 	/**
 	 * Start a server running on the port number supplied on the command line
@@ -560,6 +977,20 @@ public class FrameShare {
 		System.exit(2);
 	    }
 
+	    // report what has been served every so often, while it is being used
+	    long reported = 0;
+	    try {
+		while (true) {
+		    Thread.sleep(STATS_INTERVAL);
+		    long requests = getServerRequests();
+		    if (requests != reported) {
+			System.err.println(getServerStats());
+			reported = requests;
+		    }
+		}
+	    } catch (InterruptedException e) {
+	    }
+
 	}
 
 }
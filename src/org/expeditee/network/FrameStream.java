@@ -0,0 +1,283 @@
+package org.expeditee.network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import org.expeditee.settings.network.NetworkSettings;
+
+/**
+ * A connection to the FrameStreamServer of a peer, which is kept open for
+ * further requests. Requests over a connection are made one at a time.
+ *
+ * If the peer does not accept the connection, or does not answer it as a
+ * FrameStreamServer would, it is assumed to only run the datagram servers and
+ * the connection is not tried again for a while. Once a peer has accepted a
+ * connection it is instead assumed to be down when it refuses one.
+ */
+public class FrameStream {
+
+	/**
+	 * Returned by {@link #getFrame(String, int)} when the peer's frame is the
+	 * version which was asked about.
+	 */
+	public static final byte[] UNCHANGED = new byte[0];
+
+	/**
+	 * Milliseconds before trying again to connect to a peer which refused.
+	 */
+	private static final long RETRY_INTERVAL = 60000;
+
+	private final Peer _peer;
+
+	// the port of our own servers, sent so the peer knows who we are
+	private final int _localPort;
+
+	private Socket _socket = null;
+
+	private DataInputStream _in = null;
+
+	private DataOutputStream _out = null;
+
+	private long _refusedAt = 0;
+
+	private int _connections = 0;
+
+	// the bytes of requests and replies, not counting the handshakes
+	private long _bytesSent = 0;
+
+	private long _bytesReceived = 0;
+
+	public FrameStream(Peer peer, int localPort) {
+		_peer = peer;
+		_localPort = localPort;
+	}
+
+	public Peer getPeer() {
+		return _peer;
+	}
+
+	/**
+	 * @return false if the peer refused the last attempt to connect and it is
+	 *         too soon to try again.
+	 */
+	public synchronized boolean isAvailable() {
+		return _connections > 0 || _refusedAt == 0
+				|| System.currentTimeMillis() - _refusedAt > RETRY_INTERVAL;
+	}
+
+	/**
+	 * @return true if the peer has accepted a connection, so it runs a
+	 *         FrameStreamServer.
+	 */
+	public synchronized boolean hasConnected() {
+		return _connections > 0;
+	}
+
+	/**
+	 * @return the number of connections which have been opened to the peer.
+	 */
+	public synchronized int getConnections() {
+		return _connections;
+	}
+
+	/**
+	 * @return the number of bytes sent and received in requests and replies.
+	 */
+	public synchronized long getBytesTransferred() {
+		return _bytesSent + _bytesReceived;
+	}
+
+	/**
+	 * Requests a frame from the peer.
+	 *
+	 * @return the contents of the frame, or null if the peer does not have it.
+	 * @throws ConnectException
+	 *             if the peer does not run a FrameStreamServer.
+	 * @throws IOException
+	 *             if the frame could not be read by the peer or the
+	 *             connection failed.
+	 */
+	public synchronized byte[] getFrame(String frameName) throws IOException {
+		return getFrame(frameName, -1);
+	}
+
+	/**
+	 * Requests a frame from the peer unless it is the given version.
+	 * 
+	 * @param version
+	 *            the version of a copy of the frame, or -1 if there is none.
+	 * @return the contents of the frame, UNCHANGED if the frame is the given
+	 *         version, or null if the peer does not have it.
+	 * @throws ConnectException
+	 *             if the peer does not run a FrameStreamServer.
+	 * @throws IOException
+	 *             if the frame could not be read by the peer or the
+	 *             connection failed.
+	 */
+	public synchronized byte[] getFrame(String frameName, int version)
+			throws IOException {
+		for (int attempt = 0;; attempt++) {
+			boolean reused = connect();
+			int sent = _out.size();
+			try {
+				if (version < 0) {
+					_out.write(FrameStreamServer.GET_FRAME);
+					_out.writeUTF(frameName);
+				} else {
+					_out.write(FrameStreamServer.GET_CHANGED_FRAME);
+					_out.writeUTF(frameName);
+					_out.writeInt(version);
+				}
+				_out.flush();
+				_bytesSent += _out.size() - sent;
+
+				int status = readStatus();
+				_bytesReceived++;
+				if (status == FrameStreamServer.NOT_FOUND)
+					return null;
+				if (status == FrameStreamServer.UNCHANGED)
+					return UNCHANGED;
+				int length = _in.readInt();
+				if (length < 0 || length > FrameStreamServer.MAX_FRAME_LENGTH)
+					throw new IOException("Invalid frame length " + length);
+				byte[] contents = new byte[length];
+				_in.readFully(contents);
+				_bytesReceived += 4 + length;
+				return contents;
+			} catch (FrameStreamException e) {
+				throw e;
+			} catch (IOException e) {
+				close();
+				// the peer may have closed an idle connection, so try once
+				// more on a new one
+				if (!reused || attempt > 0)
+					throw e;
+			}
+		}
+	}
+
+	/**
+	 * Saves a frame on the peer, waiting until it has been saved.
+	 *
+	 * @throws ConnectException
+	 *             if the peer does not run a FrameStreamServer.
+	 * @throws IOException
+	 *             if the frame could not be saved by the peer or the
+	 *             connection failed.
+	 */
+	public synchronized void saveFrame(String frameName, int version,
+			byte[] contents) throws IOException {
+		for (int attempt = 0;; attempt++) {
+			boolean reused = connect();
+			int sent = _out.size();
+			try {
+				_out.write(FrameStreamServer.SAVE_FRAME);
+				_out.writeUTF(frameName);
+				_out.writeInt(version);
+				_out.writeInt(contents.length);
+				_out.write(contents);
+				_out.flush();
+				_bytesSent += _out.size() - sent;
+
+				readStatus();
+				_bytesReceived++;
+				return;
+			} catch (FrameStreamException e) {
+				throw e;
+			} catch (IOException e) {
+				close();
+				if (!reused || attempt > 0)
+					throw e;
+			}
+		}
+	}
+
+	public synchronized void close() {
+		if (_socket == null)
+			return;
+		try {
+			_socket.close();
+		} catch (IOException e) {
+		}
+		_socket = null;
+		_in = null;
+		_out = null;
+	}
+
+	/**
+	 * An error reported by the peer, after which the connection can still be
+	 * used.
+	 */
+	public static class FrameStreamException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public FrameStreamException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * @return true if an open connection is used, false if a new one was made.
+	 */
+	private boolean connect() throws IOException {
+		if (_socket != null)
+			return true;
+
+		int timeout = NetworkSettings.FrameShareTimeout.get() * 2;
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(_peer.getAddress(), _peer
+					.getPort()
+					+ FrameStreamServer.OFFSET), timeout);
+			socket.setSoTimeout(timeout);
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(socket.getOutputStream()));
+
+			out.writeInt(FrameStreamServer.MAGIC);
+			out.writeInt(FrameStreamServer.VERSION);
+			out.writeInt(_localPort);
+			out.flush();
+			if (in.readInt() != FrameStreamServer.MAGIC
+					|| in.readInt() != FrameStreamServer.VERSION)
+				throw new ConnectException(_peer.getName()
+						+ " does not speak this FrameShare protocol");
+
+			_socket = socket;
+			_in = in;
+			_out = out;
+			_refusedAt = 0;
+			_connections++;
+			return false;
+		} catch (IOException e) {
+			socket.close();
+			_refusedAt = System.currentTimeMillis();
+			if (e instanceof ConnectException)
+				throw e;
+			ConnectException refused = new ConnectException(
+					"Could not connect to " + _peer.getName() + ": "
+							+ e.getMessage());
+			refused.initCause(e);
+			throw refused;
+		}
+	}
+
+	private int readStatus() throws IOException {
+		int status = _in.read();
+		if (status == FrameStreamServer.ERROR)
+			throw new FrameStreamException(_in.readUTF());
+		if (status != FrameStreamServer.OK
+				&& status != FrameStreamServer.NOT_FOUND
+				&& status != FrameStreamServer.UNCHANGED)
+			throw new IOException("Invalid reply from " + _peer.getName());
+		return status;
+	}
+}
@@ -0,0 +1,610 @@
+package org.expeditee.network;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import org.expeditee.gui.FrameIO;
+import org.expeditee.gui.MessageBay;
+
+/**
+ * Serves and saves frames over TCP, so frames of any size can be shared and
+ * every request is answered with whether it succeeded. A peer may make as
+ * many requests as it likes over one connection. Peers which do not run this
+ * server are still reached through the FrameServer and FrameSaver datagrams.
+ *
+ * A connection starts with the client sending MAGIC, VERSION and the port of
+ * its own servers (or -1), which the server answers with MAGIC and VERSION.
+ * Each request is then a request byte followed by the frame name, and each
+ * reply a status byte followed by the frame or an error message. A client
+ * with a copy of a frame can ask for it only if its version has changed.
+ *
+ * Every connection is served by the server's thread waiting on a selector, so
+ * a room full of peers does not need a thread each. The server's thread never
+ * touches the disk: frames are looked up in the PublicFrameCache by a reader
+ * thread and saved by a saver thread, so a slow disk or a frame which is not
+ * in memory does not hold up the other peers. Frames are sent from the cache
+ * without being read or copied again.
+ */
+public class FrameStreamServer extends DefaultServer {
+	public final static int OFFSET = 7;
+
+	static final int MAGIC = 0x45585046;
+
+	static final int VERSION = 1;
+
+	/**
+	 * Request for a frame, answered with its length and contents.
+	 */
+	static final int GET_FRAME = 1;
+
+	/**
+	 * Request to save a frame, followed by its version, length and contents.
+	 */
+	static final int SAVE_FRAME = 2;
+
+	/**
+	 * Request for a frame unless it is the version which follows, answered as
+	 * GET_FRAME is or with UNCHANGED.
+	 */
+	static final int GET_CHANGED_FRAME = 3;
+
+	static final int OK = 0;
+
+	static final int NOT_FOUND = 1;
+
+	static final int ERROR = 2;
+
+	static final int UNCHANGED = 3;
+
+	/**
+	 * Frames larger than this are refused, rather than running out of memory
+	 * on a corrupt request.
+	 */
+	static final int MAX_FRAME_LENGTH = 256 * 1024 * 1024;
+
+	/**
+	 * Milliseconds a connection may be idle before the server closes it.
+	 */
+	static final int IDLE_TIMEOUT = 60000;
+
+	/**
+	 * Milliseconds between checks for idle connections.
+	 */
+	private static final int SELECT_TIMEOUT = 1000;
+
+	// the client's MAGIC, VERSION and port
+	private static final int HANDSHAKE_LENGTH = 12;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * The requests received over a connection which have not been answered,
+	 * and the replies which have not been sent.
+	 */
+	private static class Connection {
+		final SocketChannel channel;
+
+		ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+
+		final LinkedList<ByteBuffer> out = new LinkedList<ByteBuffer>();
+
+		String peerName = null;
+
+		boolean shookHands = false;
+
+		// no more requests are read while a frame is being read or saved
+		boolean waiting = false;
+
+		// closed once the replies have been sent
+		boolean closing = false;
+
+		long lastActive = System.currentTimeMillis();
+
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+	}
+
+	/**
+	 * A frame to be read by the reader thread or saved by the saver thread,
+	 * and the reply once it has been.
+	 */
+	private static class QueuedRequest {
+		final Connection connection;
+
+		final String frameName;
+
+		// the version the client has, or the version being saved
+		final int version;
+
+		// the frame being saved, or the frame which was read
+		byte[] contents;
+
+		// when the request was received, and its length, for the stats
+		final long received;
+
+		final int length;
+
+		// the reply, unless it is the frame which was read
+		byte[] reply = null;
+
+		QueuedRequest(Connection connection, String frameName, int version,
+				byte[] contents, long received, int length) {
+			this.connection = connection;
+			this.frameName = frameName;
+			this.version = version;
+			this.contents = contents;
+			this.received = received;
+			this.length = length;
+		}
+	}
+
+	private final Selector _selector;
+
+	private final ServerSocketChannel _serverChannel;
+
+	private volatile int _connections = 0;
+
+	private long _lastIdleCheck = System.currentTimeMillis();
+
+	// frames waiting for the reader and saver threads, and those they have
+	// read or saved
+	private final LinkedList<QueuedRequest> _reads = new LinkedList<QueuedRequest>();
+
+	private final LinkedList<QueuedRequest> _saves = new LinkedList<QueuedRequest>();
+
+	private final LinkedList<QueuedRequest> _answered = new LinkedList<QueuedRequest>();
+
+	private Thread _reader = null;
+
+	private Thread _saver = null;
+
+	public FrameStreamServer(int port) throws IOException {
+		super("FrameStreamServer");
+		_selector = Selector.open();
+		_serverChannel = ServerSocketChannel.open();
+		try {
+			_serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+			_serverChannel.bind(new InetSocketAddress(port + OFFSET));
+			_serverChannel.configureBlocking(false);
+			_serverChannel.register(_selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			_serverChannel.close();
+			_selector.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the number of connections which have been accepted.
+	 */
+	public int getConnections() {
+		return _connections;
+	}
+
+	@Override
+	protected void listenForMessages() throws IOException {
+		_selector.select(SELECT_TIMEOUT);
+		if (_stop)
+			return;
+
+		sendQueuedReplies();
+		Iterator<SelectionKey> keys = _selector.selectedKeys().iterator();
+		while (keys.hasNext()) {
+			SelectionKey key = keys.next();
+			keys.remove();
+			if (!key.isValid())
+				continue;
+			if (key.isAcceptable()) {
+				accept();
+				continue;
+			}
+
+			Connection connection = (Connection) key.attachment();
+			try {
+				if (key.isReadable())
+					read(connection);
+				if (key.isValid() && key.isWritable())
+					write(connection);
+			} catch (IOException e) {
+				// the connection was closed or reset by the client, or it sent
+				// an invalid request
+				close(connection);
+			}
+		}
+		closeIdleConnections();
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = _serverChannel.accept()) != null) {
+			_connections++;
+			try {
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				channel.register(_selector, SelectionKey.OP_READ,
+						new Connection(channel));
+			} catch (IOException e) {
+				channel.close();
+			}
+		}
+	}
+
+	private void read(Connection connection) throws IOException {
+		if (connection.channel.read(connection.in) < 0)
+			throw new EOFException();
+		connection.lastActive = System.currentTimeMillis();
+		answerRequests(connection);
+		write(connection);
+	}
+
+	/**
+	 * Sends as much of the replies as the connection will take, and then
+	 * waits to send the rest or for the next request.
+	 */
+	private void write(Connection connection) throws IOException {
+		while (!connection.out.isEmpty()) {
+			ByteBuffer reply = connection.out.getFirst();
+			connection.channel.write(reply);
+			if (reply.hasRemaining())
+				break;
+			connection.out.removeFirst();
+			connection.lastActive = System.currentTimeMillis();
+		}
+		if (connection.out.isEmpty() && connection.closing) {
+			close(connection);
+			return;
+		}
+
+		// the next request is only read once the replies have been sent, so
+		// a client which does not read them can not fill the memory
+		int ops = 0;
+		if (!connection.out.isEmpty())
+			ops = SelectionKey.OP_WRITE;
+		else if (!connection.waiting)
+			ops = SelectionKey.OP_READ;
+		connection.channel.keyFor(_selector).interestOps(ops);
+	}
+
+	/**
+	 * Answers the requests which have been received in full, and makes room
+	 * for the rest of the next one.
+	 */
+	private void answerRequests(Connection connection) throws IOException {
+		ByteBuffer in = connection.in;
+		in.flip();
+		int needed = 0;
+		while (!connection.waiting && !connection.closing) {
+			long start = System.nanoTime();
+			if (!connection.shookHands) {
+				if (in.remaining() < HANDSHAKE_LENGTH)
+					break;
+				shakeHands(connection, in);
+				continue;
+			}
+			int length = getRequestLength(in);
+			if (length < 0 || in.remaining() < length) {
+				needed = length;
+				break;
+			}
+			answer(connection, in, length, start);
+		}
+		in.compact();
+
+		if (in.position() == 0 && in.capacity() > BUFFER_SIZE) {
+			// the buffer grown for a large frame is not kept once it is saved
+			connection.in = ByteBuffer.allocate(BUFFER_SIZE);
+		} else if (needed > in.capacity() || (needed < 0 && !in.hasRemaining())) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(needed, in
+					.capacity() * 2));
+			in.flip();
+			larger.put(in);
+			connection.in = larger;
+		}
+	}
+
+	/**
+	 * @return the length of the request at the start of the buffer, or -1 if
+	 *         not enough of it has been received to tell.
+	 */
+	private static int getRequestLength(ByteBuffer in) throws IOException {
+		int start = in.position();
+		if (in.remaining() < 3)
+			return -1;
+		int request = in.get(start);
+		int length = 3 + (in.getShort(start + 1) & 0xffff);
+		if (request == GET_CHANGED_FRAME)
+			return length + 4;
+		if (request != SAVE_FRAME)
+			return length;
+
+		if (in.remaining() < length + 8)
+			return -1;
+		int frameLength = in.getInt(start + length + 4);
+		if (frameLength < 0 || frameLength > MAX_FRAME_LENGTH)
+			throw new IOException("Invalid frame length " + frameLength);
+		return length + 8 + frameLength;
+	}
+
+	private void shakeHands(Connection connection, ByteBuffer in) {
+		int magic = in.getInt();
+		int version = in.getInt();
+		int peerPort = in.getInt();
+		connection.closing = true;
+		if (magic != MAGIC)
+			return;
+
+		ByteBuffer reply = ByteBuffer.allocate(8);
+		reply.putInt(MAGIC).putInt(VERSION).flip();
+		connection.out.add(reply);
+		if (version != VERSION)
+			return;
+
+		connection.closing = false;
+		connection.shookHands = true;
+		if (FrameShare.getInstance() != null)
+			connection.peerName = FrameShare.getInstance().getPeerName(
+					peerPort, connection.channel.socket().getInetAddress());
+		if (connection.peerName == null)
+			connection.peerName = connection.channel.socket()
+					.getInetAddress().toString();
+	}
+
+	private void answer(Connection connection, ByteBuffer in, int length,
+			long start) throws IOException {
+		int request = in.get();
+		String frameName = readUTF(in);
+		if (request == GET_FRAME || request == GET_CHANGED_FRAME) {
+			int version = request == GET_FRAME ? -1 : in.getInt();
+			connection.waiting = true;
+			queue(_reads, new QueuedRequest(connection, frameName, version,
+					null, start, length));
+		} else if (request == SAVE_FRAME) {
+			int version = in.getInt();
+			byte[] contents = new byte[in.getInt()];
+			in.get(contents);
+			connection.waiting = true;
+			queue(_saves, new QueuedRequest(connection, frameName, version,
+					contents, start, length));
+		} else {
+			reply(connection, getError("Unknown request " + request));
+			connection.closing = true;
+		}
+	}
+
+	private static String readUTF(ByteBuffer in) throws IOException {
+		byte[] utf = new byte[2 + (in.getShort(in.position()) & 0xffff)];
+		in.get(utf);
+		return new DataInputStream(new ByteArrayInputStream(utf)).readUTF();
+	}
+
+	/**
+	 * Reads a frame for the reader thread, unless the client has a copy of the
+	 * same version.
+	 */
+	private static void readFrame(QueuedRequest read) {
+		try {
+			if (read.version >= 0
+					&& PublicFrameCache.getVersion(read.frameName) == read.version)
+				read.reply = new byte[] { UNCHANGED };
+			else
+				read.contents = PublicFrameCache.getContents(read.frameName);
+		} catch (IOException e) {
+			read.reply = getError("Could not read " + read.frameName + ": "
+					+ e.getMessage());
+			return;
+		}
+		if (read.reply == null && read.contents == null)
+			read.reply = new byte[] { NOT_FOUND };
+	}
+
+	/**
+	 * @return the number of bytes sent.
+	 */
+	private static int sendFrame(Connection connection, byte[] contents) {
+		ByteBuffer header = ByteBuffer.allocate(5);
+		header.put((byte) OK).putInt(contents.length).flip();
+		connection.out.add(header);
+		// the cached frame is sent as it is, without being copied
+		connection.out.add(ByteBuffer.wrap(contents));
+		return header.limit() + contents.length;
+	}
+
+	private static int reply(Connection connection, byte[] reply) {
+		connection.out.add(ByteBuffer.wrap(reply));
+		return reply.length;
+	}
+
+	private static byte[] getError(String message) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.write(ERROR);
+			out.writeUTF(message);
+		} catch (IOException e) {
+			// not thrown when writing to memory
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Hands a request to the reader or saver thread, starting it if need be.
+	 */
+	private void queue(final LinkedList<QueuedRequest> queue,
+			QueuedRequest request) {
+		synchronized (queue) {
+			queue.add(request);
+			queue.notify();
+			if ((queue == _reads ? _reader : _saver) != null)
+				return;
+			Thread thread = new Thread(queue == _reads ? "FrameStreamReader"
+					: "FrameStreamSaver") {
+				@Override
+				public void run() {
+					try {
+						answerQueued(queue);
+					} catch (InterruptedException e) {
+					}
+				}
+			};
+			thread.setDaemon(true);
+			if (queue == _reads)
+				_reader = thread;
+			else
+				_saver = thread;
+			thread.start();
+		}
+	}
+
+	/**
+	 * Reads or saves the queued frames, and wakes the server's thread to send
+	 * the replies.
+	 */
+	private void answerQueued(LinkedList<QueuedRequest> queue)
+			throws InterruptedException {
+		while (true) {
+			QueuedRequest request;
+			synchronized (queue) {
+				while (queue.isEmpty() && !_stop)
+					queue.wait();
+				if (_stop)
+					return;
+				request = queue.removeFirst();
+			}
+			if (queue == _reads)
+				readFrame(request);
+			else
+				request.reply = saveFrame(request.connection.peerName,
+						request.frameName, request.version, request.contents);
+			synchronized (_answered) {
+				_answered.add(request);
+			}
+			_selector.wakeup();
+		}
+	}
+
+	/**
+	 * @return the reply to a request to save a frame.
+	 */
+	private static byte[] saveFrame(String peerName, String frameName,
+			int version, byte[] contents) {
+		MessageBay.displayMessage("Recieved request to save " + frameName);
+		boolean saved;
+		try {
+			saved = FrameIO.SavePublicFrame(peerName, frameName, version,
+					new BufferedReader(new StringReader(new String(contents,
+							FrameShare.CHARSET))));
+		} catch (Exception e) {
+			e.printStackTrace();
+			return getError("Could not save " + frameName + ": " + e);
+		}
+
+		if (saved)
+			return new byte[] { OK };
+		return getError("Could not save " + frameName);
+	}
+
+	/**
+	 * Sends the replies to the frames which the reader and saver threads have
+	 * read or saved, and goes back to reading the requests of their
+	 * connections.
+	 */
+	private void sendQueuedReplies() {
+		while (true) {
+			QueuedRequest request;
+			synchronized (_answered) {
+				if (_answered.isEmpty())
+					return;
+				request = _answered.removeFirst();
+			}
+			Connection connection = request.connection;
+			connection.waiting = false;
+			if (!connection.channel.isOpen())
+				continue;
+			int sent = request.reply == null ? sendFrame(connection,
+					request.contents) : reply(connection, request.reply);
+			_stats.request(System.nanoTime() - request.received,
+					request.length, sent);
+			try {
+				answerRequests(connection);
+				write(connection);
+			} catch (IOException e) {
+				close(connection);
+			}
+		}
+	}
+
+	private void closeIdleConnections() {
+		long now = System.currentTimeMillis();
+		if (now - _lastIdleCheck < SELECT_TIMEOUT)
+			return;
+		_lastIdleCheck = now;
+		for (SelectionKey key : _selector.keys()) {
+			Connection connection = (Connection) key.attachment();
+			if (connection != null && !connection.waiting
+					&& now - connection.lastActive > IDLE_TIMEOUT)
+				close(connection);
+		}
+	}
+
+	private static void close(Connection connection) {
+		try {
+			connection.channel.close();
+		} catch (IOException e) {
+		}
+	}
+
+	@Override
+	public void close() {
+		super.close();
+		synchronized (_reads) {
+			_reads.notifyAll();
+		}
+		synchronized (_saves) {
+			_saves.notifyAll();
+		}
+		_selector.wakeup();
+		// the connections are closed by the server's thread, which is waited
+		// for so the port can be used again at once
+		if (isAlive() && Thread.currentThread() != this) {
+			try {
+				join(SELECT_TIMEOUT);
+			} catch (InterruptedException e) {
+			}
+		}
+		if (!isAlive())
+			closeSocket();
+	}
+
+	@Override
+	protected void closeSocket() {
+		if (!_selector.isOpen())
+			return;
+		for (SelectionKey key : _selector.keys()) {
+			try {
+				key.channel().close();
+			} catch (IOException e) {
+			}
+		}
+		try {
+			_selector.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
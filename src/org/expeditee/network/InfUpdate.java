@@ -21,6 +21,8 @@ public class InfUpdate extends DefaultServer {
 		// receive request
 		DatagramPacket packet = new DatagramPacket(buf, buf.length);
 		socket.receive(packet);
+		long start = System.nanoTime();
+		int received = packet.getLength();
 
 		String framesetName = new String(packet.getData(), 0, packet
 				.getLength());
@@ -41,5 +43,6 @@ public class InfUpdate extends DefaultServer {
 			packet = new DatagramPacket(buf, buf.length, address, port);
 			socket.send(packet);
 		}
+		_stats.request(System.nanoTime() - start, received, buf.length);
 	}
 }
@@ -18,6 +18,7 @@ public class MessageReciever extends DefaultServer {
 		// receive request
 		DatagramPacket packet = new DatagramPacket(buf, buf.length);
 		socket.receive(packet);
+		long start = System.nanoTime();
 
 		String packetContents = new String(packet.getData(), 0, packet
 				.getLength());
@@ -32,5 +33,6 @@ public class MessageReciever extends DefaultServer {
 
 		packetContents = sendersName + " says: " + packetContents;
 		MessageBay.displayMessage(packetContents);
+		_stats.request(System.nanoTime() - start, packet.getLength(), 0);
 	}
 }
@@ -9,12 +9,31 @@ import org.expeditee.gui.MessageBay;
 public class Peer {
 	public static final int DEFAULT_PORT = 3000;
 
+	/**
+	 * Requests a peer may fail to answer in a row before it is skipped when
+	 * every peer is asked for something.
+	 */
+	private static final int FAILURES_BEFORE_SKIPPING = 2;
+
+	/**
+	 * Milliseconds a peer is first skipped for, which doubles each time it
+	 * fails again up to MAX_SKIP_TIME.
+	 */
+	private static final long SKIP_TIME = 10000;
+
+	private static final long MAX_SKIP_TIME = 5 * 60000;
+
 	private String name_ = null;
 
 	private int port_ = DEFAULT_PORT;
 
 	private InetAddress ip_ = null;
 
+	// the number of requests in a row the peer has not answered
+	private int failures_ = 0;
+
+	private long failedAt_ = 0;
+
 	public Peer(AttributeValuePair avp) throws UnknownHostException {
 		name_ = avp.getAttribute();
 		String[] address = avp.getValue().split("\\s+");
@@ -42,4 +61,35 @@ public class Peer {
 	public String getName() {
 		return name_;
 	}
+
+	/**
+	 * Records that the peer answered a request.
+	 */
+	public synchronized void succeeded() {
+		failures_ = 0;
+	}
+
+	/**
+	 * Records that the peer could not be reached or did not answer in time.
+	 */
+	public synchronized void failed() {
+		failures_++;
+		failedAt_ = System.currentTimeMillis();
+	}
+
+	public synchronized int getFailures() {
+		return failures_;
+	}
+
+	/**
+	 * @return false if the peer has failed to answer several requests in a row
+	 *         and should be skipped for a while.
+	 */
+	public synchronized boolean isAvailable() {
+		if (failures_ < FAILURES_BEFORE_SKIPPING)
+			return true;
+		int doublings = Math.min(failures_ - FAILURES_BEFORE_SKIPPING, 16);
+		long skipTime = Math.min(MAX_SKIP_TIME, SKIP_TIME << doublings);
+		return System.currentTimeMillis() - failedAt_ > skipTime;
+	}
 }
@@ -0,0 +1,179 @@
+package org.expeditee.network;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.expeditee.gui.FrameIO;
+import org.expeditee.io.ExpReader;
+import org.expeditee.settings.performance.PerformanceSettings;
+
+/**
+ * The public frames which peers ask for, kept in memory as the bytes which are
+ * sent to them, so a frame asked for by a room full of peers is read from disk
+ * once rather than once for every request. A frame is read again once it has
+ * been saved, or if its file has been changed by anything else since.
+ */
+public class PublicFrameCache {
+
+	private static class Entry {
+		final String path;
+
+		final long modified;
+
+		final long length;
+
+		final byte[] contents;
+
+		final int version;
+
+		Entry(String path, long modified, long length, byte[] contents,
+				int version) {
+			this.path = path;
+			this.modified = modified;
+			this.length = length;
+			this.contents = contents;
+			this.version = version;
+		}
+	}
+
+	private static final Object _lock = new Object();
+
+	// in least recently used order
+	private static final Map<String, Entry> _entries = new LinkedHashMap<String, Entry>(
+			16, 0.75f, true);
+
+	private static long _totalBytes = 0;
+
+	// counts the frames discarded, so a frame read while it was being saved is
+	// not kept
+	private static long _discards = 0;
+
+	private static long _hits = 0;
+
+	private static long _misses = 0;
+
+	private static long _evictions = 0;
+
+	/**
+	 * @return the contents of a public frame, or null if there is no such
+	 *         frame.
+	 */
+	public static byte[] getContents(String frameName) throws IOException {
+		Entry entry = get(frameName);
+		return entry == null ? null : entry.contents;
+	}
+
+	/**
+	 * @return the version of a public frame, read from its header, or -1 if
+	 *         there is no such frame.
+	 */
+	public static int getVersion(String frameName) throws IOException {
+		Entry entry = get(frameName);
+		return entry == null ? -1 : entry.version;
+	}
+
+	/**
+	 * Drops a frame which has been saved, so it is read again.
+	 */
+	public static void discard(String frameName) {
+		synchronized (_lock) {
+			Entry old = _entries.remove(frameName.toLowerCase());
+			if (old != null)
+				_totalBytes -= old.contents.length;
+			_discards++;
+		}
+	}
+
+	public static void clear() {
+		synchronized (_lock) {
+			_entries.clear();
+			_totalBytes = 0;
+			_discards++;
+		}
+	}
+
+	/**
+	 * @return a one line summary of the frames kept and how often they were
+	 *         found.
+	 */
+	public static String getStats() {
+		synchronized (_lock) {
+			return "PublicFrameCache: " + _entries.size() + " frames, "
+					+ (_totalBytes / 1024) + "KB, " + _hits + " hits, "
+					+ _misses + " misses, " + _evictions + " evictions";
+		}
+	}
+
+	private static Entry get(String frameName) throws IOException {
+		String key = frameName.toLowerCase();
+		String path = FrameIO.getFrameFullPathName(FrameIO.PUBLIC_PATH,
+				frameName);
+		if (path == null)
+			return null;
+
+		// frames in logs and packs have no file of their own, and are only
+		// read again when they are saved
+		File file = new File(path);
+		long modified = file.lastModified();
+		long length = file.length();
+		long discards;
+		synchronized (_lock) {
+			Entry entry = _entries.get(key);
+			if (entry != null && entry.path.equals(path)
+					&& entry.modified == modified && entry.length == length) {
+				_hits++;
+				return entry;
+			}
+			_misses++;
+			discards = _discards;
+		}
+
+		BufferedReader br = FrameIO.LoadPublicFrame(frameName);
+		if (br == null)
+			return null;
+		StringBuilder sb = new StringBuilder();
+		try {
+			String s = null;
+			while ((s = br.readLine()) != null)
+				sb.append(s).append('\n');
+		} finally {
+			br.close();
+		}
+		String text = sb.toString();
+		Entry entry = new Entry(path, modified, length, text
+				.getBytes(FrameShare.CHARSET), ExpReader
+				.getVersion(new BufferedReader(new StringReader(text))));
+
+		synchronized (_lock) {
+			if (_discards == discards) {
+				Entry old = _entries.put(key, entry);
+				if (old != null)
+					_totalBytes -= old.contents.length;
+				_totalBytes += entry.contents.length;
+				trim();
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Evicts least recently used frames until the cache is within its budget.
+	 */
+	// must be called holding _lock
+	private static void trim() {
+		long maxBytes = PerformanceSettings.PublicFrameMemory.get() * 1024L * 1024L;
+		if (maxBytes <= 0)
+			return;
+		Iterator<Entry> entries = _entries.values().iterator();
+		while (_totalBytes > maxBytes && entries.hasNext()) {
+			_totalBytes -= entries.next().contents.length;
+			entries.remove();
+			_evictions++;
+		}
+	}
+}
@@ -0,0 +1,289 @@
+package org.expeditee.network;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.expeditee.gui.FrameIO;
+import org.expeditee.io.Conversion;
+import org.expeditee.io.ExpReader;
+
+/**
+ * Copies of the frames loaded from peers, kept on disk in
+ * {@link FrameIO#REMOTE_PATH} by peer and frame name. A peer only sends a
+ * frame again if its version has changed since the copy was made, and the
+ * copy is read instead while the peer can not be reached.
+ *
+ * Frames saved while their peer can not be reached are kept as pending writes
+ * next to the copies, and sent when the peer returns. The copy is updated
+ * when the frame is saved, so the latest version is read back in the
+ * meantime.
+ */
+public class RemoteFrameCache {
+
+	private static final String PENDING_EXTENTION = ".pending";
+
+	private static final Object _lock = new Object();
+
+	private static long _unchanged = 0;
+
+	private static long _fetched = 0;
+
+	private static long _offline = 0;
+
+	private static long _queued = 0;
+
+	private static long _sent = 0;
+
+	/**
+	 * @return the copy of a frame from a peer, or null if there is none.
+	 */
+	public static byte[] read(String peerName, String frameName) {
+		File file = getFile(peerName, frameName, ExpReader.EXTENTION);
+		synchronized (_lock) {
+			if (!file.isFile())
+				return null;
+			try {
+				return Files.readAllBytes(file.toPath());
+			} catch (IOException e) {
+				e.printStackTrace();
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Keeps a copy of a frame which has been sent by, or saved to, a peer.
+	 */
+	public static void write(String peerName, String frameName,
+			byte[] contents) {
+		synchronized (_lock) {
+			try {
+				write(getFile(peerName, frameName, ExpReader.EXTENTION),
+						contents);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Forgets the copy of a frame which the peer no longer has.
+	 */
+	public static void remove(String peerName, String frameName) {
+		synchronized (_lock) {
+			getFile(peerName, frameName, ExpReader.EXTENTION).delete();
+		}
+	}
+
+	/**
+	 * @return the version in the header of a frame, or -1 if it has none.
+	 */
+	public static int getVersion(byte[] contents) {
+		return ExpReader.getVersion(new BufferedReader(new StringReader(
+				new String(contents, FrameShare.CHARSET))));
+	}
+
+	/**
+	 * Keeps a frame to be saved to a peer when it can next be reached. A frame
+	 * saved again before then replaces the pending write.
+	 */
+	public static void queueWrite(String peerName, String frameName,
+			int version, byte[] contents) throws IOException {
+		byte[] header = (version + "\n").getBytes(FrameShare.CHARSET);
+		byte[] pending = new byte[header.length + contents.length];
+		System.arraycopy(header, 0, pending, 0, header.length);
+		System.arraycopy(contents, 0, pending, header.length, contents.length);
+
+		synchronized (_lock) {
+			write(getFile(peerName, frameName, PENDING_EXTENTION), pending);
+			write(getFile(peerName, frameName, ExpReader.EXTENTION), contents);
+			_queued++;
+		}
+	}
+
+	/**
+	 * @return the names of the frames waiting to be saved to a peer.
+	 */
+	public static List<String> getPendingWrites(String peerName) {
+		List<String> frameNames = new ArrayList<String>();
+		File peerDir = new File(FrameIO.REMOTE_PATH, peerName
+				.toLowerCase());
+		synchronized (_lock) {
+			File[] framesets = peerDir.listFiles();
+			if (framesets == null)
+				return frameNames;
+			for (File frameset : framesets) {
+				File[] files = frameset.listFiles();
+				if (files == null)
+					continue;
+				for (File f : files) {
+					String name = f.getName();
+					if (name.endsWith(PENDING_EXTENTION))
+						frameNames.add(frameset.getName()
+								+ name.substring(0, name.length()
+										- PENDING_EXTENTION.length()));
+				}
+			}
+		}
+		return frameNames;
+	}
+
+	/**
+	 * @return true if there are frames waiting to be saved to any peer.
+	 */
+	public static boolean hasPendingWrites() {
+		File[] peerDirs = new File(FrameIO.REMOTE_PATH).listFiles();
+		if (peerDirs == null)
+			return false;
+		for (File peerDir : peerDirs) {
+			if (!getPendingWrites(peerDir.getName()).isEmpty())
+				return true;
+		}
+		return false;
+	}
+
+	public static boolean hasPendingWrite(String peerName, String frameName) {
+		synchronized (_lock) {
+			return getFile(peerName, frameName, PENDING_EXTENTION).isFile();
+		}
+	}
+
+	/**
+	 * @return the version of a frame waiting to be saved to a peer, or -1 if
+	 *         there is no such write.
+	 */
+	public static int getPendingVersion(String peerName, String frameName) {
+		byte[] pending = readPending(peerName, frameName);
+		if (pending == null)
+			return -1;
+		int end = indexOfNewline(pending);
+		try {
+			return Integer.parseInt(new String(pending, 0, end,
+					FrameShare.CHARSET));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return the contents of a frame waiting to be saved to a peer, or null if
+	 *         there is no such write.
+	 */
+	public static byte[] getPendingContents(String peerName, String frameName) {
+		byte[] pending = readPending(peerName, frameName);
+		if (pending == null)
+			return null;
+		int start = indexOfNewline(pending) + 1;
+		byte[] contents = new byte[pending.length - start];
+		System.arraycopy(pending, start, contents, 0, contents.length);
+		return contents;
+	}
+
+	/**
+	 * Forgets a pending write once it has been sent, unless the frame was
+	 * saved again while it was being sent.
+	 */
+	public static void removePendingWrite(String peerName, String frameName,
+			int version) {
+		synchronized (_lock) {
+			if (getPendingVersion(peerName, frameName) == version) {
+				getFile(peerName, frameName, PENDING_EXTENTION).delete();
+				_sent++;
+			}
+		}
+	}
+
+	static void unchanged() {
+		synchronized (_lock) {
+			_unchanged++;
+		}
+	}
+
+	static void fetched() {
+		synchronized (_lock) {
+			_fetched++;
+		}
+	}
+
+	static void readOffline() {
+		synchronized (_lock) {
+			_offline++;
+		}
+	}
+
+	/**
+	 * @return a one line summary of how often frames were revalidated, sent
+	 *         again or read while their peer was unreachable.
+	 */
+	public static String getStats() {
+		synchronized (_lock) {
+			return "RemoteFrameCache: " + _unchanged + " unchanged, "
+					+ _fetched + " fetched, " + _offline + " read offline, "
+					+ _queued + " writes queued, " + _sent + " sent";
+		}
+	}
+
+	private static byte[] readPending(String peerName, String frameName) {
+		File file = getFile(peerName, frameName, PENDING_EXTENTION);
+		synchronized (_lock) {
+			if (!file.isFile())
+				return null;
+			try {
+				return Files.readAllBytes(file.toPath());
+			} catch (IOException e) {
+				e.printStackTrace();
+				return null;
+			}
+		}
+	}
+
+	private static int indexOfNewline(byte[] bytes) {
+		for (int i = 0; i < bytes.length; i++) {
+			if (bytes[i] == '\n')
+				return i;
+		}
+		return bytes.length;
+	}
+
+	private static File getFile(String peerName, String frameName,
+			String extention) {
+		return new File(FrameIO.REMOTE_PATH + peerName.toLowerCase()
+				+ File.separator + Conversion.getFramesetName(frameName)
+				+ File.separator + Conversion.getFrameNumber(frameName)
+				+ extention);
+	}
+
+	/**
+	 * Writes a file by writing a hidden temporary file next to it and moving it
+	 * over the original, so a crash leaves either the old or the new copy.
+	 */
+	// must be called holding _lock
+	private static void write(File file, byte[] contents) throws IOException {
+		file.getParentFile().mkdirs();
+		File temp = new File(file.getParentFile(), "." + file.getName()
+				+ ".tmp");
+
+		FileOutputStream out = new FileOutputStream(temp);
+		try {
+			out.write(contents);
+		} finally {
+			out.close();
+		}
+
+		try {
+			Files.move(temp.toPath(), file.toPath(),
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package org.expeditee.network;
+
+import java.util.Arrays;
+
+/**
+ * Counts the requests answered by a server and the bytes received and sent,
+ * and keeps how long the most recent requests took to answer.
+ */
+public class ServerStats {
+
+	// the number of recent requests whose latencies are kept
+	private static final int SAMPLES = 4096;
+
+	private final long _started = System.nanoTime();
+
+	private long _requests = 0;
+
+	private long _bytesIn = 0;
+
+	private long _bytesOut = 0;
+
+	// nanoseconds, in a ring overwriting the oldest
+	private final long[] _latencies = new long[SAMPLES];
+
+	/**
+	 * Counts a request which has been answered.
+	 *
+	 * @param nanos
+	 *            the time from the request being received to its answer being
+	 *            sent.
+	 */
+	public synchronized void request(long nanos, long bytesIn, long bytesOut) {
+		_latencies[(int) (_requests % SAMPLES)] = nanos;
+		_requests++;
+		_bytesIn += bytesIn;
+		_bytesOut += bytesOut;
+	}
+
+	public synchronized long getRequests() {
+		return _requests;
+	}
+
+	public synchronized long getBytesIn() {
+		return _bytesIn;
+	}
+
+	public synchronized long getBytesOut() {
+		return _bytesOut;
+	}
+
+	/**
+	 * @param percentile
+	 *            between 0 and 100.
+	 * @return the latency in nanoseconds which that percentage of the recent
+	 *         requests were answered within, or 0 if there have been none.
+	 */
+	public synchronized long getLatency(double percentile) {
+		int count = (int) Math.min(_requests, SAMPLES);
+		if (count == 0)
+			return 0;
+		long[] sorted = Arrays.copyOf(_latencies, count);
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile / 100 * count) - 1;
+		return sorted[Math.max(0, Math.min(count - 1, index))];
+	}
+
+	/**
+	 * @return a one line summary of the requests answered by the named server.
+	 */
+	public synchronized String getStats(String serverName) {
+		double seconds = (System.nanoTime() - _started) / 1e9;
+		return String.format(
+				"%s: %d requests (%.1f/s), %dKB in, %dKB out, latency p50 %.2fms p99 %.2fms",
+				serverName, _requests, _requests / seconds, _bytesIn / 1024,
+				_bytesOut / 1024, getLatency(50) / 1e6, getLatency(99) / 1e6);
+	}
+}
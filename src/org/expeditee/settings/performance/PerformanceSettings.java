@@ -0,0 +1,39 @@
+package org.expeditee.settings.performance;
+
+import org.expeditee.setting.BooleanSetting;
+import org.expeditee.setting.IntegerSetting;
+
+/**
+ * Settings which trade memory and background work for responsiveness.
+ */
+public abstract class PerformanceSettings {
+
+	public static final IntegerSetting FrameCacheSize = new IntegerSetting("Maximum number of frames kept in the frame cache (0 for no limit)", 1000);
+
+	public static final IntegerSetting FrameCacheMemory = new IntegerSetting("Estimated heap, in megabytes, the frame cache may use before evicting frames (0 for no limit)", 64);
+
+	public static final BooleanSetting SaveInBackground = new BooleanSetting("Write saved frames to disk on a background thread", true);
+
+	public static final IntegerSetting LogVersionsKept = new IntegerSetting("Number of versions of each frame kept in framesets stored as logs", 10);
+
+	public static final IntegerSetting PrefetchDepth = new IntegerSetting("Number of links ahead of the current frame to read frames in the background (0 to turn off prefetching)", 2);
+
+	public static final IntegerSetting PrefetchMemory = new IntegerSetting("Estimated heap, in megabytes, used by frames read ahead which have not been visited yet", 16);
+
+	public static final BooleanSetting IndexFramesetsForSearch = new BooleanSetting("Build a search index for a frameset the first time it is searched, so later searches do not read every frame", true);
+
+	public static final IntegerSetting SearchThreads = new IntegerSetting("Number of threads used to search framesets which are not indexed (0 for one per processor)", 0);
+
+	public static final IntegerSetting ImageCacheMemory = new IntegerSetting("Estimated heap, in megabytes, used by the images shown in pictures and their scaled copies before the least recently used are dropped (0 for no limit)", 64);
+
+	public static final IntegerSetting ImageDecodeThreads = new IntegerSetting("Number of threads reading the images of pictures in the background, pictures being drawn as placeholders until their images are read (0 to read images when they are first drawn)", 2);
+
+	public static final IntegerSetting UndoSteps = new IntegerSetting("Number of changes to each frame which can be undone (0 for no limit)", 100);
+
+	public static final IntegerSetting UndoMemory = new IntegerSetting("Estimated heap, in megabytes, used by the changes which can be undone on all frames before the oldest are forgotten (0 for no limit)", 16);
+
+	public static final IntegerSetting PublicFrameMemory = new IntegerSetting("Megabytes of public frames kept in memory for the peers which ask for them, so a frame asked for by many peers is read from disk once (0 for no limit)", 32);
+
+	public static final BooleanSetting CacheFrameTiles = new BooleanSetting("Keep the items drawn on the frames being shown, so moving items over a frame only redraws the parts of it which have changed", true);
+
+}
@@ -2,7 +2,6 @@ package org.expeditee.stats;
 
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
@@ -70,7 +69,7 @@ public class DocumentStatsFast extends Stats {
 
 		// Open the file and search the text items
 		try {
-			BufferedReader reader = new BufferedReader(new FileReader(fullPath));
+			BufferedReader reader = FrameIO.openFrameText(fullPath);
 			String next;
 			StringBuffer sb = new StringBuffer();
 			String link = null;
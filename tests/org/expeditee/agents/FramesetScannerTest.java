@@ -0,0 +1,208 @@
+package org.expeditee.agents;
+
+import java.awt.Dimension;
+import java.awt.HeadlessException;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.expeditee.gui.FrameFileIndex;
+import org.expeditee.gui.FrameGraphics;
+import org.expeditee.gui.FrameIO;
+import org.expeditee.settings.folders.FolderSettings;
+import org.expeditee.settings.performance.PerformanceSettings;
+
+public class FramesetScannerTest extends TestCase {
+
+	private static final int FRAMES = 200;
+
+	private File root;
+
+	private String path;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		if (FrameGraphics.getMaxSize() == null) {
+			try {
+				FrameGraphics.setMaxSize(new Dimension(1024, 768));
+			} catch (HeadlessException e) {
+				// the frame size is set before the message bay needs a display
+			}
+		}
+		root = File.createTempFile("scanner", "");
+		root.delete();
+		File frameset = new File(root, "scantest");
+		frameset.mkdirs();
+		path = root.getPath() + File.separator;
+
+		// every third frame contains the pattern and frame 10 is missing
+		for (int i = 1; i <= FRAMES; i++) {
+			if (i == 10)
+				continue;
+			FileWriter writer = new FileWriter(new File(frameset, i + ".exp"));
+			writer.write("V 1\nZ\n\nS T 1\nP 10 20\nT Frame " + i
+					+ (i % 3 == 0 ? " Needle" : "") + "\n\nZ\n\nZ\n\nZ\n");
+			writer.close();
+		}
+
+		FrameFileIndex.clear();
+		FolderSettings.FrameDirs.get().add(path);
+	}
+
+	protected void tearDown() throws Exception {
+		PerformanceSettings.SearchThreads.reset();
+		FolderSettings.FrameDirs.get().remove(path);
+		FrameFileIndex.clear();
+		for (File dir : root.listFiles()) {
+			for (File f : dir.listFiles())
+				f.delete();
+			dir.delete();
+		}
+		root.delete();
+		super.tearDown();
+	}
+
+	private static SearchAgent createAgent() {
+		return new SearchFrameset("needle") {
+			// the message bay is not shown in tests
+			protected void overwriteMessage(String message) {
+			}
+		};
+	}
+
+	private List<String> scan(SearchAgent agent, int threads) {
+		PerformanceSettings.SearchThreads.set(threads);
+		final List<String> results = new ArrayList<String>();
+		new FramesetScanner(agent, path, "scantest", "needle").scan(1, FRAMES,
+				new FramesetScanner.Results() {
+					public void found(long number, String frameName,
+							Collection<String> lines) {
+						results.add(frameName + "=" + lines);
+					}
+				});
+		return results;
+	}
+
+	public void testSameResultsAsSequentialSearch() {
+		List<String> expected = new ArrayList<String>();
+		for (int i = 1; i <= FRAMES; i++) {
+			expected.add("scantest" + i + "="
+					+ FrameIO.searchFrame("scantest" + i, "needle", path));
+		}
+
+		assertEquals(expected, scan(createAgent(), 1));
+		assertEquals(expected, scan(createAgent(), 4));
+		assertEquals("scantest10=null", scan(createAgent(), 3)
+				.get(9));
+	}
+
+	public void testStop() {
+		final SearchAgent agent = createAgent();
+		PerformanceSettings.SearchThreads.set(4);
+		final List<Long> found = new ArrayList<Long>();
+		new FramesetScanner(agent, path, "scantest", "needle").scan(1, FRAMES,
+				new FramesetScanner.Results() {
+					public void found(long number, String frameName,
+							Collection<String> lines) {
+						found.add(number);
+						if (number == 50)
+							agent.stop();
+					}
+				});
+		assertEquals(50, found.size());
+	}
+
+	/**
+	 * Times searching a generated frameset with the sequential loop which
+	 * searched framesets before the scanner, and with the scanner on
+	 * different numbers of threads. Every run must find the same lines in
+	 * the same order.
+	 *
+	 * Arguments: [frames [threads...]], 100000 frames and 1, 2, 4, 8 and 16
+	 * threads by default.
+	 */
+	public static void main(String[] args) throws IOException {
+		int frames = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int[] threads = { 1, 2, 4, 8, 16 };
+		if (args.length > 1) {
+			threads = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++)
+				threads[i - 1] = Integer.parseInt(args[i]);
+		}
+		try {
+			FrameGraphics.setMaxSize(new Dimension(1024, 768));
+		} catch (HeadlessException e) {
+			// the frame size is set before the message bay needs a display
+		}
+
+		// frames of about 4KB, with the pattern in some of their lines
+		File root = File.createTempFile("scanner", "");
+		root.delete();
+		File frameset = new File(root, "scanbench");
+		frameset.mkdirs();
+		final String path = root.getPath() + File.separator;
+		Random random = new Random(1);
+		for (int i = 1; i <= frames; i++) {
+			FileWriter writer = new FileWriter(new File(frameset, i + ".exp"));
+			writer.write("V 1\nZ\n\n");
+			for (int item = 1; item <= 20; item++) {
+				writer.write("S T " + item + "\nP 10 " + (20 * item) + "\nT");
+				for (int word = 0; word < 25; word++)
+					writer.write(random.nextInt(3500) == 0 ? " needle"
+							: " word" + random.nextInt(1000));
+				writer.write("\n\n");
+			}
+			writer.write("Z\n\nZ\n\nZ\n");
+			writer.close();
+		}
+		FrameFileIndex.clear();
+		FolderSettings.FrameDirs.get().add(path);
+
+		try {
+			long start = System.nanoTime();
+			List<String> expected = new ArrayList<String>();
+			for (int i = 1; i <= frames; i++) {
+				Collection<String> lines = FrameIO.searchFrame("scanbench"
+						+ i, "needle", path);
+				if (lines != null && !lines.isEmpty())
+					expected.add("scanbench" + i + "=" + lines);
+			}
+			System.out.println("Sequential: " + expected.size()
+					+ " frames found, hash " + expected.hashCode() + ", "
+					+ ((System.nanoTime() - start) / 1000000) + "ms");
+
+			for (int count : threads) {
+				PerformanceSettings.SearchThreads.set(count);
+				final List<String> results = new ArrayList<String>();
+				start = System.nanoTime();
+				new FramesetScanner(createAgent(), path, "scanbench", "needle")
+						.scan(1, frames, new FramesetScanner.Results() {
+							public void found(long number, String frameName,
+									Collection<String> lines) {
+								if (lines != null && !lines.isEmpty())
+									results.add(frameName + "=" + lines);
+							}
+						});
+				long elapsed = System.nanoTime() - start;
+				System.out.println(count + " threads: " + results.size()
+						+ " frames found, hash " + results.hashCode() + ", "
+						+ (elapsed / 1000000) + "ms"
+						+ (results.equals(expected) ? "" : ", DIFFERENT"));
+			}
+		} finally {
+			PerformanceSettings.SearchThreads.reset();
+			FolderSettings.FrameDirs.get().remove(path);
+			FrameFileIndex.clear();
+			for (File f : frameset.listFiles())
+				f.delete();
+			frameset.delete();
+			root.delete();
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package org.expeditee.gui;
+
+import java.awt.Dimension;
+import java.awt.HeadlessException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.expeditee.items.Dot;
+import org.expeditee.items.Item;
+import org.expeditee.items.Text;
+
+public class FrameBodyTest extends TestCase {
+
+	private Frame frame;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		if (FrameGraphics.getMaxSize() == null) {
+			try {
+				FrameGraphics.setMaxSize(new Dimension(1024, 768));
+			} catch (HeadlessException e) {
+				// the frame size is set before the message bay needs a display
+			}
+		}
+		frame = new Frame();
+		frame.setName("bodytest1");
+	}
+
+	private List<Item> createItems(int count) {
+		List<Item> items = new ArrayList<Item>();
+		for (int i = 0; i < count; i++) {
+			Item item = new Dot(10 * i, 20, 100 + i);
+			item.setParent(frame);
+			items.add(item);
+		}
+		return items;
+	}
+
+	public void testItemsByID() {
+		List<Item> items = createItems(10);
+		frame.addAllItems(items);
+		assertEquals(10, frame.getItems().size());
+		assertSame(items.get(3), frame.getItemWithID(103));
+		assertNull(frame.getItemWithID(99));
+
+		// an item equal to one on the frame is not added again
+		Item copy = new Dot(500, 500, 103);
+		copy.setParent(frame);
+		assertTrue(frame.containsItem(copy));
+		frame.addItem(copy);
+		assertEquals(10, frame.getItems().size());
+
+		items.get(3).setID(frame.getNextItemID());
+		assertNull(frame.getItemWithID(103));
+		assertFalse(frame.containsItem(copy));
+		assertSame(items.get(3), frame.getItemWithID(items.get(3).getID()));
+
+		// removing an equal item removes the one on the frame
+		Item equal = new Dot(0, 0, 105);
+		equal.setParent(frame);
+		frame.removeItem(equal);
+		assertFalse(frame.getItems().contains(items.get(5)));
+		assertNull(frame.getItemWithID(105));
+	}
+
+	public void testAddAndRemoveAll() {
+		List<Item> items = createItems(200);
+		Text annotation = new Text(50, "@test");
+		annotation.setParent(frame);
+		items.add(annotation);
+		assertTrue(frame.getAnnotationItems().isEmpty());
+
+		frame.addAllItems(items);
+		assertEquals(201, frame.getItems().size());
+		assertEquals(1, frame.getAnnotationItems().size());
+
+		Frame single = new Frame();
+		single.setName("bodytest2");
+		for (Item i : createItems(200))
+			single.addItem(i);
+
+		List<Item> toRemove = new ArrayList<Item>();
+		for (int i = 0; i < 200; i += 3)
+			toRemove.add(items.get(i));
+		toRemove.add(annotation);
+		frame.removeAllItems(toRemove);
+		for (int i = 0; i < 200; i += 3)
+			single.removeItem(single.getItemWithID(100 + i));
+
+		List<Item> left = frame.getItems();
+		assertEquals(single.getItems().size(), left.size());
+		for (Item i : left)
+			assertNotNull(single.getItemWithID(i.getID()));
+		assertTrue(frame.getAnnotationItems().isEmpty());
+		assertNull(frame.getItemWithID(100));
+		assertSame(items.get(1), frame.getItemWithID(101));
+	}
+
+	public void testItemsViews() {
+		List<Item> items = createItems(5);
+		frame.addAllItems(items);
+		List<Item> view = frame.getItemsView();
+		assertEquals(frame.getItems(), view);
+		assertSame(view, frame.getItemsView());
+		try {
+			view.remove(0);
+			fail("the view of the items can be changed");
+		} catch (UnsupportedOperationException e) {
+		}
+
+		items.get(0).setVisible(false);
+		assertEquals(4, frame.getItemsView(true).size());
+		assertEquals(5, frame.getItemsView().size());
+		assertEquals(5, view.size());
+
+		Text text = new Text(50, "@tag");
+		frame.addItem(text);
+		assertFalse(frame.getNonAnnotationItemsView().contains(text));
+		assertEquals(1, frame.getTextItemsView().size());
+		text.setText("tag");
+		assertTrue(frame.getNonAnnotationItemsView().contains(text));
+		assertTrue(frame.getAnnotationItems().isEmpty());
+
+		frame.removeItem(text);
+		assertTrue(frame.getTextItemsView().isEmpty());
+		assertFalse(frame.getItemsView().contains(text));
+	}
+}
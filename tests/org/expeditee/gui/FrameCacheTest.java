@@ -0,0 +1,75 @@
+package org.expeditee.gui;
+
+import java.awt.Dimension;
+import java.awt.HeadlessException;
+
+import junit.framework.TestCase;
+
+import org.expeditee.settings.performance.PerformanceSettings;
+
+public class FrameCacheTest extends TestCase {
+
+	private FrameCache cache;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		if (FrameGraphics.getMaxSize() == null) {
+			try {
+				FrameGraphics.setMaxSize(new Dimension(1024, 768));
+			} catch (HeadlessException e) {
+				// the frame size is set before the message bay needs a display
+			}
+		}
+		PerformanceSettings.FrameCacheSize.set(3);
+		PerformanceSettings.FrameCacheMemory.set(0);
+		cache = new FrameCache();
+	}
+
+	protected void tearDown() throws Exception {
+		PerformanceSettings.FrameCacheSize.reset();
+		PerformanceSettings.FrameCacheMemory.reset();
+		super.tearDown();
+	}
+
+	private static Frame createFrame(int number) {
+		Frame frame = new Frame();
+		frame.setFrameset("test");
+		frame.setFrameNumber(number);
+		return frame;
+	}
+
+	public void testEvictsLeastRecentlyUsed() {
+		for (int i = 1; i <= 3; i++)
+			cache.put("test" + i, createFrame(i));
+		// touch the oldest frame so the second one becomes the eldest
+		assertNotNull(cache.lookup("test1"));
+		cache.put("test4", createFrame(4));
+
+		assertEquals(3, cache.size());
+		assertTrue(cache.containsKey("test1"));
+		assertFalse(cache.containsKey("test2"));
+		assertTrue(cache.containsKey("test3"));
+		assertTrue(cache.containsKey("test4"));
+		assertEquals(1, cache.getEvictions());
+	}
+
+	public void testCounters() {
+		cache.put("test1", createFrame(1));
+		cache.lookup("test1");
+		cache.lookup("test1");
+		cache.lookup("test2");
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(0, cache.getEvictions());
+	}
+
+	public void testMemoryBudget() {
+		PerformanceSettings.FrameCacheSize.set(0);
+		PerformanceSettings.FrameCacheMemory.set(1);
+		for (int i = 1; i <= 1000; i++)
+			cache.put("test" + i, createFrame(i));
+		assertTrue(cache.getEstimatedSize() <= 1024 * 1024);
+		assertTrue(cache.containsKey("test1000"));
+		assertEquals(1000 - cache.size(), cache.getEvictions());
+	}
+}
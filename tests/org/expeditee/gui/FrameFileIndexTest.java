@@ -0,0 +1,240 @@
+package org.expeditee.gui;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.expeditee.io.Conversion;
+import org.expeditee.io.ExpReader;
+
+public class FrameFileIndexTest extends TestCase {
+
+	private File root;
+
+	private String path;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		root = File.createTempFile("frameindex", "");
+		root.delete();
+		root.mkdirs();
+		path = root.getPath() + File.separator;
+
+		createFile("alpha", "1.exp");
+		createFile("alpha", "2.exp");
+		createFile("alpha", "alpha.3");
+		createFile("alpha", "frame.inf");
+		createFile("beta", "10.exp");
+		FrameFileIndex.clear();
+	}
+
+	protected void tearDown() throws Exception {
+		FrameFileIndex.clear();
+		deleteAll(root);
+		super.tearDown();
+	}
+
+	private File createFile(String frameset, String name) throws IOException {
+		File dir = new File(root, frameset);
+		dir.mkdirs();
+		File file = new File(dir, name);
+		FileWriter writer = new FileWriter(file);
+		writer.write("Z\n");
+		writer.close();
+		return file;
+	}
+
+	private static void deleteAll(File f) {
+		File[] children = f.listFiles();
+		if (children != null) {
+			for (File child : children)
+				deleteAll(child);
+		}
+		f.delete();
+	}
+
+	public void testGetFramePath() {
+		assertEquals(path + "alpha" + File.separator + "1.exp",
+				FrameFileIndex.getFramePath(path, "Alpha1"));
+		assertEquals(path + "alpha" + File.separator + "alpha.3",
+				FrameFileIndex.getFramePath(path, "alpha3"));
+		assertEquals(path + "beta" + File.separator + "10.exp",
+				FrameFileIndex.getFramePath(path, "beta10"));
+		assertNull(FrameFileIndex.getFramePath(path, "alpha4"));
+		assertNull(FrameFileIndex.getFramePath(path, "gamma1"));
+		assertTrue(FrameFileIndex.hasFrameset(path, "Beta"));
+		assertFalse(FrameFileIndex.hasFrameset(path, "gamma"));
+	}
+
+	public void testUpdates() {
+		assertNull(FrameFileIndex.getFramePath(path, "alpha4"));
+		FrameFileIndex.addFile(path + "alpha" + File.separator + "4.exp");
+		assertNotNull(FrameFileIndex.getFramePath(path, "alpha4"));
+		FrameFileIndex.removeFile(path + "alpha" + File.separator + "4.exp");
+		assertNull(FrameFileIndex.getFramePath(path, "alpha4"));
+
+		FrameFileIndex.addFrameset(path, "Gamma");
+		assertTrue(FrameFileIndex.hasFrameset(path, "gamma"));
+		FrameFileIndex.removeFrameset(path, "Gamma");
+		assertFalse(FrameFileIndex.hasFrameset(path, "gamma"));
+	}
+
+	public void testMixedCase() throws Exception {
+		createFile("Zeta", "1.exp");
+		createFile("Zeta", "Zeta.2");
+		// directories are only framesets if their lower case name finds them
+		boolean ignoresCase = new File(root, "zeta").isDirectory();
+		assertEquals(ignoresCase, FrameFileIndex.hasFrameset(path, "Zeta"));
+		assertEquals(ignoresCase,
+				FrameFileIndex.getFramePath(path, "zeta1") != null);
+		assertEquals(ignoresCase,
+				FrameFileIndex.getFramePath(path, "zeta2") != null);
+		for (String name : FrameFileIndex.getFramesetNames(path))
+			assertEquals(name.toLowerCase(), name);
+
+		createFile("Delta", "1.exp");
+		createFile("delta", "2.exp");
+		assertTrue(waitFor("delta2", true));
+		assertTrue(FrameFileIndex.getFramesetNames(path).contains("delta"));
+		assertFalse(FrameFileIndex.getFramesetNames(path).contains("Delta"));
+	}
+
+	public void testExternalChanges() throws Exception {
+		assertNull(FrameFileIndex.getFramePath(path, "alpha5"));
+		assertFalse(FrameFileIndex.hasFrameset(path, "delta"));
+
+		File added = createFile("alpha", "5.exp");
+		createFile("delta", "1.exp");
+		assertTrue(waitFor("alpha5", true));
+		assertTrue(waitFor("delta1", true));
+
+		added.delete();
+		assertTrue(waitFor("alpha5", false));
+	}
+
+	private boolean waitFor(String frameName, boolean exists)
+			throws InterruptedException {
+		for (int i = 0; i < 100; i++) {
+			if ((FrameFileIndex.getFramePath(path, frameName) != null) == exists)
+				return true;
+			Thread.sleep(100);
+		}
+		return false;
+	}
+
+	/**
+	 * Finds a frame file by testing whether its frameset and then each of its
+	 * possible file names exist, as frames were found before they were
+	 * indexed.
+	 */
+	private static String probe(String path, String frameName) {
+		String source = path + Conversion.getFramesetName(frameName)
+				+ File.separator;
+		if (!new File(source).exists())
+			return null;
+		String fullPath = source + Conversion.getFrameNumber(frameName)
+				+ ExpReader.EXTENTION;
+		if (new File(fullPath).exists())
+			return fullPath;
+		fullPath = source + Conversion.getFramesetName(frameName) + "."
+				+ Conversion.getFrameNumber(frameName);
+		if (new File(fullPath).exists())
+			return fullPath;
+		return null;
+	}
+
+	/**
+	 * @return a frameset name without digits, which would be taken as part of
+	 *         the frame number.
+	 */
+	private static String getFramesetName(int number) {
+		StringBuffer name = new StringBuffer("bench");
+		do {
+			name.append((char) ('a' + number % 26));
+			number /= 26;
+		} while (number > 0);
+		return name.toString();
+	}
+
+	/**
+	 * Times resolving frame names to files across several frame directories,
+	 * by testing whether the files exist and from the index.
+	 *
+	 * Arguments: [names [directories [framesets [frames per frameset]]]],
+	 * 100000 names across 5 directories of 100 framesets of 51 frames by
+	 * default.
+	 */
+	public static void main(String[] args) throws IOException {
+		int names = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int dirs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int framesets = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+		int frames = args.length > 3 ? Integer.parseInt(args[3]) : 51;
+
+		File root = File.createTempFile("frameindex", "");
+		root.delete();
+		List<String> paths = new ArrayList<String>();
+		for (int d = 0; d < dirs; d++)
+			paths.add(new File(root, "dir" + d).getPath() + File.separator);
+		for (int f = 0; f < framesets; f++) {
+			File dir = new File(paths.get(f % dirs), getFramesetName(f));
+			dir.mkdirs();
+			for (int n = 1; n <= frames; n++)
+				new File(dir, n + ExpReader.EXTENTION).createNewFile();
+		}
+
+		// a tenth of the names are frames which do not exist
+		Random random = new Random(1);
+		String[] frameNames = new String[names];
+		for (int i = 0; i < names; i++)
+			frameNames[i] = getFramesetName(random.nextInt(framesets))
+					+ (1 + random.nextInt(frames + frames / 10));
+
+		try {
+			for (int pass = 0; pass < 3; pass++) {
+				long start = System.nanoTime();
+				int found = 0;
+				for (String name : frameNames) {
+					for (String path : paths) {
+						if (probe(path, name) != null) {
+							found++;
+							break;
+						}
+					}
+				}
+				long probing = System.nanoTime() - start;
+
+				// the first pass builds the index
+				if (pass == 0)
+					FrameFileIndex.clear();
+				start = System.nanoTime();
+				int indexed = 0;
+				for (String name : frameNames) {
+					for (String path : paths) {
+						if (FrameFileIndex.getFramePath(path, name) != null) {
+							indexed++;
+							break;
+						}
+					}
+				}
+				long index = System.nanoTime() - start;
+				if (found != indexed)
+					throw new IllegalStateException(indexed
+							+ " frames found from the index, " + found
+							+ " by probing");
+				System.out.println("Resolved " + names + " names ("
+						+ found + " found) across " + dirs + " directories: "
+						+ (probing / 1000000) + "ms probing, "
+						+ (index / 1000000) + "ms from the "
+						+ (pass == 0 ? "cold" : "warm") + " index");
+			}
+		} finally {
+			FrameFileIndex.clear();
+			deleteAll(root);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package org.expeditee.gui;
+
+import java.awt.Dimension;
+import java.awt.HeadlessException;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.expeditee.io.FramesetSearchIndex;
+import org.expeditee.settings.folders.FolderSettings;
+
+public class FrameLinkGraphTest extends TestCase {
+
+	private File root;
+
+	private String path;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		if (FrameGraphics.getMaxSize() == null) {
+			try {
+				FrameGraphics.setMaxSize(new Dimension(1024, 768));
+			} catch (HeadlessException e) {
+				// the frame size is set before the message bay needs a display
+			}
+		}
+		root = File.createTempFile("linkgraph", "");
+		root.delete();
+		path = root.getPath() + File.separator;
+
+		writeFrame("linka", 1, "2", "linkb1");
+		writeFrame("linka", 2, "linkb01", "linka9");
+		writeFrame("linka", 3);
+		writeFrame("linkb", 1, "linka1", "missing4");
+
+		FrameFileIndex.clear();
+		FrameLinkGraph.clear();
+		FolderSettings.FrameDirs.get().add(path);
+	}
+
+	protected void tearDown() throws Exception {
+		FolderSettings.FrameDirs.get().remove(path);
+		for (File dir : root.listFiles()) {
+			FramesetSearchIndex.close(dir);
+			for (File f : dir.listFiles())
+				f.delete();
+			dir.delete();
+		}
+		root.delete();
+		FrameFileIndex.clear();
+		FrameLinkGraph.clear();
+		super.tearDown();
+	}
+
+	private String writeFrame(String frameset, int number, String... links)
+			throws IOException {
+		File dir = new File(root, frameset);
+		dir.mkdirs();
+		File file = new File(dir, number + ".exp");
+		FileWriter writer = new FileWriter(file);
+		// the header's F line is the frozen date, not a link
+		writer.write("V 1\nF 01Jan2014:1200\nZ\n\n");
+		int id = 1;
+		for (String link : links) {
+			writer.write("S T " + id + "\nP 10 " + (20 * id++) + "\nT link\nF "
+					+ link + "\n\n");
+		}
+		writer.write("Z\n\nZ\n\nZ\n");
+		writer.close();
+		return file.getPath();
+	}
+
+	private static SortedSet<String> set(String... names) {
+		return new TreeSet<String>(Arrays.asList(names));
+	}
+
+	public void testLinks() {
+		assertEquals(set("linka1", "linka2"), FrameLinkGraph
+				.getLinksTo("linkb1"));
+		assertEquals(set("linka1"), FrameLinkGraph.getLinksTo("LinkA2"));
+		assertEquals(set("linkb1"), FrameLinkGraph.getLinksTo("linka1"));
+		assertEquals(set(), FrameLinkGraph.getLinksTo("linka3"));
+
+		assertEquals(Arrays.asList("linka2", "linkb1"), FrameLinkGraph
+				.getLinksFrom("linka1"));
+		assertEquals(Arrays.asList(), FrameLinkGraph.getLinksFrom("linka3"));
+		assertNull(FrameLinkGraph.getLinksFrom("linka7"));
+
+		SortedMap<String, SortedSet<String>> dangling = FrameLinkGraph
+				.getDanglingLinks(null);
+		assertEquals(set("linka2", "linkb1"), dangling.keySet());
+		assertEquals(set("linka9"), dangling.get("linka2"));
+		assertEquals(set("missing4"), dangling.get("linkb1"));
+		assertEquals(1, FrameLinkGraph.getDanglingLinks("linkb").size());
+	}
+
+	public void testSavedAndDeletedFrames() throws IOException {
+		FrameLinkGraph.update();
+
+		// as the save queue does after writing a frame
+		String fullPath = writeFrame("linka", 9, "linka3");
+		FrameFileIndex.addFile(fullPath);
+		FramesetSearchIndex.update(fullPath, "V 1\nZ\n\nS T 1\nT x\nF 3\n\nZ\n");
+		assertEquals(set("linka9"), FrameLinkGraph.getLinksTo("linka3"));
+		assertFalse(FrameLinkGraph.getDanglingLinks("linka").containsKey(
+				"linka2"));
+
+		new File(fullPath).delete();
+		FrameFileIndex.removeFile(fullPath);
+		FramesetSearchIndex.remove(fullPath);
+		assertEquals(set(), FrameLinkGraph.getLinksTo("linka3"));
+		assertEquals(set("linka9"), FrameLinkGraph.getDanglingLinks("linka")
+				.get("linka2"));
+	}
+
+	public void testNewAndRemovedFramesets() throws IOException {
+		FrameLinkGraph.update();
+
+		writeFrame("linkc", 1, "linka3");
+		FrameFileIndex.addFrameset(path, "linkc");
+		assertEquals(set("linkc1"), FrameLinkGraph.getLinksTo("linka3"));
+
+		// as moveFrameset does
+		FramesetSearchIndex.close(new File(root, "linkb"));
+		FrameFileIndex.removeFrameset(path, "linkb");
+		assertEquals(set(), FrameLinkGraph.getLinksTo("linka1"));
+		List<String> links = FrameLinkGraph.getLinksFrom("linka1");
+		assertEquals(Arrays.asList("linka2", "linkb1"), links);
+		assertTrue(FrameLinkGraph.getDanglingLinks("linka").get("linka1")
+				.contains("linkb1"));
+	}
+}
@@ -0,0 +1,164 @@
+package org.expeditee.gui;
+
+import java.awt.Dimension;
+import java.awt.HeadlessException;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.expeditee.io.ExpReader;
+import org.expeditee.settings.folders.FolderSettings;
+import org.expeditee.settings.performance.PerformanceSettings;
+
+public class FramePrefetcherTest extends TestCase {
+
+	private File root;
+
+	private String path;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		if (FrameGraphics.getMaxSize() == null) {
+			try {
+				FrameGraphics.setMaxSize(new Dimension(1024, 768));
+			} catch (HeadlessException e) {
+				// the frame size is set before the message bay needs a display
+			}
+		}
+		root = File.createTempFile("prefetcher", "");
+		root.delete();
+		File frameset = new File(root, "prefetchtest");
+		frameset.mkdirs();
+		path = root.getPath() + File.separator;
+
+		// frame 1 links to frame 3, which links to frame 5
+		createFrame(frameset, 1, "prefetchtest3");
+		createFrame(frameset, 2, null);
+		createFrame(frameset, 3, "5");
+		createFrame(frameset, 4, null);
+		createFrame(frameset, 5, null);
+		createFrame(frameset, 6, null);
+
+		FrameFileIndex.clear();
+		FolderSettings.FrameDirs.get().add(path);
+		FramePrefetcher.clear();
+	}
+
+	protected void tearDown() throws Exception {
+		FramePrefetcher.clear();
+		PerformanceSettings.PrefetchDepth.reset();
+		FolderSettings.FrameDirs.get().remove(path);
+		FrameFileIndex.clear();
+		for (File dir : root.listFiles()) {
+			for (File f : dir.listFiles())
+				f.delete();
+			dir.delete();
+		}
+		root.delete();
+		super.tearDown();
+	}
+
+	private static void createFrame(File frameset, int number, String link)
+			throws IOException {
+		FileWriter writer = new FileWriter(new File(frameset, number
+				+ ".exp"));
+		writer.write("V 1\nZ\n\nS T 1\nP 10 20\nT Frame " + number + "\n");
+		if (link != null)
+			writer.write("F " + link + "\n");
+		writer.write("\nZ\n\nZ\n\nZ\n");
+		writer.close();
+	}
+
+	private static boolean isPrefetched(String frameName) {
+		Frame frame = FramePrefetcher.take(frameName);
+		return frame != null && frame.getName().equalsIgnoreCase(frameName);
+	}
+
+	public void testLinkedAndAdjacentFrames() throws InterruptedException {
+		PerformanceSettings.PrefetchDepth.set(1);
+		FramePrefetcher.prefetchFrom(FrameIO.ReadFromDisk("prefetchtest1"));
+		FramePrefetcher.waitUntilIdle();
+
+		assertTrue(isPrefetched("prefetchtest2"));
+		assertTrue(isPrefetched("Prefetchtest3"));
+		assertFalse(isPrefetched("prefetchtest4"));
+		assertFalse(isPrefetched("prefetchtest5"));
+		// a frame is handed over only once
+		assertFalse(isPrefetched("prefetchtest3"));
+	}
+
+	public void testDepth() throws InterruptedException {
+		PerformanceSettings.PrefetchDepth.set(2);
+		FramePrefetcher.prefetchFrom(FrameIO.ReadFromDisk("prefetchtest1"));
+		FramePrefetcher.waitUntilIdle();
+
+		// the frames linked from and next to frame 3
+		assertTrue(isPrefetched("prefetchtest4"));
+		assertTrue(isPrefetched("prefetchtest5"));
+		assertFalse(isPrefetched("prefetchtest6"));
+	}
+
+	public void testDiscard() throws InterruptedException {
+		PerformanceSettings.PrefetchDepth.set(1);
+		FramePrefetcher.prefetch("prefetchtest6");
+		FramePrefetcher.waitUntilIdle();
+		FramePrefetcher.discard("prefetchtest6");
+		assertFalse(isPrefetched("prefetchtest6"));
+	}
+
+	/**
+	 * @return true if the prefetch thread is part way through parsing a frame.
+	 */
+	private static boolean isReading() {
+		for (Map.Entry<Thread, StackTraceElement[]> thread : Thread
+				.getAllStackTraces().entrySet()) {
+			if (!thread.getKey().getName().equals("FramePrefetcher"))
+				continue;
+			for (StackTraceElement element : thread.getValue()) {
+				if (element.getClassName().equals(ExpReader.class.getName()))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	public void testDiscardDuringRead() throws Exception {
+		// a named pipe stands in for a slow disk: the prefetch thread blocks
+		// part way through the frame until the rest is written
+		File slow = new File(root, "prefetchtest" + File.separator + "6.exp");
+		slow.delete();
+		try {
+			if (new ProcessBuilder("mkfifo", slow.getPath()).start()
+					.waitFor() != 0)
+				return;
+		} catch (IOException e) {
+			// there are no named pipes on this platform
+			return;
+		}
+		RandomAccessFile pipe = new RandomAccessFile(slow, "rw");
+		try {
+			pipe.write("V 1\nZ\n\nS T 1\nP 10 20\nT Ol".getBytes("UTF-8"));
+
+			PerformanceSettings.PrefetchDepth.set(1);
+			FramePrefetcher.prefetch("prefetchtest6");
+			long timeout = System.currentTimeMillis() + 10000;
+			while (!isReading()) {
+				assertTrue(System.currentTimeMillis() < timeout);
+				Thread.sleep(10);
+			}
+
+			// the frame is saved or deleted while it is being read
+			FramePrefetcher.discard("prefetchtest6");
+			pipe.write("d\n\nZ\n\nZ\n\nZ\n".getBytes("UTF-8"));
+		} finally {
+			pipe.close();
+		}
+		FramePrefetcher.waitUntilIdle();
+
+		assertFalse(isPrefetched("prefetchtest6"));
+	}
+}
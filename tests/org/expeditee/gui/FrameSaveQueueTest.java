@@ -0,0 +1,352 @@
+package org.expeditee.gui;
+
+import java.awt.Dimension;
+import java.awt.HeadlessException;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.Map;
+
+import javax.swing.SwingUtilities;
+
+import junit.framework.TestCase;
+
+import org.expeditee.settings.folders.FolderSettings;
+
+public class FrameSaveQueueTest extends TestCase {
+
+	private File root;
+
+	private File frameset;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		root = File.createTempFile("savequeue", "");
+		root.delete();
+		frameset = new File(root, "test");
+		frameset.mkdirs();
+
+		FileWriter inf = new FileWriter(new File(frameset, "frame.inf"));
+		inf.write("test1");
+		inf.close();
+	}
+
+	protected void tearDown() throws Exception {
+		FrameSaveQueue.flush();
+		MessageBay.suppressMessages(false);
+		for (File dir : root.listFiles()) {
+			for (File f : dir.listFiles())
+				f.delete();
+			dir.delete();
+		}
+		root.delete();
+		super.tearDown();
+	}
+
+	private static void setMaxSize() {
+		if (FrameGraphics.getMaxSize() == null) {
+			try {
+				FrameGraphics.setMaxSize(new Dimension(1024, 768));
+			} catch (HeadlessException e) {
+				// the frame size is set before the message bay needs a display
+			}
+		}
+	}
+
+	private String getPath(int number) {
+		return new File(frameset, number + ".exp").getPath();
+	}
+
+	private static String read(String path) throws IOException {
+		return new String(Files.readAllBytes(new File(path).toPath()), "UTF-8");
+	}
+
+	public void testFlushWritesLatestContents() throws IOException {
+		for (int version = 1; version <= 20; version++) {
+			for (int number = 1; number <= 10; number++) {
+				FrameSaveQueue.save(getPath(number), ("V " + version + "\n")
+						.getBytes("UTF-8"), version);
+			}
+		}
+		FrameSaveQueue.flush();
+
+		for (int number = 1; number <= 10; number++) {
+			assertEquals("V 20\n", read(getPath(number)));
+			assertEquals(-1, FrameSaveQueue.getPendingVersion(getPath(number)));
+		}
+		// no temporary files are left behind
+		assertEquals(11, frameset.listFiles().length);
+	}
+
+	public void testFlushOneFile() throws IOException {
+		FrameSaveQueue.save(getPath(1), "V 3\n".getBytes("UTF-8"), 3);
+		FrameSaveQueue.flush(getPath(1));
+		assertEquals("V 3\n", read(getPath(1)));
+	}
+
+	public void testReplacesExistingFile() throws IOException {
+		FileWriter old = new FileWriter(getPath(1));
+		old.write("V 1\nold contents which are longer\n");
+		old.close();
+
+		FrameSaveQueue.save(getPath(1), "V 2\n".getBytes("UTF-8"), 2);
+		FrameSaveQueue.flush();
+		assertEquals("V 2\n", read(getPath(1)));
+	}
+
+	public void testUpdateINF() throws IOException {
+		String path = root.getPath() + File.separator;
+		FrameSaveQueue.updateINF(path, "test", "test3", 3);
+		FrameSaveQueue.updateINF(path, "test", "test7", 7);
+		FrameSaveQueue.updateINF(path, "test", "test5", 5);
+		FrameSaveQueue.flush();
+
+		BufferedReader reader = new BufferedReader(new FileReader(new File(
+				frameset, "frame.inf")));
+		assertEquals("test7", reader.readLine());
+		reader.close();
+	}
+
+	public void testFailedWriteIsKept() throws Exception {
+		MessageBay.suppressMessages(true);
+		setMaxSize();
+		Frame frame = new Frame();
+		frame.setFrameset("test");
+		frame.setFrameNumber(2);
+		frame.setSaved();
+
+		// a directory in the way of the frame file stops it being written
+		File blocker = new File(getPath(2));
+		blocker.mkdir();
+		new File(blocker, "file").createNewFile();
+		String path = root.getPath() + File.separator;
+		try {
+			FrameSaveQueue.save(getPath(2), "V 2\n".getBytes("UTF-8"), 2,
+					frame);
+			FrameSaveQueue.updateINF(path, "test", "test2", 2);
+			FrameSaveQueue.flush();
+			SwingUtilities.invokeAndWait(new Runnable() {
+				public void run() {
+				}
+			});
+
+			// the frame is unsaved again, and frame.inf does not name it
+			assertFalse(frame.isSaved());
+			assertTrue(frame.hasChanged());
+			assertEquals(2, FrameSaveQueue.getPendingVersion(getPath(2)));
+			assertEquals("test1", read(new File(frameset, "frame.inf")
+					.getPath()));
+		} finally {
+			new File(blocker, "file").delete();
+			blocker.delete();
+		}
+
+		// it is written with the next batch once it can be
+		FrameSaveQueue.save(getPath(3), "V 1\n".getBytes("UTF-8"), 1);
+		FrameSaveQueue.flush();
+		assertEquals("V 2\n", read(getPath(2)));
+		assertEquals(-1, FrameSaveQueue.getPendingVersion(getPath(2)));
+		assertEquals("test2", read(new File(frameset, "frame.inf").getPath()));
+	}
+
+	public void testFlushRetriesFailedWrites() throws Exception {
+		MessageBay.suppressMessages(true);
+		setMaxSize();
+		File blocker = new File(getPath(4));
+		blocker.mkdir();
+		new File(blocker, "file").createNewFile();
+		try {
+			FrameSaveQueue.save(getPath(4), "V 4\n".getBytes("UTF-8"), 4);
+			assertFalse(FrameSaveQueue.flush());
+			assertTrue(FrameSaveQueue.getUnwritten().contains(getPath(4)));
+			// flushing tries it again, and still can not write it
+			assertFalse(FrameSaveQueue.flush(getPath(4)));
+		} finally {
+			new File(blocker, "file").delete();
+			blocker.delete();
+		}
+
+		// nothing else is queued, the flush alone writes it
+		assertTrue(FrameSaveQueue.flush());
+		assertEquals("V 4\n", read(getPath(4)));
+		assertTrue(FrameSaveQueue.getUnwritten().isEmpty());
+	}
+
+	private static final int NAVIGATION_FRAMES = 20;
+
+	/**
+	 * Moves between frames, editing and saving each one, while the disk
+	 * holds up the first save for as long as the test likes.
+	 */
+	public void testNavigationWhileDiskIsSlow() throws Exception {
+		MessageBay.suppressMessages(true);
+		setMaxSize();
+		File navtest = new File(root, "navtest");
+		navtest.mkdirs();
+		for (int number = 1; number <= NAVIGATION_FRAMES; number++) {
+			FileWriter writer = new FileWriter(new File(navtest, number
+					+ ".exp"));
+			writer.write("V 1\nZ\n\nS T 1\nP 10 20\nT Frame " + number
+					+ "\n\nZ\n\nZ\n\nZ\n");
+			writer.close();
+		}
+		String path = root.getPath() + File.separator;
+		FrameFileIndex.clear();
+		FolderSettings.FrameDirs.get().add(path);
+
+		// the temporary file of the first frame is a pipe, which can not be
+		// opened for writing until something reads it
+		final File pipe = new File(navtest, ".1.exp.tmp");
+		Process mkfifo = new ProcessBuilder("mkfifo", pipe.getPath()).start();
+		assertEquals(0, mkfifo.waitFor());
+		try {
+			long slowest = 0;
+			for (int round = 0; round < 3; round++) {
+				for (int number = 1; number <= NAVIGATION_FRAMES; number++) {
+					long start = System.nanoTime();
+					Frame frame = FrameIO.LoadFrame("navtest" + number);
+					frame.addText(10, 40 + round * 20, "Round " + round,
+							null);
+					FrameIO.SaveFrame(frame);
+					slowest = Math.max(slowest, System.nanoTime() - start);
+				}
+				if (round == 0) {
+					// wait until the save thread is stuck on the pipe
+					long deadline = System.currentTimeMillis() + 10000;
+					while (!isWriting()) {
+						assertTrue(System.currentTimeMillis() < deadline);
+						Thread.sleep(10);
+					}
+				}
+			}
+			assertTrue(isWriting());
+			assertTrue(FrameSaveQueue.getPendingVersion(getPath(navtest, 2)) > 0);
+			assertTrue("moving between frames took " + slowest / 1000000
+					+ "ms", slowest < 500 * 1000000L);
+
+			// let the write through, the pipe can not be synced so it fails
+			InputStream in = new FileInputStream(pipe);
+			pipe.delete();
+			byte[] buffer = new byte[4096];
+			while (in.read(buffer) >= 0)
+				;
+			in.close();
+
+			assertTrue(FrameSaveQueue.flush());
+			for (int number = 1; number <= NAVIGATION_FRAMES; number++)
+				assertTrue(read(getPath(navtest, number)).contains("T Round 2"));
+			// no temporary files are left behind
+			for (String name : navtest.list())
+				assertFalse(name, name.startsWith("."));
+		} finally {
+			pipe.delete();
+			FolderSettings.FrameDirs.get().remove(path);
+			FrameFileIndex.clear();
+			FramePrefetcher.clear();
+		}
+	}
+
+	private static String getPath(File frameset, int number) {
+		return new File(frameset, number + ".exp").getPath();
+	}
+
+	/**
+	 * @return true if the save thread is part way through writing a file.
+	 */
+	private static boolean isWriting() {
+		for (Map.Entry<Thread, StackTraceElement[]> thread : Thread
+				.getAllStackTraces().entrySet()) {
+			if (!thread.getKey().getName().equals("FrameSaveQueue"))
+				continue;
+			for (StackTraceElement element : thread.getValue()) {
+				if (element.getMethodName().equals("write"))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	private static final int CRASH_FRAMES = 20;
+
+	/**
+	 * @return the contents of a version of a frame, long enough to take some
+	 *         time to write.
+	 */
+	private static String getContents(int number, int version) {
+		StringBuffer contents = new StringBuffer("V " + version + "\n");
+		for (int line = 0; line < 500; line++)
+			contents.append("T Frame ").append(number).append(" version ")
+					.append(version).append(" line ").append(line).append('\n');
+		return contents.toString();
+	}
+
+	/**
+	 * Saves new versions of frames until it is killed, flushing the queue
+	 * every few versions and printing the version which was flushed.
+	 */
+	public static void main(String[] args) throws IOException {
+		File frameset = new File(args[0]);
+		for (int version = 1;; version++) {
+			for (int number = 1; number <= CRASH_FRAMES; number++)
+				FrameSaveQueue.save(getPath(frameset, number), getContents(
+						number, version).getBytes("UTF-8"), version);
+			if (version % 5 == 0) {
+				if (!FrameSaveQueue.flush())
+					System.out.println("failed " + version);
+				System.out.println("flushed " + version);
+			}
+		}
+	}
+
+	/**
+	 * Kills a process part way through writing a batch of frames, and checks
+	 * that every frame is whole, and no older than the last flush.
+	 */
+	public void testKilledMidBatch() throws Exception {
+		ProcessBuilder builder = new ProcessBuilder(System
+				.getProperty("java.home")
+				+ File.separator + "bin" + File.separator + "java", "-cp",
+				System.getProperty("java.class.path"), getClass().getName(),
+				frameset.getPath());
+		builder.redirectErrorStream(true);
+		Process process = builder.start();
+		int flushed = 0;
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					process.getInputStream()));
+			String line;
+			while (flushed < 30 && (line = reader.readLine()) != null) {
+				assertTrue(line, line.startsWith("flushed "));
+				flushed = Integer.parseInt(line.substring(8));
+			}
+			// kill it while it writes the next batches, it may flush again
+			// first, which leaves the frames newer still
+			Thread.sleep(20);
+		} finally {
+			process.destroyForcibly();
+		}
+		process.waitFor();
+		assertEquals(30, flushed);
+
+		for (int number = 1; number <= CRASH_FRAMES; number++) {
+			String contents = read(getPath(frameset, number));
+			assertTrue(number + " is torn", contents.indexOf('\n') > 2);
+			int version = Integer.parseInt(contents.substring(2, contents
+					.indexOf('\n')));
+			assertTrue(number + " is version " + version, version >= flushed);
+			assertEquals(getContents(number, version), contents);
+		}
+
+		// a temporary file left by the killed process is written over
+		FrameSaveQueue.save(getPath(frameset, 1), "V 1\n".getBytes("UTF-8"), 1);
+		assertTrue(FrameSaveQueue.flush());
+		assertEquals("V 1\n", read(getPath(frameset, 1)));
+		assertFalse(new File(frameset, ".1.exp.tmp").exists());
+	}
+}
@@ -0,0 +1,266 @@
+package org.expeditee.gui;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.HeadlessException;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.expeditee.items.Dot;
+import org.expeditee.items.Item;
+import org.expeditee.items.Line;
+import org.expeditee.items.ItemUtils;
+import org.expeditee.items.Text;
+import org.expeditee.settings.performance.PerformanceSettings;
+
+public class FrameSpatialIndexTest extends TestCase {
+
+	private Frame frame;
+
+	private List<Dot> dots;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		if (FrameGraphics.getMaxSize() == null) {
+			try {
+				FrameGraphics.setMaxSize(new Dimension(1024, 768));
+			} catch (HeadlessException e) {
+				// the frame size is set before the message bay needs a display
+			}
+		}
+		frame = new Frame();
+		frame.setName("spatialtest1");
+		dots = new ArrayList<Dot>();
+		// a 20 by 20 grid of dots with a line along each row
+		int id = 1;
+		for (int y = 0; y < 20; y++) {
+			Dot last = null;
+			for (int x = 0; x < 20; x++) {
+				Dot dot = new Dot(20 + 40 * x, 20 + 40 * y, id++);
+				frame.addItem(dot);
+				dots.add(dot);
+				if (last != null)
+					frame.addItem(new Line(last, dot, id++));
+				last = dot;
+			}
+		}
+	}
+
+	private static List<Item> hits(Collection<? extends Item> items, int x,
+			int y) {
+		List<Item> hits = new ArrayList<Item>();
+		for (Item i : items) {
+			if (i.isVisible() && i.contains(x, y))
+				hits.add(i);
+		}
+		return hits;
+	}
+
+	private void assertSameHits(int x, int y) {
+		assertEquals(hits(frame.getInteractableItems(), x, y), hits(frame
+				.getInteractableItemsNear(x, y), x, y));
+	}
+
+	public void testHitTesting() {
+		assertTrue(frame.getItems().size() >= FrameSpatialIndex.MIN_ITEMS);
+		for (int x = 0; x < 820; x += 7) {
+			for (int y = 0; y < 820; y += 11)
+				assertSameHits(x, y);
+		}
+		assertTrue(frame.getInteractableItemsNear(20, 20).contains(
+				dots.get(0)));
+		assertTrue(frame.getInteractableItemsNear(500, 500).size() < 10);
+	}
+
+	public void testMovedAndRemovedItems() {
+		Dot dot = dots.get(0);
+		frame.getInteractableItemsNear(20, 20);
+
+		dot.setPosition(700, 30);
+		assertFalse(frame.getInteractableItemsNear(20, 20).contains(dot));
+		assertTrue(frame.getInteractableItemsNear(700, 30).contains(dot));
+		// the line to the dot moves with it
+		Line line = dot.getLines().get(0);
+		assertTrue(frame.getInteractableItemsNear(400, 25).contains(line));
+		assertSameHits(400, 25);
+
+		frame.removeItem(dot);
+		assertFalse(frame.getInteractableItemsNear(700, 30).contains(dot));
+		Dot added = new Dot(700, 30, 1000);
+		frame.addItem(added);
+		assertTrue(frame.getInteractableItemsNear(700, 30).contains(added));
+	}
+
+	public void testItemsWithin() {
+		Polygon poly = new Polygon(new int[] { 50, 200, 130 }, new int[] { 50,
+				70, 190 }, 3);
+		Collection<Item> within = frame.getItemsWithin(poly);
+		List<Item> expected = new ArrayList<Item>();
+		for (Item i : frame.getVisibleItems()) {
+			if (i.intersects(poly))
+				expected.add(i);
+		}
+		assertEquals(expected, new ArrayList<Item>(within));
+		assertFalse(within.isEmpty());
+
+		Rectangle area = new Rectangle(0, 0, 100, 100);
+		for (Item i : frame.getAllItems()) {
+			if (i.isInDrawingArea(new Area(area)))
+				assertTrue(frame.getAllItemsNear(area).contains(i));
+		}
+	}
+
+	/**
+	 * Fills a frame with text, dots, polylines and filled rectangles spread
+	 * at random over an area.
+	 */
+	private static Frame createFrame(int items, int size) {
+		Frame frame = new Frame();
+		frame.setName("spatialbench1");
+		Random random = new Random(1);
+		int id = 1;
+		while (id <= items) {
+			int x = random.nextInt(size);
+			int y = random.nextInt(size);
+			switch (id % 4) {
+			case 0:
+				Text text = new Text(id++, "Text item " + id);
+				text.setPosition(x, y);
+				frame.addItem(text);
+				break;
+			case 1:
+				frame.addItem(new Dot(x, y, id++));
+				break;
+			case 2:
+				Dot last = new Dot(x, y, id++);
+				frame.addItem(last);
+				for (int i = 0; i < 2; i++) {
+					Dot next = new Dot(x + random.nextInt(80), y
+							+ random.nextInt(80), id++);
+					frame.addItem(next);
+					frame.addItem(new Line(last, next, id++));
+					last = next;
+				}
+				break;
+			default:
+				Dot[] corners = { new Dot(x, y, id++),
+						new Dot(x + 60, y, id++), new Dot(x + 60, y + 40, id++),
+						new Dot(x, y + 40, id++) };
+				for (Dot corner : corners)
+					frame.addItem(corner);
+				for (int i = 0; i < 4; i++)
+					frame.addItem(new Line(corners[i], corners[(i + 1) % 4],
+							id++));
+				corners[0].setFillColor(Color.LIGHT_GRAY);
+			}
+		}
+		return frame;
+	}
+
+	/**
+	 * Times hit testing, clipped repaints and polygon selection on a large
+	 * frame through its index, against looking at every item on the frame
+	 * as was done before the index. Both must give the same items.
+	 *
+	 * Arguments: [items [size]], 50000 items over 4000 by 4000 by default.
+	 */
+	public static void main(String[] args) {
+		int items = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+		int size = args.length > 1 ? Integer.parseInt(args[1]) : 4000;
+		try {
+			FrameGraphics.setMaxSize(new Dimension(1024, 768));
+		} catch (HeadlessException e) {
+			// the frame size is set before the message bay needs a display
+		}
+		Frame frame = createFrame(items, size);
+		ItemUtils.EnclosedCheck(frame.getItemsView());
+
+		long start = System.nanoTime();
+		frame.getInteractableItemsNear(0, 0);
+		System.out.println(frame.getItems().size() + " items, index built in "
+				+ ((System.nanoTime() - start) / 1000000) + "ms");
+
+		Random random = new Random(2);
+		int points = 200;
+		long indexed = 0;
+		long linear = 0;
+		for (int i = 0; i < points; i++) {
+			int x = random.nextInt(size);
+			int y = random.nextInt(size);
+			start = System.nanoTime();
+			List<Item> near = hits(frame.getInteractableItemsNear(x, y), x, y);
+			indexed += System.nanoTime() - start;
+			start = System.nanoTime();
+			List<Item> all = hits(frame.getInteractableItems(), x, y);
+			linear += System.nanoTime() - start;
+			if (!near.equals(all))
+				throw new IllegalStateException("Different hits at " + x
+						+ "," + y);
+		}
+		System.out.println("hit test per point: "
+				+ (linear / points / 1000) + "us looking at every item, "
+				+ (indexed / points / 1000) + "us from the index");
+
+		// the frame is painted directly rather than from its tiles, through
+		// the index as the frame being shown, and filtering every item as
+		// any other frame
+		PerformanceSettings.CacheFrameTiles.set(false);
+		BufferedImage image = new BufferedImage(size, size,
+				BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		int repaints = 50;
+		indexed = 0;
+		linear = 0;
+		for (int i = 0; i < repaints; i++) {
+			Area clip = new Area(new Rectangle(random.nextInt(size - 128),
+					random.nextInt(size - 128), 128, 128));
+			start = System.nanoTime();
+			FrameGraphics.paintFrame(frame, clip, true, false, g);
+			indexed += System.nanoTime() - start;
+			start = System.nanoTime();
+			FrameGraphics.paintFrame(frame, clip, false, false, g);
+			linear += System.nanoTime() - start;
+		}
+		g.dispose();
+		PerformanceSettings.CacheFrameTiles.reset();
+		System.out.println("128x128 repaint: " + (linear / repaints / 1000)
+				+ "us looking at every item, " + (indexed / repaints / 1000)
+				+ "us from the index");
+
+		int selections = 20;
+		indexed = 0;
+		linear = 0;
+		for (int i = 0; i < selections; i++) {
+			int x = random.nextInt(size - 300);
+			int y = random.nextInt(size - 300);
+			Polygon poly = new Polygon(new int[] { x, x + 300, x + 150 },
+					new int[] { y, y + 50, y + 300 }, 3);
+			start = System.nanoTime();
+			List<Item> within = new ArrayList<Item>(frame.getItemsWithin(poly));
+			indexed += System.nanoTime() - start;
+			start = System.nanoTime();
+			List<Item> expected = new ArrayList<Item>();
+			for (Item item : frame.getVisibleItems()) {
+				if (item.intersects(poly))
+					expected.add(item);
+			}
+			linear += System.nanoTime() - start;
+			if (!new HashSet<Item>(within).containsAll(expected))
+				throw new IllegalStateException("Different selection");
+		}
+		System.out.println("polygon selection: "
+				+ (linear / selections / 1000000)
+				+ "ms looking at every item, "
+				+ (indexed / selections / 1000000) + "ms from the index");
+	}
+}
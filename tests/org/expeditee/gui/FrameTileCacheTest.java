@@ -0,0 +1,221 @@
+package org.expeditee.gui;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.HeadlessException;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.expeditee.items.Dot;
+import org.expeditee.items.Item;
+import org.expeditee.items.Item.HighlightMode;
+import org.expeditee.items.ItemUtils;
+import org.expeditee.items.Line;
+import org.expeditee.items.Text;
+import org.expeditee.items.UserAppliedPermission;
+import org.expeditee.settings.performance.PerformanceSettings;
+
+/**
+ * Checks that painting a frame from its tiles gives the same picture as
+ * painting it without them, while items are carried over it and the items
+ * anchored on it and its overlay are changed.
+ */
+public class FrameTileCacheTest extends TestCase {
+
+	private static final int STEPS = 120;
+
+	private Frame frame;
+
+	private Frame overlay;
+
+	private Text[][] grid;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		if (FrameGraphics.getMaxSize() == null) {
+			try {
+				FrameGraphics.setMaxSize(new Dimension(1024, 768));
+			} catch (HeadlessException e) {
+				// the frame size is set before the message bay needs a display
+			}
+		}
+		FreeItems.getInstance().clear();
+
+		overlay = new Frame();
+		overlay.setName("tileoverlay1");
+		for (int i = 0; i < 20; i++) {
+			Text text = new Text(overlay.getNextItemID(), "Overlay " + i);
+			text.setPosition(600, 40 + i * 30);
+			overlay.addItem(text);
+		}
+
+		frame = new Frame();
+		frame.setName("tiletest1");
+		List<Overlay> overlays = new ArrayList<Overlay>();
+		overlays.add(new Overlay(overlay, UserAppliedPermission.copy));
+		frame.addAllOverlays(overlays);
+
+		// a grid of text, with some highlighted
+		grid = new Text[20][4];
+		for (int row = 0; row < 20; row++) {
+			for (int column = 0; column < 4; column++) {
+				Text text = new Text(frame.getNextItemID(), "Item " + row
+						+ "," + column);
+				text.setPosition(20 + column * 130, 30 + row * 30);
+				if ((row + column) % 7 == 0)
+					text.setHighlightMode(HighlightMode.Normal);
+				frame.addItem(text);
+				grid[row][column] = text;
+			}
+		}
+		// filled rectangles and lines between them
+		for (int r = 0; r < 3; r++)
+			addRectangle(100 + r * 170, 250 + r * 60, 120, 80);
+		Dot a = new Dot(40, 680, frame.getNextItemID());
+		frame.addItem(a);
+		Dot b = new Dot(500, 520, frame.getNextItemID());
+		frame.addItem(b);
+		frame.addItem(new Line(a, b, frame.getNextItemID()));
+		ItemUtils.EnclosedCheck(frame.getItemsView());
+
+		// the frame is painted into its buffer as it would be on screen, but
+		// the buffer would be a volatile image, which needs a display
+		Dimension size = FrameGraphics.getMaxSize();
+		frame.setBuffer(new BufferedImage(size.width, size.height,
+				BufferedImage.TYPE_INT_RGB));
+		DisplayIO.setCurrentFrame(frame, false);
+	}
+
+	protected void tearDown() throws Exception {
+		FreeItems.getInstance().clear();
+		PerformanceSettings.CacheFrameTiles.reset();
+		super.tearDown();
+	}
+
+	private void addRectangle(int x, int y, int width, int height) {
+		Dot[] corners = new Dot[] { new Dot(x, y, frame.getNextItemID()),
+				null, null, null };
+		frame.addItem(corners[0]);
+		corners[1] = new Dot(x + width, y, frame.getNextItemID());
+		frame.addItem(corners[1]);
+		corners[2] = new Dot(x + width, y + height, frame.getNextItemID());
+		frame.addItem(corners[2]);
+		corners[3] = new Dot(x, y + height, frame.getNextItemID());
+		frame.addItem(corners[3]);
+		for (int i = 0; i < 4; i++)
+			frame.addItem(new Line(corners[i], corners[(i + 1) % 4], frame
+					.getNextItemID()));
+		corners[0].setFillColor(new Color(100, 150, 200));
+	}
+
+	/**
+	 * Paints the damaged areas of the frame, from the tiles if they are on,
+	 * as the screen is painted while the user works.
+	 *
+	 * @return a copy of the frame as it is on the screen
+	 */
+	private BufferedImage refresh() {
+		FrameGraphics.paintFrames(true);
+		return copy((BufferedImage) frame.getBuffer());
+	}
+
+	/**
+	 * @return the whole frame painted afresh without the tiles.
+	 */
+	private BufferedImage paintWithoutTiles() {
+		boolean tiles = PerformanceSettings.CacheFrameTiles.get();
+		PerformanceSettings.CacheFrameTiles.set(false);
+		Dimension size = FrameGraphics.getMaxSize();
+		BufferedImage image = new BufferedImage(size.width, size.height,
+				BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		FrameGraphics.paintFrame(frame, null, true, true, g);
+		g.dispose();
+		PerformanceSettings.CacheFrameTiles.set(tiles);
+		return image;
+	}
+
+	private static BufferedImage copy(BufferedImage image) {
+		BufferedImage copy = new BufferedImage(image.getWidth(), image
+				.getHeight(), BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = copy.createGraphics();
+		g.drawImage(image, 0, 0, null);
+		g.dispose();
+		return copy;
+	}
+
+	private static void assertSameImage(String step, BufferedImage expected,
+			BufferedImage actual) {
+		assertEquals(expected.getWidth(), actual.getWidth());
+		assertEquals(expected.getHeight(), actual.getHeight());
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				if (expected.getRGB(x, y) != actual.getRGB(x, y))
+					fail(step + ": pixel " + x + "," + y + " is "
+							+ Integer.toHexString(actual.getRGB(x, y))
+							+ " rather than "
+							+ Integer.toHexString(expected.getRGB(x, y)));
+			}
+		}
+	}
+
+	public void testTilesMatchFullRepaint() {
+		PerformanceSettings.CacheFrameTiles.set(true);
+		FrameGraphics.paintFrames(false);
+		assertSameImage("first paint", paintWithoutTiles(), copy(
+				(BufferedImage) frame.getBuffer()));
+
+		List<Item> carried = new ArrayList<Item>();
+		for (int step = 0; step < STEPS; step++) {
+			switch (step % 40) {
+			case 0:
+				// pick up a text item and a line end
+				carried.add(grid[step / 40 * 3][1]);
+				carried.add(grid[step / 40 * 3 + 1][2]);
+				FrameMouseActions.pickup(carried);
+				break;
+			case 15:
+				// edit anchored items while carrying
+				grid[10][0].setText("Edited " + step);
+				grid[12][3].setHighlightMode(HighlightMode.Normal);
+				grid[0][0].setHighlightMode(HighlightMode.None);
+				break;
+			case 20:
+				// change the overlay under the items being carried
+				((Text) overlay.getItems().get(step / 40)).setText("Changed "
+						+ step);
+				break;
+			case 22:
+				// add an item under the items being carried and remove another
+				Text added = new Text(frame.getNextItemID(), "Added " + step);
+				added.setPosition(carried.get(0).getX() - 20, carried.get(0)
+						.getY() + 5);
+				frame.addItem(added);
+				frame.removeItem(grid[19][step / 40]);
+				break;
+			case 25:
+				// move a corner of a filled rectangle
+				for (Item i : frame.getItemsView()) {
+					if (i instanceof Dot && i.isEnclosed()) {
+						i.setPosition(i.getX() + 15, i.getY() + 10);
+						break;
+					}
+				}
+				break;
+			case 39:
+				FrameMouseActions.anchor(carried);
+				carried.clear();
+				break;
+			default:
+				for (Item i : carried)
+					i.setPosition(i.getX() + 11, i.getY() + 7);
+			}
+			BufferedImage tiled = refresh();
+			assertSameImage("step " + step, paintWithoutTiles(), tiled);
+		}
+	}
+}
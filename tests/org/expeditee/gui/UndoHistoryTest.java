@@ -0,0 +1,141 @@
+package org.expeditee.gui;
+
+import java.awt.Dimension;
+import java.awt.HeadlessException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.expeditee.items.Dot;
+import org.expeditee.items.Item;
+import org.expeditee.items.Text;
+import org.expeditee.settings.performance.PerformanceSettings;
+
+public class UndoHistoryTest extends TestCase {
+
+	private Frame frame;
+
+	private int steps;
+
+	private int memory;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		if (FrameGraphics.getMaxSize() == null) {
+			try {
+				FrameGraphics.setMaxSize(new Dimension(1024, 768));
+			} catch (HeadlessException e) {
+				// the frame size is set before the message bay needs a display
+			}
+		}
+		steps = PerformanceSettings.UndoSteps.get();
+		memory = PerformanceSettings.UndoMemory.get();
+		frame = new Frame();
+		frame.setName("undotest1");
+		List<Item> items = new ArrayList<Item>();
+		for (int i = 0; i < 3000; i++)
+			items.add(new Dot(i % 100 * 10, i / 100 * 10, 100 + i));
+		for (int i = 0; i < 100; i++)
+			items.add(new Text(5000 + i, "item " + i));
+		for (Item i : items)
+			i.setParent(frame);
+		frame.addAllItems(items);
+		// changes are undone on the current frame
+		DisplayIO.setCurrentFrame(frame, false);
+	}
+
+	protected void tearDown() throws Exception {
+		frame.clearHistory();
+		PerformanceSettings.UndoSteps.set(steps);
+		PerformanceSettings.UndoMemory.set(memory);
+		super.tearDown();
+	}
+
+	/**
+	 * @return a hash of the IDs, positions and text of the items on the frame,
+	 *         which does not depend on their order.
+	 */
+	private long getState() {
+		long state = 0;
+		for (Item i : frame.getItemsView()) {
+			long hash = i.getID() * 31L + i.getX();
+			hash = hash * 31 + i.getY();
+			if (i instanceof Text)
+				hash = hash * 31 + i.getText().hashCode();
+			state += hash * 0x9E3779B97F4A7C15L;
+		}
+		return state;
+	}
+
+	private List<Item> select(Random random, int count) {
+		List<Item> items = new ArrayList<Item>(frame.getItemsView());
+		List<Item> selection = new ArrayList<Item>();
+		for (int i = 0; i < count; i++)
+			selection.add(items.remove(random.nextInt(items.size())));
+		return selection;
+	}
+
+	public void testStaysWithinBudget() {
+		PerformanceSettings.UndoSteps.set(0);
+		PerformanceSettings.UndoMemory.set(1);
+		long budget = 1024 * 1024;
+		Random random = new Random(11);
+		int changes = 10000;
+		long[] states = new long[changes + 1];
+		states[0] = getState();
+		for (int c = 1; c <= changes; c++) {
+			if (c % 20 == 0) {
+				List<Item> deleted = select(random, 5);
+				frame.addToUndoDelete(deleted);
+				frame.removeAllItems(deleted);
+			} else {
+				List<Item> moved = select(random, 200);
+				frame.addToUndoMove(moved);
+				int dx = random.nextInt(21) - 10;
+				int dy = random.nextInt(21) - 10;
+				for (Item i : moved) {
+					i.setPosition(i.getX() + dx, i.getY() + dy);
+					// as formatting renumbers bullets
+					if (i instanceof Text)
+						i.setText("item " + c);
+				}
+			}
+			assertTrue(UndoHistory.getEstimatedSize() <= budget);
+			states[c] = getState();
+			// nothing is painted, which would take the areas to repaint
+			FrameGraphics.clearInvalidAreas();
+		}
+
+		// the most recent changes are undone exactly, the oldest are forgotten
+		int kept = frame.getUndoCount();
+		assertTrue(kept > 100);
+		assertTrue(kept < changes);
+		for (int k = 1; k <= kept; k++) {
+			frame.undo();
+			assertEquals(states[changes - k], getState());
+			FrameGraphics.clearInvalidAreas();
+		}
+		frame.undo();
+		assertEquals(states[changes - kept], getState());
+
+		for (int k = kept - 1; k >= 0; k--) {
+			frame.redo();
+			assertEquals(states[changes - k], getState());
+			FrameGraphics.clearInvalidAreas();
+		}
+		assertTrue(UndoHistory.getEstimatedSize() <= budget);
+	}
+
+	public void testStepsPerFrame() {
+		PerformanceSettings.UndoSteps.set(10);
+		Random random = new Random(3);
+		for (int c = 0; c < 30; c++)
+			frame.addToUndoMove(select(random, 10));
+		assertEquals(10, frame.getUndoCount());
+
+		frame.clearHistory();
+		assertEquals(0, frame.getUndoCount());
+	}
+}
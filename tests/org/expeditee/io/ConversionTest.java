@@ -98,6 +98,30 @@ public class ConversionTest extends TestCase {
 		assertEquals(testFont4, Conversion.getFont(code));
 	}
 
+	public final void testFontsAreShared() {
+		String code = Text.FONT_CHARS[1] + "b18";
+		Font font = Conversion.getFont(code);
+		assertSame(font, Conversion.getFont(code));
+		assertEquals(code, Conversion.getExpediteeFontCode(font));
+
+		Text first = new Text(1, "first");
+		Text second = new Text(2, "second");
+		first.setFont(new Font(Text.FONT_WHEEL[1], Font.BOLD, 18));
+		second.setFont(Conversion.getFont(code));
+		assertSame(font, first.getFont());
+		assertSame(font, second.getFont());
+
+		// fonts derived in the same way are shared
+		first.setSize(24);
+		second.setSize(24);
+		assertSame(first.getFont(), second.getFont());
+		first.toggleFontStyle();
+		second.toggleFontStyle();
+		assertSame(first.getFont(), second.getFont());
+		assertSame(new Text(3, "third").getPaintFont(), new Text(4, "fourth")
+				.getPaintFont());
+	}
+
 	public final void testGetFrameNumber() {
 		assertEquals(1, Conversion.getFrameNumber("a1"));
 		assertEquals(91, Conversion.getFrameNumber("a91"));
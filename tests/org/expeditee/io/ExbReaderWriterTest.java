@@ -0,0 +1,154 @@
+package org.expeditee.io;
+
+import java.awt.Dimension;
+import java.awt.HeadlessException;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.expeditee.gui.Frame;
+import org.expeditee.gui.FrameGraphics;
+
+public class ExbReaderWriterTest extends TestCase {
+
+	private File _file;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		if (FrameGraphics.getMaxSize() == null) {
+			try {
+				FrameGraphics.setMaxSize(new Dimension(1024, 768));
+			} catch (HeadlessException e) {
+				// the frame size is set before the message bay needs a display
+			}
+		}
+		_file = File.createTempFile("roundtrip", ExbReader.EXTENTION);
+	}
+
+	protected void tearDown() throws Exception {
+		_file.delete();
+		super.tearDown();
+	}
+
+	private void writeExb(Frame frame) throws IOException {
+		ExbWriter writer = new ExbWriter();
+		writer.setOutputLocation(_file.getPath());
+		writer.writeFrame(frame);
+	}
+
+	private Frame readExb() throws IOException {
+		return new ExbReader("roundtrip1").readFrame(_file.getPath());
+	}
+
+	public final void testRoundTrip() throws IOException {
+		writeExb(ExpReaderWriterTest.read(ExpReaderWriterTest.FRAME));
+		assertEquals(ExpReaderWriterTest.FRAME, ExpReaderWriterTest
+				.write(readExb()));
+	}
+
+	public final void testSmallerThanExp() throws IOException {
+		writeExb(ExpReaderWriterTest.read(ExpReaderWriterTest.FRAME));
+		assertTrue(_file.length() < ExpReaderWriterTest.FRAME.length());
+	}
+
+	public final void testGetVersion() throws IOException {
+		writeExb(ExpReaderWriterTest.read(ExpReaderWriterTest.FRAME));
+		assertEquals(12, ExbReader.getVersion(_file.getPath()));
+	}
+
+	public final void testCorruptFileIsRejected() throws IOException {
+		writeExb(ExpReaderWriterTest.read(ExpReaderWriterTest.FRAME));
+		RandomAccessFile file = new RandomAccessFile(_file, "rw");
+		file.seek(file.length() / 2);
+		int b = file.read();
+		file.seek(file.length() / 2);
+		file.write(b ^ 0xFF);
+		file.close();
+
+		try {
+			readExb();
+			fail("A corrupt file should not be read");
+		} catch (IOException e) {
+		}
+		assertEquals(-1, ExbReader.getVersion(_file.getPath()));
+	}
+
+	/**
+	 * Compares the size of the .exp files under a directory saved as Exp and
+	 * as Exb, and the time to load and save them in each format. Run it with
+	 * -XX:StartFlightRecording to see how much of the load is the format
+	 * rather than building the items.
+	 *
+	 * Arguments: [directory [passes]], the current directory and 20 passes
+	 * by default.
+	 */
+	public static void main(String[] args) throws IOException {
+		File dir = new File(args.length > 0 ? args[0] : ".");
+		int passes = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		try {
+			FrameGraphics.setMaxSize(new Dimension(1024, 768));
+		} catch (HeadlessException e) {
+			// the frame size is set before the message bay needs a display
+		}
+		List<String> originals = new ArrayList<String>();
+		ExpReaderWriterTest.findFrames(dir, originals);
+
+		List<String> exps = new ArrayList<String>();
+		List<byte[]> exbs = new ArrayList<byte[]>();
+		long originalBytes = 0;
+		long expBytes = 0;
+		long exbBytes = 0;
+		for (String original : originals) {
+			Frame frame = new ExpReader("bench1").readFrame(new BufferedReader(
+					new StringReader(original)));
+			StringWriter exp = new StringWriter();
+			new ExpWriter().writeFrame(frame, exp);
+			byte[] exb = new ExbWriter().encodeFrame(frame);
+			exps.add(exp.toString());
+			exbs.add(exb);
+			originalBytes += original.getBytes("UTF-8").length;
+			expBytes += exp.toString().getBytes("UTF-8").length;
+			exbBytes += exb.length;
+		}
+		System.out.println(originals.size() + " frames: " + originalBytes
+				+ " bytes as read, " + expBytes + " bytes saved as Exp, "
+				+ exbBytes + " bytes as Exb ("
+				+ (100 * (exbBytes - expBytes) / expBytes) + "%)");
+
+		for (int pass = 0; pass <= passes; pass++) {
+			long start = System.nanoTime();
+			List<Frame> frames = new ArrayList<Frame>();
+			for (String exp : exps)
+				frames.add(new ExpReader("bench1").readFrame(new BufferedReader(
+						new StringReader(exp))));
+			long expLoad = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (byte[] exb : exbs)
+				new ExbReader("bench1").readFrame(exb);
+			long exbLoad = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (Frame frame : frames)
+				new ExpWriter().writeFrame(frame, new StringWriter());
+			long expSave = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (Frame frame : frames)
+				new ExbWriter().encodeFrame(frame);
+			long exbSave = System.nanoTime() - start;
+
+			// the first pass warms up
+			if (pass > 0)
+				System.out.println("Pass " + pass + ": load Exp "
+						+ (expLoad / 1000000) + "ms, Exb " + (exbLoad / 1000000)
+						+ "ms; save Exp " + (expSave / 1000000) + "ms, Exb "
+						+ (exbSave / 1000000) + "ms");
+		}
+	}
+}
@@ -0,0 +1,335 @@
+package org.expeditee.io;
+
+import java.awt.Dimension;
+import java.awt.HeadlessException;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.expeditee.gui.Frame;
+import org.expeditee.gui.FrameGraphics;
+import org.expeditee.items.Item;
+import org.expeditee.items.Text;
+import org.expeditee.stats.SessionStats;
+
+public class ExpReaderWriterTest extends TestCase {
+
+	/**
+	 * A frame as written by the reflective ExpWriter, using every tag that
+	 * has a value on these items.
+	 */
+	static final String FRAME =
+			"V 12\n" +
+			"p 21\n" +
+			"U tester\n" +
+			"D 12Dec2013[10:14]\n" +
+			"M tester\n" +
+			"d 13Feb2014[17:02]\n" +
+			"O 0 0 100 100\n" +
+			"B 100 100 90 100\n" +
+			"Z\n" +
+			"\n" +
+			"S P 1\n" +
+			"s 13Feb2014[11:37.51]\n" +
+			"d 90 90 90 100\n" +
+			"P 999 0\n" +
+			"e 95 95 95 100\n" +
+			"E 0 50 0 100\n" +
+			"Q 45\n" +
+			"N 0.0\n" +
+			"o tester\n" +
+			"j 50.0 0.3 0.75\n" +
+			"v S\n" +
+			"z F\n" +
+			"h 2.0\n" +
+			"l 3\n" +
+			"c 4\n" +
+			"\n" +
+			"S T 5\n" +
+			"s 10Feb2014[21:44.02]\n" +
+			"d 0 0 0 100\n" +
+			"G 100 100 100 100\n" +
+			"K 50 0 0 100\n" +
+			"P 13 23\n" +
+			"T First line\n" +
+			"T Second line\n" +
+			"F overlayset4\n" +
+			"X secondAction\n" +
+			"x F\n" +
+			"U enterAction\n" +
+			"V leaveAction\n" +
+			"W enterFrameAction\n" +
+			"Y leaveFrameAction\n" +
+			"D data one\n" +
+			"D data two\n" +
+			"u F\n" +
+			"Q 0\n" +
+			"R 0.0\n" +
+			"N 6.0\n" +
+			"i pattern1\n" +
+			"o someone\n" +
+			"n F\n" +
+			"q linkframeset\n" +
+			"g 2 4 6\n" +
+			"v S\n" +
+			"f dr20\n" +
+			"t -23.0\n" +
+			"J 1+2\n" +
+			"a 3\n" +
+			"b -10.0\n" +
+			"m 0.0\n" +
+			"w 135\n" +
+			"k C\n" +
+			"h -1.0\n" +
+			"A a tooltip\n" +
+			"A second tooltip line\n" +
+			"B F\n" +
+			"p 10\n" +
+			"\n" +
+			"S T 6\n" +
+			"s 10Feb2014[22:04.30]\n" +
+			"P 7 57\n" +
+			"T @i: image.png 127\n" +
+			"Q 0\n" +
+			"o someone\n" +
+			"v S\n" +
+			"f tb18\n" +
+			"t -1.0\n" +
+			"b 0.0\n" +
+			"m 0.0\n" +
+			"h -1.0\n" +
+			"\n" +
+			"S P 2\n" +
+			"s 13Feb2014[11:37.51]\n" +
+			"d 90 90 90 100\n" +
+			"P 140 875\n" +
+			"e 95 95 95 100\n" +
+			"Q 0\n" +
+			"R 140.0\n" +
+			"o tester\n" +
+			"v S\n" +
+			"h 2.0\n" +
+			"l 3\n" +
+			"c 4\n" +
+			"\n" +
+			"Z\n" +
+			"\n" +
+			"L 3 1\n" +
+			"s 1 2\n" +
+			"\n" +
+			"Z\n" +
+			"\n" +
+			"C 4 2\n" +
+			"s 1 2\n" +
+			"\n" +
+			"Z\n" +
+			"\n";
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		if (FrameGraphics.getMaxSize() == null) {
+			try {
+				FrameGraphics.setMaxSize(new Dimension(1024, 768));
+			} catch (HeadlessException e) {
+				// the frame size is set before the message bay needs a display
+			}
+		}
+	}
+
+	static Frame read(String contents) throws IOException {
+		return new ExpReader("roundtrip1").readFrame(new BufferedReader(
+				new StringReader(contents)));
+	}
+
+	static String write(Frame frame) throws IOException {
+		StringWriter out = new StringWriter();
+		new ExpWriter().writeFrame(frame, out);
+		String written = out.toString();
+		// the session stats depend on the time the frame was read
+		return written.substring(0, written.indexOf(SessionStats.ACTIVE_TIME_ATTRIBUTE));
+	}
+
+	public final void testRoundTrip() throws IOException {
+		assertEquals(FRAME, write(read(FRAME)));
+	}
+
+	public final void testReadAttributes() throws IOException {
+		Frame frame = read(FRAME);
+		assertEquals(12, frame.getVersion());
+		assertEquals("tester", frame.getOwner());
+
+		Item dot = frame.getItemWithID(1);
+		assertNotNull(dot);
+		assertEquals(45, dot.getGradientAngle());
+		assertEquals(2.0F, dot.getThickness());
+		assertFalse(dot.getFilled());
+
+		Text text = (Text) frame.getItemWithID(5);
+		assertEquals("First line\nSecond line", text.getText());
+		assertEquals(2, text.getData().size());
+		assertEquals(-10.0F, text.getLetterSpacing());
+		assertEquals(3, text.getWordSpacing());
+		assertEquals(Integer.valueOf(135), text.getWidthToSave());
+		assertEquals(3, text.getLinePattern().length);
+	}
+
+	public final void testUnknownTagIsIgnored() throws IOException {
+		String contents = FRAME.replace("S T 6\n", "S T 6\nO unknown\n");
+		assertEquals(FRAME, write(read(contents)));
+	}
+
+	public final void testTagsFollowDefaultTags() {
+		// every tag written by the reflective writer, in the same order
+		List<Character> written = new ArrayList<Character>();
+		for (ExpTags.ItemGetter getter : ExpTags.getItemGetters())
+			written.add(getter.tag);
+		assertEquals(new ArrayList<Character>(DefaultFrameWriter.getItemTags()
+				.keySet()), written);
+
+		// and every tag it reads, except lines and constraints
+		for (char tag : DefaultFrameReader.getItemTags().keySet())
+			assertEquals(tag != 'L' && tag != 'C',
+					ExpTags.getItemSetter(tag) != null);
+		for (char tag : DefaultFrameReader.getFrameTags().keySet())
+			assertNotNull(ExpTags.getFrameSetter(tag));
+	}
+
+	/**
+	 * Reads frames as ExpReader does, timing the lines of the items it reads
+	 * by their tag.
+	 */
+	private static class TimedReader extends ExpReader {
+		final long[] lines = new long[128];
+
+		final long[] nanos = new long[128];
+
+		TimedReader() {
+			super("bench1");
+		}
+
+		@Override
+		protected void processBodyLine(Item item, String line) {
+			char tag = line.charAt(0);
+			long start = System.nanoTime();
+			dispatch(item, line);
+			if (tag < 128) {
+				nanos[tag] += System.nanoTime() - start;
+				lines[tag]++;
+			}
+		}
+
+		void dispatch(Item item, String line) {
+			super.processBodyLine(item, line);
+		}
+	}
+
+	/**
+	 * Reads the lines of items by looking up, converting and invoking the
+	 * reflective tag methods, as ExpReader did before the tag tables.
+	 */
+	private static class ReflectiveReader extends TimedReader {
+		private static final Map<Character, Method> _Tags = DefaultFrameReader
+				.getItemTags();
+
+		@Override
+		void dispatch(Item item, String line) {
+			Method toRun = _Tags.get(getTag(line));
+			if (toRun == null)
+				return;
+			Object[] vals = Conversion.Convert(toRun, getValue(line));
+			try {
+				if (vals != null)
+					toRun.invoke(item, vals);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	static void findFrames(File dir, List<String> frames)
+			throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		for (File file : files) {
+			if (file.isDirectory())
+				findFrames(file, frames);
+			else if (file.getName().endsWith(ExpReader.EXTENTION))
+				frames.add(new String(Files.readAllBytes(file.toPath()),
+						"UTF-8"));
+		}
+	}
+
+	private static long read(TimedReader reader, List<String> contents,
+			int frames) throws IOException {
+		long start = System.nanoTime();
+		for (int i = 0; i < frames; i++)
+			reader.readFrame(new BufferedReader(new StringReader(contents
+					.get(i % contents.size()))));
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Times parsing the .exp files under a directory, over and over until a
+	 * number of frames have been read, through the tag tables and through
+	 * the reflective tag methods. The time of each tag includes the work of
+	 * the item's setter, such as laying out text, which is the same either
+	 * way, so the tags whose setters do little show the cost of dispatching.
+	 *
+	 * Arguments: [directory [frames]], the current directory and 50000
+	 * frames by default.
+	 */
+	public static void main(String[] args) throws IOException {
+		File dir = new File(args.length > 0 ? args[0] : ".");
+		int frames = args.length > 1 ? Integer.parseInt(args[1]) : 50000;
+		try {
+			FrameGraphics.setMaxSize(new Dimension(1024, 768));
+		} catch (HeadlessException e) {
+			// the frame size is set before the message bay needs a display
+		}
+		List<String> contents = new ArrayList<String>();
+		findFrames(dir, contents);
+		if (contents.isEmpty()) {
+			System.out.println("No .exp files under " + dir);
+			return;
+		}
+
+		// warm up both ways first, and then alternate which goes first
+		read(new TimedReader(), contents, frames / 10);
+		read(new ReflectiveReader(), contents, frames / 10);
+		TimedReader tables = new TimedReader();
+		TimedReader reflective = new ReflectiveReader();
+		long tablesTime = 0;
+		long reflectiveTime = 0;
+		for (int round = 0; round < 4; round++) {
+			if (round % 2 == 0)
+				tablesTime += read(tables, contents, frames / 4);
+			reflectiveTime += read(reflective, contents, frames / 4);
+			if (round % 2 == 1)
+				tablesTime += read(tables, contents, frames / 4);
+		}
+		System.out.println(frames + " frames from " + contents.size()
+				+ " files: " + (tablesTime / 1000000) + "ms with tag tables, "
+				+ (reflectiveTime / 1000000) + "ms with reflection");
+		System.out.println("tag      lines   tables ns  reflection ns");
+		long lines = 0;
+		for (char tag = 0; tag < 128; tag++) {
+			if (tables.lines[tag] == 0)
+				continue;
+			lines += tables.lines[tag];
+			System.out.println(String.format("%c %12d %11d %14d", tag,
+					tables.lines[tag], tables.nanos[tag] / tables.lines[tag],
+					reflective.nanos[tag] / reflective.lines[tag]));
+		}
+		System.out.println(lines + " item lines");
+	}
+}
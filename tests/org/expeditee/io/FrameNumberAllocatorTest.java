@@ -0,0 +1,299 @@
+package org.expeditee.io;
+
+import java.awt.Dimension;
+import java.awt.HeadlessException;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.expeditee.gui.Frame;
+import org.expeditee.gui.FrameFileIndex;
+import org.expeditee.gui.FrameGraphics;
+import org.expeditee.gui.FrameIO;
+import org.expeditee.gui.FrameNumbers;
+import org.expeditee.gui.FrameSaveQueue;
+import org.expeditee.gui.MessageBay;
+import org.expeditee.network.FrameShare;
+import org.expeditee.settings.folders.FolderSettings;
+
+public class FrameNumberAllocatorTest extends TestCase {
+
+	private static final int FRAMES = 400;
+
+	private File _root;
+
+	private File _dir;
+
+	private String _path;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		_root = File.createTempFile("framenumbers", "");
+		_root.delete();
+		_dir = new File(_root, "numtest");
+		_dir.mkdirs();
+		_path = _root.getPath() + File.separator;
+		write(new File(_dir, FrameNumberAllocator.FILENAME), "numtest5");
+	}
+
+	protected void tearDown() throws Exception {
+		FrameNumberAllocator.close(_dir);
+		for (File f : _dir.listFiles())
+			f.delete();
+		_dir.delete();
+		_root.delete();
+		super.tearDown();
+	}
+
+	private static void write(File file, String text) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		writer.write(text);
+		writer.close();
+	}
+
+	public void testAllocateAndRelease() throws IOException {
+		assertEquals(5, FrameNumberAllocator.getLast(_dir));
+		assertEquals(6, FrameNumberAllocator.allocate(_dir, "numtest", 1));
+		assertEquals(7, FrameNumberAllocator.allocate(_dir, "numtest", 10));
+		assertEquals(16, FrameNumberAllocator.getLast(_dir));
+
+		// 7 to 9 were used
+		FrameNumberAllocator.release(_dir, "numtest", 10, 17);
+		assertEquals(9, FrameNumberAllocator.getLast(_dir));
+
+		// nothing is given back once later numbers are taken
+		assertEquals(10, FrameNumberAllocator.allocate(_dir, "numtest", 5));
+		assertEquals(15, FrameNumberAllocator.allocate(_dir, "numtest", 1));
+		FrameNumberAllocator.release(_dir, "numtest", 12, 15);
+		assertEquals(15, FrameNumberAllocator.getLast(_dir));
+
+		// saving a frame only moves the INF file forwards
+		FrameNumberAllocator.update(_dir, "numtest3", 3);
+		assertEquals(15, FrameNumberAllocator.getLast(_dir));
+		FrameNumberAllocator.update(_dir, "numtest20", 20);
+		assertEquals(20, FrameNumberAllocator.getLast(_dir));
+		assertEquals(20, FrameIO.ReadINF(_path, "numtest", false));
+		assertEquals(20, FrameIO.ReadINF(_path, "numtest", true));
+		assertEquals(21, FrameNumberAllocator.getLast(_dir));
+	}
+
+	public void testOlderINFFile() throws IOException {
+		new File(_dir, FrameNumberAllocator.FILENAME).delete();
+		write(new File(_dir, "numtest.inf"), "numtest12\n");
+		assertEquals(12, FrameNumberAllocator.getLast(_dir));
+		// the older file is only copied once a number is allocated
+		assertFalse(new File(_dir, FrameNumberAllocator.FILENAME).exists());
+		assertEquals(13, FrameNumberAllocator.allocate(_dir, "numtest", 1));
+		assertEquals(13, FrameNumberAllocator.getLast(_dir));
+		assertTrue(new File(_dir, FrameNumberAllocator.FILENAME).exists());
+	}
+
+	public void testReadOnlyFrameset() throws IOException {
+		File inf = new File(_dir, FrameNumberAllocator.FILENAME);
+		inf.setWritable(false);
+		_dir.setWritable(false);
+		try {
+			assertEquals(5, FrameNumberAllocator.getLast(_dir));
+			assertEquals(5, FrameIO.ReadINF(_path, "numtest", false));
+			// the permissions are ignored when the tests are run as root
+			if (!inf.canWrite()) {
+				try {
+					FrameNumberAllocator.allocate(_dir, "numtest", 1);
+					fail();
+				} catch (IOException e) {
+				}
+				assertEquals(5, FrameNumberAllocator.getLast(_dir));
+			}
+		} finally {
+			_dir.setWritable(true);
+			inf.setWritable(true);
+		}
+	}
+
+	public void testMissingFrameset() throws IOException {
+		if (FrameShare.getInstance() != null)
+			return;
+		// there are no peers to ask for its number
+		try {
+			FrameIO.ReadINF(_path, "nonumtest", false);
+			fail();
+		} catch (FileNotFoundException e) {
+		}
+	}
+
+	public void testFrameNumbers() throws IOException {
+		FrameNumbers numbers = new FrameNumbers(_path, "numtest");
+		for (int i = 6; i < 106; i++)
+			assertEquals(i, numbers.next());
+		assertTrue(FrameNumberAllocator.getLast(_dir) >= 105);
+		numbers.release();
+		assertEquals(105, FrameNumberAllocator.getLast(_dir));
+	}
+
+	/**
+	 * Creates frame files in a frameset, numbering some of them one at a time
+	 * and some from reserved ranges, and prints their numbers. Given
+	 * -benchmark, runs {@link #benchmark(String[])} instead.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args[0].equals("-benchmark")) {
+			benchmark(args);
+			return;
+		}
+		String path = args[0];
+		FrameNumbers numbers = new FrameNumbers(path, "numtest");
+		for (int i = 0; i < FRAMES; i++) {
+			int number = i % 2 == 0 ? numbers.next() : FrameIO.ReadINF(path,
+					"numtest", true) + 1;
+			File file = new File(path + "numtest" + File.separator + number
+					+ ExpReader.EXTENTION);
+			System.out.println((file.createNewFile() ? "" : "duplicate ")
+					+ number);
+		}
+		numbers.release();
+	}
+
+	public void testTwoProcesses() throws Exception {
+		List<Process> processes = new ArrayList<Process>();
+		for (int i = 0; i < 2; i++) {
+			ProcessBuilder builder = new ProcessBuilder(System
+					.getProperty("java.home")
+					+ File.separator + "bin" + File.separator + "java", "-cp",
+					System.getProperty("java.class.path"), getClass()
+							.getName(), _path);
+			builder.redirectErrorStream(true);
+			processes.add(builder.start());
+		}
+
+		Set<String> numbers = new HashSet<String>();
+		for (Process process : processes) {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					process.getInputStream()));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				assertTrue(line, numbers.add(line));
+			}
+			assertEquals(0, process.waitFor());
+		}
+		assertEquals(2 * FRAMES, numbers.size());
+		assertEquals(2 * FRAMES + 1, _dir.list().length);
+	}
+
+	/**
+	 * Reads the next frame number and writes the one after it, opening and
+	 * parsing frame.inf every time as ReadINF did before the allocator.
+	 */
+	private static int readAndUpdate(File dir, String frameset)
+			throws IOException {
+		File inf = new File(dir, FrameNumberAllocator.FILENAME);
+		BufferedReader reader = new BufferedReader(new FileReader(inf));
+		int next = Conversion.getFrameNumber(reader.readLine());
+		reader.close();
+		write(inf, frameset + (next + 1));
+		return next;
+	}
+
+	/**
+	 * Times handing out frame numbers by rewriting frame.inf as before, with
+	 * ReadINF and from the ranges of FrameNumbers, then creating and saving
+	 * frames with CreateFrame numbered one at a time and from ranges. The
+	 * new frames are copies of the frame 0 given.
+	 *
+	 * Arguments: -benchmark [numbers [frames [frame 0]]], 100000 numbers,
+	 * 100000 frames and frame 0 of the simpletestsuite frameset of the
+	 * working copy by default.
+	 */
+	private static void benchmark(String[] args) throws IOException {
+		int count = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		int frames = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+		File zero = new File(args.length > 3 ? args[3]
+				: "expeditee/documentation/simpletestsuite/0.exp");
+		try {
+			FrameGraphics.setMaxSize(new Dimension(1024, 768));
+		} catch (HeadlessException e) {
+			// the frame size is set before the message bay needs a display
+		}
+		MessageBay.suppressMessages(true);
+
+		File root = File.createTempFile("framenumbers", "");
+		root.delete();
+		String path = root.getPath() + File.separator;
+		FolderSettings.FrameDirs.get().add(path);
+		try {
+			String[] framesets = { "numold", "numinf", "numranges" };
+			for (String frameset : framesets) {
+				File dir = new File(root, frameset);
+				dir.mkdirs();
+				write(new File(dir, FrameNumberAllocator.FILENAME), frameset
+						+ "0");
+				long start = System.nanoTime();
+				if (frameset.equals("numold")) {
+					for (int i = 0; i < count; i++)
+						readAndUpdate(dir, frameset);
+				} else if (frameset.equals("numinf")) {
+					for (int i = 0; i < count; i++)
+						FrameIO.ReadINF(path, frameset, true);
+				} else {
+					FrameNumbers numbers = new FrameNumbers(path, frameset);
+					for (int i = 0; i < count; i++)
+						numbers.next();
+					numbers.release();
+				}
+				long elapsed = System.nanoTime() - start;
+				System.out.println(count + " numbers from " + frameset + ": "
+						+ (elapsed / 1000000) + "ms ("
+						+ (elapsed / count) + "ns each)");
+			}
+
+			FrameIO.DisableCache();
+			for (String frameset : new String[] { "createinf",
+					"createranges" }) {
+				File dir = new File(root, frameset);
+				dir.mkdirs();
+				Files.copy(zero.toPath(), new File(dir, "0"
+						+ ExpReader.EXTENTION).toPath());
+				write(new File(dir, FrameNumberAllocator.FILENAME), frameset
+						+ "0");
+				FrameFileIndex.clear();
+				FrameNumbers numbers = frameset.equals("createranges") ? new FrameNumbers(
+						path, frameset)
+						: null;
+				long start = System.nanoTime();
+				for (int i = 0; i < frames; i++) {
+					Frame frame = FrameIO.CreateFrame(frameset, "Frame " + i,
+							null, numbers);
+					frame.addText(100, 200, "Created " + i, null);
+					FrameIO.SaveFrame(frame);
+				}
+				if (numbers != null)
+					numbers.release();
+				FrameSaveQueue.flush();
+				long elapsed = System.nanoTime() - start;
+				System.out.println(frames + " frames created in " + frameset
+						+ ": " + (elapsed / 1000000) + "ms");
+			}
+		} finally {
+			FrameIO.EnableCache();
+			FolderSettings.FrameDirs.get().remove(path);
+			FrameFileIndex.clear();
+			for (File dir : root.listFiles()) {
+				FrameNumberAllocator.close(dir);
+				for (File f : dir.listFiles())
+					f.delete();
+				dir.delete();
+			}
+			root.delete();
+		}
+	}
+}
@@ -0,0 +1,330 @@
+package org.expeditee.io;
+
+import java.awt.Dimension;
+import java.awt.HeadlessException;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.expeditee.gui.Frame;
+import org.expeditee.gui.FrameFileIndex;
+import org.expeditee.gui.FrameGraphics;
+import org.expeditee.gui.FrameIO;
+import org.expeditee.gui.FrameSaveQueue;
+import org.expeditee.gui.MessageBay;
+import org.expeditee.settings.folders.FolderSettings;
+import org.expeditee.settings.performance.PerformanceSettings;
+
+public class FramesetLogTest extends TestCase {
+
+	private File _dir;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		_dir = File.createTempFile("framesetlog", "");
+		_dir.delete();
+		_dir.mkdirs();
+	}
+
+	protected void tearDown() throws Exception {
+		FramesetLog.close(_dir);
+		for (File f : _dir.listFiles())
+			f.delete();
+		_dir.delete();
+		super.tearDown();
+	}
+
+	private static byte[] contents(int number, int version) throws IOException {
+		return ("frame " + number + " version " + version).getBytes("UTF-8");
+	}
+
+	private FramesetLog reopen() throws IOException {
+		FramesetLog.close(_dir);
+		return FramesetLog.open(_dir);
+	}
+
+	public final void testAppendAndRead() throws IOException {
+		FramesetLog log = FramesetLog.create(_dir);
+		for (int version = 1; version <= 3; version++) {
+			for (int number = 1; number <= 5; number++)
+				log.append(number, version, contents(number, version));
+		}
+
+		assertEquals(5, log.getFrameNumbers().size());
+		assertEquals(3, log.getVersion(2));
+		assertTrue(Arrays.equals(contents(2, 3), log.read(2)));
+		assertTrue(Arrays.equals(contents(2, 1), log.readVersion(2, 1)));
+		assertNull(log.read(6));
+		assertEquals(-1, log.getVersion(6));
+	}
+
+	public final void testPaths() throws IOException {
+		FramesetLog.create(_dir);
+		String path = FramesetLog.getPath(_dir, 7);
+		assertTrue(FramesetLog.isLogPath(path));
+		FramesetLog.write(path, 4, contents(7, 4));
+		assertEquals(4, FramesetLog.getVersion(path));
+		assertTrue(Arrays.equals(contents(7, 4), FramesetLog.read(path)));
+		assertTrue(FramesetLog.delete(path));
+		assertEquals(-1, FramesetLog.getVersion(path));
+	}
+
+	public final void testOldVersionsDropped() throws IOException {
+		FramesetLog log = FramesetLog.create(_dir);
+		int kept = PerformanceSettings.LogVersionsKept.get();
+		for (int version = 1; version <= kept + 5; version++)
+			log.append(1, version, contents(1, version));
+
+		List<Integer> versions = log.getVersions(1);
+		assertEquals(kept, versions.size());
+		assertEquals(6, versions.get(0).intValue());
+		assertNull(log.readVersion(1, 5));
+		assertEquals(versions, reopen().getVersions(1));
+	}
+
+	public final void testReopen() throws IOException {
+		FramesetLog log = FramesetLog.create(_dir);
+		log.append(1, 1, contents(1, 1));
+		log.append(2, 1, contents(2, 1));
+		log.append(1, 2, contents(1, 2));
+		assertTrue(log.delete(2));
+		assertFalse(log.delete(2));
+
+		log = reopen();
+		assertEquals(1, log.getFrameNumbers().size());
+		assertTrue(Arrays.equals(contents(1, 2), log.read(1)));
+		assertNull(log.read(2));
+	}
+
+	public final void testTornRecordTruncated() throws IOException {
+		FramesetLog log = FramesetLog.create(_dir);
+		log.append(1, 1, contents(1, 1));
+		log.append(1, 2, contents(1, 2));
+		long good = log.getSize();
+		log.append(1, 3, contents(1, 3));
+		FramesetLog.close(_dir);
+
+		// cut the last record short as if the write was interrupted
+		RandomAccessFile file = new RandomAccessFile(new File(_dir,
+				FramesetLog.FILENAME), "rw");
+		file.setLength(file.length() - 3);
+		file.close();
+
+		log = FramesetLog.open(_dir);
+		assertEquals(2, log.getVersion(1));
+		assertEquals(good, log.getSize());
+		assertEquals(good, new File(_dir, FramesetLog.FILENAME).length());
+
+		// records appended after the truncation can be read back
+		log.append(1, 3, contents(1, 3));
+		assertEquals(3, reopen().getVersion(1));
+	}
+
+	public final void testCorruptRecordTruncated() throws IOException {
+		FramesetLog log = FramesetLog.create(_dir);
+		log.append(1, 1, contents(1, 1));
+		long good = log.getSize();
+		log.append(2, 1, contents(2, 1));
+		FramesetLog.close(_dir);
+
+		RandomAccessFile file = new RandomAccessFile(new File(_dir,
+				FramesetLog.FILENAME), "rw");
+		file.seek(good + 20);
+		file.write('X');
+		file.close();
+
+		log = FramesetLog.open(_dir);
+		assertEquals(1, log.getFrameNumbers().size());
+		assertNull(log.read(2));
+	}
+
+	public final void testCompact() throws IOException {
+		FramesetLog log = FramesetLog.create(_dir);
+		int kept = PerformanceSettings.LogVersionsKept.get();
+		for (int version = 1; version <= kept * 3; version++) {
+			for (int number = 1; number <= 20; number++)
+				log.append(number, version, contents(number, version));
+		}
+		log.delete(20);
+		long before = log.getSize();
+
+		log.compact();
+		assertTrue(log.getSize() < before);
+		assertEquals(19, log.getFrameNumbers().size());
+		assertEquals(kept, log.getVersions(1).size());
+		assertTrue(Arrays.equals(contents(3, kept * 3), log.read(3)));
+
+		log = reopen();
+		assertEquals(19, log.getFrameNumbers().size());
+		assertTrue(Arrays.equals(contents(3, kept * 3), log.read(3)));
+		assertTrue(Arrays.equals(contents(3, kept * 2 + 1), log.readVersion(3,
+				kept * 2 + 1)));
+		// no temporary files are left behind
+		assertEquals(1, _dir.listFiles().length);
+	}
+
+	private static final String[] LAYOUTS = { ExpReader.EXTENTION,
+			ExbReader.EXTENTION, FramesetLog.EXTENTION };
+
+	/**
+	 * Drops the page cache so the next reads come from the disk, if this is
+	 * allowed.
+	 *
+	 * @return false if the page cache could not be dropped.
+	 */
+	private static boolean dropCaches() {
+		try {
+			new ProcessBuilder("sync").start().waitFor();
+			FileWriter writer = new FileWriter("/proc/sys/vm/drop_caches");
+			writer.write("3\n");
+			writer.close();
+			return true;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	private static Frame createFrame(String path, String frameset,
+			int number) {
+		Frame frame = new Frame();
+		frame.setPath(path);
+		frame.setFrameset(frameset);
+		frame.setFrameNumber(number);
+		frame.setTitle("Frame " + number);
+		for (int i = 0; i < 5; i++)
+			frame.addText(100, 100 + i * 30, "Item " + i + " of frame "
+					+ number, null);
+		return frame;
+	}
+
+	private static long getDiskUsed(File dir) {
+		long used = 0;
+		for (File file : dir.listFiles())
+			used += (file.length() + 4095) / 4096 * 4096;
+		return used;
+	}
+
+	private static String perSecond(int count, long nanos) {
+		return Long.toString(count * 1000000000L / Math.max(1, nanos));
+	}
+
+	/**
+	 * Compares a frameset of one file per frame, as Exp and as Exb, with one
+	 * stored as a log: creating its frames, the disk it takes, listing it,
+	 * reading the raw frames and loading and saving them again. The page
+	 * cache is dropped before the cold runs when the benchmark is allowed to.
+	 *
+	 * Arguments: [frames [reads]], 100000 frames and 10000 reads by default.
+	 */
+	public static void main(String[] args) throws IOException {
+		int frames = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int reads = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+		try {
+			FrameGraphics.setMaxSize(new Dimension(1024, 768));
+		} catch (HeadlessException e) {
+			// the frame size is set before the message bay needs a display
+		}
+		MessageBay.suppressMessages(true);
+		File root = File.createTempFile("framesetlog", "");
+		root.delete();
+		root.mkdirs();
+		String path = root.getPath() + File.separator;
+		FolderSettings.FrameDirs.get().add(path);
+		FrameIO.DisableCache();
+
+		try {
+			for (String layout : LAYOUTS) {
+				String frameset = "bench" + layout.substring(1);
+				File dir = new File(root, frameset);
+				dir.mkdirs();
+				new FileWriter(new File(dir, "frame.inf")).close();
+				if (layout.equals(FramesetLog.EXTENTION))
+					FramesetLog.create(dir);
+				FrameFileIndex.clear();
+
+				// new frames are saved as Exp, so Exb frames are written
+				// directly
+				long start = System.nanoTime();
+				for (int number = 1; number <= frames; number++) {
+					Frame frame = createFrame(path, frameset, number);
+					if (layout.equals(ExbReader.EXTENTION)) {
+						ExbWriter writer = new ExbWriter();
+						writer.setOutputLocation(new File(dir, number
+								+ ExbReader.EXTENTION).getPath());
+						writer.writeFrame(frame);
+					} else {
+						FrameIO.SaveFrame(frame);
+					}
+				}
+				FrameSaveQueue.flush();
+				long create = System.nanoTime() - start;
+				FramesetLog.close(dir);
+
+				boolean cold = dropCaches();
+				FrameFileIndex.clear();
+				start = System.nanoTime();
+				int listed = FrameFileIndex.getFrameNumbers(path, frameset)
+						.size();
+				long list = System.nanoTime() - start;
+				if (listed != frames)
+					throw new IllegalStateException("Listed " + listed
+							+ " frames rather than " + frames);
+
+				dropCaches();
+				Random random = new Random(1);
+				start = System.nanoTime();
+				for (int i = 0; i < reads; i++) {
+					String framePath = FrameIO.getFrameFullPathName(path,
+							frameset + (1 + random.nextInt(frames)));
+					if (FramesetLog.isLogPath(framePath))
+						FramesetLog.read(framePath);
+					else
+						Files.readAllBytes(new File(framePath).toPath());
+				}
+				long rawReads = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				for (int i = 0; i < reads; i++)
+					FrameIO.LoadFrame(frameset + (1 + random.nextInt(frames)));
+				long load = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				for (int i = 0; i < reads; i++) {
+					Frame frame = FrameIO.LoadFrame(frameset
+							+ (1 + random.nextInt(frames)));
+					frame.addText(100, 400, "Saved again " + i, null);
+					FrameIO.SaveFrame(frame);
+				}
+				FrameSaveQueue.flush();
+				long resave = System.nanoTime() - start;
+
+				System.out.println(layout + ": created "
+						+ perSecond(frames, create) + "/s, "
+						+ (getDiskUsed(dir) / 1024) + "KB on disk, "
+						+ (cold ? "cold" : "warm (page cache not dropped)")
+						+ " list " + (list / 1000000) + "ms, raw reads "
+						+ perSecond(reads, rawReads) + "/s, LoadFrame "
+						+ perSecond(reads, load) + "/s, saved again "
+						+ perSecond(reads, resave) + "/s");
+				FramesetLog.close(dir);
+			}
+		} finally {
+			FrameIO.EnableCache();
+			FolderSettings.FrameDirs.get().remove(path);
+			FrameFileIndex.clear();
+			for (File dir : root.listFiles()) {
+				for (File f : dir.listFiles())
+					f.delete();
+				dir.delete();
+			}
+			root.delete();
+		}
+	}
+}
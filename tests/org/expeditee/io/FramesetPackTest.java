@@ -0,0 +1,316 @@
+package org.expeditee.io;
+
+import java.awt.Dimension;
+import java.awt.HeadlessException;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.expeditee.gui.Frame;
+import org.expeditee.gui.FrameFileIndex;
+import org.expeditee.gui.FrameGraphics;
+import org.expeditee.gui.FrameIO;
+import org.expeditee.gui.MessageBay;
+import org.expeditee.settings.folders.FolderSettings;
+
+public class FramesetPackTest extends TestCase {
+
+	private static final int FRAMES = 5;
+
+	private File _root;
+
+	private File _dir;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		if (FrameGraphics.getMaxSize() == null) {
+			try {
+				FrameGraphics.setMaxSize(new Dimension(1024, 768));
+			} catch (HeadlessException e) {
+				// the frame size is set before the message bay needs a display
+			}
+		}
+		_root = File.createTempFile("framesetpack", "");
+		_root.delete();
+		_dir = new File(_root, "packtest");
+		_dir.mkdirs();
+
+		// loose frames in both the Exp and Exb formats
+		for (int number = 1; number <= FRAMES; number++) {
+			String text = ExpReaderWriterTest.FRAME.replace("First line",
+					"Frame " + number);
+			if (number % 2 == 0) {
+				ExbWriter writer = new ExbWriter();
+				writer.setOutputLocation(new File(_dir, number
+						+ ExbReader.EXTENTION).getPath());
+				writer.writeFrame(ExpReaderWriterTest.read(text));
+			} else {
+				Writer out = new OutputStreamWriter(new FileOutputStream(
+						new File(_dir, number + ExpReader.EXTENTION)), "UTF-8");
+				out.write(text);
+				out.close();
+			}
+		}
+	}
+
+	protected void tearDown() throws Exception {
+		FramesetPack.close(_dir);
+		for (File f : _dir.listFiles())
+			f.delete();
+		_dir.delete();
+		_root.delete();
+		super.tearDown();
+	}
+
+	private String readLoose(int number) throws IOException {
+		File exp = new File(_dir, number + ExpReader.EXTENTION);
+		Frame frame;
+		if (exp.exists())
+			frame = new ExpReader("packtest" + number).readFrame(exp.getPath());
+		else
+			frame = new ExbReader("packtest" + number).readFrame(new File(
+					_dir, number + ExbReader.EXTENTION).getPath());
+		return ExpReaderWriterTest.write(frame);
+	}
+
+	private String readPacked(int number) throws IOException {
+		Frame frame = new ExbReader("packtest" + number)
+				.readFrame(FramesetPack.getPath(_dir, number));
+		return ExpReaderWriterTest.write(frame);
+	}
+
+	public final void testPackedFramesEqualLoose() throws IOException {
+		String[] loose = new String[FRAMES + 1];
+		for (int number = 1; number <= FRAMES; number++)
+			loose[number] = readLoose(number);
+
+		assertEquals(FRAMES, FramesetConverter.convert(_dir,
+				FramesetPack.EXTENTION));
+		// the loose files are replaced by the pack
+		assertEquals(1, _dir.listFiles().length);
+
+		FramesetPack pack = FramesetPack.open(_dir);
+		assertEquals(FRAMES, pack.getFrameNumbers().size());
+		for (int number = 1; number <= FRAMES; number++) {
+			assertEquals(loose[number], readPacked(number));
+			assertEquals(12, pack.getVersion(number));
+		}
+		assertNull(pack.read(FRAMES + 1));
+		assertEquals(-1, FramesetPack.getVersion(FramesetPack.getPath(_dir,
+				FRAMES + 1)));
+	}
+
+	public final void testUnpack() throws IOException {
+		String[] loose = new String[FRAMES + 1];
+		for (int number = 1; number <= FRAMES; number++)
+			loose[number] = readLoose(number);
+
+		FramesetConverter.convert(_dir, FramesetPack.EXTENTION);
+		assertEquals(FRAMES, FramesetConverter.convert(_dir,
+				ExpReader.EXTENTION));
+		assertFalse(FramesetPack.exists(_dir));
+		for (int number = 1; number <= FRAMES; number++)
+			assertEquals(loose[number], readLoose(number));
+	}
+
+	public final void testRepackKeepsLaterFrames() throws IOException {
+		FramesetConverter.convert(_dir, FramesetPack.EXTENTION);
+
+		// a frame saved after packing is written as a loose file
+		Writer out = new OutputStreamWriter(new FileOutputStream(new File(
+				_dir, 2 + ExpReader.EXTENTION)), "UTF-8");
+		out.write(ExpReaderWriterTest.FRAME.replace("First line", "Changed"));
+		out.close();
+		String changed = readLoose(2);
+
+		assertEquals(FRAMES, FramesetConverter.convert(_dir,
+				FramesetPack.EXTENTION));
+		assertEquals(1, _dir.listFiles().length);
+		assertEquals(changed, readPacked(2));
+	}
+
+	public final void testRepackAddsGeneration() throws IOException {
+		FramesetConverter.convert(_dir, FramesetPack.EXTENTION);
+		File first = FramesetPack.getFile(_dir);
+		assertEquals(FramesetPack.FILENAME, first.getName());
+		FramesetPack.open(_dir);
+
+		// the mapped pack is not renamed over
+		FramesetConverter.convert(_dir, FramesetPack.EXTENTION);
+		File second = FramesetPack.getFile(_dir);
+		assertFalse(first.equals(second));
+		assertFalse(first.exists());
+		String packed = readPacked(2);
+
+		// an older generation which could not be removed is ignored, and
+		// removed when the frameset is next packed
+		Files.copy(second.toPath(), first.toPath());
+		FramesetPack.close(_dir);
+		assertEquals(second, FramesetPack.getFile(_dir));
+		assertEquals(packed, readPacked(2));
+		FramesetConverter.convert(_dir, FramesetPack.EXTENTION);
+		assertEquals(1, _dir.listFiles().length);
+		assertTrue(FramesetPack.isPackFile(FramesetPack.getFile(_dir)
+				.getName()));
+	}
+
+	public final void testCorruptIndexIsRejected() throws IOException {
+		FramesetConverter.convert(_dir, FramesetPack.EXTENTION);
+		FramesetPack.close(_dir);
+
+		RandomAccessFile file = new RandomAccessFile(FramesetPack
+				.getFile(_dir), "rw");
+		file.seek(file.length() - 2);
+		int b = file.read();
+		file.seek(file.length() - 2);
+		file.write(b ^ 0xFF);
+		file.close();
+
+		try {
+			FramesetPack.open(_dir);
+			fail("A pack with a corrupt index should not be opened");
+		} catch (IOException e) {
+		}
+	}
+
+	private static long getSize(File dir) {
+		long size = 0;
+		for (File file : dir.listFiles())
+			size += file.length();
+		return size;
+	}
+
+	/**
+	 * Loads random frames of a frameset twice over, with the frame cache off,
+	 * dropping the page cache first if this is allowed.
+	 */
+	private static void load(String path, String frameset, int frames,
+			int loads) throws IOException {
+		MessageBay.suppressMessages(true);
+		FolderSettings.FrameDirs.get().add(path);
+		FrameIO.DisableCache();
+
+		boolean cold = false;
+		try {
+			new ProcessBuilder("sync").start().waitFor();
+			FileWriter writer = new FileWriter("/proc/sys/vm/drop_caches");
+			writer.write("3\n");
+			writer.close();
+			cold = true;
+		} catch (Exception e) {
+			// the first pass is only cold for the JVM
+		}
+
+		int[] numbers = new int[loads];
+		Random random = new Random(1);
+		for (int i = 0; i < loads; i++)
+			numbers[i] = 1 + random.nextInt(frames);
+		for (int pass = 0; pass < 2; pass++) {
+			long start = System.nanoTime();
+			for (int number : numbers) {
+				if (FrameIO.LoadFrame(frameset + number) == null)
+					throw new IOException("Could not load " + frameset
+							+ number);
+			}
+			long elapsed = System.nanoTime() - start;
+			System.out.println(frameset + (pass == 0 ? (cold ? " cold: "
+					: " first (page cache not dropped): ") : " warm: ")
+					+ (loads * 1000000000L / elapsed) + " frames/s");
+		}
+	}
+
+	/**
+	 * Builds a frameset from copies of the frames in a directory, loose and
+	 * packed, and loads random frames of each in a new JVM, cold and then
+	 * warm.
+	 *
+	 * Arguments: [source directory [frames [loads]]], the simpletestsuite
+	 * frameset of the working copy, 20000 frames and 2000 loads by default.
+	 */
+	public static void main(String[] args) throws Exception {
+		try {
+			FrameGraphics.setMaxSize(new Dimension(1024, 768));
+		} catch (HeadlessException e) {
+			// the frame size is set before the message bay needs a display
+		}
+		if (args.length > 0 && args[0].equals("-load")) {
+			load(args[1], args[2], Integer.parseInt(args[3]), Integer
+					.parseInt(args[4]));
+			return;
+		}
+		File source = new File(args.length > 0 ? args[0]
+				: "expeditee/documentation/simpletestsuite");
+		int frames = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+		int loads = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+
+		List<byte[]> sources = new ArrayList<byte[]>();
+		for (File file : source.listFiles()) {
+			if (file.getName().endsWith(ExpReader.EXTENTION))
+				sources.add(Files.readAllBytes(file.toPath()));
+		}
+		if (sources.isEmpty()) {
+			System.out.println("No .exp files in " + source);
+			return;
+		}
+
+		File root = File.createTempFile("framesetpack", "");
+		root.delete();
+		String path = root.getPath() + File.separator;
+		try {
+			for (String frameset : new String[] { "benchloose", "benchpack" }) {
+				File dir = new File(root, frameset);
+				dir.mkdirs();
+				for (int number = 1; number <= frames; number++)
+					Files.write(new File(dir, number + ExpReader.EXTENTION)
+							.toPath(), sources.get(number % sources.size()));
+			}
+			long loose = getSize(new File(root, "benchloose"));
+			FramesetConverter.convert(new File(root, "benchpack"),
+					FramesetPack.EXTENTION);
+			System.out.println(frames + " frames from " + sources.size()
+					+ " in " + source + ": " + (loose / 1024) + "KB loose, "
+					+ (getSize(new File(root, "benchpack")) / 1024)
+					+ "KB packed");
+
+			for (String frameset : new String[] { "benchloose", "benchpack" }) {
+				ProcessBuilder builder = new ProcessBuilder(System
+						.getProperty("java.home")
+						+ File.separator + "bin" + File.separator + "java",
+						"-Djava.awt.headless=true", "-cp", System
+								.getProperty("java.class.path"),
+						FramesetPackTest.class.getName(), "-load", path,
+						frameset, Integer.toString(frames), Integer
+								.toString(loads));
+				builder.redirectErrorStream(true);
+				Process process = builder.start();
+				BufferedReader reader = new BufferedReader(
+						new InputStreamReader(process.getInputStream()));
+				String line;
+				while ((line = reader.readLine()) != null)
+					System.out.println(line);
+				process.waitFor();
+			}
+		} finally {
+			FramesetPack.close(new File(root, "benchpack"));
+			FrameFileIndex.clear();
+			for (File dir : root.listFiles()) {
+				for (File f : dir.listFiles())
+					f.delete();
+				dir.delete();
+			}
+			root.delete();
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package org.expeditee.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.SortedMap;
+
+import junit.framework.TestCase;
+
+public class FramesetSearchIndexTest extends TestCase {
+
+	private File _dir;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		_dir = File.createTempFile("searchindex", "");
+		_dir.delete();
+		_dir.mkdirs();
+	}
+
+	protected void tearDown() throws Exception {
+		FramesetSearchIndex.close(_dir);
+		for (File f : _dir.listFiles())
+			f.delete();
+		_dir.delete();
+		super.tearDown();
+	}
+
+	private static String frame(String... text) {
+		StringBuffer contents = new StringBuffer("V 1\nZ\n\n");
+		int id = 1;
+		for (String line : text) {
+			contents.append("S T ").append(id++).append("\nP 10 10\n");
+			contents.append("T ").append(line).append("\n\n");
+		}
+		contents.append("Z\n\nZ\n\nZ\n");
+		return contents.toString();
+	}
+
+	private FramesetSearchIndex reopen() throws IOException {
+		FramesetSearchIndex.close(_dir);
+		return FramesetSearchIndex.open(_dir);
+	}
+
+	public final void testSearch() throws IOException {
+		FramesetSearchIndex index = FramesetSearchIndex.create(_dir);
+		index.put(1, frame("The quick brown fox", "jumps over"));
+		index.put(2, frame("A quicker fox"));
+		index.put(3, frame("brown bread, brown rice"));
+
+		// a phrase
+		SortedMap<Integer, List<String>> found = index.search("quick brown");
+		assertEquals(1, found.size());
+		assertEquals("The quick brown fox", found.get(1).get(0));
+
+		// partial words at either end of the pattern
+		assertEquals(2, index.search("quick").size());
+		assertEquals(1, index.search("ick br").size());
+		assertEquals(2, index.search("rown").size());
+		assertEquals(1, index.search("n bread, b").size());
+		assertEquals(0, index.search("brown fox jumps").size());
+
+		// a pattern without words is checked against every frame
+		assertEquals(1, index.search(", ").size());
+		assertEquals(3, index.search("").size());
+	}
+
+	public final void testUpdateAndRemove() throws IOException {
+		FramesetSearchIndex index = FramesetSearchIndex.create(_dir);
+		index.put(1, frame("old text"));
+		index.put(2, frame("other text"));
+		index.put(1, frame("new text"));
+		assertEquals(0, index.search("old").size());
+		assertEquals(1, index.search("new").size());
+
+		assertTrue(index.remove(2));
+		assertFalse(index.remove(2));
+		assertEquals(1, index.search("text").size());
+
+		index = reopen();
+		assertEquals(1, index.getFrameNumbers().size());
+		assertEquals(1, index.search("new text").size());
+		assertEquals(0, index.search("other").size());
+	}
+
+	public final void testPaths() throws IOException {
+		assertEquals(12, FramesetSearchIndex.getNumber("/a/test/12.exp"));
+		assertEquals(12, FramesetSearchIndex.getNumber("/a/test/test.12"));
+		assertEquals(-1, FramesetSearchIndex.getNumber("/a/test/frame.inf"));
+
+		// frames in framesets without an index are ignored
+		String path = new File(_dir, "3.exp").getPath();
+		FramesetSearchIndex.update(path, frame("unindexed"));
+		assertFalse(FramesetSearchIndex.exists(_dir));
+
+		FramesetSearchIndex.create(_dir);
+		FramesetSearchIndex.update(path, frame("indexed"));
+		assertEquals(1, reopen().search("indexed").size());
+		FramesetSearchIndex.remove(path);
+		assertEquals(0, reopen().getFrameNumbers().size());
+	}
+
+	public final void testTruncatedRecord() throws IOException {
+		FramesetSearchIndex index = FramesetSearchIndex.create(_dir);
+		index.put(1, frame("first"));
+		index.put(2, frame("second"));
+		FramesetSearchIndex.close(_dir);
+
+		// lose the end of the last record
+		RandomAccessFile file = new RandomAccessFile(new File(_dir,
+				FramesetSearchIndex.FILENAME), "rw");
+		file.setLength(file.length() - 3);
+		file.close();
+
+		index = FramesetSearchIndex.open(_dir);
+		assertEquals(1, index.getFrameNumbers().size());
+		assertEquals(1, index.search("first").size());
+		index.put(2, frame("second again"));
+		assertEquals(1, reopen().search("second again").size());
+	}
+
+	public final void testCompaction() throws IOException {
+		FramesetSearchIndex index = FramesetSearchIndex.create(_dir);
+		StringBuffer padding = new StringBuffer();
+		for (int i = 0; i < 1000; i++)
+			padding.append("padding ");
+		for (int i = 0; i < 100; i++) {
+			for (int number = 1; number <= 5; number++)
+				index.put(number, frame("version " + i, padding.toString()));
+		}
+
+		// about 4MB of records were written
+		assertTrue(index.getSize() < 512 * 1024);
+		assertEquals(5, index.search("version 99").size());
+		index = reopen();
+		assertEquals(5, index.getFrameNumbers().size());
+		assertEquals(5, index.search("version 99").size());
+		assertEquals(0, index.search("version 98").size());
+	}
+}
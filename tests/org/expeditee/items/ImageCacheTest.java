@@ -0,0 +1,156 @@
+package org.expeditee.items;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.HeadlessException;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import junit.framework.TestCase;
+
+import org.expeditee.gui.FrameGraphics;
+import org.expeditee.settings.performance.PerformanceSettings;
+
+public class ImageCacheTest extends TestCase {
+
+	private File dir;
+
+	private int budget;
+
+	private int threads;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		if (FrameGraphics.getMaxSize() == null) {
+			try {
+				FrameGraphics.setMaxSize(new Dimension(1024, 768));
+			} catch (HeadlessException e) {
+				// the frame size is set before the message bay needs a display
+			}
+		}
+		dir = File.createTempFile("imagecachetest", "");
+		dir.delete();
+		dir.mkdir();
+		budget = PerformanceSettings.ImageCacheMemory.get();
+		threads = PerformanceSettings.ImageDecodeThreads.get();
+		PerformanceSettings.ImageDecodeThreads.set(0);
+		ImageCache.clear();
+		ImageCache.resetStats();
+	}
+
+	protected void tearDown() throws Exception {
+		PerformanceSettings.ImageCacheMemory.set(budget);
+		PerformanceSettings.ImageDecodeThreads.set(threads);
+		ImageCache.clear();
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+		super.tearDown();
+	}
+
+	private File writeImage(String name, int width, int height)
+			throws Exception {
+		BufferedImage image = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_RGB);
+		image.setRGB(0, 0, name.hashCode());
+		File file = new File(dir, name);
+		ImageIO.write(image, name.substring(name.indexOf('.') + 1), file);
+		return file;
+	}
+
+	private Picture createPicture(File file) {
+		return createPicture(file, "");
+	}
+
+	private Picture createPicture(File file, String size) {
+		Text source = new Text(1, "@i: " + file.getPath() + " " + size);
+		return new Picture(source, file.getPath(), file.getPath(), size, null);
+	}
+
+	private BufferedImage paint(Picture picture) {
+		BufferedImage screen = new BufferedImage(600, 600,
+				BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = screen.createGraphics();
+		picture.paint(g);
+		g.dispose();
+		return screen;
+	}
+
+	public void testPicturesShareImages() throws Exception {
+		File file = writeImage("shared.png", 200, 100);
+		List<Picture> pictures = new ArrayList<Picture>();
+		for (int i = 0; i < 20; i++) {
+			Picture picture = createPicture(file);
+			paint(picture);
+			pictures.add(picture);
+		}
+		assertEquals(1L, ImageCache.getReads());
+		assertEquals(200, pictures.get(0).getWidth().intValue());
+		assertSame(pictures.get(0).getImage(), pictures.get(19).getImage());
+		assertSame(pictures.get(0).getImage(), pictures.get(0).copy()
+				.getImage());
+		assertEquals(1L, ImageCache.getReads());
+		assertTrue(ImageCache.getStats().startsWith("ImageCache: 2 images"));
+	}
+
+	public void testStaysWithinBudget() throws Exception {
+		PerformanceSettings.ImageCacheMemory.set(1);
+		List<Picture> pictures = new ArrayList<Picture>();
+		for (int i = 0; i < 10; i++) {
+			pictures.add(createPicture(writeImage(i + ".png", 250, 250)));
+			paint(pictures.get(i));
+			assertTrue(ImageCache.getEstimatedSize() <= 1024 * 1024);
+		}
+		long reads = ImageCache.getReads();
+		assertEquals(10L, reads);
+
+		// the most recent images are still cached, older ones are read again
+		paint(pictures.get(9));
+		assertEquals(reads, ImageCache.getReads());
+		assertNotNull(pictures.get(0).getImage());
+		assertEquals(reads + 1, ImageCache.getReads());
+		assertEquals(250, pictures.get(0).getWidth().intValue());
+	}
+
+	public void testChangedFileIsReadAgain() throws Exception {
+		File file = writeImage("changed.png", 100, 100);
+		Picture picture = createPicture(file);
+		assertEquals(100, picture.getImage().getWidth(null));
+		writeImage("changed.png", 120, 80);
+		picture.refresh();
+		assertEquals(120, picture.getImage().getWidth(null));
+		assertEquals(2L, ImageCache.getReads());
+	}
+
+	public void testLargeImagesAreReadSmallInBackground() throws Exception {
+		PerformanceSettings.ImageDecodeThreads.set(2);
+		File file = writeImage("large.jpg", 4000, 3000);
+		Picture picture = createPicture(file, "0.1");
+		picture.setPosition(10, 10);
+		assertEquals(400, picture.getWidth().intValue());
+		assertEquals(300, picture.getHeight());
+		assertEquals(0L, ImageCache.getReads());
+
+		// a placeholder is drawn until the image has been read
+		Color placeholder = new Color(paint(picture).getRGB(200, 150));
+		assertEquals(Color.LIGHT_GRAY, placeholder);
+		ImageCache.waitUntilRead();
+		assertEquals(Color.BLACK, new Color(paint(picture).getRGB(200, 150)));
+		assertEquals(1L, ImageCache.getReads());
+
+		// the image is read at an eighth of its size
+		Image image = ImageCache.getImage(file.getPath(), 8, null);
+		assertEquals(500, image.getWidth(null));
+		assertTrue(ImageCache.getEstimatedSize() < 2 * 1024 * 1024);
+
+		// and at full size when it is exported
+		assertEquals(4000, picture.getImage().getWidth(null));
+		assertEquals(2L, ImageCache.getReads());
+	}
+}
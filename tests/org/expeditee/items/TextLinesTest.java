@@ -0,0 +1,173 @@
+package org.expeditee.items;
+
+import java.awt.Dimension;
+import java.awt.HeadlessException;
+import java.awt.event.KeyEvent;
+import java.awt.geom.Point2D;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.expeditee.gui.FrameGraphics;
+
+public class TextLinesTest extends TestCase {
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		if (FrameGraphics.getMaxSize() == null) {
+			try {
+				FrameGraphics.setMaxSize(new Dimension(1024, 768));
+			} catch (HeadlessException e) {
+				// the frame size is set before the message bay needs a display
+			}
+		}
+	}
+
+	private static Text createText(String s) {
+		Text text = new Text(1, s);
+		text.setPosition(20, 40);
+		text.setWidth(300);
+		text.rebuild(true);
+		return text;
+	}
+
+	private static String words(int count) {
+		Random random = new Random(3);
+		StringBuffer words = new StringBuffer();
+		for (int i = 0; i < count; i++) {
+			for (int c = 2 + random.nextInt(8); c > 0; c--)
+				words.append((char) ('a' + random.nextInt(26)));
+			words.append(i % 50 == 49 ? '\n' : ' ');
+		}
+		return words.toString();
+	}
+
+	public void testTypingKeepsLines() {
+		Text text = createText(words(400));
+		assertTrue(text.getTextList().size() > 20);
+
+		Point2D.Float cursor = text.getParagraphStartPosition();
+		for (int i = 0; i < 10; i++)
+			cursor = text.moveCursor(Text.DOWN, cursor.x, cursor.y, false,
+					false);
+
+		Random random = new Random(5);
+		for (int k = 0; k < 60; k++) {
+			String key;
+			if (k % 7 == 6)
+				key = "" + (char) KeyEvent.VK_BACK_SPACE;
+			else if (k % 4 == 3)
+				key = " ";
+			else
+				key = "" + (char) ('a' + random.nextInt(26));
+			cursor = text.insertText(key, cursor.x, cursor.y);
+
+			// the lines are the same as if the text was laid out again
+			Text rebuilt = createText(text.getText());
+			assertEquals(rebuilt.getTextList(), text.getTextList());
+			assertEquals(rebuilt.getPolygon().getBounds(), text.getPolygon()
+					.getBounds());
+		}
+	}
+
+	public void testCopiesHaveSameLines() {
+		Text text = createText(words(100));
+		Text copy = text.copy();
+		assertEquals(text.getTextList(), copy.getTextList());
+		assertEquals(text.getPolygon().getBounds(), copy.getPolygon()
+				.getBounds());
+
+		copy.setWidth(150);
+		assertTrue(copy.getTextList().size() > text.getTextList().size());
+	}
+
+	/**
+	 * Times typing into a long text item, with the lines after the cursor
+	 * kept and with every line laid out again after each key as it was
+	 * before, then moving the cursor through it and copying it with its lines
+	 * shared and laid out again. Arguments: [words [keys]], 3000 words and
+	 * 2000 keys by default.
+	 */
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+		int keys = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		try {
+			FrameGraphics.setMaxSize(new Dimension(1024, 768));
+		} catch (HeadlessException e) {
+			// the frame size is set before the message bay needs a display
+		}
+		String words = words(count);
+
+		Text typed = createText(words);
+		System.out.println(count + " words, " + typed.getTextList().size()
+				+ " lines");
+		long kept = type(typed, keys, false);
+		Text relaid = createText(words);
+		long full = type(relaid, keys, true);
+		System.out.println("Typing: " + perKey(kept, keys)
+				+ "ms a key keeping lines, " + perKey(full, keys)
+				+ "ms a key laying out every line");
+		if (!createText(typed.getText()).getTextList().equals(
+				typed.getTextList())
+				|| !typed.getTextList().equals(relaid.getTextList()))
+			throw new IllegalStateException(
+					"Typed lines differ from a full layout");
+
+		int[] directions = new int[] { Text.DOWN, Text.RIGHT, Text.DOWN,
+				Text.LEFT, Text.UP, Text.RIGHT };
+		Point2D.Float cursor = typed.getParagraphStartPosition();
+		long start = System.nanoTime();
+		for (int i = 0; i < keys; i++)
+			cursor = typed.moveCursor(directions[i % directions.length],
+					cursor.x, cursor.y, false, false);
+		System.out.println("Cursor: " + perKey(System.nanoTime() - start, keys)
+				+ "ms a move");
+
+		// the texts laid out again differ, so they do not share lines
+		int copies = 100;
+		start = System.nanoTime();
+		for (int i = 0; i < copies; i++)
+			typed.copy();
+		long copied = System.nanoTime() - start;
+		start = System.nanoTime();
+		for (int i = 0; i < copies; i++)
+			createText(typed.getText() + i);
+		System.out.println("Copy: " + perKey(copied, copies)
+				+ "ms keeping lines, "
+				+ perKey(System.nanoTime() - start, copies)
+				+ "ms laying them out again");
+	}
+
+	/**
+	 * Types letters, spaces and backspaces part way down the text.
+	 *
+	 * @param relayout
+	 *            true if every line is laid out again after each key.
+	 * @return the nanoseconds taken.
+	 */
+	private static long type(Text text, int keys, boolean relayout) {
+		Point2D.Float cursor = text.getParagraphStartPosition();
+		for (int i = 0; i < text.getTextList().size() / 3; i++)
+			cursor = text.moveCursor(Text.DOWN, cursor.x, cursor.y, false,
+					false);
+		Random random = new Random(5);
+		long start = System.nanoTime();
+		for (int k = 0; k < keys; k++) {
+			String key;
+			if (k % 7 == 6)
+				key = "" + (char) KeyEvent.VK_BACK_SPACE;
+			else if (k % 4 == 3)
+				key = " ";
+			else
+				key = "" + (char) ('a' + random.nextInt(26));
+			cursor = text.insertText(key, cursor.x, cursor.y);
+			if (relayout)
+				text.rebuild(true);
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static String perKey(long nanos, int count) {
+		return String.format("%.2f", nanos / 1000000.0 / count);
+	}
+}
@@ -0,0 +1,569 @@
+package org.expeditee.network;
+
+import java.awt.Dimension;
+import java.awt.HeadlessException;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.expeditee.gui.Frame;
+import org.expeditee.gui.FrameFileIndex;
+import org.expeditee.gui.FrameGraphics;
+import org.expeditee.gui.FrameIO;
+import org.expeditee.gui.MessageBay;
+import org.expeditee.settings.network.NetworkSettings;
+
+public class FrameShareTest extends TestCase {
+
+	private static final int LARGE_FRAME_ITEMS = 500;
+
+	private static final int SMALL_FRAMES = 10000;
+
+	private static final int CLIENTS = 50;
+
+	private static final int CLIENT_REQUESTS = 20;
+
+	// the servers and peers are kept for the rest of the run, since the
+	// datagram servers can not be stopped until they receive a packet
+	private static File root = null;
+
+	private static Peer streaming;
+
+	private static Peer datagram;
+
+	private static FrameStreamServer streamServer;
+
+	private static String publicPath;
+
+	// a peer with only a FrameStreamServer, which is stopped and restarted
+	private static Peer restartable;
+
+	private static int restartablePort;
+
+	private static FrameStreamServer restartableServer;
+
+	private static File remoteRoot;
+
+	private static Peer[] silent = new Peer[3];
+
+	// sockets which are never answered, standing in for peers which are down
+	private static Collection<Closeable> silentSockets = new ArrayList<Closeable>();
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		NetworkSettings.FrameShareTimeout.set(250);
+		if (root != null)
+			return;
+
+		if (FrameGraphics.getMaxSize() == null) {
+			try {
+				FrameGraphics.setMaxSize(new Dimension(1024, 768));
+			} catch (HeadlessException e) {
+				// the frame size is set before the message bay needs a display
+			}
+		}
+		MessageBay.suppressMessages(true);
+
+		root = File.createTempFile("frameshare", "");
+		root.delete();
+		root.mkdirs();
+		root.deleteOnExit();
+		publicPath = FrameIO.PUBLIC_PATH;
+		FrameIO.PUBLIC_PATH = root.getPath() + File.separator;
+		remoteRoot = File.createTempFile("frameshareremote", "");
+		remoteRoot.delete();
+		remoteRoot.mkdirs();
+		remoteRoot.deleteOnExit();
+		FrameIO.REMOTE_PATH = remoteRoot.getPath() + File.separator;
+
+		// one peer runs every server, the other only the datagram servers
+		Random random = new Random();
+		int streamingPort = 0;
+		for (int attempt = 0; streamServer == null; attempt++) {
+			streamingPort = 20000 + random.nextInt(20000);
+			try {
+				streamServer = new FrameStreamServer(streamingPort);
+				startServers(streamingPort);
+			} catch (IOException e) {
+				streamServer = null;
+				if (attempt > 10)
+					throw e;
+			}
+		}
+		streamServer.start();
+		int datagramPort = 0;
+		for (int attempt = 0; datagramPort == 0; attempt++) {
+			datagramPort = 20000 + random.nextInt(20000);
+			try {
+				startServers(datagramPort);
+			} catch (IOException e) {
+				datagramPort = 0;
+				if (attempt > 10)
+					throw e;
+			}
+		}
+
+		for (int attempt = 0; restartableServer == null; attempt++) {
+			restartablePort = 20000 + random.nextInt(20000);
+			try {
+				restartableServer = new FrameStreamServer(restartablePort);
+			} catch (IOException e) {
+				if (attempt > 10)
+					throw e;
+			}
+		}
+		restartableServer.start();
+
+		Frame settings = new Frame();
+		settings.addText(200, 400, "restartable: 127.0.0.1 " + restartablePort,
+				null);
+		settings.addText(200, 200, "streaming: 127.0.0.1 " + streamingPort,
+				null);
+		settings.addText(200, 230, "datagram: 127.0.0.1 " + datagramPort,
+				null);
+		for (int i = 0; i < silent.length; i++) {
+			int port = 0;
+			for (int attempt = 0; port == 0; attempt++) {
+				port = 20000 + random.nextInt(20000);
+				try {
+					silentSockets.add(new DatagramSocket(port));
+					silentSockets.add(new ServerSocket(port + ImageServer.OFFSET));
+					silentSockets.add(new ServerSocket(port
+							+ FrameStreamServer.OFFSET));
+				} catch (IOException e) {
+					port = 0;
+					if (attempt > 10)
+						throw e;
+				}
+			}
+			settings.addText(200, 260 + 30 * i, "silent" + i + ": 127.0.0.1 "
+					+ port, null);
+		}
+		FrameShare.init(settings);
+		streaming = FrameShare.getInstance().getPeer("streaming");
+		datagram = FrameShare.getInstance().getPeer("datagram");
+		restartable = FrameShare.getInstance().getPeer("restartable");
+		for (int i = 0; i < silent.length; i++)
+			silent[i] = FrameShare.getInstance().getPeer("silent" + i);
+	}
+
+	protected void tearDown() throws Exception {
+		for (File dir : root.listFiles())
+			delete(dir);
+		for (File dir : remoteRoot.listFiles())
+			delete(dir);
+		FrameFileIndex.clear();
+		NetworkSettings.FrameShareTimeout.reset();
+		super.tearDown();
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File f : files)
+				delete(f);
+		}
+		file.delete();
+	}
+
+	private static void startServers(int port) throws IOException {
+		DefaultServer[] servers = { new FrameServer(port),
+				new FrameSaver(port), new ImageServer(port),
+				new ImageSaver(port) };
+		for (DefaultServer server : servers) {
+			server.setDaemon(true);
+			server.start();
+		}
+	}
+
+	private static String createFrame(String frameset, int number, int items,
+			int length) throws IOException {
+		File dir = new File(root, frameset);
+		dir.mkdirs();
+		FileWriter writer = new FileWriter(new File(dir, number + ".exp"));
+		writer.write("V 1\nZ\n\n");
+		StringBuilder text = new StringBuilder();
+		while (text.length() < length)
+			text.append("word").append(text.length()).append(' ');
+		for (int i = 1; i <= items; i++)
+			writer.write("S T " + i + "\nP 200 " + (200 + 20 * i) + "\nT " + number
+					+ " " + i + " " + text + "\n\n");
+		writer.write("Z\n\nZ\n\nZ\n");
+		writer.close();
+		return frameset + number;
+	}
+
+	private static String read(String frameName) throws IOException {
+		return new String(Files.readAllBytes(new File(FrameIO
+				.getFrameFullPathName(FrameIO.PUBLIC_PATH, frameName))
+				.toPath()), FrameShare.CHARSET);
+	}
+
+	public void testLargeFrames() throws Exception {
+		String[] names = new String[2];
+		for (int i = 0; i < names.length; i++)
+			names[i] = createFrame("largeshare", i + 1, LARGE_FRAME_ITEMS,
+					10000);
+		FrameFileIndex.clear();
+
+		FrameStream stream = new FrameStream(streaming, -1);
+		long bytes = 0;
+		long start = System.nanoTime();
+		for (String name : names) {
+			byte[] contents = stream.getFrame(name);
+			assertEquals(read(name), new String(contents, FrameShare.CHARSET));
+			bytes += contents.length;
+		}
+		long elapsed = System.nanoTime() - start;
+		stream.close();
+		assertTrue(bytes > names.length * 5 * 1000 * 1000);
+		System.out.println("Loaded " + names.length + " frames of "
+				+ (bytes / names.length / 1024) + "KB in "
+				+ (elapsed / 1000000) + "ms");
+
+		// the frames are loaded and saved back, with the peer saying whether
+		// the save succeeded
+		Frame frame = FrameShare.getInstance().loadFrame(names[0], "streaming");
+		assertEquals("streaming", frame.getPath());
+		assertEquals(LARGE_FRAME_ITEMS, frame.getBodyTextItems(false).size());
+		frame.addText(10, 10, "saved back", null);
+		FrameShare.getInstance().saveFrame(frame);
+		assertTrue(frame.isSaved());
+		FrameFileIndex.clear();
+		assertTrue(read(names[0]).contains("T saved back\n"));
+
+		// a peer which only runs the datagram servers can not send them
+		assertNull(FrameShare.getInstance().loadFrame(names[0], "datagram"));
+	}
+
+	public void testManySmallFrames() throws Exception {
+		for (int i = 1; i <= SMALL_FRAMES; i++)
+			createFrame("smallshare", i, 2, 20);
+		FrameFileIndex.clear();
+
+		// a pause for garbage collection must not time the connection out
+		NetworkSettings.FrameShareTimeout.set(5000);
+		FrameStream stream = new FrameStream(streaming, -1);
+		int connections = streamServer.getConnections();
+		long bytes = 0;
+		long start = System.nanoTime();
+		for (int i = 1; i <= SMALL_FRAMES; i++) {
+			byte[] contents = stream.getFrame("smallshare" + i);
+			assertNotNull(contents);
+			bytes += contents.length;
+		}
+		long elapsed = System.nanoTime() - start;
+		// every request was made over one connection
+		assertEquals(1, stream.getConnections());
+		assertEquals(connections + 1, streamServer.getConnections());
+		assertEquals(read("smallshare" + SMALL_FRAMES), new String(stream
+				.getFrame("smallshare" + SMALL_FRAMES), FrameShare.CHARSET));
+		stream.close();
+		System.out.println("Loaded " + SMALL_FRAMES + " frames of "
+				+ (bytes / SMALL_FRAMES) + " bytes in " + (elapsed / 1000000)
+				+ "ms");
+	}
+
+	public void testDatagramPeer() throws Exception {
+		String name = createFrame("smallshare", 1, 2, 20);
+		FrameFileIndex.clear();
+		Frame frame = FrameShare.getInstance().loadFrame(name, "datagram");
+		assertNotNull(frame);
+		assertEquals("datagram", frame.getPath());
+		assertEquals(2, frame.getBodyTextItems(false).size());
+
+		// the peer is found by asking every peer
+		frame = FrameShare.getInstance().loadFrame(name, null);
+		assertNotNull(frame);
+		assertEquals(2, frame.getBodyTextItems(false).size());
+	}
+
+	public void testErrorsAreReported() throws Exception {
+		FrameStream stream = new FrameStream(streaming, -1);
+		assertNull(stream.getFrame("noshare1"));
+
+		// there is no frameset to save the frame in
+		try {
+			stream.saveFrame("noshare1", 1, "V 1\n".getBytes());
+			fail();
+		} catch (FrameStream.FrameStreamException e) {
+			assertTrue(e.getMessage().contains("noshare1"));
+		}
+		// and the connection can still be used
+		createFrame("errorshare", 1, 1, 10);
+		FrameFileIndex.clear();
+		assertNotNull(stream.getFrame("errorshare1"));
+		assertEquals(1, stream.getConnections());
+		stream.close();
+
+		// a peer without a FrameStreamServer refuses the connection
+		stream = new FrameStream(datagram, -1);
+		try {
+			stream.getFrame("errorshare1");
+			fail();
+		} catch (java.net.ConnectException e) {
+		}
+		assertFalse(stream.isAvailable());
+	}
+
+	public void testSilentPeers() throws Exception {
+		String name = createFrame("peershare", 1, 2, 20);
+		FrameFileIndex.clear();
+		int timeout = NetworkSettings.FrameShareTimeout.get();
+
+		// the peers are asked at once, so the silent ones do not hold up the
+		// answer from the live ones
+		long start = System.nanoTime();
+		assertNotNull(FrameShare.getInstance().loadFrame(name, null));
+		long elapsed = (System.nanoTime() - start) / 1000000;
+		assertTrue(elapsed < timeout);
+		System.out.println("Found " + name + " among " + silent.length
+				+ " silent peers in " + elapsed + "ms");
+
+		// the silent peers are skipped once they have failed twice
+		assertNotNull(FrameShare.getInstance().loadFrame(name, null));
+		for (Peer peer : silent) {
+			for (int wait = 0; wait < 100 && peer.isAvailable(); wait++)
+				Thread.sleep(100);
+			assertFalse(peer.isAvailable());
+		}
+		assertTrue(streaming.isAvailable());
+		assertTrue(datagram.isAvailable());
+
+		// so a lookup no peer can answer does not wait for them either
+		start = System.nanoTime();
+		assertNull(FrameShare.getInstance().loadFrame("nopeershare1", null));
+		assertFalse(FrameShare.getInstance().loadImage("nopeershare.png", null));
+		elapsed = (System.nanoTime() - start) / 1000000;
+		assertTrue(elapsed < timeout);
+
+		// a peer which answers again is no longer skipped
+		silent[0].succeeded();
+		assertTrue(silent[0].isAvailable());
+		silent[0].failed();
+		assertTrue(silent[0].isAvailable());
+	}
+
+	public void testRemoteCopies() throws Exception {
+		String name = createFrame("copyshare", 1, 100, 10000);
+		FrameFileIndex.clear();
+		FrameShare share = FrameShare.getInstance();
+		FrameStream stream = share.getStream(restartable);
+
+		long bytes = stream.getBytesTransferred();
+		long start = System.nanoTime();
+		assertNotNull(share.loadFrame(name, "restartable"));
+		long firstTime = System.nanoTime() - start;
+		long firstBytes = stream.getBytesTransferred() - bytes;
+		assertTrue(firstBytes > 1000 * 1000);
+
+		// an unchanged frame is revalidated by its version instead of being
+		// sent again
+		int repeats = 20;
+		bytes = stream.getBytesTransferred();
+		start = System.nanoTime();
+		for (int i = 0; i < repeats; i++) {
+			Frame frame = share.loadFrame(name, "restartable");
+			assertEquals(100, frame.getBodyTextItems(false).size());
+		}
+		long repeatTime = (System.nanoTime() - start) / repeats;
+		long repeatBytes = (stream.getBytesTransferred() - bytes) / repeats;
+		assertTrue(repeatBytes < 100);
+		System.out.println("Loaded " + (firstBytes / 1024) + "KB frame in "
+				+ (firstTime / 1000000) + "ms, then again with " + repeatBytes
+				+ " bytes in " + (repeatTime / 1000) + "us");
+
+		// a changed frame is sent again
+		createFrame("copyshare", 1, 101, 10000);
+		String changed = read(name).replaceFirst("V 1", "V 2");
+		Files.write(new File(root, "copyshare/1.exp").toPath(), changed
+				.getBytes(FrameShare.CHARSET));
+		FrameFileIndex.clear();
+		assertEquals(101, share.loadFrame(name, "restartable")
+				.getBodyTextItems(false).size());
+
+		// the copy is read while the peer is stopped
+		restartableServer.close();
+		Frame frame = share.loadFrame(name, "restartable");
+		assertNotNull(frame);
+		assertEquals(101, frame.getBodyTextItems(false).size());
+
+		// and frames saved in the meantime are sent when it returns
+		frame.addText(200, 100, "saved while stopped", null);
+		share.saveFrame(frame);
+		assertTrue(frame.isSaved());
+		assertTrue(RemoteFrameCache.hasPendingWrite("restartable", name));
+		assertFalse(read(name).contains("saved while stopped"));
+		assertTrue(share.loadFrame(name, "restartable").getTextItems()
+				.toString().contains("saved while stopped"));
+
+		restartableServer = new FrameStreamServer(restartablePort);
+		restartableServer.start();
+		share.sendPendingWrites(restartable);
+		assertFalse(RemoteFrameCache.hasPendingWrite("restartable", name));
+		FrameFileIndex.clear();
+		assertTrue(read(name).contains("saved while stopped"));
+
+		// the copy is the version which was saved, so it is still current
+		bytes = stream.getBytesTransferred();
+		assertEquals(102, share.loadFrame(name, "restartable")
+				.getBodyTextItems(false).size());
+		assertTrue(stream.getBytesTransferred() - bytes < 100);
+	}
+
+	public void testManyClients() throws Exception {
+		final String name = createFrame("manyshare", 1, 20, 200);
+		FrameFileIndex.clear();
+		final String expected = read(name);
+		long requests = streamServer.getRequests();
+
+		// half a request does not hold up the other clients
+		Socket partial = new Socket("127.0.0.1", streaming.getPort()
+				+ FrameStreamServer.OFFSET);
+		DataOutputStream out = new DataOutputStream(partial.getOutputStream());
+		DataInputStream in = new DataInputStream(partial.getInputStream());
+		out.writeInt(FrameStreamServer.MAGIC);
+		out.writeInt(FrameStreamServer.VERSION);
+		out.writeInt(-1);
+		out.write(FrameStreamServer.GET_FRAME);
+		out.writeShort(name.length());
+		out.flush();
+		assertEquals(FrameStreamServer.MAGIC, in.readInt());
+		assertEquals(FrameStreamServer.VERSION, in.readInt());
+
+		final FrameStream[] streams = new FrameStream[CLIENTS];
+		final Collection<Throwable> failures = new ArrayList<Throwable>();
+		Thread[] clients = new Thread[CLIENTS];
+		for (int i = 0; i < CLIENTS; i++) {
+			streams[i] = new FrameStream(streaming, -1);
+			final FrameStream stream = streams[i];
+			clients[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int j = 0; j < CLIENT_REQUESTS; j++)
+							assertEquals(expected, new String(stream
+									.getFrame(name), FrameShare.CHARSET));
+					} catch (Throwable e) {
+						synchronized (failures) {
+							failures.add(e);
+						}
+					}
+				}
+			};
+			clients[i].start();
+		}
+		for (Thread client : clients)
+			client.join();
+		assertEquals(Collections.EMPTY_LIST, failures);
+		assertEquals(requests + CLIENTS * CLIENT_REQUESTS, streamServer
+				.getRequests());
+
+		// the rest of the request is answered once it arrives
+		out.write(name.getBytes(FrameShare.CHARSET));
+		out.flush();
+		assertEquals(FrameStreamServer.OK, in.read());
+		byte[] contents = new byte[in.readInt()];
+		in.readFully(contents);
+		assertEquals(expected, new String(contents, FrameShare.CHARSET));
+		partial.close();
+
+		// a frame saved by one client is sent to the others, rather than the
+		// copy kept in memory
+		String changed = expected.replace("word", "changed");
+		streams[0].saveFrame(name, 1, changed.getBytes(FrameShare.CHARSET));
+		assertEquals(changed, new String(streams[1].getFrame(name),
+				FrameShare.CHARSET));
+		for (FrameStream stream : streams)
+			stream.close();
+		System.out.println(streamServer.getStats());
+		System.out.println(PublicFrameCache.getStats());
+	}
+
+	/**
+	 * @return true if the reader thread of a FrameStreamServer is part way
+	 *         through reading a public frame.
+	 */
+	private static boolean isReading() {
+		for (Map.Entry<Thread, StackTraceElement[]> thread : Thread
+				.getAllStackTraces().entrySet()) {
+			if (!thread.getKey().getName().equals("FrameStreamReader"))
+				continue;
+			for (StackTraceElement element : thread.getValue()) {
+				if (element.getMethodName().equals("LoadPublicFrame"))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	public void testSlowReadDoesNotHoldUpServer() throws Exception {
+		String saved = createFrame("slowshare", 2, 5, 20);
+		String expected = read(saved);
+		// the file of the first frame is a pipe, which can not be read until
+		// something writes to it
+		File pipe = new File(root, "slowshare/1.exp");
+		Process mkfifo = new ProcessBuilder("mkfifo", pipe.getPath()).start();
+		assertEquals(0, mkfifo.waitFor());
+		FrameFileIndex.clear();
+
+		Socket slow = new Socket("127.0.0.1", streaming.getPort()
+				+ FrameStreamServer.OFFSET);
+		try {
+			DataOutputStream out = new DataOutputStream(slow.getOutputStream());
+			DataInputStream in = new DataInputStream(slow.getInputStream());
+			out.writeInt(FrameStreamServer.MAGIC);
+			out.writeInt(FrameStreamServer.VERSION);
+			out.writeInt(-1);
+			out.write(FrameStreamServer.GET_FRAME);
+			out.writeUTF("slowshare1");
+			out.flush();
+			assertEquals(FrameStreamServer.MAGIC, in.readInt());
+			assertEquals(FrameStreamServer.VERSION, in.readInt());
+			long deadline = System.currentTimeMillis() + 10000;
+			while (!isReading()) {
+				assertTrue(System.currentTimeMillis() < deadline);
+				Thread.sleep(10);
+			}
+
+			// other peers still connect and save frames while it is stuck
+			long start = System.nanoTime();
+			FrameStream stream = new FrameStream(streaming, -1);
+			String changed = expected.replace("word", "changed");
+			stream.saveFrame(saved, 1, changed.getBytes(FrameShare.CHARSET));
+			stream.close();
+			long elapsed = System.nanoTime() - start;
+			assertTrue(elapsed / 1000000 + "ms", elapsed < 1000 * 1000000L);
+			FrameFileIndex.clear();
+			assertEquals(changed, read(saved));
+			assertTrue(isReading());
+
+			// and the frame is sent once it can be read
+			FileOutputStream writer = new FileOutputStream(pipe);
+			writer.write(expected.getBytes(FrameShare.CHARSET));
+			writer.close();
+			assertEquals(FrameStreamServer.OK, in.read());
+			byte[] contents = new byte[in.readInt()];
+			in.readFully(contents);
+			assertEquals(expected, new String(contents, FrameShare.CHARSET));
+		} finally {
+			slow.close();
+			PublicFrameCache.discard("slowshare1");
+		}
+	}
+}